@@ -49,6 +49,8 @@ public class GeneratorGwt extends GeneratorJava {
      */
     public GeneratorGwt(org.apache.maven.plugin.logging.Log logger) {
         super(logger);
+        // GWT does not emulate java.util.concurrent.CompletableFuture
+        setSupportsFutures(false);
     }
 
     @Override
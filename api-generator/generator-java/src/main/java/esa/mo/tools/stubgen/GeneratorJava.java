@@ -39,6 +39,7 @@ import esa.mo.xsd.TypeReference;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -57,6 +58,22 @@ public class GeneratorJava extends GeneratorLangs {
      * The file name for package level comments.
      */
     public static final String JAVA_PACKAGE_COMMENT_FILE_NAME = "package-info";
+    /**
+     * The Java primitive type of the MAL attributes that can be held in a
+     * primitive backed list.
+     */
+    private static final Map<String, String> PRIMITIVE_LIST_TYPES = new HashMap<>();
+
+    static {
+        PRIMITIVE_LIST_TYPES.put(StdStrings.DOUBLE, "double");
+        PRIMITIVE_LIST_TYPES.put(StdStrings.FLOAT, "float");
+        PRIMITIVE_LIST_TYPES.put(StdStrings.INTEGER, "int");
+        PRIMITIVE_LIST_TYPES.put(StdStrings.LONG, "long");
+        PRIMITIVE_LIST_TYPES.put(StdStrings.OCTET, "byte");
+        PRIMITIVE_LIST_TYPES.put(StdStrings.SHORT, "short");
+    }
+
+    private boolean primitiveLists = false;
 
     /**
      * Constructor.
@@ -99,6 +116,7 @@ public class GeneratorJava extends GeneratorLangs {
 
         setRequiresDefaultConstructors(Boolean.valueOf(extraProperties.get("java.requiresDefaultConstructors")));
         setSupportFullyPolymorphicTypes(Boolean.valueOf(extraProperties.get("java.supportFullyPolymorphicTypes")));
+        primitiveLists = Boolean.parseBoolean(extraProperties.get("java.primitiveLists"));
 
         addAttributeType(StdStrings.MAL, StdStrings.BLOB, false, "Blob", "");
         addAttributeType(StdStrings.MAL, StdStrings.BOOLEAN, true, "Boolean", "Boolean.FALSE");
@@ -308,6 +326,12 @@ public class GeneratorJava extends GeneratorLangs {
      */
     protected void createConcreteListClass(File folder, AreaType area, ServiceType service,
             String srcTypeName, Long shortFormPart) throws IOException {
+        if (primitiveLists && (null == service) && StdStrings.MAL.equals(area.getName())
+                && PRIMITIVE_LIST_TYPES.containsKey(srcTypeName)) {
+            createPrimitiveListClass(folder, area, srcTypeName, shortFormPart);
+            return;
+        }
+
         String listName = srcTypeName + "List";
 
         TypeReference srcType = new TypeReference();
@@ -435,6 +459,265 @@ public class GeneratorJava extends GeneratorLangs {
         createFactoryClass(folder, area, service, listName, listType, false, false);
     }
 
+    /**
+     * Creates a list for a numeric MAL attribute that holds its values in an
+     * array of the Java primitive type instead of boxing each of them, the null
+     * elements are tracked in a bit set. The list encodes and decodes its
+     * values in bulk when the encoding extends the Encoder and Decoder classes
+     * of the API.
+     *
+     * @param folder The base folder to create the list in.
+     * @param area The Area of the list.
+     * @param srcTypeName The name of the element in the list.
+     * @param shortFormPart The short form part of the contained element.
+     * @throws IOException if there is a problem writing the file.
+     */
+    protected void createPrimitiveListClass(File folder, AreaType area,
+            String srcTypeName, Long shortFormPart) throws IOException {
+        String listName = srcTypeName + "List";
+        String primType = PRIMITIVE_LIST_TYPES.get(srcTypeName);
+        TypeReference srcType = TypeUtils.createTypeReference(area.getName(), null, srcTypeName, false);
+
+        getLog().info("Creating primitive list class " + listName);
+        ClassWriter file = createClassFile(folder, listName);
+
+        file.addPackageStatement(area, null, getConfig().getStructureFolder());
+
+        CompositeField elementType = createCompositeElementsDetails(file, false, "return",
+                TypeUtils.createTypeReference(StdStrings.MAL, null, StdStrings.ELEMENT, false),
+                true, true, null);
+        String fqSrcTypeName = createElementType(file, area, null, srcTypeName);
+        String fqListType = createElementType(file, StdStrings.MAL, null, StdStrings.ELEMENT) + "List";
+
+        file.addClassOpenStatement(listName, true, false, "java.util.AbstractList<" + fqSrcTypeName + ">",
+                fqListType + "<" + fqSrcTypeName + ">, java.util.RandomAccess",
+                "List class for " + srcTypeName + ", backed by an array of " + primType + " values.");
+
+        addTypeShortFormDetails(file, area, null, -shortFormPart);
+
+        file.addMultilineComment("The values of the list, the value of a null element is not used.");
+        file.addStatement("    private " + primType + "[] values;");
+        file.addMultilineComment("The indexes of the null elements of the list.");
+        file.addStatement("    private final java.util.BitSet nulls = new java.util.BitSet();");
+        file.addMultilineComment("The number of elements in the list.");
+        file.addStatement("    private int size;");
+        file.addStatement("");
+
+        CompositeField element = createCompositeElementsDetails(file, true, "element", srcType,
+                true, true, "List element.");
+        CompositeField value = createCompositeElementsDetails(file, false, "value",
+                TypeUtils.createTypeReference(null, null, primType, false), false, false, "The value.");
+        CompositeField index = createCompositeElementsDetails(file, false, "index",
+                TypeUtils.createTypeReference(null, null, "int", false), false, false, "The index of the element.");
+        CompositeField primRtype = createCompositeElementsDetails(file, false, "value",
+                TypeUtils.createTypeReference(null, null, primType, false), false, false, null);
+        CompositeField intRtype = createCompositeElementsDetails(file, false, "size",
+                TypeUtils.createTypeReference(null, null, "int", false), false, false, null);
+        CompositeField boolRtype = createCompositeElementsDetails(file, false, "element",
+                TypeUtils.createTypeReference(null, null, "boolean", false), false, false, null);
+        String outOfBounds = "  throw new IndexOutOfBoundsException(\"Index: \" + index + \", Size: \" + size)";
+
+        // create blank constructor
+        MethodWriter method = file.addConstructor(StdStrings.PUBLIC, listName, (List<CompositeField>) null,
+                null, null, "Default constructor for " + listName + ".", null);
+        method.addLine("values = new " + primType + "[10]");
+        method.addMethodCloseStatement();
+
+        // create initial size contructor
+        method = file.addConstructor(StdStrings.PUBLIC, listName,
+                createCompositeElementsDetails(file, false, "initialCapacity",
+                        TypeUtils.createTypeReference(null, null, "int", false),
+                        false, false, "initialCapacity the required initial capacity."),
+                false, null, "Constructor that initialises the capacity of the list.", null);
+        method.addLine("values = new " + primType + "[initialCapacity]");
+        method.addMethodCloseStatement();
+
+        // create contructor with ArrayList
+        method = file.addConstructor(StdStrings.PUBLIC, listName,
+                createCompositeElementsDetails(file, false, "elementList",
+                        TypeUtils.createTypeReference(null, null, "java.util.ArrayList<" + fqSrcTypeName + ">", false),
+                        false, false, "The ArrayList that is used for initialization."),
+                false, null, "Constructor that uses an ArrayList for initialization.", null);
+        method.addLine("values = new " + primType + "[elementList.size()]");
+        method.addLine("for(" + fqSrcTypeName + " e : elementList) {", false);
+        method.addLine("    add(e)");
+        method.addLine("}", false);
+        method.addMethodCloseStatement();
+
+        method = file.addMethodOpenStatement(true, false, StdStrings.PUBLIC, false, true, boolRtype, "add",
+                Arrays.asList(element), null, "Adds an element to the end of the list.", "The success status.", null);
+        method.addLine("ensureCapacity(size + 1)");
+        method.addLine("if (null == element) {", false);
+        method.addLine("  nulls.set(size)");
+        method.addLine("} else {", false);
+        method.addLine("  values[size] = element");
+        method.addLine("}", false);
+        method.addLine("size++");
+        method.addLine("modCount++");
+        method.addLine("return true");
+        method.addMethodCloseStatement();
+
+        method = file.addMethodOpenStatement(true, false, StdStrings.PUBLIC, false, true, null, "add",
+                Arrays.asList(index, element), null, "Inserts an element in the list.", null, null);
+        method.addLine("if (index < 0 || index > size) {", false);
+        method.addLine(outOfBounds);
+        method.addLine("}", false);
+        method.addLine("ensureCapacity(size + 1)");
+        method.addLine("System.arraycopy(values, index, values, index + 1, size - index)");
+        method.addLine("for (int i = size; i > index; i--) {", false);
+        method.addLine("  nulls.set(i, nulls.get(i - 1))");
+        method.addLine("}", false);
+        method.addLine("nulls.set(index, null == element)");
+        method.addLine("if (null != element) {", false);
+        method.addLine("  values[index] = element");
+        method.addLine("}", false);
+        method.addLine("size++");
+        method.addLine("modCount++");
+        method.addMethodCloseStatement();
+
+        method = file.addMethodOpenStatement(true, false, StdStrings.PUBLIC, false, true, element, "get",
+                Arrays.asList(index), null, "Returns an element of the list.", "The element, may be null.", null);
+        method.addLine("checkIndex(index)");
+        method.addLine("return nulls.get(index) ? null : " + fqSrcTypeName + ".valueOf(values[index])");
+        method.addMethodCloseStatement();
+
+        method = file.addMethodOpenStatement(true, false, StdStrings.PUBLIC, false, true, element, "set",
+                Arrays.asList(index, element), null, "Replaces an element of the list.", "The previous element.", null);
+        method.addLine(fqSrcTypeName + " previous = get(index)");
+        method.addLine("nulls.set(index, null == element)");
+        method.addLine("if (null != element) {", false);
+        method.addLine("  values[index] = element");
+        method.addLine("}", false);
+        method.addLine("return previous");
+        method.addMethodCloseStatement();
+
+        method = file.addMethodOpenStatement(true, false, StdStrings.PUBLIC, false, true, element, "remove",
+                Arrays.asList(index), null, "Removes an element from the list.", "The removed element.", null);
+        method.addLine(fqSrcTypeName + " previous = get(index)");
+        method.addLine("System.arraycopy(values, index + 1, values, index, size - index - 1)");
+        method.addLine("for (int i = index; i < size - 1; i++) {", false);
+        method.addLine("  nulls.set(i, nulls.get(i + 1))");
+        method.addLine("}", false);
+        method.addLine("size--");
+        method.addLine("nulls.clear(size)");
+        method.addLine("modCount++");
+        method.addLine("return previous");
+        method.addMethodCloseStatement();
+
+        method = file.addMethodOpenStatement(true, false, StdStrings.PUBLIC, false, true, intRtype, "size",
+                null, null, "Returns the number of elements in the list.", "The number of elements.", null);
+        method.addLine("return size");
+        method.addMethodCloseStatement();
+
+        method = file.addMethodOpenStatement(true, false, StdStrings.PUBLIC, false, true, null, "clear",
+                null, null, "Removes all the elements of the list.", null, null);
+        method.addLine("nulls.clear()");
+        method.addLine("size = 0");
+        method.addLine("modCount++");
+        method.addMethodCloseStatement();
+
+        method = file.addMethodOpenStatement(true, false, StdStrings.PUBLIC, false, true, null, "ensureCapacity",
+                Arrays.asList(createCompositeElementsDetails(file, false, "minCapacity",
+                        TypeUtils.createTypeReference(null, null, "int", false), false, false,
+                        "The number of elements the list must be able to hold.")),
+                null, "Increases the capacity of the list if needed.", null, null);
+        method.addLine("if (minCapacity > values.length) {", false);
+        method.addLine("  values = java.util.Arrays.copyOf(values, Math.max(minCapacity, values.length * 2))");
+        method.addLine("}", false);
+        method.addMethodCloseStatement();
+
+        method = file.addMethodOpenStatement(true, false, StdStrings.PUBLIC, false, true, boolRtype, "isNull",
+                Arrays.asList(index), null, "Returns whether an element of the list is null.",
+                "True if the element is null.", null);
+        method.addLine("checkIndex(index)");
+        method.addLine("return nulls.get(index)");
+        method.addMethodCloseStatement();
+
+        method = file.addMethodOpenStatement(true, false, StdStrings.PUBLIC, false, true, primRtype, "get" + srcTypeName,
+                Arrays.asList(index), null, "Returns an element of the list without boxing it.", "The element.",
+                Arrays.asList("NullPointerException if the element is null."));
+        method.addLine("checkIndex(index)");
+        method.addLine("if (nulls.get(index)) {", false);
+        method.addLine("  throw new NullPointerException(\"The element at index \" + index + \" is null\")");
+        method.addLine("}", false);
+        method.addLine("return values[index]");
+        method.addMethodCloseStatement();
+
+        method = file.addMethodOpenStatement(true, false, StdStrings.PUBLIC, false, true, null, "set" + srcTypeName,
+                Arrays.asList(index, value), null, "Replaces an element of the list without boxing it.", null, null);
+        method.addLine("checkIndex(index)");
+        method.addLine("nulls.clear(index)");
+        method.addLine("values[index] = value");
+        method.addMethodCloseStatement();
+
+        method = file.addMethodOpenStatement(true, false, StdStrings.PUBLIC, false, true, null, "add" + srcTypeName,
+                Arrays.asList(value), null, "Adds an element to the end of the list without boxing it.", null, null);
+        method.addLine("ensureCapacity(size + 1)");
+        method.addLine("values[size] = value");
+        method.addLine("size++");
+        method.addLine("modCount++");
+        method.addMethodCloseStatement();
+
+        method = file.addMethodOpenStatement(true, false, StdStrings.PRIVATE, false, true, null, "checkIndex",
+                Arrays.asList(index), null, "Checks that an index is within the list.", null, null);
+        method.addLine("if (index < 0 || index >= size) {", false);
+        method.addLine(outOfBounds);
+        method.addLine("}", false);
+        method.addMethodCloseStatement();
+
+        method = file.addMethodOpenStatement(true, false, StdStrings.PUBLIC, false, true, elementType,
+                "createElement", null, null,
+                "Creates an instance of this type using the default constructor. It is a generic factory method.",
+                "A new instance of this type with default field values.", null);
+        method.addLine("return new " + listName + "()");
+        method.addMethodCloseStatement();
+
+        // create encode method
+        method = encodeMethodOpen(file);
+        method.addLine("org.ccsds.moims.mo.mal.MALListEncoder listEncoder = encoder.createListEncoder(this)");
+        method.addLine("if (listEncoder instanceof org.ccsds.moims.mo.mal.encoding.Encoder) {", false);
+        method.addLine("  ((org.ccsds.moims.mo.mal.encoding.Encoder) listEncoder).encodeNullable"
+                + srcTypeName + "s(values, nulls, size)");
+        method.addLine("} else {", false);
+        method.addLine("  for (int i = 0; i < size; i++) {", false);
+        method.addLine("    listEncoder.encodeNullable" + element.getEncodeCall() + "(get(i))");
+        method.addLine("  }", false);
+        method.addLine("}", false);
+        method.addLine("listEncoder.close()");
+        method.addMethodCloseStatement();
+
+        // create decode method
+        method = decodeMethodOpen(file, elementType);
+        method.addLine("org.ccsds.moims.mo.mal.MALListDecoder listDecoder = decoder.createListDecoder(this)");
+        method.addLine("int decodedSize = listDecoder.size()");
+        method.addLine("if (decodedSize > 0) {", false);
+        method.addLine("  ensureCapacity(size + decodedSize)");
+        method.addLine("}", false);
+        method.addLine("if (decodedSize > 0 && listDecoder instanceof org.ccsds.moims.mo.mal.encoding.Decoder) {", false);
+        method.addLine("  ((org.ccsds.moims.mo.mal.encoding.Decoder) listDecoder).decodeNullable"
+                + srcTypeName + "s(values, nulls, size, decodedSize)");
+        method.addLine("  size += decodedSize");
+        method.addLine("  modCount++");
+        method.addLine("} else {", false);
+        method.addLine("  while (listDecoder.hasNext()) {", false);
+        method.addLine("    add(listDecoder.decodeNullable" + element.getDecodeCall() + "())");
+        method.addLine("  }", false);
+        method.addLine("}", false);
+        method.addLine("return this");
+        method.addMethodCloseStatement();
+
+        addShortFormMethods(file);
+
+        file.addClassCloseStatement();
+
+        file.flush();
+
+        srcType.setList(Boolean.TRUE);
+        CompositeField listType = createCompositeElementsDetails(file, false, null,
+                srcType, true, true, "List element.");
+        createFactoryClass(folder, area, null, listName, listType, false, false);
+    }
+
     @Override
     protected void addTypeShortForm(ClassWriter file, long sf) throws IOException {
         file.addMultilineComment("Short form for type.");
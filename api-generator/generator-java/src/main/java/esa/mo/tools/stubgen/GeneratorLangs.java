@@ -84,6 +84,7 @@ public abstract class GeneratorLangs extends GeneratorBase {
     private boolean supportsEquals;
     private boolean supportsToValue;
     private boolean supportsAsync;
+    private boolean supportsFutures;
     private boolean requiresDefaultConstructors;
     private boolean generateStructures;
     private boolean supportPolymorphic;
@@ -111,6 +112,7 @@ public abstract class GeneratorLangs extends GeneratorBase {
         this.supportsEquals = supportsEquals;
         this.supportsToValue = supportsToValue;
         this.supportsAsync = supportsAsync;
+        this.supportsFutures = supportsAsync;
         this.requiresDefaultConstructors = requiresDefaultConstructors;
         this.supportPolymorphic = false;
     }
@@ -301,6 +303,24 @@ public abstract class GeneratorLangs extends GeneratorBase {
         this.supportsAsync = supportsAsync;
     }
 
+    /**
+     * Does the generator need to generate future based operation methods.
+     *
+     * @return the supportsFutures
+     */
+    public boolean isSupportsFutures() {
+        return supportsFutures;
+    }
+
+    /**
+     * Sets the generator future support value.
+     *
+     * @param supportsFutures the supportsFutures to set
+     */
+    public void setSupportsFutures(boolean supportsFutures) {
+        this.supportsFutures = supportsFutures;
+    }
+
     /**
      * Does the generator need to generate default constructors on structures
      * and enumerations.
@@ -478,7 +498,7 @@ public abstract class GeneratorLangs extends GeneratorBase {
         // create a comment for the consumer folder if supported
         createServiceConsumerFolderComment(consumerFolder, area, service);
         createServiceConsumerInterface(consumerFolder, area, service, summary);
-        JavaConsumer consumer = new JavaConsumer(this, supportsToValue, supportsAsync);
+        JavaConsumer consumer = new JavaConsumer(this, supportsToValue, supportsAsync, supportsFutures);
         consumer.createServiceConsumerAdapter(consumerFolder, area, service, summary);
         consumer.createServiceConsumerStub(consumerFolder, area, service, summary);
     }
@@ -584,6 +604,13 @@ public abstract class GeneratorLangs extends GeneratorBase {
                                 "Asynchronous version of method " + op.getName(), "the MAL message sent to initiate the interaction",
                                 Arrays.asList(throwsInteractionException + " if there is a problem during the interaction as defined by the MAL specification.", throwsMALException + " if there is an implementation exception"));
                     }
+                    if (supportsFutures) {
+                        List<CompositeField> futureOpArgs = createOperationArguments(getConfig(), file, op.getArgTypes());
+                        file.addInterfaceMethodDeclaration(StdStrings.PUBLIC, createFutureReturnType(opRetType),
+                                "future" + StubUtils.preCap(op.getName()), futureOpArgs, throwsInteractionAndMALException,
+                                "Future based version of method " + op.getName(), "the future completed with the return value of the interaction",
+                                Arrays.asList(throwsInteractionException + " if there is a problem initiating the interaction as defined by the MAL specification.", throwsMALException + " if there is an implementation exception"));
+                    }
                     file.addInterfaceMethodDeclaration(StdStrings.PUBLIC, null, "continue" + StubUtils.preCap(op.getName()), continueOpArgs, throwsInteractionAndMALException, "Continues a previously started interaction", null,
                             Arrays.asList(throwsInteractionException + " if there is a problem during the interaction as defined by the MAL specification.", throwsMALException + " if there is an implementation exception"));
                     break;
@@ -601,6 +628,13 @@ public abstract class GeneratorLangs extends GeneratorBase {
                                 throwsInteractionAndMALException, "Asynchronous version of method " + op.getName(), "the MAL message sent to initiate the interaction",
                                 Arrays.asList(throwsInteractionException + " if there is a problem during the interaction as defined by the MAL specification.", throwsMALException + " if there is an implementation exception"));
                     }
+                    if (supportsFutures) {
+                        CompositeField futureRetType = createFutureReturnType(createReturnType(file, area, service, op.getName(), "Response", op.getRetTypes()));
+                        file.addInterfaceMethodDeclaration(StdStrings.PUBLIC, futureRetType, "future" + StubUtils.preCap(op.getName()), opArgs,
+                                throwsInteractionAndMALException, "Future based version of method " + op.getName() + ", the adapter receives the intermediate stages",
+                                "the future completed with the response value of the interaction",
+                                Arrays.asList(throwsInteractionException + " if there is a problem initiating the interaction as defined by the MAL specification.", throwsMALException + " if there is an implementation exception"));
+                    }
                     file.addInterfaceMethodDeclaration(StdStrings.PUBLIC, null, "continue" + StubUtils.preCap(op.getName()), continueOpArgs,
                             throwsInteractionAndMALException, "Continues a previously started interaction", null,
                             Arrays.asList(throwsInteractionException + " if there is a problem during the interaction as defined by the MAL specification.", throwsMALException + " if there is an implementation exception"));
@@ -2057,6 +2091,30 @@ public abstract class GeneratorLangs extends GeneratorBase {
         return null;
     }
 
+    /**
+     * Wraps a return type in a CompletableFuture, a missing return type
+     * becomes a future of Void.
+     *
+     * @param rtype The return type, may be null.
+     * @return The future type.
+     */
+    protected CompositeField createFutureReturnType(CompositeField rtype) {
+        String valueType = "Void";
+
+        if (null != rtype) {
+            valueType = rtype.getTypeName();
+
+            if (isNativeType(valueType)) {
+                valueType = getNativeType(valueType).getLanguageTypeName();
+            } else if (!rtype.isList() && isAttributeType(rtype.getTypeReference())) {
+                valueType = getAttributeDetails(rtype.getTypeReference()).getTargetType();
+            }
+        }
+
+        return new CompositeField("java.util.concurrent.CompletableFuture<" + valueType + ">", null,
+                "return", false, true, false, null, null, null, false, null, null);
+    }
+
     protected List<CompositeField> createOperationArguments(GeneratorConfiguration config, LanguageWriter file, List<TypeInfo> opArgs) {
         return createOperationArguments(config, file, opArgs, false);
     }
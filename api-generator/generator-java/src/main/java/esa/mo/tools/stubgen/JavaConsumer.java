@@ -48,11 +48,13 @@ public class JavaConsumer {
     private final GeneratorLangs generator;
     private final boolean supportsToValue;
     private final boolean supportsAsync;
+    private final boolean supportsFutures;
 
-    public JavaConsumer(GeneratorLangs generator, boolean supportsToValue, boolean supportsAsync) {
+    public JavaConsumer(GeneratorLangs generator, boolean supportsToValue, boolean supportsAsync, boolean supportsFutures) {
         this.generator = generator;
         this.supportsToValue = supportsToValue;
         this.supportsAsync = supportsAsync;
+        this.supportsFutures = supportsFutures;
     }
 
     protected void createServiceConsumerAdapter(File consumerFolder, AreaType area,
@@ -535,6 +537,19 @@ public class JavaConsumer {
                         method.addMethodCloseStatement();
                     }
 
+                    if (supportsFutures) {
+                        List<CompositeField> futureOpArgs = generator.createOperationArguments(generator.getConfig(), file, op.getArgTypes());
+                        method = file.addMethodOpenStatement(false, false, StdStrings.PUBLIC, false, true, generator.createFutureReturnType(opRetType),
+                                "future" + StubUtils.preCap(op.getName()), futureOpArgs, throwsInteractionAndMALException,
+                                "Future based version of method " + op.getName(), "the future completed with the return value of the interaction",
+                                Arrays.asList(throwsInteractionException + " if there is a problem initiating the interaction as defined by the MAL specification.", throwsMALException + " if there is an implementation exception"));
+                        String futureGet = consumerMethodCall + "future" + StubUtils.preCap(generator.createConsumerPatternCall(op))
+                                + "(" + operationInstanceVar + ", " + generator.createArgNameOrNull(op.getArgTypes()) + ")";
+                        createFutureReturn(file, method, futureGet, InteractionPatternEnum.SUBMIT_OP == op.getPattern(),
+                                op.getRetTypes(), opRetType, throwsMALException);
+                        method.addMethodCloseStatement();
+                    }
+
                     method = file.addMethodOpenStatement(false, false, StdStrings.PUBLIC, false, true, null,
                             "continue" + StubUtils.preCap(op.getName()), continueOpArgs, throwsInteractionAndMALException,
                             "Continues a previously started interaction", null,
@@ -572,6 +587,19 @@ public class JavaConsumer {
                         method.addMethodCloseStatement();
                     }
 
+                    if (supportsFutures) {
+                        CompositeField responseType = generator.createReturnType(file, area, service, op.getName(), "Response", op.getRetTypes());
+                        method = file.addMethodOpenStatement(false, false, StdStrings.PUBLIC, false, true, generator.createFutureReturnType(responseType),
+                                "future" + StubUtils.preCap(op.getName()), opArgs, throwsInteractionAndMALException,
+                                "Future based version of method " + op.getName() + ", the adapter receives the intermediate stages",
+                                "the future completed with the response value of the interaction",
+                                Arrays.asList(throwsInteractionException + " if there is a problem initiating the interaction as defined by the MAL specification.", throwsMALException + " if there is an implementation exception"));
+                        String futureGet = consumerMethodCall + "future" + StubUtils.preCap(generator.createConsumerPatternCall(op))
+                                + "(" + operationInstanceVar + ", adapter, " + generator.createArgNameOrNull(op.getArgTypes()) + ")";
+                        createFutureReturn(file, method, futureGet, false, op.getRetTypes(), responseType, throwsMALException);
+                        method.addMethodCloseStatement();
+                    }
+
                     method = file.addMethodOpenStatement(false, false, StdStrings.PUBLIC,
                             false, true, null, "continue" + StubUtils.preCap(op.getName()), continueOpArgs, throwsInteractionAndMALException, "Continues a previously started interaction", null,
                             Arrays.asList(throwsInteractionException + " if there is a problem during the interaction as defined by the MAL specification.", throwsMALException + " if there is an implementation exception"));
@@ -657,4 +685,87 @@ public class JavaConsumer {
             }
         }
     }
+
+    private void createFutureReturn(LanguageWriter file, MethodWriter method, String futureGet, boolean isVoid,
+            List<TypeInfo> targetTypes, CompositeField retType, String throwsMALException) throws IOException {
+        if ((null == targetTypes) || targetTypes.isEmpty()) {
+            if (isVoid) {
+                method.addLine("return " + futureGet);
+            } else {
+                method.addLine("return " + futureGet + ".thenAccept(body -> {", false);
+                method.addLine("})");
+            }
+            return;
+        }
+
+        method.addLine("return " + futureGet + ".thenApply(body -> {", false);
+        method.addLine("    try {", false);
+        MethodWriter lambda = new IndentedMethodWriter(method, "        ");
+
+        if (targetTypes.size() == 1) {
+            lambda.addLine("return " + generator.createOperationArgReturn(file, lambda, targetTypes.get(0), "body", 0));
+        } else {
+            StringBuilder buf = new StringBuilder();
+
+            for (int i = 0; i < targetTypes.size(); i++) {
+                if (i > 0) {
+                    buf.append(", ");
+                }
+                buf.append(generator.createOperationArgReturn(file, lambda, targetTypes.get(i), "body", i));
+            }
+
+            lambda.addLine("return new " + retType.getTypeName() + "(" + buf.toString() + ")");
+        }
+
+        method.addLine("    } catch (" + throwsMALException + " ex) {", false);
+        method.addLine("        throw new java.util.concurrent.CompletionException(ex)");
+        method.addLine("    }", false);
+        method.addLine("})");
+    }
+
+    /**
+     * Method writer that indents the lines of a nested block.
+     */
+    private static final class IndentedMethodWriter implements MethodWriter {
+
+        private final MethodWriter method;
+        private final String indent;
+
+        IndentedMethodWriter(MethodWriter method, String indent) {
+            this.method = method;
+            this.indent = indent;
+        }
+
+        @Override
+        public void addSuperMethodStatement(String superMethod, String args) throws IOException {
+            method.addSuperMethodStatement(superMethod, args);
+        }
+
+        @Override
+        public void addLine(String line) throws IOException {
+            method.addLine(indent + line);
+        }
+
+        @Override
+        public void addLine(String statement, boolean addSemi) throws IOException {
+            method.addLine(indent + statement, addSemi);
+        }
+
+        @Override
+        public void addMethodWithDependencyStatement(String statement,
+                String dependency, boolean addSemi) throws IOException {
+            method.addMethodWithDependencyStatement(indent + statement, dependency, addSemi);
+        }
+
+        @Override
+        public void addArrayMethodStatement(String arrayVariable,
+                String indexVariable, String arrayMaxSize) throws IOException {
+            method.addArrayMethodStatement(arrayVariable, indexVariable, arrayMaxSize);
+        }
+
+        @Override
+        public void addMethodCloseStatement() throws IOException {
+            method.addMethodCloseStatement();
+        }
+    }
 }
@@ -156,7 +156,7 @@ public class JavaHelpers {
             // method.addLine("long timestamp_2 = System.currentTimeMillis()");
 
             for (String typeCall : callableHashMap) {
-                method.addLine("elementsRegistry.addCallableElement(" + typeCall + ")");
+                method.addLine("elementsRegistry.addElementSupplier(" + typeCall + ")");
             }
 
             // method.addLine("timestamp_2 = System.currentTimeMillis() - timestamp_2");
@@ -326,7 +326,7 @@ public class JavaHelpers {
          */
         if (!callableHashMap.isEmpty()) {
             for (String typeCall : callableHashMap) {
-                method.addLine("elementsRegistry.addCallableElement(" + typeCall + ")");
+                method.addLine("elementsRegistry.addElementSupplier(" + typeCall + ")");
             }
         }
 
@@ -0,0 +1,161 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java API
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.support;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the encoded form of the body parts shared by the NOTIFY messages of a
+ * single PUBLISH. A broker creates one cache per PUBLISH and passes it to the
+ * transport in the QoS properties of each NOTIFY message, under the
+ * QOS_PROPERTY key, so that a shared update list is encoded once for all the
+ * consumers. The cache is dropped with the last NOTIFY message of the PUBLISH.
+ * A transport that delivers a NOTIFY message without encoding it removes the
+ * cache from its QoS properties first, so that it never reaches a consumer.
+ *
+ * The parts are matched on identity, the shared update lists must not be
+ * modified once they have been handed to the transport.
+ */
+public final class EncodedPartCache {
+
+    /**
+     * The message QoS property that holds the cache of a NOTIFY message.
+     */
+    public static final String QOS_PROPERTY = "org.ccsds.moims.mo.mal.encoding.notify.parts";
+
+    private final Map<Key, byte[]> entries = new HashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+
+    /**
+     * Returns the encoded form of a body part.
+     *
+     * @param part The body part.
+     * @param encoding The stream factory the part is encoded with.
+     * @param operation The operation of the message.
+     * @param index The index of the part in the body.
+     * @return The encoded part, or null if it is not held.
+     */
+    public synchronized byte[] get(final Object part, final Object encoding,
+            final Object operation, final int index) {
+        final byte[] encoded = entries.get(new Key(part, encoding, operation, index));
+
+        if (null != encoded) {
+            hits.incrementAndGet();
+        }
+
+        return encoded;
+    }
+
+    /**
+     * Holds the encoded form of a body part.
+     *
+     * @param part The body part.
+     * @param encoding The stream factory the part is encoded with.
+     * @param operation The operation of the message.
+     * @param index The index of the part in the body.
+     * @param encoded The encoded part.
+     */
+    public synchronized void put(final Object part, final Object encoding,
+            final Object operation, final int index, final byte[] encoded) {
+        entries.put(new Key(part, encoding, operation, index), encoded);
+    }
+
+    /**
+     * Returns the number of encoded parts held.
+     *
+     * @return The number of parts.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of body parts served from the cache.
+     *
+     * @return The hit count.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the cache held by the QoS properties of a message.
+     *
+     * @param qosProperties The QoS properties, may be null.
+     * @return The cache, or null if there is none.
+     */
+    public static EncodedPartCache fromQoSProperties(final Map qosProperties) {
+        if (null == qosProperties) {
+            return null;
+        }
+
+        final Object cache = qosProperties.get(QOS_PROPERTY);
+        return (cache instanceof EncodedPartCache) ? (EncodedPartCache) cache : null;
+    }
+
+    /**
+     * Removes the cache from the QoS properties of a message.
+     *
+     * @param qosProperties The QoS properties, may be null.
+     */
+    public static void removeFromQoSProperties(final Map qosProperties) {
+        if (null != fromQoSProperties(qosProperties)) {
+            qosProperties.remove(QOS_PROPERTY);
+        }
+    }
+
+    private static final class Key {
+
+        private final Object part;
+        private final Object encoding;
+        private final Object operation;
+        private final int index;
+
+        private Key(final Object part, final Object encoding,
+                final Object operation, final int index) {
+            this.part = part;
+            this.encoding = encoding;
+            this.operation = operation;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            final Key other = (Key) obj;
+            return (part == other.part) && (encoding == other.encoding)
+                    && (operation == other.operation) && (index == other.index);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = System.identityHashCode(part);
+            hash = 31 * hash + System.identityHashCode(encoding);
+            hash = 31 * hash + System.identityHashCode(operation);
+            return 31 * hash + index;
+        }
+    }
+}
@@ -21,26 +21,55 @@
 package org.ccsds.moims.mo.mal;
 
 import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.function.Supplier;
 import org.ccsds.moims.mo.mal.structures.Element;
 import org.ccsds.moims.mo.mal.structures.ElementList;
 
 /**
  * Holds a map of MAL Elements indexed on the absolute short form part. Used to
  * lookup the correct elements for a supplied absolute short form part.
+ *
+ * The elements are registered when the Helpers are initialised and looked up
+ * for every polymorphic element that is decoded. The lookups use an immutable
+ * index of the registered elements that is rebuilt on the first lookup after
+ * the set of elements has changed, so they take no lock and do not box the
+ * short form.
  */
 public class MALElementsRegistry {
 
-    private final HashMap<Long, Callable<Element>> ELEMENTS = new java.util.HashMap<>(128);
+    private final HashMap<Long, Supplier<Element>> ELEMENTS = new java.util.HashMap<>(128);
+    private volatile Index index = null;
+
+    /**
+     * Adds an Element to the map of Elements.
+     *
+     * @param absoluteSFP The absolute short form part.
+     * @param supplier The method with the generation of the Element.
+     */
+    public synchronized void addElementSupplier(long absoluteSFP, Supplier<Element> supplier) {
+        ELEMENTS.put(absoluteSFP, supplier);
+        index = null;
+    }
 
     /**
      * Adds an Element to the map of Elements.
      *
      * @param absoluteSFP The absolute short form part.
      * @param callable The method with the generation of the Element.
+     * @deprecated Use {@link #addElementSupplier(long, Supplier)} instead.
      */
-    public synchronized void addCallableElement(Long absoluteSFP, Callable<Element> callable) {
-        ELEMENTS.put(absoluteSFP, callable);
+    @Deprecated
+    public void addCallableElement(Long absoluteSFP, Callable<Element> callable) {
+        addElementSupplier(absoluteSFP, () -> {
+            try {
+                return callable.call();
+            } catch (Exception ex) {
+                throw new IllegalStateException("The element could not be created: "
+                        + absoluteSFP, ex);
+            }
+        });
     }
 
     /**
@@ -48,8 +77,20 @@ public class MALElementsRegistry {
      *
      * @param absoluteSFP The absolute short form part.
      */
-    public synchronized void removeCallableElement(Long absoluteSFP) {
+    public synchronized void removeElementSupplier(long absoluteSFP) {
         ELEMENTS.remove(absoluteSFP);
+        index = null;
+    }
+
+    /**
+     * Removes an Element from the map of Elements.
+     *
+     * @param absoluteSFP The absolute short form part.
+     * @deprecated Use {@link #removeElementSupplier(long)} instead.
+     */
+    @Deprecated
+    public void removeCallableElement(Long absoluteSFP) {
+        removeElementSupplier(absoluteSFP);
     }
 
     /**
@@ -57,7 +98,7 @@ public class MALElementsRegistry {
      *
      * @return The number of elements.
      */
-    public int howMany() {
+    public synchronized int howMany() {
         return ELEMENTS.size();
     }
 
@@ -68,16 +109,53 @@ public class MALElementsRegistry {
      * @return The created Element.
      * @throws NotFoundException if the element was not found.
      */
-    public Element createElement(Long absoluteSFP) throws Exception {
-        Callable<Element> callable = ELEMENTS.get(absoluteSFP);
+    public Element createElement(long absoluteSFP) throws NotFoundException {
+        Index idx = getIndex();
+        int i = idx.find(absoluteSFP);
 
-        if (callable == null) {
+        if (i < 0) {
             int area = (int) (absoluteSFP >> 48);
             throw new NotFoundException("The element was not found: " + absoluteSFP
                     + "\nArea: " + area);
         }
 
-        return callable.call();
+        return idx.suppliers[i].get();
+    }
+
+    /**
+     * Creates an element from the absolute short form part.
+     *
+     * @param absoluteSFP The absolute short form part.
+     * @return The created Element.
+     * @throws Exception if the element was not found.
+     * @deprecated Use {@link #createElement(long)} instead.
+     */
+    @Deprecated
+    public Element createElement(Long absoluteSFP) throws Exception {
+        return createElement(absoluteSFP.longValue());
+    }
+
+    /**
+     * Creates the list type of an element from the absolute short form part of
+     * the element, or the element type of a list from the absolute short form
+     * part of the list.
+     *
+     * @param absoluteSFP The absolute short form part of the element or list.
+     * @return The created list or element.
+     * @throws NotFoundException if the element or its counterpart was not
+     * found.
+     */
+    public Element createCounterpart(long absoluteSFP) throws NotFoundException {
+        Index idx = getIndex();
+        int i = idx.find(absoluteSFP);
+
+        if ((i < 0) || (idx.counterparts[i] < 0)) {
+            int area = (int) (absoluteSFP >> 48);
+            throw new NotFoundException("The counterpart of the element was not found: "
+                    + absoluteSFP + "\nArea: " + area);
+        }
+
+        return idx.suppliers[idx.counterparts[i]].get();
     }
 
     /**
@@ -92,11 +170,8 @@ public class MALElementsRegistry {
             return null;
         }
 
-        long l = obj.getShortForm();
-        long ll = (-((l) & 0xFFFFFFL)) & 0xFFFFFFL + (l & 0xFFFFFFFFFF000000L);
-
         try {
-            return (ElementList) MALContextFactory.getElementsRegistry().createElement(ll);
+            return (ElementList) MALContextFactory.getElementsRegistry().createCounterpart(obj.getShortForm());
         } catch (Exception ex) {
             throw new NotFoundException("The element could not be found in the MAL ElementFactory!"
                     + " The object type is: " + obj.getClass().getSimpleName()
@@ -117,11 +192,8 @@ public class MALElementsRegistry {
             return null;
         }
 
-        long l = obj.getShortForm();
-        long ll = (-((l) & 0xFFFFFFL)) & 0xFFFFFFL + (l & 0xFFFFFFFFFF000000L);
-
         try {
-            return MALContextFactory.getElementsRegistry().createElement(ll);
+            return MALContextFactory.getElementsRegistry().createCounterpart(obj.getShortForm());
         } catch (Exception ex) {
             throw new NotFoundException("The element could not be found in the MAL ElementFactory!"
                     + " The object type is: " + obj.getClass().getSimpleName()
@@ -129,4 +201,95 @@ public class MALElementsRegistry {
                     + " Try initializing the Service Helper of this object.", ex);
         }
     }
+
+    /**
+     * Returns the absolute short form part of the list type of an element, or
+     * of the element type of a list, as the type part of a list is the negated
+     * type part of its element.
+     *
+     * @param absoluteSFP The absolute short form part.
+     * @return The absolute short form part of the counterpart.
+     */
+    public static long counterpartShortForm(long absoluteSFP) {
+        return (absoluteSFP & 0xFFFFFFFFFF000000L) | ((-absoluteSFP) & 0xFFFFFFL);
+    }
+
+    private Index getIndex() {
+        Index idx = index;
+
+        if (idx == null) {
+            synchronized (this) {
+                idx = index;
+
+                if (idx == null) {
+                    idx = new Index(ELEMENTS);
+                    index = idx;
+                }
+            }
+        }
+
+        return idx;
+    }
+
+    /**
+     * Immutable index of the registered elements. The short forms are held in
+     * an open addressing table that maps them to a dense position, the
+     * suppliers and the position of the list or element counterpart of each
+     * type are held in arrays at that position.
+     */
+    private static final class Index {
+
+        private final long[] keys;
+        private final int[] slots;
+        private final int mask;
+        private final Supplier<Element>[] suppliers;
+        private final int[] counterparts;
+
+        @SuppressWarnings("unchecked")
+        private Index(Map<Long, Supplier<Element>> elements) {
+            int capacity = Integer.highestOneBit(Math.max(elements.size(), 8) * 2 - 1) << 1;
+            keys = new long[capacity];
+            slots = new int[capacity];
+            mask = capacity - 1;
+            suppliers = new Supplier[elements.size()];
+            counterparts = new int[elements.size()];
+
+            int position = 0;
+            for (Map.Entry<Long, Supplier<Element>> entry : elements.entrySet()) {
+                int slot = hash(entry.getKey()) & mask;
+
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+
+                keys[slot] = entry.getKey();
+                slots[slot] = position + 1;
+                suppliers[position] = entry.getValue();
+                position++;
+            }
+
+            for (Map.Entry<Long, Supplier<Element>> entry : elements.entrySet()) {
+                counterparts[find(entry.getKey())] = find(counterpartShortForm(entry.getKey()));
+            }
+        }
+
+        private int find(long absoluteSFP) {
+            int slot = hash(absoluteSFP) & mask;
+
+            while (slots[slot] != 0) {
+                if (keys[slot] == absoluteSFP) {
+                    return slots[slot] - 1;
+                }
+
+                slot = (slot + 1) & mask;
+            }
+
+            return -1;
+        }
+
+        private static int hash(long absoluteSFP) {
+            long h = absoluteSFP * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
 }
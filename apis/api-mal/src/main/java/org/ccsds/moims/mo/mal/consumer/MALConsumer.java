@@ -20,6 +20,7 @@
  */
 package org.ccsds.moims.mo.mal.consumer;
 
+import java.util.concurrent.CompletableFuture;
 import org.ccsds.moims.mo.mal.*;
 import org.ccsds.moims.mo.mal.structures.*;
 import org.ccsds.moims.mo.mal.transport.MALEncodedBody;
@@ -433,6 +434,95 @@ public interface MALConsumer {
     MALMessage asyncDeregister(MALPubSubOperation op, IdentifierList subscriptionIdList, MALInteractionListener listener)
             throws java.lang.IllegalArgumentException, MALInteractionException, MALException;
 
+    /**
+     * The method initiates an asynchronous SUBMIT interaction and returns a
+     * future completed by its ACK or ERROR. The future completes on the thread
+     * receiving the reply, dependent stages must not block it.
+     *
+     * @param op The operation being initiated.
+     * @param body The elements of the message body.
+     * @return the future completed with null on ACK.
+     * @throws java.lang.IllegalArgumentException If the parameter ‘op’ is NULL
+     * @throws MALException thrown if a non-MAL error occurs during the
+     * initiation message sending or if the MALConsumer is closed.
+     * @throws MALInteractionException if a MAL standard error occurs during the
+     * initiation
+     */
+    default CompletableFuture<Void> futureSubmit(MALSubmitOperation op, Object... body)
+            throws java.lang.IllegalArgumentException, MALInteractionException, MALException {
+        final MALInteractionFuture future = new MALInteractionFuture();
+        asyncSubmit(op, future, body);
+        return future.getFuture().thenAccept(ack -> {
+        });
+    }
+
+    /**
+     * The method initiates an asynchronous REQUEST interaction and returns a
+     * future completed by its RESPONSE or ERROR. The future completes on the
+     * thread receiving the reply, dependent stages must not block it.
+     *
+     * @param op The operation being initiated.
+     * @param body The elements of the message body.
+     * @return the future completed with the RESPONSE message body.
+     * @throws java.lang.IllegalArgumentException If the parameter ‘op’ is NULL
+     * @throws MALException thrown if a non-MAL error occurs during the
+     * initiation message sending or if the MALConsumer is closed.
+     * @throws MALInteractionException if a MAL standard error occurs during the
+     * initiation
+     */
+    default CompletableFuture<MALMessageBody> futureRequest(MALRequestOperation op, Object... body)
+            throws java.lang.IllegalArgumentException, MALInteractionException, MALException {
+        final MALInteractionFuture future = new MALInteractionFuture();
+        asyncRequest(op, future, body);
+        return future.getFuture();
+    }
+
+    /**
+     * The method initiates an asynchronous INVOKE interaction and returns a
+     * future completed by its RESPONSE or by an ERROR. The future completes on
+     * the thread receiving the reply, dependent stages must not block it.
+     *
+     * @param op The operation being initiated.
+     * @param listener Listener receiving the ACK, may be null.
+     * @param body The elements of the message body.
+     * @return the future completed with the RESPONSE message body.
+     * @throws java.lang.IllegalArgumentException If the parameter ‘op’ is NULL
+     * @throws MALException thrown if a non-MAL error occurs during the
+     * initiation message sending or if the MALConsumer is closed.
+     * @throws MALInteractionException if a MAL standard error occurs during the
+     * initiation
+     */
+    default CompletableFuture<MALMessageBody> futureInvoke(MALInvokeOperation op,
+            MALInteractionListener listener, Object... body)
+            throws java.lang.IllegalArgumentException, MALInteractionException, MALException {
+        final MALInteractionFuture future = new MALInteractionFuture(listener);
+        asyncInvoke(op, future, body);
+        return future.getFuture();
+    }
+
+    /**
+     * The method initiates an asynchronous PROGRESS interaction and returns a
+     * future completed by its RESPONSE or by an ERROR. The future completes on
+     * the thread receiving the reply, dependent stages must not block it.
+     *
+     * @param op The operation being initiated.
+     * @param listener Listener receiving the ACK and the UPDATEs, may be null.
+     * @param body The elements of the message body.
+     * @return the future completed with the RESPONSE message body.
+     * @throws java.lang.IllegalArgumentException If the parameter ‘op’ is NULL
+     * @throws MALException thrown if a non-MAL error occurs during the
+     * initiation message sending or if the MALConsumer is closed.
+     * @throws MALInteractionException if a MAL standard error occurs during the
+     * initiation
+     */
+    default CompletableFuture<MALMessageBody> futureProgress(MALProgressOperation op,
+            MALInteractionListener listener, Object... body)
+            throws java.lang.IllegalArgumentException, MALInteractionException, MALException {
+        final MALInteractionFuture future = new MALInteractionFuture(listener);
+        asyncProgress(op, future, body);
+        return future.getFuture();
+    }
+
     /**
      * The method continues an interaction that has been interrupted.
      *
@@ -0,0 +1,170 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java API
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package org.ccsds.moims.mo.mal.consumer;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.transport.MALErrorBody;
+import org.ccsds.moims.mo.mal.transport.MALMessageBody;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+
+/**
+ * The MALInteractionFuture class bridges the MALInteractionListener callbacks
+ * of an asynchronous interaction to a CompletableFuture. The future completes
+ * with the body of the last stage of the interaction, the SUBMIT ACK completes
+ * it with null, and any error stage completes it exceptionally with a
+ * MALInteractionException.
+ *
+ * The intermediate stages, INVOKE and PROGRESS ACK and PROGRESS UPDATE, are
+ * passed to an optional delegate listener. The future is completed from the
+ * thread delivering the message, so the dependent stages without an executor
+ * run on that thread and must not block.
+ */
+public class MALInteractionFuture extends MALInteractionAdapter {
+
+    private final CompletableFuture<MALMessageBody> future = new CompletableFuture<>();
+    private final MALInteractionListener listener;
+
+    /**
+     * Creates a future without delegate listener.
+     */
+    public MALInteractionFuture() {
+        this(null);
+    }
+
+    /**
+     * Creates a future passing the intermediate stages to a listener.
+     *
+     * @param listener The listener of the intermediate stages, may be null.
+     */
+    public MALInteractionFuture(final MALInteractionListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the future completed by the last stage of the interaction.
+     *
+     * @return The future.
+     */
+    public CompletableFuture<MALMessageBody> getFuture() {
+        return future;
+    }
+
+    @Override
+    public void submitAckReceived(final MALMessageHeader header,
+            final Map qosProperties) throws MALException {
+        future.complete(null);
+    }
+
+    @Override
+    public void submitErrorReceived(final MALMessageHeader header,
+            final MALErrorBody body, final Map qosProperties) throws MALException {
+        fail(body);
+    }
+
+    @Override
+    public void requestResponseReceived(final MALMessageHeader header,
+            final MALMessageBody body, final Map qosProperties) throws MALException {
+        future.complete(body);
+    }
+
+    @Override
+    public void requestErrorReceived(final MALMessageHeader header,
+            final MALErrorBody body, final Map qosProperties) throws MALException {
+        fail(body);
+    }
+
+    @Override
+    public void invokeAckReceived(final MALMessageHeader header,
+            final MALMessageBody body, final Map qosProperties) throws MALException {
+        if (null != listener) {
+            listener.invokeAckReceived(header, body, qosProperties);
+        }
+    }
+
+    @Override
+    public void invokeAckErrorReceived(final MALMessageHeader header,
+            final MALErrorBody body, final Map qosProperties) throws MALException {
+        fail(body);
+    }
+
+    @Override
+    public void invokeResponseReceived(final MALMessageHeader header,
+            final MALMessageBody body, final Map qosProperties) throws MALException {
+        future.complete(body);
+    }
+
+    @Override
+    public void invokeResponseErrorReceived(final MALMessageHeader header,
+            final MALErrorBody body, final Map qosProperties) throws MALException {
+        fail(body);
+    }
+
+    @Override
+    public void progressAckReceived(final MALMessageHeader header,
+            final MALMessageBody body, final Map qosProperties) throws MALException {
+        if (null != listener) {
+            listener.progressAckReceived(header, body, qosProperties);
+        }
+    }
+
+    @Override
+    public void progressAckErrorReceived(final MALMessageHeader header,
+            final MALErrorBody body, final Map qosProperties) throws MALException {
+        fail(body);
+    }
+
+    @Override
+    public void progressUpdateReceived(final MALMessageHeader header,
+            final MALMessageBody body, final Map qosProperties) throws MALException {
+        if (null != listener) {
+            listener.progressUpdateReceived(header, body, qosProperties);
+        }
+    }
+
+    @Override
+    public void progressUpdateErrorReceived(final MALMessageHeader header,
+            final MALErrorBody body, final Map qosProperties) throws MALException {
+        fail(body);
+    }
+
+    @Override
+    public void progressResponseReceived(final MALMessageHeader header,
+            final MALMessageBody body, final Map qosProperties) throws MALException {
+        future.complete(body);
+    }
+
+    @Override
+    public void progressResponseErrorReceived(final MALMessageHeader header,
+            final MALErrorBody body, final Map qosProperties) throws MALException {
+        fail(body);
+    }
+
+    private void fail(final MALErrorBody body) {
+        try {
+            future.completeExceptionally(new MALInteractionException(body.getError()));
+        } catch (MALException ex) {
+            future.completeExceptionally(ex);
+        }
+    }
+}
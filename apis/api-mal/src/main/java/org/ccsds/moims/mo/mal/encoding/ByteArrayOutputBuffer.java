@@ -0,0 +1,270 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java API
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package org.ccsds.moims.mo.mal.encoding;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A growable byte array to encode into. Unlike ByteArrayOutputStream it is not
+ * synchronized, it offers bulk writes of the fixed and variable length integer
+ * fields, and it can be reset and reused for the next message. It is meant to
+ * be owned by a single thread.
+ *
+ * The stream holders of the binary encodings detect it and write their fields
+ * straight into the array.
+ */
+public final class ByteArrayOutputBuffer extends OutputStream {
+
+    /**
+     * Default initial capacity of the buffer.
+     */
+    public static final int DEFAULT_CAPACITY = 512;
+
+    /**
+     * Largest array kept over a reset, bigger ones are dropped so that one
+     * large message does not pin its memory for the lifetime of the buffer.
+     */
+    public static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+    private final int initialCapacity;
+    private byte[] buf;
+    private int count = 0;
+
+    /**
+     * Constructor.
+     */
+    public ByteArrayOutputBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param initialCapacity The initial capacity of the buffer.
+     */
+    public ByteArrayOutputBuffer(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Negative initial capacity: " + initialCapacity);
+        }
+
+        this.initialCapacity = initialCapacity;
+        this.buf = new byte[initialCapacity];
+    }
+
+    @Override
+    public void write(int b) {
+        if (count == buf.length) {
+            grow(count + 1);
+        }
+
+        buf[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if ((off < 0) || (len < 0) || (len > b.length - off)) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        ensureCapacity(len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+
+    @Override
+    public void write(byte[] b) {
+        write(b, 0, b.length);
+    }
+
+    /**
+     * Writes a 16 bit value in network byte order.
+     *
+     * @param value The value, only the lower 16 bits are written.
+     */
+    public void writeShort(int value) {
+        ensureCapacity(2);
+        buf[count] = (byte) (value >>> 8);
+        buf[count + 1] = (byte) value;
+        count += 2;
+    }
+
+    /**
+     * Writes a 32 bit value in network byte order.
+     *
+     * @param value The value.
+     */
+    public void writeInt(int value) {
+        ensureCapacity(4);
+        putInt(buf, count, value);
+        count += 4;
+    }
+
+    /**
+     * Writes a 64 bit value in network byte order.
+     *
+     * @param value The value.
+     */
+    public void writeLong(long value) {
+        ensureCapacity(8);
+        putInt(buf, count, (int) (value >>> 32));
+        putInt(buf, count + 4, (int) value);
+        count += 8;
+    }
+
+    /**
+     * Writes an unsigned variable length integer, seven bits per byte with
+     * the most significant bit set on all bytes but the last.
+     *
+     * @param value The value, treated as unsigned.
+     */
+    public void writeVarInt(int value) {
+        ensureCapacity(5);
+
+        while ((value & -128) != 0) {
+            buf[count++] = (byte) ((value & 127) | 128);
+            value >>>= 7;
+        }
+
+        buf[count++] = (byte) value;
+    }
+
+    /**
+     * Writes an unsigned variable length long, seven bits per byte with the
+     * most significant bit set on all bytes but the last.
+     *
+     * @param value The value, treated as unsigned.
+     */
+    public void writeVarLong(long value) {
+        ensureCapacity(10);
+
+        while ((value & -128L) != 0L) {
+            buf[count++] = (byte) (((int) value & 127) | 128);
+            value >>>= 7;
+        }
+
+        buf[count++] = (byte) value;
+    }
+
+    /**
+     * Overwrites an already written 32 bit value in network byte order, for
+     * example a length field that is only known once the rest is encoded.
+     *
+     * @param position The offset of the value in the buffer.
+     * @param value The value.
+     */
+    public void setInt(int position, int value) {
+        if ((position < 0) || (position > count - 4)) {
+            throw new IndexOutOfBoundsException("Position: " + position + ", size: " + count);
+        }
+
+        putInt(buf, position, value);
+    }
+
+    /**
+     * Returns the number of bytes written.
+     *
+     * @return The size.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Discards the written bytes so that the buffer can be reused.
+     */
+    public void reset() {
+        count = 0;
+
+        if (buf.length > Math.max(MAX_RETAINED_CAPACITY, initialCapacity)) {
+            buf = new byte[initialCapacity];
+        }
+    }
+
+    /**
+     * Returns the backing array, only the first size() bytes are valid. The
+     * array is replaced when the buffer grows and is reused after a reset.
+     *
+     * @return The backing array.
+     */
+    public byte[] array() {
+        return buf;
+    }
+
+    /**
+     * Returns a copy of the written bytes.
+     *
+     * @return The copy.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, count);
+    }
+
+    /**
+     * Returns a heap buffer over the written bytes, without copying them.
+     *
+     * @return The buffer, its position is zero and its limit is the size.
+     */
+    public ByteBuffer asByteBuffer() {
+        return ByteBuffer.wrap(buf, 0, count);
+    }
+
+    /**
+     * Writes the written bytes to another stream.
+     *
+     * @param out The stream to write to.
+     * @throws IOException if the stream fails.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buf, 0, count);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (extra > buf.length - count) {
+            grow(count + extra);
+        }
+    }
+
+    private void grow(int minCapacity) {
+        if ((minCapacity < 0) || (minCapacity > MAX_ARRAY_SIZE)) {
+            throw new OutOfMemoryError("Required buffer size too large: " + minCapacity);
+        }
+
+        int newCapacity = Math.max(buf.length << 1, 64);
+
+        if ((newCapacity < minCapacity) || (newCapacity < 0)) {
+            newCapacity = minCapacity;
+        }
+
+        buf = Arrays.copyOf(buf, Math.min(newCapacity, MAX_ARRAY_SIZE));
+    }
+
+    private static void putInt(byte[] b, int position, int value) {
+        b[position] = (byte) (value >>> 24);
+        b[position + 1] = (byte) (value >>> 16);
+        b[position + 2] = (byte) (value >>> 8);
+        b[position + 3] = (byte) value;
+    }
+}
@@ -20,6 +20,7 @@
  */
 package org.ccsds.moims.mo.mal.encoding;
 
+import java.util.BitSet;
 import org.ccsds.moims.mo.mal.MALDecoder;
 import org.ccsds.moims.mo.mal.MALException;
 import org.ccsds.moims.mo.mal.structures.Attribute;
@@ -411,6 +412,129 @@ public abstract class Decoder implements MALDecoder {
         return value;
     }
 
+    /**
+     * Decodes a run of nullable MAL Double values into a primitive array, the
+     * way decodeNullableDouble decodes each of them, without boxing them. This
+     * is used by the primitive backed lists of the generated code.
+     *
+     * @param values The array to decode into.
+     * @param nulls The set the indexes of the null values are added to, the
+     * array is left unchanged at those indexes.
+     * @param offset The index of the first decoded value in the array.
+     * @param count The number of values to decode.
+     * @throws MALException if there is an error
+     */
+    public void decodeNullableDoubles(final double[] values, final BitSet nulls,
+            final int offset, final int count) throws MALException {
+        for (int i = offset; i < offset + count; i++) {
+            if (sourceBuffer.readIsNotNull()) {
+                values[i] = sourceBuffer.readDouble();
+            } else {
+                nulls.set(i);
+            }
+        }
+    }
+
+    /**
+     * Decodes a run of nullable MAL Float values into a primitive array.
+     *
+     * @param values The array to decode into.
+     * @param nulls The set the indexes of the null values are added to.
+     * @param offset The index of the first decoded value in the array.
+     * @param count The number of values to decode.
+     * @throws MALException if there is an error
+     */
+    public void decodeNullableFloats(final float[] values, final BitSet nulls,
+            final int offset, final int count) throws MALException {
+        for (int i = offset; i < offset + count; i++) {
+            if (sourceBuffer.readIsNotNull()) {
+                values[i] = sourceBuffer.readFloat();
+            } else {
+                nulls.set(i);
+            }
+        }
+    }
+
+    /**
+     * Decodes a run of nullable MAL Integer values into a primitive array.
+     *
+     * @param values The array to decode into.
+     * @param nulls The set the indexes of the null values are added to.
+     * @param offset The index of the first decoded value in the array.
+     * @param count The number of values to decode.
+     * @throws MALException if there is an error
+     */
+    public void decodeNullableIntegers(final int[] values, final BitSet nulls,
+            final int offset, final int count) throws MALException {
+        for (int i = offset; i < offset + count; i++) {
+            if (sourceBuffer.readIsNotNull()) {
+                values[i] = sourceBuffer.readSignedInt();
+            } else {
+                nulls.set(i);
+            }
+        }
+    }
+
+    /**
+     * Decodes a run of nullable MAL Long values into a primitive array.
+     *
+     * @param values The array to decode into.
+     * @param nulls The set the indexes of the null values are added to.
+     * @param offset The index of the first decoded value in the array.
+     * @param count The number of values to decode.
+     * @throws MALException if there is an error
+     */
+    public void decodeNullableLongs(final long[] values, final BitSet nulls,
+            final int offset, final int count) throws MALException {
+        for (int i = offset; i < offset + count; i++) {
+            if (sourceBuffer.readIsNotNull()) {
+                values[i] = sourceBuffer.readSignedLong();
+            } else {
+                nulls.set(i);
+            }
+        }
+    }
+
+    /**
+     * Decodes a run of nullable MAL Octet values into a primitive array.
+     *
+     * @param values The array to decode into.
+     * @param nulls The set the indexes of the null values are added to.
+     * @param offset The index of the first decoded value in the array.
+     * @param count The number of values to decode.
+     * @throws MALException if there is an error
+     */
+    public void decodeNullableOctets(final byte[] values, final BitSet nulls,
+            final int offset, final int count) throws MALException {
+        for (int i = offset; i < offset + count; i++) {
+            if (sourceBuffer.readIsNotNull()) {
+                values[i] = sourceBuffer.read8();
+            } else {
+                nulls.set(i);
+            }
+        }
+    }
+
+    /**
+     * Decodes a run of nullable MAL Short values into a primitive array.
+     *
+     * @param values The array to decode into.
+     * @param nulls The set the indexes of the null values are added to.
+     * @param offset The index of the first decoded value in the array.
+     * @param count The number of values to decode.
+     * @throws MALException if there is an error
+     */
+    public void decodeNullableShorts(final short[] values, final BitSet nulls,
+            final int offset, final int count) throws MALException {
+        for (int i = offset; i < offset + count; i++) {
+            if (sourceBuffer.readIsNotNull()) {
+                values[i] = sourceBuffer.readSignedShort();
+            } else {
+                nulls.set(i);
+            }
+        }
+    }
+
     /**
      * Returns the remaining data of the input stream that has not been used for
      * decoding for wrapping in a MALEncodedBody class.
@@ -420,4 +544,47 @@ public abstract class Decoder implements MALDecoder {
      */
     public abstract byte[] getRemainingEncodedData() throws MALException;
 
+    /**
+     * Returns the array the decoder reads from when it decodes straight from
+     * an array in memory, so that callers can refer to slices of the encoded
+     * data instead of copying them. The offsets returned by getSourceOffset
+     * and getSourceLimit are positions in this array.
+     *
+     * @return the source array, or null if the decoder reads from a stream or
+     * if a slice of its data cannot be decoded on its own.
+     */
+    public byte[] getSourceArray() {
+        return null;
+    }
+
+    /**
+     * Returns the offset in the source array of the next byte to decode.
+     *
+     * @return the offset, only meaningful if getSourceArray is not null.
+     */
+    public int getSourceOffset() {
+        return 0;
+    }
+
+    /**
+     * Returns the offset in the source array just after the encoded data.
+     *
+     * @return the limit, only meaningful if getSourceArray is not null.
+     */
+    public int getSourceLimit() {
+        return 0;
+    }
+
+    /**
+     * Limits the data decoded from the source array to the bytes before the
+     * supplied offset, for an array that holds more than the encoded data.
+     *
+     * @param limit the offset in the source array just after the encoded data.
+     * @return false if the decoder does not decode straight from an array, its
+     * data is then left as it is.
+     */
+    public boolean limitSource(int limit) {
+        return false;
+    }
+
 }
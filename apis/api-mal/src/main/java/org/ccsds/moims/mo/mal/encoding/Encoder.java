@@ -22,6 +22,7 @@ package org.ccsds.moims.mo.mal.encoding;
 
 import java.io.IOException;
 import java.nio.charset.Charset;
+import java.util.BitSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.ccsds.moims.mo.mal.MALException;
@@ -594,6 +595,152 @@ public abstract class Encoder implements MALListEncoder {
         }
     }
 
+    /**
+     * Encodes a run of nullable MAL Double values held in a primitive array,
+     * the way encodeNullableDouble encodes each of them, without boxing them.
+     * This is used by the primitive backed lists of the generated code.
+     *
+     * @param values The values to encode, from index 0.
+     * @param nulls The indexes of the values that are null.
+     * @param count The number of values to encode.
+     * @throws MALException if there is an error
+     */
+    public void encodeNullableDoubles(final double[] values, final BitSet nulls,
+            final int count) throws MALException {
+        try {
+            for (int i = 0; i < count; i++) {
+                if (nulls.get(i)) {
+                    outputStream.writeIsNull();
+                } else {
+                    outputStream.writeNotNull();
+                    outputStream.writeDouble(values[i]);
+                }
+            }
+        } catch (IOException ex) {
+            throw new MALException(ENCODING_EXCEPTION_STR, ex);
+        }
+    }
+
+    /**
+     * Encodes a run of nullable MAL Float values held in a primitive array.
+     *
+     * @param values The values to encode, from index 0.
+     * @param nulls The indexes of the values that are null.
+     * @param count The number of values to encode.
+     * @throws MALException if there is an error
+     */
+    public void encodeNullableFloats(final float[] values, final BitSet nulls,
+            final int count) throws MALException {
+        try {
+            for (int i = 0; i < count; i++) {
+                if (nulls.get(i)) {
+                    outputStream.writeIsNull();
+                } else {
+                    outputStream.writeNotNull();
+                    outputStream.writeFloat(values[i]);
+                }
+            }
+        } catch (IOException ex) {
+            throw new MALException(ENCODING_EXCEPTION_STR, ex);
+        }
+    }
+
+    /**
+     * Encodes a run of nullable MAL Integer values held in a primitive array.
+     *
+     * @param values The values to encode, from index 0.
+     * @param nulls The indexes of the values that are null.
+     * @param count The number of values to encode.
+     * @throws MALException if there is an error
+     */
+    public void encodeNullableIntegers(final int[] values, final BitSet nulls,
+            final int count) throws MALException {
+        try {
+            for (int i = 0; i < count; i++) {
+                if (nulls.get(i)) {
+                    outputStream.writeIsNull();
+                } else {
+                    outputStream.writeNotNull();
+                    outputStream.writeSignedInt(values[i]);
+                }
+            }
+        } catch (IOException ex) {
+            throw new MALException(ENCODING_EXCEPTION_STR, ex);
+        }
+    }
+
+    /**
+     * Encodes a run of nullable MAL Long values held in a primitive array.
+     *
+     * @param values The values to encode, from index 0.
+     * @param nulls The indexes of the values that are null.
+     * @param count The number of values to encode.
+     * @throws MALException if there is an error
+     */
+    public void encodeNullableLongs(final long[] values, final BitSet nulls,
+            final int count) throws MALException {
+        try {
+            for (int i = 0; i < count; i++) {
+                if (nulls.get(i)) {
+                    outputStream.writeIsNull();
+                } else {
+                    outputStream.writeNotNull();
+                    outputStream.writeSignedLong(values[i]);
+                }
+            }
+        } catch (IOException ex) {
+            throw new MALException(ENCODING_EXCEPTION_STR, ex);
+        }
+    }
+
+    /**
+     * Encodes a run of nullable MAL Octet values held in a primitive array.
+     *
+     * @param values The values to encode, from index 0.
+     * @param nulls The indexes of the values that are null.
+     * @param count The number of values to encode.
+     * @throws MALException if there is an error
+     */
+    public void encodeNullableOctets(final byte[] values, final BitSet nulls,
+            final int count) throws MALException {
+        try {
+            for (int i = 0; i < count; i++) {
+                if (nulls.get(i)) {
+                    outputStream.writeIsNull();
+                } else {
+                    outputStream.writeNotNull();
+                    outputStream.writeByte(values[i]);
+                }
+            }
+        } catch (IOException ex) {
+            throw new MALException(ENCODING_EXCEPTION_STR, ex);
+        }
+    }
+
+    /**
+     * Encodes a run of nullable MAL Short values held in a primitive array.
+     *
+     * @param values The values to encode, from index 0.
+     * @param nulls The indexes of the values that are null.
+     * @param count The number of values to encode.
+     * @throws MALException if there is an error
+     */
+    public void encodeNullableShorts(final short[] values, final BitSet nulls,
+            final int count) throws MALException {
+        try {
+            for (int i = 0; i < count; i++) {
+                if (nulls.get(i)) {
+                    outputStream.writeIsNull();
+                } else {
+                    outputStream.writeNotNull();
+                    outputStream.writeSignedShort(values[i]);
+                }
+            }
+        } catch (IOException ex) {
+            throw new MALException(ENCODING_EXCEPTION_STR, ex);
+        }
+    }
+
     /**
      * Allows the encoding of a byte array, usually for already encoded values
      *
@@ -162,6 +162,43 @@ public abstract class GENElementInputStream implements MALElementInputStream {
         return dec.getRemainingEncodedData();
     }
 
+    /**
+     * Returns the array the stream decodes from, see Decoder.getSourceArray.
+     *
+     * @return the source array, or null if slices of it cannot be used.
+     */
+    public byte[] getSourceArray() {
+        return dec.getSourceArray();
+    }
+
+    /**
+     * Returns the offset in the source array of the next byte to decode.
+     *
+     * @return the offset.
+     */
+    public int getSourceOffset() {
+        return dec.getSourceOffset();
+    }
+
+    /**
+     * Returns the offset in the source array just after the encoded data.
+     *
+     * @return the limit.
+     */
+    public int getSourceLimit() {
+        return dec.getSourceLimit();
+    }
+
+    /**
+     * Limits the data decoded from the source array, see Decoder.limitSource.
+     *
+     * @param limit the offset in the source array just after the encoded data.
+     * @return false if the data cannot be limited.
+     */
+    public boolean limitSource(int limit) {
+        return dec.limitSource(limit);
+    }
+
     @Override
     public void close() throws MALException {
         // Nothing to do for this decoder
@@ -174,7 +211,7 @@ public abstract class GENElementInputStream implements MALElementInputStream {
         }
 
         try {
-            Element e = MALContextFactory.getElementsRegistry().createElement(shortForm);
+            Element e = MALContextFactory.getElementsRegistry().createElement((long) shortForm);
             return dec.decodeElement(e);
         } catch (Exception ex) {
             throw new MALException("Unable to create element for short form part: " + shortForm);
@@ -135,6 +135,17 @@ public abstract class GENElementOutputStream implements MALElementOutputStream {
         }
     }
 
+    /**
+     * Returns true if the encoded data of elements written with separate
+     * streams of this encoding can be joined by concatenation, so that a
+     * transport can reuse the encoded form of a body part in other messages.
+     *
+     * @return True if the encoded data can be concatenated.
+     */
+    public boolean isConcatenable() {
+        return false;
+    }
+
     protected void encodeSubElement(final Element e, final Object sf,
             final MALEncodingContext ctx) throws MALException {
         if (null == sf) {
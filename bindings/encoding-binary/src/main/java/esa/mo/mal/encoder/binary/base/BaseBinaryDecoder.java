@@ -63,6 +63,35 @@ public abstract class BaseBinaryDecoder extends Decoder {
                 dSourceBuffer.buf.contentLength);
     }
 
+    @Override
+    public byte[] getSourceArray() {
+        BaseBinaryBufferHolder dSourceBuffer = (BaseBinaryBufferHolder) sourceBuffer;
+        // a stream based buffer is shifted and reallocated while decoding
+        return (null == dSourceBuffer.buf.inputStream) ? dSourceBuffer.buf.buf : null;
+    }
+
+    @Override
+    public int getSourceOffset() {
+        return ((BaseBinaryBufferHolder) sourceBuffer).buf.offset;
+    }
+
+    @Override
+    public int getSourceLimit() {
+        return ((BaseBinaryBufferHolder) sourceBuffer).buf.contentLength;
+    }
+
+    @Override
+    public boolean limitSource(int limit) {
+        BaseBinaryBufferHolder dSourceBuffer = (BaseBinaryBufferHolder) sourceBuffer;
+
+        if (null != dSourceBuffer.buf.inputStream) {
+            return false;
+        }
+
+        dSourceBuffer.buf.contentLength = limit;
+        return true;
+    }
+
     @Override
     public Duration decodeDuration() throws MALException {
         return timeHandler.decodeDuration((BaseBinaryBufferHolder) sourceBuffer);
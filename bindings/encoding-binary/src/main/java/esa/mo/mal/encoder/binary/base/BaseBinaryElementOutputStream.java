@@ -43,4 +43,9 @@ public abstract class BaseBinaryElementOutputStream extends GENElementOutputStre
         super(os);
         this.timeHandler = timeHandler;
     }
+
+    @Override
+    public boolean isConcatenable() {
+        return true;
+    }
 }
@@ -23,6 +23,7 @@ package esa.mo.mal.encoder.binary.base;
 import java.io.IOException;
 import java.io.OutputStream;
 import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.encoding.ByteArrayOutputBuffer;
 import org.ccsds.moims.mo.mal.encoding.Encoder;
 import org.ccsds.moims.mo.mal.encoding.StreamHolder;
 import org.ccsds.moims.mo.mal.structures.Duration;
@@ -82,13 +83,34 @@ public abstract class BaseBinaryEncoder extends Encoder {
      */
     public static abstract class BaseBinaryStreamHolder extends StreamHolder {
 
+        /**
+         * The buffer the fields are written to when the target is a
+         * ByteArrayOutputBuffer, null otherwise. Sub-classes use it to write
+         * multi byte fields in one go rather than byte by byte.
+         */
+        protected final ByteArrayOutputBuffer buffer;
+
         /**
          * Constructor.
          *
          * @param outputStream the stream to encode in to.
          */
         public BaseBinaryStreamHolder(OutputStream outputStream) {
+            this(outputStream, (outputStream instanceof ByteArrayOutputBuffer)
+                    ? (ByteArrayOutputBuffer) outputStream : null);
+        }
+
+        /**
+         * Constructor for holders that write their fields to a buffer of their
+         * own rather than to the output stream.
+         *
+         * @param outputStream the stream to encode in to.
+         * @param buffer the buffer the fields are written to, may be null.
+         */
+        protected BaseBinaryStreamHolder(OutputStream outputStream,
+                ByteArrayOutputBuffer buffer) {
             super(outputStream);
+            this.buffer = buffer;
         }
 
         @Override
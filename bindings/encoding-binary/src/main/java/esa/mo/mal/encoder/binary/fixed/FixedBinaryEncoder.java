@@ -70,6 +70,11 @@ public class FixedBinaryEncoder extends esa.mo.mal.encoder.binary.base.BaseBinar
 
         private static final BigInteger B_255 = new BigInteger("255");
 
+        /**
+         * Scratch array for the fields when not writing to a buffer.
+         */
+        private final byte[] scratch = new byte[8];
+
         /**
          * Constructor.
          *
@@ -100,32 +105,65 @@ public class FixedBinaryEncoder extends esa.mo.mal.encoder.binary.base.BaseBinar
 
         @Override
         public void writeUnsignedLong(long value) throws IOException {
-            write(java.nio.ByteBuffer.allocate(8).putLong(value).array());
+            if (null != buffer) {
+                buffer.writeLong(value);
+                return;
+            }
+
+            putInt(0, (int) (value >>> 32));
+            putInt(4, (int) value);
+            write(scratch, 0, 8);
         }
 
         @Override
         public void writeUnsignedLong32(long value) throws IOException {
-            write(java.nio.ByteBuffer.allocate(8).putLong(value).array(), 4, 4);
+            if (null != buffer) {
+                buffer.writeInt((int) value);
+                return;
+            }
+
+            putInt(0, (int) value);
+            write(scratch, 0, 4);
         }
 
         @Override
         public void writeUnsignedInt(int value) throws IOException {
-            write(java.nio.ByteBuffer.allocate(4).putInt(value).array());
+            if (null != buffer) {
+                buffer.writeInt(value);
+                return;
+            }
+
+            putInt(0, value);
+            write(scratch, 0, 4);
         }
 
         @Override
         public void writeUnsignedInt16(int value) throws IOException {
-            write(java.nio.ByteBuffer.allocate(4).putInt(value).array(), 2, 2);
+            if (null != buffer) {
+                buffer.writeShort(value);
+                return;
+            }
+
+            scratch[0] = (byte) (value >>> 8);
+            scratch[1] = (byte) value;
+            write(scratch, 0, 2);
         }
 
         @Override
         public void writeUnsignedShort(int value) throws IOException {
-            write(java.nio.ByteBuffer.allocate(2).putShort((short) value).array());
+            if (null != buffer) {
+                buffer.writeShort(value);
+                return;
+            }
+
+            scratch[0] = (byte) (value >>> 8);
+            scratch[1] = (byte) value;
+            write(scratch, 0, 2);
         }
 
         @Override
         public void writeUnsignedShort8(short value) throws IOException {
-            write(java.nio.ByteBuffer.allocate(2).putShort(value).array()[1]);
+            write((byte) value);
         }
 
         @Override
@@ -166,5 +204,12 @@ public class FixedBinaryEncoder extends esa.mo.mal.encoder.binary.base.BaseBinar
                 write(value);
             }
         }
+
+        private void putInt(int position, int value) {
+            scratch[position] = (byte) (value >>> 24);
+            scratch[position + 1] = (byte) (value >>> 16);
+            scratch[position + 2] = (byte) (value >>> 8);
+            scratch[position + 3] = (byte) value;
+        }
     }
 }
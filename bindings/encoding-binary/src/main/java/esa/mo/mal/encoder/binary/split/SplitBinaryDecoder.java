@@ -78,6 +78,13 @@ public class SplitBinaryDecoder extends esa.mo.mal.encoder.binary.variable.Varia
         return new SplitBinaryListDecoder(list, sourceBuffer, timeHandler);
     }
 
+    @Override
+    public byte[] getSourceArray() {
+        // the Boolean values of the whole message are held in the bit field at
+        // its start, so a slice of the data cannot be decoded on its own
+        return null;
+    }
+
     /**
      * Extends BufferHolder to handle split binary encoding.
      */
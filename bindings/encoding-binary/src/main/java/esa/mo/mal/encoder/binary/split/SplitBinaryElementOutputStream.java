@@ -43,4 +43,11 @@ public class SplitBinaryElementOutputStream extends esa.mo.mal.encoder.binary.va
     protected Encoder createEncoder(java.io.OutputStream os) {
         return new SplitBinaryEncoder(os, timeHandler);
     }
+
+    @Override
+    public boolean isConcatenable() {
+        // the Boolean values are gathered in a bit field written in front of
+        // the data when the stream is closed
+        return false;
+    }
 }
@@ -24,6 +24,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import esa.mo.mal.encoder.binary.base.BinaryTimeHandler;
 import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.encoding.ByteArrayOutputBuffer;
 import org.ccsds.moims.mo.mal.encoding.StreamHolder;
 
 /**
@@ -116,12 +117,12 @@ public class SplitBinaryEncoder extends esa.mo.mal.encoder.binary.variable.Varia
 
     /**
      * Extends the StreamHolder class for handling splitting out the Boolean
-     * values.
+     * values. The other fields are written to a buffer of the holder, which
+     * is appended to the output stream after the bit field on close.
      */
     public static class SplitBinaryStreamHolder extends VariableBinaryStreamHolder {
 
         private static final int BIT_BYTES_BLOCK_SIZE = 1024;
-        private final java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
         private byte[] bitBytes = new byte[BIT_BYTES_BLOCK_SIZE];
         private int bitBytesInUse = 0;
         private int bitIndex = 0;
@@ -132,14 +133,18 @@ public class SplitBinaryEncoder extends esa.mo.mal.encoder.binary.variable.Varia
          * @param outputStream The output stream to encode into.
          */
         public SplitBinaryStreamHolder(OutputStream outputStream) {
-            super(outputStream);
+            super(outputStream, new ByteArrayOutputBuffer());
         }
 
         @Override
         public void close() throws IOException {
-            streamAddUnsignedInt(outputStream, bitBytesInUse);
+            if (outputStream instanceof ByteArrayOutputBuffer) {
+                ((ByteArrayOutputBuffer) outputStream).writeVarInt(bitBytesInUse);
+            } else {
+                streamAddUnsignedInt(outputStream, bitBytesInUse);
+            }
             outputStream.write(bitBytes, 0, bitBytesInUse);
-            baos.writeTo(outputStream);
+            buffer.writeTo(outputStream);
         }
 
         @Override
@@ -163,17 +168,17 @@ public class SplitBinaryEncoder extends esa.mo.mal.encoder.binary.variable.Varia
 
         @Override
         public void write(final byte[] value, int os, int ln) throws IOException {
-            baos.write(value, os, ln);
+            buffer.write(value, os, ln);
         }
 
         @Override
         public void write(final byte[] val) throws IOException {
-            baos.write(val);
+            buffer.write(val);
         }
 
         @Override
         public void write(final byte val) throws IOException {
-            baos.write(val);
+            buffer.write(val);
         }
 
         private static void streamAddUnsignedInt(java.io.OutputStream os, int value) throws IOException {
@@ -185,7 +190,7 @@ public class SplitBinaryEncoder extends esa.mo.mal.encoder.binary.variable.Varia
         }
 
         public void addFixedUnsignedLong(long value) throws IOException {
-            write(java.nio.ByteBuffer.allocate(8).putLong(value).array());
+            buffer.writeLong(value);
         }
 
         private void setBit(int bitIndex) {
@@ -0,0 +1,149 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO Binary encoder
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+
+import esa.mo.mal.encoder.binary.base.BaseBinaryEncoder.BaseBinaryStreamHolder;
+import esa.mo.mal.encoder.binary.fixed.FixedBinaryDecoder;
+import esa.mo.mal.encoder.binary.fixed.FixedBinaryEncoder;
+import esa.mo.mal.encoder.binary.split.SplitBinaryEncoder;
+import esa.mo.mal.encoder.binary.variable.VariableBinaryDecoder;
+import esa.mo.mal.encoder.binary.variable.VariableBinaryEncoder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import org.ccsds.moims.mo.mal.encoding.BufferHolder;
+import org.ccsds.moims.mo.mal.encoding.ByteArrayOutputBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the stream holders write the same bytes to a ByteArrayOutputBuffer,
+ * through their bulk writes, as to a plain output stream.
+ */
+public class BinaryStreamHolderBufferTest
+{
+
+  private static final long[] LONGS =
+  {
+    0L, 1L, -1L, 127L, 128L, 300L, Integer.MAX_VALUE, Integer.MIN_VALUE,
+    Long.MAX_VALUE, Long.MIN_VALUE, 0x0123456789ABCDEFL
+  };
+
+  @Test
+  public void testFixedBinary() throws Exception
+  {
+    byte[] stream = encode(new FixedBinaryEncoder.FixedBinaryStreamHolder(
+        new ByteArrayOutputStream(), false));
+    byte[] buffer = encode(new FixedBinaryEncoder.FixedBinaryStreamHolder(
+        new ByteArrayOutputBuffer(4), false));
+    assertArrayEquals("Fixed binary buffer encoding == stream encoding", stream, buffer);
+
+    check(new FixedBinaryDecoder.FixedBinaryBufferHolder(
+        new ByteArrayInputStream(buffer), buffer, 0, buffer.length, false));
+  }
+
+  @Test
+  public void testVariableBinary() throws Exception
+  {
+    byte[] stream = encode(new VariableBinaryEncoder.VariableBinaryStreamHolder(
+        new ByteArrayOutputStream()));
+    byte[] buffer = encode(new VariableBinaryEncoder.VariableBinaryStreamHolder(
+        new ByteArrayOutputBuffer(4)));
+    assertArrayEquals("Variable binary buffer encoding == stream encoding", stream, buffer);
+
+    check(new VariableBinaryDecoder.VariableBinaryBufferHolder(
+        new ByteArrayInputStream(buffer), buffer, 0, buffer.length));
+  }
+
+  @Test
+  public void testSplitBinary() throws Exception
+  {
+    byte[] stream = encode(new SplitBinaryEncoder.SplitBinaryStreamHolder(
+        new ByteArrayOutputStream()));
+    byte[] buffer = encode(new SplitBinaryEncoder.SplitBinaryStreamHolder(
+        new ByteArrayOutputBuffer(4)));
+    assertArrayEquals("Split binary buffer encoding == stream encoding", stream, buffer);
+  }
+
+  @Test
+  public void testBufferReset() throws Exception
+  {
+    ByteArrayOutputBuffer buffer = new ByteArrayOutputBuffer(4);
+    buffer.writeLong(Long.MIN_VALUE);
+    buffer.writeVarLong(-1L);
+    assertEquals(18, buffer.size());
+
+    buffer.reset();
+    buffer.writeInt(0);
+    buffer.setInt(0, 0x01020304);
+    assertArrayEquals(new byte[]
+    {
+      1, 2, 3, 4
+    }, buffer.toByteArray());
+  }
+
+  private static byte[] encode(BaseBinaryStreamHolder holder) throws Exception
+  {
+    for (long value : LONGS)
+    {
+      holder.writeUnsignedLong(value);
+      holder.writeSignedLong(value);
+      holder.writeUnsignedLong32(value & 0xFFFFFFFFL);
+      holder.writeUnsignedInt((int) value);
+      holder.writeSignedInt((int) value);
+      holder.writeUnsignedInt16((int) value & 0xFFFF);
+      holder.writeUnsignedShort((int) value & 0xFFFF);
+      holder.writeSignedShort((short) value);
+      holder.writeUnsignedShort8((short) (value & 0xFF));
+      holder.writeBool((value & 1) != 0);
+    }
+
+    holder.writeString("MAL");
+    holder.close();
+
+    OutputStream os = holder.getOutputStream();
+
+    if (os instanceof ByteArrayOutputBuffer)
+    {
+      return ((ByteArrayOutputBuffer) os).toByteArray();
+    }
+
+    return ((ByteArrayOutputStream) os).toByteArray();
+  }
+
+  private static void check(BufferHolder holder) throws Exception
+  {
+    for (long value : LONGS)
+    {
+      assertEquals(value, holder.readUnsignedLong());
+      assertEquals(value, holder.readSignedLong());
+      assertEquals(value & 0xFFFFFFFFL, holder.readUnsignedLong32());
+      assertEquals((int) value, holder.readUnsignedInt());
+      assertEquals((int) value, holder.readSignedInt());
+      assertEquals((int) value & 0xFFFF, holder.readUnsignedInt16() & 0xFFFF);
+      assertEquals((int) value & 0xFFFF, holder.readUnsignedShort() & 0xFFFF);
+      assertEquals((short) value, holder.readSignedShort());
+      assertEquals((short) (value & 0xFF), holder.readUnsignedShort8() & 0xFF);
+      assertEquals((value & 1) != 0, holder.readBool());
+    }
+
+    assertEquals("MAL", holder.readString());
+  }
+}
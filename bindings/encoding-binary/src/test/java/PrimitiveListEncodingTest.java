@@ -0,0 +1,365 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO Binary encoder
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+
+import esa.mo.mal.encoder.binary.base.BinaryTimeHandler;
+import esa.mo.mal.encoder.binary.fixed.FixedBinaryDecoder;
+import esa.mo.mal.encoder.binary.fixed.FixedBinaryEncoder;
+import esa.mo.mal.encoder.binary.split.SplitBinaryDecoder;
+import esa.mo.mal.encoder.binary.split.SplitBinaryEncoder;
+import esa.mo.mal.encoder.binary.variable.VariableBinaryDecoder;
+import esa.mo.mal.encoder.binary.variable.VariableBinaryEncoder;
+import esa.mo.mal.encoder.string.StringDecoder;
+import esa.mo.mal.encoder.string.StringEncoder;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import org.ccsds.moims.mo.mal.MALDecoder;
+import org.ccsds.moims.mo.mal.MALEncoder;
+import org.ccsds.moims.mo.mal.MALListDecoder;
+import org.ccsds.moims.mo.mal.MALListEncoder;
+import org.ccsds.moims.mo.mal.encoding.Encoder;
+import org.ccsds.moims.mo.mal.structures.DoubleList;
+import org.ccsds.moims.mo.mal.structures.Element;
+import org.ccsds.moims.mo.mal.structures.ElementList;
+import org.ccsds.moims.mo.mal.structures.FloatList;
+import org.ccsds.moims.mo.mal.structures.IntegerList;
+import org.ccsds.moims.mo.mal.structures.LongList;
+import org.ccsds.moims.mo.mal.structures.OctetList;
+import org.ccsds.moims.mo.mal.structures.ShortList;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the lists of the numeric MAL attributes generated with the
+ * java.primitiveLists property, which the MAL area of the test classpath is
+ * generated with. The lists are changed like ArrayLists and round trip
+ * through the fixed, variable, split and string encodings, in bulk and
+ * element by element, with the same encoded form.
+ */
+public class PrimitiveListEncodingTest
+{
+
+  private static final String[] ENCODINGS =
+  {
+    "fixed", "variable", "split", "string"
+  };
+
+  @Test
+  public void testListsArePrimitiveBacked()
+  {
+    assertFalse(ArrayList.class.isAssignableFrom(LongList.class));
+    assertTrue(new LongList() instanceof RandomAccess);
+  }
+
+  @Test
+  public void testListChanges()
+  {
+    LongList list = new LongList(2);
+    List<Long> expected = new ArrayList<Long>();
+
+    for (long i = 0; i < 100; i++)
+    {
+      Long value = (0 == i % 7) ? null : i * 1000003L;
+      list.add(value);
+      expected.add(value);
+    }
+
+    list.add(0, null);
+    expected.add(0, null);
+    list.add(50, -1L);
+    expected.add(50, -1L);
+    list.add(list.size(), Long.MAX_VALUE);
+    expected.add(expected.size(), Long.MAX_VALUE);
+    assertEquals(expected.remove(7), list.remove(7));
+    assertEquals(expected.remove(0), list.remove(0));
+    assertEquals(expected.set(3, null), list.set(3, null));
+    assertEquals(expected.set(4, 42L), list.set(4, 42L));
+    list.addLong(Long.MIN_VALUE);
+    expected.add(Long.MIN_VALUE);
+    list.setLong(5, 5L);
+    expected.set(5, 5L);
+
+    assertEquals(expected, list);
+    assertEquals(expected.hashCode(), list.hashCode());
+    assertTrue(list.isNull(3));
+    assertFalse(list.isNull(4));
+    assertEquals(42L, list.getLong(4));
+
+    // the elements after a removed null are not null
+    list.remove(list.size() - 1);
+    expected.remove(expected.size() - 1);
+    assertEquals(expected, list);
+    assertEquals(Long.MAX_VALUE, list.getLong(list.size() - 1));
+
+    list.clear();
+    list.add(1L);
+    assertEquals(Arrays.asList(1L), list);
+    assertFalse(list.isNull(0));
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void testUnboxedGetOfANullElement()
+  {
+    LongList list = new LongList();
+    list.add(null);
+    list.getLong(0);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testGetOutsideTheList()
+  {
+    IntegerList list = new IntegerList(10);
+    list.add(1);
+    list.get(1);
+  }
+
+  @Test
+  public void testLongList() throws Exception
+  {
+    LongList list = new LongList();
+    for (long i = 0; i < 70; i++)
+    {
+      list.add((0 == i % 5) ? null : (i - 35) * 0x0123456789ABL);
+    }
+    list.add(Long.MAX_VALUE);
+    list.add(Long.MIN_VALUE);
+    roundTrip(list, new LongList());
+  }
+
+  @Test
+  public void testIntegerList() throws Exception
+  {
+    IntegerList list = new IntegerList();
+    for (int i = 0; i < 70; i++)
+    {
+      list.add((0 == i % 3) ? null : (i - 35) * 1234567);
+    }
+    list.add(Integer.MAX_VALUE);
+    list.add(Integer.MIN_VALUE);
+    roundTrip(list, new IntegerList());
+  }
+
+  @Test
+  public void testShortList() throws Exception
+  {
+    ShortList list = new ShortList();
+    for (int i = 0; i < 70; i++)
+    {
+      list.add((1 == i % 4) ? null : (short) ((i - 35) * 901));
+    }
+    list.add(Short.MAX_VALUE);
+    list.add(Short.MIN_VALUE);
+    roundTrip(list, new ShortList());
+  }
+
+  @Test
+  public void testOctetList() throws Exception
+  {
+    OctetList list = new OctetList();
+    for (int i = 0; i < 70; i++)
+    {
+      list.add((2 == i % 6) ? null : (byte) (i * 7));
+    }
+    list.add(Byte.MAX_VALUE);
+    list.add(Byte.MIN_VALUE);
+    roundTrip(list, new OctetList());
+  }
+
+  @Test
+  public void testDoubleList() throws Exception
+  {
+    DoubleList list = new DoubleList();
+    for (int i = 0; i < 70; i++)
+    {
+      list.add((0 == i % 9) ? null : (i - 35) / 3.0);
+    }
+    list.add(Double.MAX_VALUE);
+    list.add(-Double.MIN_VALUE);
+    roundTrip(list, new DoubleList());
+  }
+
+  @Test
+  public void testFloatList() throws Exception
+  {
+    FloatList list = new FloatList();
+    for (int i = 0; i < 70; i++)
+    {
+      list.add((0 == i % 2) ? null : (i - 35) / 7.0f);
+    }
+    list.add(Float.MAX_VALUE);
+    list.add(-Float.MIN_VALUE);
+    roundTrip(list, new FloatList());
+  }
+
+  @Test
+  public void testEmptyAndAllNullLists() throws Exception
+  {
+    roundTrip(new IntegerList(), new IntegerList());
+
+    IntegerList nulls = new IntegerList();
+    for (int i = 0; i < 9; i++)
+    {
+      nulls.add(null);
+    }
+    roundTrip(nulls, new IntegerList());
+  }
+
+  @Test
+  public void testDecodeAppendsToTheList() throws Exception
+  {
+    IntegerList list = new IntegerList();
+    list.add(null);
+    list.add(2);
+    list.add(3);
+
+    for (String encoding : ENCODINGS)
+    {
+      IntegerList decoded = new IntegerList(1);
+      decoded.add(1);
+      decoded.add(null);
+      decoded.decode(newDecoder(encoding, encode(encoding, list, false), false));
+      assertEquals(encoding, Arrays.asList(1, null, null, 2, 3), decoded);
+      assertTrue(decoded.isNull(2));
+      assertEquals(2, decoded.getInteger(3));
+    }
+  }
+
+  /**
+   * Checks that the bulk encoding of a list has the bytes of the element by
+   * element one and that both decoding paths return the list.
+   */
+  private static void roundTrip(ElementList<?> list, ElementList<?> empty) throws Exception
+  {
+    for (String encoding : ENCODINGS)
+    {
+      byte[] bulk = encode(encoding, list, false);
+      byte[] perElement = encode(encoding, list, true);
+      assertArrayEquals(encoding + " bulk encoding == element encoding", perElement, bulk);
+
+      Element decoded = ((Element) empty.createElement()).decode(newDecoder(encoding, bulk, false));
+      assertEquals(encoding + " bulk decoding", list, decoded);
+
+      decoded = ((Element) empty.createElement()).decode(newDecoder(encoding, bulk, true));
+      assertEquals(encoding + " element decoding", list, decoded);
+    }
+  }
+
+  private static byte[] encode(String encoding, Element element, boolean perElement)
+      throws Exception
+  {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    Encoder encoder;
+
+    if ("fixed".equals(encoding))
+    {
+      encoder = new FixedBinaryEncoder(baos, new BinaryTimeHandler(), false);
+    }
+    else if ("variable".equals(encoding))
+    {
+      encoder = new VariableBinaryEncoder(baos, new BinaryTimeHandler());
+    }
+    else if ("split".equals(encoding))
+    {
+      encoder = new SplitBinaryEncoder(baos, new BinaryTimeHandler());
+    }
+    else
+    {
+      encoder = new StringEncoder(baos);
+    }
+
+    // the lists only encode in bulk through the Encoder class
+    element.encode(perElement ? hide(MALEncoder.class, encoder) : encoder);
+    // as the element output streams do, the split encoding is written on close
+    encoder.close();
+    return baos.toByteArray();
+  }
+
+  private static MALDecoder newDecoder(String encoding, byte[] encoded, boolean perElement)
+  {
+    MALDecoder decoder;
+
+    if ("fixed".equals(encoding))
+    {
+      decoder = new FixedBinaryDecoder(encoded, new BinaryTimeHandler(), false);
+    }
+    else if ("variable".equals(encoding))
+    {
+      decoder = new VariableBinaryDecoder(encoded, new BinaryTimeHandler());
+    }
+    else if ("split".equals(encoding))
+    {
+      decoder = new SplitBinaryDecoder(encoded, new BinaryTimeHandler());
+    }
+    else
+    {
+      decoder = new StringDecoder(new String(encoded, StandardCharsets.UTF_8));
+    }
+
+    return perElement ? hide(MALDecoder.class, decoder) : decoder;
+  }
+
+  /**
+   * Returns a proxy that only implements the given interface, as do the list
+   * encoders and decoders it creates.
+   */
+  private static <T> T hide(final Class<T> type, final Object target)
+  {
+    InvocationHandler handler = new InvocationHandler()
+    {
+      @Override
+      public Object invoke(Object proxy, java.lang.reflect.Method method, Object[] args)
+          throws Throwable
+      {
+        Object rv;
+        try
+        {
+          rv = method.invoke(target, args);
+        }
+        catch (InvocationTargetException ex)
+        {
+          throw ex.getCause();
+        }
+
+        if (rv instanceof MALListEncoder && !(rv instanceof Proxy))
+        {
+          return hide(MALListEncoder.class, rv);
+        }
+        if (rv instanceof MALListDecoder && !(rv instanceof Proxy))
+        {
+          return hide(MALListDecoder.class, rv);
+        }
+        return rv;
+      }
+    };
+
+    return type.cast(Proxy.newProxyInstance(PrimitiveListEncodingTest.class.getClassLoader(),
+        new Class<?>[]
+        {
+          type
+        }, handler));
+  }
+}
@@ -69,7 +69,7 @@ public class FileTransport extends GENTransport <InputStream, InputStream> {
     private static final String QOS_DELETE_FILE 
             = "ccsds.mal.transport.file.qos.delete";
     private final boolean deleteFiles;
-    private final Thread asyncPollThread;
+    private final GENMessagePoller<InputStream, InputStream> asyncPollThread;
     private final String transportString;
     private final String filenameString;
     private final WatchService watcher;
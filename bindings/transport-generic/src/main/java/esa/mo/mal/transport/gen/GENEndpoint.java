@@ -23,6 +23,8 @@ package esa.mo.mal.transport.gen;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Level;
 import org.ccsds.moims.mo.mal.MALException;
 import org.ccsds.moims.mo.mal.MALHelper;
@@ -43,7 +45,7 @@ public class GENEndpoint implements MALEndpoint {
     protected final String localURI;
     protected final boolean wrapBodyParts;
     private boolean active = false;
-    private MALMessageListener messageListener = null;
+    private volatile MALMessageListener messageListener = null;
 
     /**
      * Constructor.
@@ -280,7 +282,24 @@ public class GENEndpoint implements MALEndpoint {
 
     @Override
     public void sendMessage(final MALMessage msg) throws MALTransmitErrorException {
-        internalSendMessage(null, true, (GENMessage) msg);
+        if (transport.isAsyncSend()) {
+            sendMessageAsync(msg);
+        } else {
+            internalSendMessage(null, true, (GENMessage) msg);
+        }
+    }
+
+    /**
+     * Sends a message without waiting for it to be sent. A failure completes
+     * the returned future exceptionally with a MALTransmitErrorException and
+     * is also reported to the message listener via onTransmitError.
+     *
+     * @param msg the message to send.
+     * @return The completion of the send.
+     */
+    public CompletableFuture<Void> sendMessageAsync(final MALMessage msg) {
+        return reportTransmitError(msg,
+                internalSendMessageAsync(null, true, (GENMessage) msg));
     }
 
     @Override
@@ -291,6 +310,12 @@ public class GENEndpoint implements MALEndpoint {
             final Object multiSendHandle = internalCreateMultiSendHandle(msgList);
 
             for (int idx = 0; idx < msgList.length; idx++) {
+                if (transport.isAsyncSend()) {
+                    reportTransmitError(msgList[idx], internalSendMessageAsync(multiSendHandle,
+                            idx == (msgList.length - 1), (GENMessage) msgList[idx]));
+                    continue;
+                }
+
                 try {
                     internalSendMessage(multiSendHandle, idx == (msgList.length - 1),
                             (GENMessage) msgList[idx]);
@@ -381,6 +406,48 @@ public class GENEndpoint implements MALEndpoint {
         transport.sendMessage(multiSendHandle, lastForHandle, msg);
     }
 
+    /**
+     * Used to send a message from this end point without waiting for it to be
+     * sent.
+     *
+     * @param multiSendHandle Multi send context handle object that is passed to
+     * the transport.
+     * @param lastForHandle Is this the last message in a multi message send?
+     * @param msg the message to send.
+     * @return The completion of the send, completed exceptionally with a
+     * MALTransmitErrorException on a transmit error.
+     */
+    protected CompletableFuture<Void> internalSendMessageAsync(final Object multiSendHandle,
+            final boolean lastForHandle,
+            final GENMessage msg) {
+        return transport.sendMessageAsync(multiSendHandle, lastForHandle, msg);
+    }
+
+    private CompletableFuture<Void> reportTransmitError(final MALMessage msg,
+            final CompletableFuture<Void> result) {
+        return result.whenComplete((ignored, error) -> {
+            if (error == null) {
+                return;
+            }
+
+            final Throwable cause = (error instanceof CompletionException)
+                    ? error.getCause() : error;
+            final MALStandardError standardError = (cause instanceof MALTransmitErrorException)
+                    ? ((MALTransmitErrorException) cause).getStandardError()
+                    : new MALStandardError(MALHelper.INTERNAL_ERROR_NUMBER, null);
+            final MALMessageListener listener = messageListener;
+
+            if (null != listener) {
+                listener.onTransmitError(this, msg.getHeader(), standardError,
+                        msg.getQoSProperties());
+            } else {
+                GENTransport.LOGGER.log(Level.WARNING,
+                        "GENEndpoint ({0}) Unable to send message: {1}",
+                        new Object[]{localName, standardError});
+            }
+        });
+    }
+
     /**
      * Create a send context handle for a multi message send.
      *
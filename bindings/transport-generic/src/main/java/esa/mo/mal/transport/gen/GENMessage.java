@@ -27,8 +27,10 @@ import esa.mo.mal.transport.gen.body.GENNotifyBody;
 import esa.mo.mal.transport.gen.body.GENPublishBody;
 import esa.mo.mal.transport.gen.body.GENPublishRegisterBody;
 import esa.mo.mal.transport.gen.body.GENRegisterBody;
+import esa.mo.mal.transport.gen.util.GENPooledBuffer;
 import java.io.ByteArrayInputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Map;
 import org.ccsds.moims.mo.mal.MALArea;
 import org.ccsds.moims.mo.mal.MALContextFactory;
@@ -39,6 +41,7 @@ import org.ccsds.moims.mo.mal.MALOperation;
 import org.ccsds.moims.mo.mal.MALPubSubOperation;
 import org.ccsds.moims.mo.mal.MALService;
 import org.ccsds.moims.mo.mal.MALStandardError;
+import org.ccsds.moims.mo.mal.encoding.GENElementInputStream;
 import org.ccsds.moims.mo.mal.encoding.MALElementInputStream;
 import org.ccsds.moims.mo.mal.encoding.MALElementOutputStream;
 import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
@@ -130,8 +133,9 @@ public class GENMessage implements MALMessage, java.io.Serializable {
         this.qosProperties = qosProperties;
         this.wrapBodyParts = wrapBodyParts;
 
-        final ByteArrayInputStream bais = new ByteArrayInputStream(packet);
-        final MALElementInputStream enc = encFactory.createInputStream(bais);
+        // decodes straight from the packet so that the undecoded body parts
+        // can be passed on as slices of it
+        final MALElementInputStream enc = encFactory.createInputStream(packet, 0);
 
         if (readHeader) {
             MALEncodingContext ctx = new MALEncodingContext(header,
@@ -141,7 +145,85 @@ public class GENMessage implements MALMessage, java.io.Serializable {
             this.header = header;
         }
 
-        this.body = createMessageBody(encFactory, bais, enc);
+        this.body = createMessageBody(encFactory, null, enc);
+    }
+
+    /**
+     * Constructor for a message whose header has already been decoded from the
+     * packet, the body is decoded from the rest of it in place.
+     *
+     * @param wrapBodyParts True if the encoded body parts should be wrapped in
+     * BLOBs.
+     * @param header The decoded message header.
+     * @param qosProperties The QoS properties for this message.
+     * @param packet The message in encoded form.
+     * @param bodyOffset The offset of the body in the packet.
+     * @param encFactory The stream factory to use for decoding the body.
+     * @throws MALException On decoding error.
+     */
+    public GENMessage(final boolean wrapBodyParts,
+            final GENMessageHeader header,
+            final Map qosProperties,
+            final byte[] packet,
+            final int bodyOffset,
+            final MALElementStreamFactory encFactory) throws MALException {
+        this.qosProperties = qosProperties;
+        this.wrapBodyParts = wrapBodyParts;
+        this.header = header;
+        this.body = createMessageBody(encFactory, null,
+                encFactory.createInputStream(packet, bodyOffset));
+    }
+
+    /**
+     * Constructor for a message whose header has already been decoded from a
+     * pooled buffer, the body is decoded from a slice of the buffer in place.
+     * The message holds a reference to the buffer until its body is decoded,
+     * or it is freed, so the caller keeps its own reference to release. When
+     * the decoder cannot be limited to the slice, or the buffer has no array,
+     * the body is copied out of the buffer instead.
+     *
+     * @param wrapBodyParts True if the encoded body parts should be wrapped in
+     * BLOBs.
+     * @param header The decoded message header.
+     * @param qosProperties The QoS properties for this message.
+     * @param packet The buffer holding the message in encoded form.
+     * @param bodyOffset The offset of the body in the buffer.
+     * @param bodyLength The length of the body.
+     * @param encFactory The stream factory to use for decoding the body.
+     * @throws MALException On decoding error.
+     */
+    public GENMessage(final boolean wrapBodyParts,
+            final GENMessageHeader header,
+            final Map qosProperties,
+            final GENPooledBuffer packet,
+            final int bodyOffset,
+            final int bodyLength,
+            final MALElementStreamFactory encFactory) throws MALException {
+        this.qosProperties = qosProperties;
+        this.wrapBodyParts = wrapBodyParts;
+        this.header = header;
+
+        final ByteBuffer buffer = packet.buffer();
+        MALElementInputStream enc = null;
+
+        if (buffer.hasArray()) {
+            final int start = buffer.arrayOffset() + bodyOffset;
+            enc = encFactory.createInputStream(buffer.array(), start);
+
+            // the array of a pooled buffer is usually longer than the frame
+            if (!(enc instanceof GENElementInputStream)
+                    || !((GENElementInputStream) enc).limitSource(start + bodyLength)) {
+                enc = null;
+            }
+        }
+
+        if (null == enc) {
+            this.body = createMessageBody(encFactory, null,
+                    encFactory.createInputStream(packet.copy(bodyOffset, bodyLength), 0));
+        } else {
+            this.body = createMessageBody(encFactory, null, enc);
+            this.body.holdSourceBuffer(packet.retain());
+        }
     }
 
     /**
@@ -195,7 +277,8 @@ public class GENMessage implements MALMessage, java.io.Serializable {
 
     @Override
     public void free() throws MALException {
-        // do nothing in the GEN case.
+        // gives back the pooled buffer of a body that has not been decoded
+        body.releaseSourceBuffer();
     }
 
     /**
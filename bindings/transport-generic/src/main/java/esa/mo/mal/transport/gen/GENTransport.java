@@ -20,6 +20,7 @@
  */
 package esa.mo.mal.transport.gen;
 
+import esa.mo.mal.support.EncodedPartCache;
 import esa.mo.mal.transport.gen.receivers.GENIncomingMessageDecoder;
 import esa.mo.mal.transport.gen.receivers.GENIncomingMessageHolder;
 import esa.mo.mal.transport.gen.receivers.GENIncomingMessageReceiver;
@@ -27,17 +28,22 @@ import esa.mo.mal.transport.gen.sending.GENConcurrentMessageSender;
 import esa.mo.mal.transport.gen.sending.GENMessageSender;
 import esa.mo.mal.transport.gen.sending.GENOutgoingMessageHolder;
 import esa.mo.mal.transport.gen.util.TransportThreadFactory;
-import java.io.ByteArrayOutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.ccsds.moims.mo.mal.*;
+import org.ccsds.moims.mo.mal.encoding.ByteArrayOutputBuffer;
 import org.ccsds.moims.mo.mal.encoding.MALElementOutputStream;
 import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
 import org.ccsds.moims.mo.mal.structures.*;
@@ -78,6 +84,35 @@ public abstract class GENTransport<I, O> implements MALTransport {
     public static final String DELIVERY_TIMEOUT_PROPERTY
             = "org.ccsds.moims.mo.mal.transport.gen.deliverytimeout";
 
+    /**
+     * System property to control whether the endpoints send the messages
+     * asynchronously. In that case sendMessage returns once the message is
+     * queued for sending, and the failures are reported to the message
+     * listener of the endpoint via onTransmitError.
+     */
+    public static final String ASYNC_SEND_PROPERTY
+            = "org.ccsds.moims.mo.mal.transport.gen.asyncsend";
+
+    /**
+     * The maximum number of queued messages written to a connection at once.
+     */
+    public static final String SEND_BATCH_COUNT_PROPERTY
+            = "org.ccsds.moims.mo.mal.transport.gen.sendbatchcount";
+    /**
+     * The number of bytes after which no more queued messages are added to a
+     * batch written to a connection.
+     */
+    public static final String SEND_BATCH_BYTES_PROPERTY
+            = "org.ccsds.moims.mo.mal.transport.gen.sendbatchbytes";
+
+    /**
+     * The number of threads decoding the incoming messages. The messages of a
+     * connection are always decoded by the same lane, so they keep their
+     * order. Defaults to the number of available processors.
+     */
+    public static final String DECODE_LANES_PROPERTY
+            = "org.ccsds.moims.mo.mal.transport.gen.decodelanes";
+
     /**
      * System property to control whether a new outgoing data channel should be
      * created if one dosen't exist when sending a message
@@ -140,6 +175,22 @@ public abstract class GENTransport<I, O> implements MALTransport {
      * The timeout in seconds to wait for confirmation of delivery.
      */
     protected final int deliveryTimeout;
+    /**
+     * True if the endpoints send the messages asynchronously.
+     */
+    protected final boolean asyncSend;
+    /**
+     * The maximum number of messages written to a connection at once.
+     */
+    protected final int sendBatchCount;
+    /**
+     * The byte budget of a batch of messages written to a connection.
+     */
+    protected final int sendBatchBytes;
+    /**
+     * True if the dispatcher, sender and poller threads are virtual threads.
+     */
+    protected final boolean virtualThreads;
     /**
      * The string used to represent this protocol.
      */
@@ -163,21 +214,23 @@ public abstract class GENTransport<I, O> implements MALTransport {
      */
     private final int numConnections;
     /**
-     * The thread that receives incoming message from the underlying transport.
-     * All incoming raw data packets are processed by this thread.
+     * The threads that receive incoming message from the underlying transport.
+     * All incoming raw data packets are processed by these threads, each
+     * connection is bound to one of them.
      */
-    private final ExecutorService decoderExecutor;
+    private final ThreadPoolExecutor[] decoderLanes;
     /**
      * The thread pool of input message processors. All incoming messages are
      * processed by this thread pool after they have been decoded by the
-     * decoderExecutor thread.
+     * decoder lanes.
      */
     private final ExecutorService dispatcherExecutor;
     /**
-     * The map of message queues, segregated by transaction id.
+     * The map of message queues, segregated by transaction id. A processor
+     * removes itself once it has drained its queue.
      */
     private final Map<Long, GENIncomingMessageProcessor> transactionQueues
-            = new HashMap<>();
+            = new ConcurrentHashMap<>();
     /**
      * Map of outgoing channels. This associates a URI to a transport resource
      * that is able to send messages to this URI.
@@ -188,6 +241,12 @@ public abstract class GENTransport<I, O> implements MALTransport {
      * The stream factory used for encoding and decoding messages.
      */
     private final MALElementStreamFactory streamFactory;
+    /**
+     * The buffer each thread encodes its outgoing messages into, reused from
+     * one message to the next.
+     */
+    private final ThreadLocal<ByteArrayOutputBuffer> encodingBuffers
+            = ThreadLocal.withInitial(ByteArrayOutputBuffer::new);
     /**
      * The base string for URL for this protocol.
      */
@@ -301,6 +360,10 @@ public abstract class GENTransport<I, O> implements MALTransport {
         boolean lInProcessSupport = true;
         int lNumConnections = 1;
         int lDeliveryTime = 10;
+        boolean lAsyncSend = false;
+        int lSendBatchCount = 64;
+        int lSendBatchBytes = 65536;
+        int lDecodeLanes = Runtime.getRuntime().availableProcessors();
 
         // decode configuration
         if (properties != null) {
@@ -321,6 +384,22 @@ public abstract class GENTransport<I, O> implements MALTransport {
                 lDeliveryTime = Integer.parseInt((String) properties.get(DELIVERY_TIMEOUT_PROPERTY));
             }
 
+            if (properties.containsKey(ASYNC_SEND_PROPERTY)) {
+                lAsyncSend = Boolean.parseBoolean((String) properties.get(ASYNC_SEND_PROPERTY));
+            }
+
+            if (properties.containsKey(SEND_BATCH_COUNT_PROPERTY)) {
+                lSendBatchCount = Integer.parseInt((String) properties.get(SEND_BATCH_COUNT_PROPERTY));
+            }
+
+            if (properties.containsKey(SEND_BATCH_BYTES_PROPERTY)) {
+                lSendBatchBytes = Integer.parseInt((String) properties.get(SEND_BATCH_BYTES_PROPERTY));
+            }
+
+            if (properties.containsKey(DECODE_LANES_PROPERTY)) {
+                lDecodeLanes = Integer.parseInt((String) properties.get(DECODE_LANES_PROPERTY));
+            }
+
             if (properties.containsKey(CONNECT_WHEN_CONSUMER_OFFLINE_PROPERTY)) {
                 connectWhenConsumerOffline = Boolean.parseBoolean((String) properties.get(CONNECT_WHEN_CONSUMER_OFFLINE_PROPERTY));
             }
@@ -330,9 +409,12 @@ public abstract class GENTransport<I, O> implements MALTransport {
         this.inProcessSupport = lInProcessSupport;
         this.numConnections = lNumConnections;
         this.deliveryTimeout = lDeliveryTime;
+        this.asyncSend = lAsyncSend;
+        this.sendBatchCount = lSendBatchCount;
+        this.sendBatchBytes = lSendBatchBytes;
+        this.virtualThreads = TransportThreadFactory.isVirtualThreads(properties);
 
-        TransportThreadFactory decFactory = new TransportThreadFactory("Transport_Decoder");
-        this.decoderExecutor = Executors.newSingleThreadExecutor(decFactory);
+        this.decoderLanes = TransportThreadFactory.createDecoderLanes(lDecodeLanes);
         this.dispatcherExecutor = TransportThreadFactory.createDispatcherExecutor(properties);
 
         LOGGER.log(Level.FINE, "Wrapping body parts set to: {0}", this.wrapBodyParts);
@@ -411,12 +493,120 @@ public abstract class GENTransport<I, O> implements MALTransport {
      */
     public void receive(final GENReceptionHandler receptionHandler,
             final GENIncomingMessageDecoder decoder) {
-        decoderExecutor.submit(
+        decoderLanes[getDecodeLane(receptionHandler)].execute(
                 new GENIncomingMessageReceiver(this, receptionHandler, decoder));
     }
 
     /**
-     * The main exit point for messages from this transport.
+     * Returns the decoder lane of a reception handler. Messages received
+     * without a handler all go to the first lane.
+     *
+     * @param receptionHandler The reception handler, may be null.
+     * @return The index of the lane.
+     */
+    protected int getDecodeLane(final GENReceptionHandler receptionHandler) {
+        if ((null == receptionHandler) || (1 == decoderLanes.length)) {
+            return 0;
+        }
+
+        return (System.identityHashCode(receptionHandler) & Integer.MAX_VALUE) % decoderLanes.length;
+    }
+
+    /**
+     * Returns the number of decoder lanes.
+     *
+     * @return The lane count.
+     */
+    public int getDecodeLaneCount() {
+        return decoderLanes.length;
+    }
+
+    /**
+     * Returns the number of received messages waiting to be decoded in each
+     * lane.
+     *
+     * @return The queue depth of each lane.
+     */
+    public int[] getDecodeQueueDepths() {
+        final int[] depths = new int[decoderLanes.length];
+
+        for (int i = 0; i < depths.length; i++) {
+            depths[i] = decoderLanes[i].getQueue().size();
+        }
+
+        return depths;
+    }
+
+    /**
+     * Returns the number of messages decoded by each lane so far.
+     *
+     * @return The decoded count of each lane.
+     */
+    public long[] getDecodedCounts() {
+        final long[] counts = new long[decoderLanes.length];
+
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = decoderLanes[i].getCompletedTaskCount();
+        }
+
+        return counts;
+    }
+
+    /**
+     * Returns true if the endpoints send the messages asynchronously.
+     *
+     * @return True if asynchronous sending is enabled.
+     */
+    public boolean isAsyncSend() {
+        return asyncSend;
+    }
+
+    /**
+     * Returns the maximum number of queued messages written to a connection
+     * at once.
+     *
+     * @return The batch count.
+     */
+    public int getSendBatchCount() {
+        return sendBatchCount;
+    }
+
+    /**
+     * Returns true if the transport threads are requested to be virtual
+     * threads.
+     *
+     * @return True for virtual threads.
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Returns the encoding buffer of the calling thread, emptied. The encoded
+     * bytes must be copied out of it before the thread encodes another
+     * message.
+     *
+     * @return The encoding buffer.
+     */
+    protected ByteArrayOutputBuffer getEncodingBuffer() {
+        final ByteArrayOutputBuffer buffer = encodingBuffers.get();
+        buffer.reset();
+        return buffer;
+    }
+
+    /**
+     * Returns the number of bytes after which no more queued messages are
+     * added to a batch written to a connection.
+     *
+     * @return The batch byte budget.
+     */
+    public int getSendBatchBytes() {
+        return sendBatchBytes;
+    }
+
+    /**
+     * The main exit point for messages from this transport. Blocks until the
+     * message has been sent or the delivery timeout expires.
      *
      * @param multiSendHandle A context handle for multi send
      * @param lastForHandle True if that is the last message in a multi send for
@@ -427,16 +617,62 @@ public abstract class GENTransport<I, O> implements MALTransport {
     public void sendMessage(final Object multiSendHandle,
             final boolean lastForHandle,
             final GENMessage msg) throws MALTransmitErrorException {
+        final CompletableFuture<Void> result
+                = sendMessageAsync(multiSendHandle, lastForHandle, msg);
+
+        try {
+            result.get(deliveryTimeout, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MALTransmitErrorException) {
+                throw (MALTransmitErrorException) e.getCause();
+            }
+
+            LOGGER.log(Level.SEVERE, "Could not send message!", e.getCause());
+            throw new MALTransmitErrorException(
+                    msg.getHeader(),
+                    new MALStandardError(MALHelper.INTERNAL_ERROR_NUMBER, null),
+                    null);
+        } catch (TimeoutException e) {
+            // data was not sent in time, throw an exception for the
+            // higher MAL layers
+            throw new MALTransmitErrorException(
+                    msg.getHeader(),
+                    new MALStandardError(MALHelper.DELIVERY_FAILED_ERROR_NUMBER, null),
+                    null);
+        } catch (InterruptedException e) {
+            LOGGER.log(Level.SEVERE, "Interrupted while waiting for data reply", e);
+            throw new MALTransmitErrorException(
+                    msg.getHeader(),
+                    new MALStandardError(MALHelper.INTERNAL_ERROR_NUMBER, null),
+                    null);
+        }
+    }
+
+    /**
+     * The non-blocking exit point for messages from this transport. The
+     * message is queued for sending and the returned future is completed once
+     * it has been sent, or completed exceptionally with a
+     * MALTransmitErrorException if it could not be sent.
+     *
+     * @param multiSendHandle A context handle for multi send
+     * @param lastForHandle True if that is the last message in a multi send for
+     * the handle
+     * @param msg The message to send.
+     * @return The completion of the send.
+     */
+    public CompletableFuture<Void> sendMessageAsync(final Object multiSendHandle,
+            final boolean lastForHandle,
+            final GENMessage msg) {
         if ((null == msg.getHeader().getURITo())
                 || (null == msg.getHeader().getURITo().getValue())) {
-            throw new MALTransmitErrorException(msg.getHeader(),
+            return failedSend(new MALTransmitErrorException(msg.getHeader(),
                     new MALStandardError(MALHelper.DESTINATION_UNKNOWN_ERROR_NUMBER,
-                            "URI To field must not be null"), qosProperties);
+                            "URI To field must not be null"), qosProperties));
         }
 
         // get the root URI, (e.g. maltcp://10.0.0.1:61616 )
         String destinationURI = msg.getHeader().getURITo().getValue();
-        String remoteRootURI = msg.getHeader().getURITo().getRootURI(serviceDelim, serviceDelimCounter);
+        final String remoteRootURI = msg.getHeader().getURITo().getRootURI(serviceDelim, serviceDelimCounter);
 
         // first check if its actually a message to ourselves
         String endpointUriPart = getRoutingPart(destinationURI);
@@ -447,55 +683,59 @@ public abstract class GENTransport<I, O> implements MALTransport {
             LOGGER.log(Level.FINE, "Routing msg internally to: {0}",
                     new Object[]{endpointUriPart});
 
-            // if local then just send internally
+            // if local then just send internally, the cache of the encoded
+            // NOTIFY parts is only for the encoding of the message
+            EncodedPartCache.removeFromQoSProperties(msg.getQoSProperties());
             receiveIncomingMessage(
                     new GENIncomingMessageHolder(
                             msg.getHeader().getTransactionId(), msg, new PacketToString(null)));
-        } else {
-            try {
-                LOGGER.log(Level.FINE,
-                        "Sending msg. Target root URI: {0} full URI: {1}",
-                        new Object[]{remoteRootURI, destinationURI});
+            return CompletableFuture.completedFuture(null);
+        }
+
+        try {
+            LOGGER.log(Level.FINE,
+                    "Sending msg. Target root URI: {0} full URI: {1}",
+                    new Object[]{remoteRootURI, destinationURI});
 
-                // get outgoing channel
-                GENConcurrentMessageSender dataSender = manageCommunicationChannel(msg, false, null);
+            // get outgoing channel
+            GENConcurrentMessageSender dataSender = manageCommunicationChannel(msg, false, null);
 
-                GENOutgoingMessageHolder outgoingPacket = internalEncodeMessage(
-                        remoteRootURI, destinationURI, multiSendHandle,
-                        lastForHandle, dataSender.getTargetURI(), msg);
+            GENOutgoingMessageHolder outgoingPacket = internalEncodeMessage(
+                    remoteRootURI, destinationURI, multiSendHandle,
+                    lastForHandle, dataSender.getTargetURI(), msg);
 
-                dataSender.sendMessage(outgoingPacket);
+            dataSender.sendMessage(outgoingPacket);
 
-                if (!Boolean.TRUE.equals(outgoingPacket.getResult())) {
-                    // data was not sent succesfully, throw an exception for the
-                    // higher MAL layers
-                    throw new MALTransmitErrorException(
+            return outgoingPacket.getResultFuture().thenAccept(result -> {
+                if (!Boolean.TRUE.equals(result)) {
+                    // data was not sent succesfully, fail with an exception
+                    // for the higher MAL layers
+                    throw new CompletionException(new MALTransmitErrorException(
                             msg.getHeader(),
                             new MALStandardError(MALHelper.DELIVERY_FAILED_ERROR_NUMBER, null),
-                            null);
+                            null));
                 }
 
                 LOGGER.log(Level.FINE,
                         "Finished sending data to: {0}", remoteRootURI);
-            } catch (MALTransmitErrorException e) {
-                // this stops any true MAL exceptoins getting caught by the generic catch all below
-                throw e;
-            } catch (InterruptedException e) {
-                LOGGER.log(Level.SEVERE, "Interrupted while waiting for data reply", e);
-                throw new MALTransmitErrorException(
-                        msg.getHeader(),
-                        new MALStandardError(MALHelper.INTERNAL_ERROR_NUMBER, null),
-                        null);
-            } catch (Exception t) {
-                LOGGER.log(Level.SEVERE, "Could not send message!", t);
-                throw new MALTransmitErrorException(
-                        msg.getHeader(),
-                        new MALStandardError(MALHelper.INTERNAL_ERROR_NUMBER, null),
-                        null);
-            }
+            });
+        } catch (MALTransmitErrorException e) {
+            return failedSend(e);
+        } catch (Exception t) {
+            LOGGER.log(Level.SEVERE, "Could not send message!", t);
+            return failedSend(new MALTransmitErrorException(
+                    msg.getHeader(),
+                    new MALStandardError(MALHelper.INTERNAL_ERROR_NUMBER, null),
+                    null));
         }
     }
 
+    private static CompletableFuture<Void> failedSend(final MALTransmitErrorException ex) {
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        result.completeExceptionally(ex);
+        return result;
+    }
+
     /**
      * Used to request the transport close a connection with a client. In this
      * case the transport will terminate all communication channels with the
@@ -571,7 +811,10 @@ public abstract class GENTransport<I, O> implements MALTransport {
         endpointMalMap.clear();
         endpointRoutingMap.clear();
 
-        decoderExecutor.shutdown();
+        for (ThreadPoolExecutor decoderLane : decoderLanes) {
+            decoderLane.shutdown();
+        }
+
         dispatcherExecutor.shutdown();
 
         LOGGER.fine("Closing outgoing channels");
@@ -597,32 +840,18 @@ public abstract class GENTransport<I, O> implements MALTransport {
         LOGGER.log(Level.FINE, "Queuing message : {0} : {1}",
                 new Object[]{malMsg.malMsg.getHeader().getTransactionId(), malMsg.smsg});
 
-        synchronized (transactionQueues) {
-            GENIncomingMessageProcessor proc = transactionQueues.get(malMsg.transactionId);
-
-            if (null == proc) {
-                proc = new GENIncomingMessageProcessor(malMsg);
-                transactionQueues.put(malMsg.transactionId, proc);
-                dispatcherExecutor.submit(proc);
-            } else if (proc.addMessage(malMsg)) {
-                // need to resubmit this to the processing threads
-                dispatcherExecutor.submit(proc);
+        // only the entry of this transaction is locked, a processor that has
+        // finished its queue does not take new messages and is replaced
+        transactionQueues.compute(malMsg.transactionId, (transId, proc) -> {
+            if ((null != proc) && proc.addMessage(malMsg)) {
+                return proc;
             }
 
-            Set<Long> transactionsToRemove = new HashSet<>();
-            for (Map.Entry<Long, GENIncomingMessageProcessor> entrySet : transactionQueues.entrySet()) {
-                Long transId = entrySet.getKey();
-                GENIncomingMessageProcessor lproc = entrySet.getValue();
-
-                if (lproc.isFinished()) {
-                    transactionsToRemove.add(transId);
-                }
-            }
-
-            for (Long transId : transactionsToRemove) {
-                transactionQueues.remove(transId);
-            }
-        }
+            final GENIncomingMessageProcessor newProc
+                    = new GENIncomingMessageProcessor(transId, malMsg);
+            dispatcherExecutor.submit(newProc);
+            return newProc;
+        });
     }
 
     /**
@@ -982,10 +1211,10 @@ public abstract class GENTransport<I, O> implements MALTransport {
             final GENMessage msg) throws MALTransmitErrorException {
         // encode the message
         try {
-            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            final MALElementOutputStream enc = getStreamFactory().createOutputStream(baos);
-            msg.encodeMessage(getStreamFactory(), enc, baos, true);
-            byte[] data = baos.toByteArray();
+            final ByteArrayOutputBuffer buffer = getEncodingBuffer();
+            final MALElementOutputStream enc = getStreamFactory().createOutputStream(buffer);
+            msg.encodeMessage(getStreamFactory(), enc, buffer, true);
+            byte[] data = buffer.toByteArray();
 
             // message is encoded!
             LOGGER.log(Level.FINE, "Sending data to {0} : {1}",
@@ -1032,48 +1261,39 @@ public abstract class GENTransport<I, O> implements MALTransport {
      */
     private final class GENIncomingMessageProcessor implements Runnable {
 
+        private final Long transactionId;
         private final Queue<GENIncomingMessageHolder> malMsgs = new ArrayDeque<>();
         private boolean finished = false;
 
         /**
          * Constructor
          *
+         * @param transactionId The transaction id of the queue.
          * @param malMsg The MAL message.
          */
-        public GENIncomingMessageProcessor(final GENIncomingMessageHolder malMsg) {
+        public GENIncomingMessageProcessor(final Long transactionId,
+                final GENIncomingMessageHolder malMsg) {
+            this.transactionId = transactionId;
             malMsgs.add(malMsg);
         }
 
         /**
-         * Adds a message to the internal queue. If the thread associated with
-         * this executor has finished it resets the flag and returns true to
-         * indicate that it should be resubmitted for more processing to the
-         * Executor pool.
+         * Adds a message to the internal queue, unless this processor has
+         * already finished its queue. A finished processor has dispatched all
+         * its messages, so a new processor for the transaction keeps the
+         * order of the messages.
          *
          * @param malMsg The decoded message.
-         * @return True if this needs to be resubmitted to the processing
-         * executor pool.
+         * @return False if the processor has finished and the message was not
+         * added.
          */
         public synchronized boolean addMessage(final GENIncomingMessageHolder malMsg) {
-            malMsgs.add(malMsg);
-
             if (finished) {
-                finished = false;
-
-                // need to resubmit this to the processing threads
-                return true;
+                return false;
             }
 
-            return false;
-        }
-
-        /**
-         * Returns true if this thread has finished processing its queue.
-         *
-         * @return True if finished processing queue.
-         */
-        public synchronized boolean isFinished() {
-            return finished;
+            malMsgs.add(malMsg);
+            return true;
         }
 
         @Override
@@ -1096,6 +1316,9 @@ public abstract class GENTransport<I, O> implements MALTransport {
                     }
                 }
             }
+
+            // a new processor may already have taken the place of this one
+            transactionQueues.remove(transactionId, this);
         }
     }
 }
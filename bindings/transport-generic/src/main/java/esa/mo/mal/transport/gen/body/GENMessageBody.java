@@ -21,9 +21,10 @@
 package esa.mo.mal.transport.gen.body;
 
 import org.ccsds.moims.mo.mal.encoding.GENElementInputStream;
+import esa.mo.mal.support.EncodedPartCache;
 import esa.mo.mal.transport.gen.GENTransport;
+import esa.mo.mal.transport.gen.util.GENPooledBuffer;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.logging.Level;
@@ -33,7 +34,10 @@ import org.ccsds.moims.mo.mal.MALContextFactory;
 import org.ccsds.moims.mo.mal.MALElementsRegistry;
 import org.ccsds.moims.mo.mal.MALException;
 import org.ccsds.moims.mo.mal.MALOperation;
+import org.ccsds.moims.mo.mal.MALPubSubOperation;
 import org.ccsds.moims.mo.mal.MALService;
+import org.ccsds.moims.mo.mal.encoding.ByteArrayOutputBuffer;
+import org.ccsds.moims.mo.mal.encoding.GENElementOutputStream;
 import org.ccsds.moims.mo.mal.encoding.MALElementInputStream;
 import org.ccsds.moims.mo.mal.encoding.MALElementOutputStream;
 import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
@@ -41,6 +45,7 @@ import org.ccsds.moims.mo.mal.encoding.MALEncodingContext;
 import org.ccsds.moims.mo.mal.structures.Blob;
 import org.ccsds.moims.mo.mal.structures.Element;
 import org.ccsds.moims.mo.mal.structures.ElementList;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
 import org.ccsds.moims.mo.mal.structures.UOctet;
 import org.ccsds.moims.mo.mal.transport.MALEncodedBody;
 import org.ccsds.moims.mo.mal.transport.MALEncodedElement;
@@ -78,7 +83,22 @@ public class GENMessageBody implements MALMessageBody, java.io.Serializable {
      * The decoded body parts.
      */
     protected Object[] messageParts;
+    /**
+     * Number of leading body parts decoded so far, the parts after them are
+     * still held in encoded form by the body part stream.
+     */
+    protected int decodedParts = 0;
+    /**
+     * Input stream the body parts are decoded from, for a wrapped body with
+     * several parts this is the stream over the unwrapped body.
+     */
+    private MALElementInputStream partElements = null;
+    private boolean preparedBody = false;
     private final boolean wrappedBodyParts;
+    /**
+     * The pooled buffer the body is decoded from in place, if any.
+     */
+    private transient GENPooledBuffer sourceBuffer = null;
     private static final long serialVersionUID = 222222222222223L;
 
     /**
@@ -97,6 +117,8 @@ public class GENMessageBody implements MALMessageBody, java.io.Serializable {
         this.messageParts = messageParts;
         this.encFactory = encFactory;
         decodedBody = true;
+        preparedBody = true;
+        decodedParts = bodyPartCount;
     }
 
     /**
@@ -124,7 +146,7 @@ public class GENMessageBody implements MALMessageBody, java.io.Serializable {
     @Override
     public int getElementCount() {
         try {
-            decodeMessageBody();
+            prepareMessageBody();
         } catch (MALException ex) {
             Logger.getLogger(GENMessageBody.class.getName()).log(Level.SEVERE,
                     "MAL encoded body encoding error", ex);
@@ -135,7 +157,7 @@ public class GENMessageBody implements MALMessageBody, java.io.Serializable {
 
     @Override
     public MALEncodedBody getEncodedBody() throws MALException {
-        if (!decodedBody && (encBodyElements instanceof GENElementInputStream)) {
+        if (isBodyUntouched() && (encBodyElements instanceof GENElementInputStream)) {
             byte[] rd = ((GENElementInputStream) encBodyElements).getRemainingEncodedData();
 
             if ((null != encBodyBytes) && (0 < encBodyBytes.available())) {
@@ -157,7 +179,7 @@ public class GENMessageBody implements MALMessageBody, java.io.Serializable {
     @Override
     public Object getBodyElement(final int index, final Object element) throws
             IllegalArgumentException, MALException {
-        decodeMessageBody();
+        decodeBodyParts(index + 1);
 
         Object rv = messageParts[index];
 
@@ -212,18 +234,31 @@ public class GENMessageBody implements MALMessageBody, java.io.Serializable {
             } catch (IOException ex) {
                 throw new MALException("MAL encoded body encoding error", ex);
             }
-        } else if (!decodedBody) {
+        } else if (isBodyUntouched() && (streamFactory == encFactory)) {
             enc.flush();
 
             try {
-                lowLevelOutputStream.write(getEncodedBody().getEncodedBody().getValue());
+                if (!writeRemainingEncodedData(encBodyElements, lowLevelOutputStream)) {
+                    lowLevelOutputStream.write(getEncodedBody().getEncodedBody().getValue());
+                }
                 lowLevelOutputStream.flush();
             } catch (IOException ex) {
                 throw new MALException("MAL encoded body encoding error", ex);
             }
         } else {
+            // the undecoded parts can only be passed through when they are
+            // written with the encoding they were read with
+            if (!decodedBody && ((streamFactory != encFactory) || !canPassThrough(partElements))) {
+                decodeMessageBody();
+            }
+
             final int count = getElementCount();
 
+            // a received message has no operation until its body is prepared
+            if ((null != ctx) && (null == ctx.getOperation())) {
+                ctx.setOperation(this.ctx.getOperation());
+            }
+
             GENTransport.LOGGER.log(Level.FINE, "GEN Message encoding body ... pc ({0})", count);
 
             // if we only have a single body part then encode that directly
@@ -233,18 +268,22 @@ public class GENMessageBody implements MALMessageBody, java.io.Serializable {
                 encodeBodyPart(streamFactory, enc, wrappedBodyParts, sf, getBodyElement(0, null), ctx);
             } else if (count > 1) {
                 MALElementOutputStream benc = enc;
-                ByteArrayOutputStream bbaos = null;
+                OutputStream rawOutputStream = lowLevelOutputStream;
+                ByteArrayOutputBuffer bbaos = null;
 
                 if (wrappedBodyParts) {
                     // we have more than one body part, therefore encode each part 
                     // into a separate byte buffer, and then encode that byte buffer 
                     // as a whole. This allows use to be able to return the complete 
                     // body of the message as a single unit if required.
-                    bbaos = new ByteArrayOutputStream();
+                    bbaos = new ByteArrayOutputBuffer();
                     benc = streamFactory.createOutputStream(bbaos);
+                    rawOutputStream = bbaos;
                 }
 
-                for (int i = 0; i < count; i++) {
+                final int encodedCount = decodedBody ? count : decodedParts;
+
+                for (int i = 0; i < encodedCount; i++) {
                     Object sf = null;
                     if (null != ctx) {
                         ctx.setBodyElementIndex(i);
@@ -255,8 +294,26 @@ public class GENMessageBody implements MALMessageBody, java.io.Serializable {
                                     .getElementShortForms()[i];
                         }
                     }
-                    encodeBodyPart(streamFactory, benc, wrappedBodyParts,
-                            sf, getBodyElement(i, null), ctx);
+                    final Object part = getBodyElement(i, null);
+
+                    if (isSharedNotifyPart(benc, i, part, ctx)) {
+                        encodeSharedNotifyPart(streamFactory, benc, rawOutputStream, i, part, ctx,
+                                EncodedPartCache.fromQoSProperties(ctx.getMessageQosProperties()));
+                    } else {
+                        encodeBodyPart(streamFactory, benc, wrappedBodyParts, sf, part, ctx);
+                    }
+                }
+
+                if (encodedCount < count) {
+                    // the remaining parts have not been decoded, so their
+                    // encoded form is passed through as it is
+                    benc.flush();
+
+                    try {
+                        writeRemainingEncodedData(partElements, rawOutputStream);
+                    } catch (IOException ex) {
+                        throw new MALException("MAL encoded body encoding error", ex);
+                    }
                 }
 
                 if (wrappedBodyParts) {
@@ -272,6 +329,61 @@ public class GENMessageBody implements MALMessageBody, java.io.Serializable {
         enc.close();
     }
 
+    /**
+     * Returns true if the body part is one of the update header or update
+     * lists of a NOTIFY message, which a broker shares between the messages to
+     * the consumers that matched the same updates. The broker passes the cache
+     * of the encoded parts of the PUBLISH with the message QoS properties.
+     */
+    private boolean isSharedNotifyPart(final MALElementOutputStream enc,
+            final int index, final Object part, final MALEncodingContext ctx) {
+        if ((null == ctx) || (0 == index) || !(part instanceof Element)
+                || (null == EncodedPartCache.fromQoSProperties(ctx.getMessageQosProperties()))
+                || ctx.getHeader().getIsErrorMessage()
+                || (InteractionType._PUBSUB_INDEX != ctx.getHeader().getInteractionType().getOrdinal())
+                || (MALPubSubOperation._NOTIFY_STAGE != ctx.getHeader().getInteractionStage().getValue())) {
+            return false;
+        }
+
+        // unwrapped parts are written next to the other parts of the body
+        return wrappedBodyParts || ((enc instanceof GENElementOutputStream)
+                && ((GENElementOutputStream) enc).isConcatenable());
+    }
+
+    /**
+     * Encodes a shared NOTIFY body part, reusing its encoded form if it has
+     * already been encoded for another consumer.
+     */
+    private void encodeSharedNotifyPart(final MALElementStreamFactory streamFactory,
+            final MALElementOutputStream enc, final OutputStream rawOutputStream,
+            final int index, final Object part, final MALEncodingContext ctx,
+            final EncodedPartCache cache) throws MALException {
+        byte[] encoded = cache.get(part, streamFactory, ctx.getOperation(), index);
+
+        if (null == encoded) {
+            final ByteArrayOutputBuffer lbaos = new ByteArrayOutputBuffer();
+            final MALElementOutputStream lenc = streamFactory.createOutputStream(lbaos);
+            lenc.writeElement((Element) part, ctx);
+            lenc.flush();
+            lenc.close();
+
+            encoded = lbaos.toByteArray();
+            cache.put(part, streamFactory, ctx.getOperation(), index, encoded);
+        }
+
+        if (wrappedBodyParts) {
+            enc.writeElement(new Blob(encoded), null);
+        } else {
+            enc.flush();
+
+            try {
+                rawOutputStream.write(encoded);
+            } catch (IOException ex) {
+                throw new MALException("MAL encoded body encoding error", ex);
+            }
+        }
+    }
+
     protected void encodeBodyPart(final MALElementStreamFactory streamFactory,
             final MALElementOutputStream enc, final boolean wrapBodyParts,
             final Object sf, final Object o, final MALEncodingContext ctx) throws MALException {
@@ -281,11 +393,11 @@ public class GENMessageBody implements MALMessageBody, java.io.Serializable {
         } // else if it is a MAL data type object
         else if ((null == o) || (o instanceof Element)) {
             MALElementOutputStream lenc = enc;
-            ByteArrayOutputStream lbaos = null;
+            ByteArrayOutputBuffer lbaos = null;
 
             if (wrapBodyParts) {
                 // we encode it into a byte buffer so that it can be extracted as a MALEncodedElement if required
-                lbaos = new ByteArrayOutputStream();
+                lbaos = new ByteArrayOutputBuffer();
                 lenc = streamFactory.createOutputStream(lbaos);
             }
 
@@ -306,101 +418,219 @@ public class GENMessageBody implements MALMessageBody, java.io.Serializable {
         }
     }
 
+    /**
+     * Hands over a reference to the pooled buffer that the encoded body is
+     * decoded from in place. The reference is released once the whole body is
+     * decoded, as nothing refers to the buffer after that, or when
+     * releaseSourceBuffer is called.
+     *
+     * @param buffer The retained buffer.
+     */
+    public synchronized void holdSourceBuffer(final GENPooledBuffer buffer) {
+        releaseSourceBuffer();
+        sourceBuffer = buffer;
+    }
+
+    /**
+     * Releases the pooled buffer the body is decoded from, if it is still
+     * held. The undecoded body parts must not be used after that.
+     */
+    public synchronized void releaseSourceBuffer() {
+        if (null != sourceBuffer) {
+            final GENPooledBuffer buffer = sourceBuffer;
+            sourceBuffer = null;
+            buffer.release();
+        }
+    }
+
     /**
      * Decodes the message body.
      *
      * @throws MALException if any error detected.
      */
     protected void decodeMessageBody() throws MALException {
+        decodeBodyParts(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Decodes the leading body parts up to the supplied count. The parts are
+     * decoded in order on first use, the parts after them are left encoded so
+     * that a message that is only inspected, or forwarded, does not pay for
+     * decoding all of its body.
+     *
+     * @param count The number of leading body parts that must be decoded.
+     * @throws MALException if any error detected.
+     */
+    protected void decodeBodyParts(final int count) throws MALException {
         if (decodedBody) {
             return;
         }
 
-        decodedBody = true;
-
         try {
-            if (null == ctx.getOperation()) {
-                MALMessageHeader header = ctx.getHeader();
-                MALArea area = MALContextFactory
-                        .lookupArea(header.getServiceArea(), header.getAreaVersion());
-                if (null != area) {
-                    MALService service = area.getServiceByNumber(header.getService());
-                    if (null != service) {
-                        MALOperation op = service.getOperationByNumber(header.getOperation());
-
-                        if (null != op) {
-                            ctx.setOperation(op);
-                        } else {
-                            GENTransport.LOGGER.log(Level.SEVERE,
-                                    "Operation for unknown area/version/service/op received ({0}, {1}, {2}, {3})",
-                                    new Object[]{
-                                        header.getServiceArea(), header.getAreaVersion(), header.getService(),
-                                        header.getOperation()
-                                    });
-                        }
+            prepareMessageBody();
+
+            final int last = Math.min(count, bodyPartCount);
+
+            while (decodedParts < last) {
+                messageParts[decodedParts] = decodeNextBodyPart();
+                decodedParts++;
+            }
+
+            if (decodedParts == bodyPartCount) {
+                decodedBody = true;
+                releaseSourceBuffer();
+                GENTransport.LOGGER.fine("GEN Message decoded body");
+            }
+        } catch (MALException ex) {
+            // the position in the encoded body is lost, do not decode any further
+            decodedBody = true;
+            releaseSourceBuffer();
+            GENTransport.LOGGER.log(Level.WARNING,
+                    "GEN Message body ERROR on decode : {0}", ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Works out the operation and the number of parts of the message body,
+     * without decoding any of them.
+     *
+     * @throws MALException if any error detected.
+     */
+    protected void prepareMessageBody() throws MALException {
+        if (preparedBody) {
+            return;
+        }
+
+        preparedBody = true;
+
+        if (null == ctx.getOperation()) {
+            MALMessageHeader header = ctx.getHeader();
+            MALArea area = MALContextFactory
+                    .lookupArea(header.getServiceArea(), header.getAreaVersion());
+            if (null != area) {
+                MALService service = area.getServiceByNumber(header.getService());
+                if (null != service) {
+                    MALOperation op = service.getOperationByNumber(header.getOperation());
+                    if (null != op) {
+                        ctx.setOperation(op);
                     } else {
                         GENTransport.LOGGER.log(Level.SEVERE,
-                                "Operation for unknown area/version/service received ({0}, {1}, {2})",
+                                "Operation for unknown area/version/service/op received ({0}, {1}, {2}, {3})",
                                 new Object[]{
-                                    header.getServiceArea(), header.getAreaVersion(), header.getService()
+                                    header.getServiceArea(), header.getAreaVersion(), header.getService(),
+                                    header.getOperation()
                                 });
                     }
                 } else {
                     GENTransport.LOGGER.log(Level.SEVERE,
-                            "Operation for unknown area/version received ({0}, {1})", new Object[]{
-                                header.getServiceArea(), header.getAreaVersion()
+                            "Operation for unknown area/version/service received ({0}, {1}, {2})",
+                            new Object[]{
+                                header.getServiceArea(), header.getAreaVersion(), header.getService()
                             });
                 }
-            }
-
-            if (ctx.getHeader().getIsErrorMessage()) {
-                bodyPartCount = 2;
             } else {
-                bodyPartCount = ctx.getOperation()
-                        .getOperationStage(ctx.getHeader().getInteractionStage())
-                        .getElementShortForms().length;
+                GENTransport.LOGGER.log(Level.SEVERE,
+                        "Operation for unknown area/version received ({0}, {1})", new Object[]{
+                            header.getServiceArea(), header.getAreaVersion()
+                        });
             }
-            GENTransport.LOGGER.log(Level.FINE,
-                    "GEN Message decoding body! bodyPartCount: {0}", bodyPartCount);
-            messageParts = new Object[bodyPartCount];
-
-            if (bodyPartCount == 1) {
-                Object sf = ctx.getOperation()
-                        .getOperationStage(ctx.getHeader().getInteractionStage())
-                        .getElementShortForms()[0];
-                messageParts[0] = decodeBodyPart(encBodyElements, ctx, sf);
-            } else if (bodyPartCount > 1) {
-                MALElementInputStream benc = encBodyElements;
-                if (wrappedBodyParts) {
-                    GENTransport.LOGGER.fine("GEN Message decoding body wrapper");
-                    final Blob body = (Blob) encBodyElements.readElement(new Blob(), null);
-                    final ByteArrayInputStream bais = new ByteArrayInputStream(body.getValue());
-                    benc = encFactory.createInputStream(bais);
-                }
+        }
 
-                for (int i = 0; i < bodyPartCount; i++) {
-                    GENTransport.LOGGER.log(Level.FINE,
-                            "GEN Message decoding body part : {0}", i);
-                    Object sf = null;
+        if (ctx.getHeader().getIsErrorMessage()) {
+            bodyPartCount = 2;
+        } else {
+            bodyPartCount = ctx.getOperation()
+                    .getOperationStage(ctx.getHeader().getInteractionStage())
+                    .getElementShortForms().length;
+        }
+        GENTransport.LOGGER.log(Level.FINE,
+                "GEN Message decoding body! bodyPartCount: {0}", bodyPartCount);
+        messageParts = new Object[bodyPartCount];
+    }
 
-                    ctx.setBodyElementIndex(i);
+    /**
+     * Decodes the body part that follows the ones already decoded.
+     *
+     * @return The decoded body part.
+     * @throws MALException if any error detected.
+     */
+    private Object decodeNextBodyPart() throws MALException {
+        final int i = decodedParts;
+
+        if (bodyPartCount == 1) {
+            partElements = encBodyElements;
+            Object sf = ctx.getOperation()
+                    .getOperationStage(ctx.getHeader().getInteractionStage())
+                    .getElementShortForms()[0];
+            return decodeBodyPart(partElements, ctx, sf);
+        }
 
-                    if (!ctx.getHeader().getIsErrorMessage()) {
-                        sf = ctx.getOperation()
-                                .getOperationStage(ctx.getHeader().getInteractionStage())
-                                .getElementShortForms()[i];
-                    }
+        if (null == partElements) {
+            partElements = encBodyElements;
 
-                    messageParts[i] = decodeBodyPart(benc, ctx, sf);
-                }
+            if (wrappedBodyParts) {
+                GENTransport.LOGGER.fine("GEN Message decoding body wrapper");
+                final Blob body = (Blob) encBodyElements.readElement(new Blob(), null);
+                partElements = encFactory.createInputStream(body.getValue(), 0);
             }
+        }
 
-            GENTransport.LOGGER.fine("GEN Message decoded body");
-        } catch (MALException ex) {
-            GENTransport.LOGGER.log(Level.WARNING,
-                    "GEN Message body ERROR on decode : {0}", ex);
-            throw ex;
+        GENTransport.LOGGER.log(Level.FINE,
+                "GEN Message decoding body part : {0}", i);
+        Object sf = null;
+
+        ctx.setBodyElementIndex(i);
+
+        if (!ctx.getHeader().getIsErrorMessage()) {
+            sf = ctx.getOperation()
+                    .getOperationStage(ctx.getHeader().getInteractionStage())
+                    .getElementShortForms()[i];
+        }
+
+        return decodeBodyPart(partElements, ctx, sf);
+    }
+
+    /**
+     * Returns true if nothing has been read yet from the encoded body.
+     *
+     * @return True if the encoded body is untouched.
+     */
+    private boolean isBodyUntouched() {
+        return !decodedBody && (0 == decodedParts) && (null == partElements);
+    }
+
+    /**
+     * Returns true if the encoded data left in the stream can be written out
+     * as it is, which needs the stream to decode from an array in memory.
+     *
+     * @param elements The stream the body parts are decoded from.
+     * @return True if its remaining data can be passed through.
+     */
+    private static boolean canPassThrough(final MALElementInputStream elements) {
+        return (elements instanceof GENElementInputStream)
+                && (null != ((GENElementInputStream) elements).getSourceArray());
+    }
+
+    /**
+     * Writes the encoded data left in the stream, straight from the array it
+     * is decoded from.
+     *
+     * @param elements The stream the body parts are decoded from.
+     * @param os The stream to write to.
+     * @return False if the stream does not decode from an array.
+     * @throws IOException if the data cannot be written.
+     */
+    private static boolean writeRemainingEncodedData(final MALElementInputStream elements,
+            final OutputStream os) throws IOException {
+        if (!canPassThrough(elements)) {
+            return false;
         }
+
+        final GENElementInputStream ges = (GENElementInputStream) elements;
+        final int offset = ges.getSourceOffset();
+        os.write(ges.getSourceArray(), offset, ges.getSourceLimit() - offset);
+        return true;
     }
 
     /**
@@ -415,19 +645,17 @@ public class GENMessageBody implements MALMessageBody, java.io.Serializable {
         long sf = (Long) meel.getShortForm();
 
         // create list of correct type
-        long lsf = (-((sf) & 0xFFFFFFL)) & 0xFFFFFFL + (sf & 0xFFFFFFFFFF000000L);
         MALElementsRegistry fr = MALContextFactory.getElementsRegistry();
         ElementList rv;
         try {
-            rv = (ElementList) fr.createElement(lsf);
+            rv = (ElementList) fr.createCounterpart(sf);
         } catch (Exception ex) {
             throw new MALException("The ElementList could not be created!", ex);
         }
 
         for (MALEncodedElement ele : meel) {
-            final ByteArrayInputStream lbais
-                    = new ByteArrayInputStream(ele.getEncodedElement().getValue());
-            MALElementInputStream lenc = encFactory.createInputStream(lbais);
+            MALElementInputStream lenc = encFactory.createInputStream(
+                    ele.getEncodedElement().getValue(), 0);
 
             try {
                 rv.add(lenc.readElement(fr.createElement(sf), ctx));
@@ -454,8 +682,7 @@ public class GENMessageBody implements MALMessageBody, java.io.Serializable {
 
         if (wrappedBodyParts) {
             final Blob ele = (Blob) decoder.readElement(new Blob(), null);
-            final ByteArrayInputStream lbais = new ByteArrayInputStream(ele.getValue());
-            lenc = encFactory.createInputStream(lbais);
+            lenc = encFactory.createInputStream(ele.getValue(), 0);
         }
 
         // work out whether it is a MAL element or JAXB element we have received
@@ -471,7 +698,7 @@ public class GENMessageBody implements MALMessageBody, java.io.Serializable {
                     "GEN Message decoding body part : Type = {0}", shortForm);
 
             try {
-                element = MALContextFactory.getElementsRegistry().createElement(shortForm);
+                element = MALContextFactory.getElementsRegistry().createElement((long) shortForm);
             } catch (Exception ex) {
                 throw new MALException("The Element could not be created!", ex);
             }
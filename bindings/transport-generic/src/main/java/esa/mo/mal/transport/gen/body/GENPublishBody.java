@@ -145,9 +145,7 @@ public class GENPublishBody extends GENMessageBody implements MALPublishBody {
 
     @Override
     public Object getUpdate(final int listIndex, final int updateIndex) throws MALException {
-        decodeMessageBody();
-
-        return ((List) (messageParts[offset + 1 + listIndex])).get(updateIndex);
+        return ((List) getBodyElement(offset + 1 + listIndex, null)).get(updateIndex);
     }
 
     @Override
@@ -27,10 +27,11 @@ import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 import java.io.IOException;
-import static java.lang.Thread.interrupted;
+import esa.mo.mal.transport.gen.util.TransportThreadFactory;
 
 /**
  * This class manages a set of threads that are able to send messages via
@@ -48,6 +49,13 @@ import static java.lang.Thread.interrupted;
  * threads. A reply is provided indicating if the message was sent successfully
  * or not.
  *
+ * A worker thread drains all the queued messages, up to the batch count and
+ * byte budgets of the transport, and hands them to its message sender in a
+ * single call so that they can be written together.
+ *
+ * Non-blocking message senders do not get a thread, the messages are handed to
+ * them directly, spread round robin when there are several.
+ *
  */
 public class GENConcurrentMessageSender {
 
@@ -61,6 +69,16 @@ public class GENConcurrentMessageSender {
      */
     private final List<GENSenderThread> processingThreads;
 
+    /**
+     * the list of non-blocking senders that queue the messages themselves
+     */
+    private final List<GENNonBlockingMessageSender> directSenders;
+
+    /**
+     * the next non-blocking sender to use
+     */
+    private final AtomicInteger nextDirectSender = new AtomicInteger();
+
     /**
      * reference to the transport
      */
@@ -81,6 +99,7 @@ public class GENConcurrentMessageSender {
     public GENConcurrentMessageSender(GENTransport transport, String targetURI) {
         outgoingQueue = new LinkedBlockingQueue<>();
         processingThreads = Collections.synchronizedList(new ArrayList<>());
+        directSenders = Collections.synchronizedList(new ArrayList<>());
         this.transport = transport;
         this.targetURI = targetURI;
     }
@@ -95,6 +114,13 @@ public class GENConcurrentMessageSender {
      * @param message the message to be sent.
      */
     public void sendMessage(GENOutgoingMessageHolder message) {
+        final GENNonBlockingMessageSender directSender = getDirectSender();
+
+        if (null != directSender) {
+            directSender.queueEncodedMessage(message);
+            return;
+        }
+
         if (processingThreads.isEmpty()) {
             //this should never happen. Only possibly in boundary cases where
             // this object is asked to terminate and there is another thread 
@@ -123,7 +149,17 @@ public class GENConcurrentMessageSender {
      * @return number of active processors
      */
     public synchronized int addProcessor(GENMessageSender messageSender, String uriTo) {
-        // create new thread
+        if (messageSender instanceof GENNonBlockingMessageSender) {
+            // queues the messages itself, no thread is needed
+            directSenders.add((GENNonBlockingMessageSender) messageSender);
+
+            LOGGER.log(Level.FINE, "Adding non-blocking processor for URI:{0} total processors:{1}",
+                    new Object[]{uriTo, getNumberOfProcessors()});
+
+            return getNumberOfProcessors();
+        }
+
+        // create new thread, a virtual one if the transport asks for it
         GENSenderThread procThread = new GENSenderThread(messageSender, uriTo);
 
         // keep reference to thread
@@ -136,7 +172,19 @@ public class GENConcurrentMessageSender {
                 new Object[]{uriTo, processingThreads.size()});
 
         // return number of processors
-        return processingThreads.size();
+        return getNumberOfProcessors();
+    }
+
+    private GENNonBlockingMessageSender getDirectSender() {
+        synchronized (directSenders) {
+            if (directSenders.isEmpty()) {
+                return null;
+            }
+
+            final int index = (nextDirectSender.getAndIncrement() & Integer.MAX_VALUE)
+                    % directSenders.size();
+            return directSenders.get(index);
+        }
     }
 
     /**
@@ -154,7 +202,7 @@ public class GENConcurrentMessageSender {
      * @return the number of processing threads.
      */
     public synchronized int getNumberOfProcessors() {
-        return processingThreads.size();
+        return processingThreads.size() + directSenders.size();
     }
 
     /**
@@ -180,6 +228,14 @@ public class GENConcurrentMessageSender {
 
         // clear the references to active threads
         processingThreads.clear();
+
+        synchronized (directSenders) {
+            for (GENNonBlockingMessageSender directSender : directSenders) {
+                directSender.close();
+            }
+
+            directSenders.clear();
+        }
     }
 
     /**
@@ -191,7 +247,12 @@ public class GENConcurrentMessageSender {
      * a blocking queue from the outgoing message.
      *
      */
-    private class GENSenderThread extends Thread {
+    private class GENSenderThread implements Runnable {
+
+        /**
+         * The thread running the sender
+         */
+        private final Thread thread;
 
         /**
          * The destination URI
@@ -212,23 +273,58 @@ public class GENConcurrentMessageSender {
         public GENSenderThread(GENMessageSender messageSender, String uriTo) {
             this.uriTo = uriTo;
             this.messageSender = messageSender;
-            setName("Transport_Send" + " URI: " + uriTo);
+            this.thread = TransportThreadFactory.newThread(this,
+                    "Transport_Send" + " URI: " + uriTo, transport.isVirtualThreads());
+        }
+
+        /**
+         * Starts the sender thread.
+         */
+        public void start() {
+            thread.start();
+        }
+
+        /**
+         * Interrupts the sender thread, which terminates it.
+         */
+        public void interrupt() {
+            thread.interrupt();
         }
 
         @Override
         public void run() {
             boolean bContinue = true;
 
+            final int maxCount = Math.max(1, transport.getSendBatchCount());
+            final int maxBytes = transport.getSendBatchBytes();
+            final List<GENOutgoingMessageHolder> batch = new ArrayList<>(maxCount);
+
             // read forever while not interrupted
-            while (bContinue && !interrupted()) {
-                GENOutgoingMessageHolder messageHolder = null;
+            while (bContinue && !Thread.interrupted()) {
                 try {
-                    messageHolder = outgoingQueue.take();
+                    GENOutgoingMessageHolder messageHolder = outgoingQueue.take();
+                    int bytes = messageHolder.getEncodedLength();
+                    batch.add(messageHolder);
+
+                    // take whatever else is already waiting, within the budgets
+                    while ((batch.size() < maxCount) && (bytes < maxBytes)
+                            && ((messageHolder = outgoingQueue.poll()) != null)) {
+                        bytes += messageHolder.getEncodedLength();
+                        batch.add(messageHolder);
+                    }
 
-                    messageSender.sendEncodedMessage(messageHolder);
+                    if (batch.size() == 1) {
+                        messageSender.sendEncodedMessage(batch.get(0));
+                    } else {
+                        messageSender.sendEncodedMessages(batch);
+                    }
 
-                    //send back reply that the message was sent succesfully
-                    messageHolder.setResult(Boolean.TRUE);
+                    //send back reply that the messages were sent succesfully
+                    for (GENOutgoingMessageHolder sent : batch) {
+                        sent.setResult(Boolean.TRUE);
+                    }
+
+                    batch.clear();
                 } catch (IOException e) {
                     LOGGER.log(Level.WARNING,
                             "Cannot send message to destination: {0} informing transport",
@@ -237,11 +333,13 @@ public class GENConcurrentMessageSender {
                             "Cannot send message to destination: {0} informing transport",
                             e);
 
-                    //send back reply that the message was not sent successfully
-                    if (null != messageHolder) {
-                        messageHolder.setResult(Boolean.FALSE);
+                    //send back reply that the messages were not sent successfully
+                    for (GENOutgoingMessageHolder failed : batch) {
+                        failed.setResult(Boolean.FALSE);
                     }
 
+                    batch.clear();
+
                     //inform transport about communication error 
                     transport.communicationError(uriTo, null);
                     bContinue = false;
@@ -250,6 +348,12 @@ public class GENConcurrentMessageSender {
                     bContinue = false;
                 } catch (Throwable ex) {
                     ex.printStackTrace();
+
+                    for (GENOutgoingMessageHolder failed : batch) {
+                        failed.setResult(Boolean.FALSE);
+                    }
+
+                    batch.clear();
                 }
             }
 
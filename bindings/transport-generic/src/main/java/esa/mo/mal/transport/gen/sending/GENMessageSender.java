@@ -21,6 +21,7 @@
 package esa.mo.mal.transport.gen.sending;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Interface used to map to the low level transport specific send.
@@ -36,6 +37,20 @@ public interface GENMessageSender<O> {
      */
     void sendEncodedMessage(GENOutgoingMessageHolder<O> encodedMessage) throws IOException;
 
+    /**
+     * Sends a batch of encoded messages to the client. Implementations should
+     * override it to write the whole batch at once, the default sends the
+     * messages one by one.
+     *
+     * @param encodedMessages the MALMessages, in sending order
+     * @throws IOException in case the messages cannot be sent to the client
+     */
+    default void sendEncodedMessages(List<GENOutgoingMessageHolder<O>> encodedMessages) throws IOException {
+        for (GENOutgoingMessageHolder<O> encodedMessage : encodedMessages) {
+            sendEncodedMessage(encodedMessage);
+        }
+    }
+
     /**
      * Closes any resources connected to the low level interface.
      */
@@ -0,0 +1,39 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO Generic Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.transport.gen.sending;
+
+/**
+ * A message sender that queues the messages itself and never blocks the
+ * caller. The GENConcurrentMessageSender hands the messages directly to it
+ * instead of starting a sending thread for the connection.
+ *
+ * @param <O> The type of the outgoing messages.
+ */
+public interface GENNonBlockingMessageSender<O> extends GENMessageSender<O> {
+
+    /**
+     * Queues an encoded message for sending. The sender sets the result of the
+     * message holder once the message has been written, or has failed.
+     *
+     * @param encodedMessage the MALMessage
+     */
+    void queueEncodedMessage(GENOutgoingMessageHolder<O> encodedMessage);
+}
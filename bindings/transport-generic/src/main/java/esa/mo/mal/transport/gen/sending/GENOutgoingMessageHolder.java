@@ -20,27 +20,25 @@
  */
 package esa.mo.mal.transport.gen.sending;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.logging.Level;
-
-import static esa.mo.mal.transport.gen.GENTransport.LOGGER;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import org.ccsds.moims.mo.mal.transport.MALMessage;
 
 /**
- * This class holds the message to be sent in encoded format and a reply queue
- * that the internal sender of the message can listen to in order to be informed
- * if the message was successfully sent or not.
+ * This class holds the message to be sent in encoded format and a future that
+ * the internal sender of the message completes in order to inform if the
+ * message was successfully sent or not.
  *
  * @param <O> The type of the encoded message.
  */
 public class GENOutgoingMessageHolder<O> {
 
     /**
-     * The reply queue
+     * The result of the send, completed by the sender thread
      */
-    private final BlockingQueue<Boolean> replyQueue;
+    private final CompletableFuture<Boolean> result;
 
     /**
      * The timeout in seconds to wait for confirmation of delivery
@@ -73,7 +71,7 @@ public class GENOutgoingMessageHolder<O> {
     private final O encodedMessage;
 
     /**
-     * Will construct a new object and create a new internal reply queue.
+     * Will construct a new object with an uncompleted result.
      *
      * @param timeout The timeout in seconds to wait for confirmation of
      * delivery.
@@ -94,7 +92,7 @@ public class GENOutgoingMessageHolder<O> {
             final boolean lastForHandle,
             final MALMessage originalMessage,
             O encodedMessage) {
-        replyQueue = new LinkedBlockingQueue<>();
+        result = new CompletableFuture<>();
         this.timeout = timeout;
         this.destinationRootURI = destinationRootURI;
         this.destinationURI = destinationURI;
@@ -108,11 +106,26 @@ public class GENOutgoingMessageHolder<O> {
      * This method blocks until there is an attempt to send the message.
      *
      * @return TRUE if the message was successfully sent and FALSE if there was
-     * a communication or internal problem.
+     * a communication or internal problem, or null on timeout.
      * @throws InterruptedException in case of shutting down or internal error
      */
     public Boolean getResult() throws InterruptedException {
-        return replyQueue.poll(timeout, TimeUnit.SECONDS);
+        try {
+            return result.get(timeout, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the future completed when there has been an attempt to send the
+     * message. It holds TRUE if the message was successfully sent and FALSE if
+     * there was a communication or internal problem.
+     *
+     * @return The result future.
+     */
+    public CompletableFuture<Boolean> getResultFuture() {
+        return result;
     }
 
     /**
@@ -122,14 +135,7 @@ public class GENOutgoingMessageHolder<O> {
      * there was a communication or internal problem.
      */
     public void setResult(Boolean result) {
-        boolean inserted = replyQueue.add(result);
-        if (!inserted) {
-            // log error. According to the specification (see *add* call
-            // documentation) this will always return true, or throw an
-            // exception
-            LOGGER.log(Level.SEVERE,
-                    "Could not insert result to processing queue", new Throwable());
-        }
+        this.result.complete(result);
     }
 
     /**
@@ -178,6 +184,16 @@ public class GENOutgoingMessageHolder<O> {
         return originalMessage;
     }
 
+    /**
+     * Returns the length in bytes of the encoded message, or 0 if the encoded
+     * message is not a byte array.
+     *
+     * @return the encoded length.
+     */
+    public int getEncodedLength() {
+        return (encodedMessage instanceof byte[]) ? ((byte[]) encodedMessage).length : 0;
+    }
+
     /**
      * Getter for the encoded message to be sent
      *
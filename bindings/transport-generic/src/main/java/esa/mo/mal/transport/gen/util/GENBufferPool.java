@@ -0,0 +1,207 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO Generic Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.transport.gen.util;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of reusable byte buffers for the incoming frames of a transport. The
+ * buffers are grouped in power of two size classes, each class keeps at most a
+ * fixed number of free buffers. Requests larger than the biggest class are
+ * allocated and left to the garbage collector.
+ *
+ * The buffers are reference counted, see GENPooledBuffer, and come back to the
+ * pool when their last reference is released.
+ */
+public class GENBufferPool {
+
+    /**
+     * Size of the smallest class.
+     */
+    public static final int MIN_BUFFER_SIZE = 256;
+
+    /**
+     * Size of the biggest class.
+     */
+    public static final int MAX_BUFFER_SIZE = 1024 * 1024;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+
+    private final boolean direct;
+    private final Queue<ByteBuffer>[] classes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder oversized = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param buffersPerClass The maximum number of free buffers kept for each
+     * size class.
+     * @param direct True if the pool allocates direct buffers.
+     */
+    @SuppressWarnings("unchecked")
+    public GENBufferPool(int buffersPerClass, boolean direct) {
+        this.direct = direct;
+        this.classes = new Queue[sizeClass(MAX_BUFFER_SIZE) + 1];
+
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new ArrayBlockingQueue<>(Math.max(1, buffersPerClass));
+        }
+    }
+
+    /**
+     * Returns a buffer with room for at least the requested number of bytes.
+     * Its position is zero and its limit is the requested size. The caller
+     * holds the only reference to it.
+     *
+     * @param size The number of bytes needed.
+     * @return The buffer.
+     */
+    public GENPooledBuffer acquire(int size) {
+        if (size > MAX_BUFFER_SIZE) {
+            oversized.increment();
+            return new GENPooledBuffer(null, allocate(size), size);
+        }
+
+        final int sizeClass = sizeClass(size);
+        ByteBuffer buffer = classes[sizeClass].poll();
+
+        if (null == buffer) {
+            misses.increment();
+            buffer = allocate(MIN_BUFFER_SIZE << sizeClass);
+        } else {
+            hits.increment();
+        }
+
+        return new GENPooledBuffer(this, buffer, size);
+    }
+
+    /**
+     * Returns true if the pool allocates direct buffers.
+     *
+     * @return True for direct buffers.
+     */
+    public boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Returns the number of requests served from a free buffer.
+     *
+     * @return The hit count.
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of requests that needed a new buffer of one of the
+     * size classes.
+     *
+     * @return The miss count.
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of requests larger than the biggest size class.
+     *
+     * @return The oversized count.
+     */
+    public long getOversizedCount() {
+        return oversized.sum();
+    }
+
+    /**
+     * Returns the number of released buffers dropped because their class was
+     * full.
+     *
+     * @return The discarded count.
+     */
+    public long getDiscardedCount() {
+        return discarded.sum();
+    }
+
+    /**
+     * Returns the ratio of the requests served from a free buffer.
+     *
+     * @return The hit rate between 0 and 1.
+     */
+    public double getHitRate() {
+        final long h = hits.sum();
+        final long total = h + misses.sum() + oversized.sum();
+        return (0 == total) ? 0.0 : ((double) h) / total;
+    }
+
+    /**
+     * Returns the number of free buffers currently held by the pool.
+     *
+     * @return The free buffer count.
+     */
+    public int getFreeCount() {
+        int count = 0;
+
+        for (Queue<ByteBuffer> sizeClass : classes) {
+            count += sizeClass.size();
+        }
+
+        return count;
+    }
+
+    @Override
+    public String toString() {
+        return "GENBufferPool{hits=" + getHitCount() + ", misses=" + getMissCount()
+                + ", oversized=" + getOversizedCount() + ", discarded=" + getDiscardedCount()
+                + ", free=" + getFreeCount() + '}';
+    }
+
+    /**
+     * Takes back a buffer whose last reference has been released.
+     *
+     * @param buffer The buffer.
+     */
+    void recycle(ByteBuffer buffer) {
+        ((Buffer) buffer).clear();
+
+        if (!classes[sizeClass(buffer.capacity())].offer(buffer)) {
+            discarded.increment();
+        }
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private static int sizeClass(int size) {
+        if (size <= MIN_BUFFER_SIZE) {
+            return 0;
+        }
+
+        return (32 - Integer.numberOfLeadingZeros(size - 1)) - MIN_SHIFT;
+    }
+}
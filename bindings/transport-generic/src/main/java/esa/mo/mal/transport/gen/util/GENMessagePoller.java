@@ -41,11 +41,21 @@ import static esa.mo.mal.transport.gen.GENTransport.LOGGER;
  * Only transport adapter that pull messages from their transport layer will
  * need to use this class.
  *
+ * The poller runs on a thread it owns, a virtual one if the transport asks for
+ * it, and no longer extends Thread. The Thread methods that callers used on
+ * it are delegated to that thread, which is returned by getThread() for the
+ * other ones.
+ *
  * @param <I> The type of the encoded messages.
  * @param <O> The type of the outgoing messages.
  */
-public class GENMessagePoller<I, O> extends Thread implements GENReceptionHandler {
+public class GENMessagePoller<I, O> implements Runnable, GENReceptionHandler {
 
+    /**
+     * The thread running the poller, a virtual one if the transport asks for
+     * it
+     */
+    private final Thread thread;
     /**
      * Reference to the transport
      */
@@ -84,7 +94,8 @@ public class GENMessagePoller<I, O> extends Thread implements GENReceptionHandle
         this.messageSender = messageSender;
         this.messageReceiver = new MessageAdapter<I, O>(transport,
                 this, messageReceiver, decoderFactory);
-        setName("Transport_Receive");
+        this.thread = TransportThreadFactory.newThread(this, "Transport_Receive",
+                transport.isVirtualThreads());
     }
 
     /**
@@ -101,7 +112,96 @@ public class GENMessagePoller<I, O> extends Thread implements GENReceptionHandle
         this.transport = transport;
         this.messageSender = messageSender;
         this.messageReceiver = messageReceiver;
-        setName("Transport_Receive");
+        this.thread = TransportThreadFactory.newThread(this, "Transport_Receive",
+                transport.isVirtualThreads());
+    }
+
+    /**
+     * Starts the poller thread.
+     */
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Interrupts the poller thread, which terminates it.
+     */
+    public void interrupt() {
+        thread.interrupt();
+    }
+
+    /**
+     * Returns true if the poller thread has been interrupted.
+     *
+     * @return true if interrupted.
+     */
+    public boolean isInterrupted() {
+        return thread.isInterrupted();
+    }
+
+    /**
+     * Returns true if the poller thread is alive.
+     *
+     * @return true if alive.
+     */
+    public boolean isAlive() {
+        return thread.isAlive();
+    }
+
+    /**
+     * Waits for the poller thread to terminate.
+     *
+     * @throws InterruptedException if the waiting thread is interrupted.
+     */
+    public void join() throws InterruptedException {
+        thread.join();
+    }
+
+    /**
+     * Waits at most the given time for the poller thread to terminate.
+     *
+     * @param millis The time to wait in milliseconds, 0 waits forever.
+     * @throws InterruptedException if the waiting thread is interrupted.
+     */
+    public void join(final long millis) throws InterruptedException {
+        thread.join(millis);
+    }
+
+    /**
+     * Returns the name of the poller thread.
+     *
+     * @return the thread name.
+     */
+    public String getName() {
+        return thread.getName();
+    }
+
+    /**
+     * Sets the name of the poller thread.
+     *
+     * @param name The new thread name.
+     */
+    public void setName(final String name) {
+        thread.setName(name);
+    }
+
+    /**
+     * Marks the poller thread as a daemon thread, before it is started.
+     * Virtual threads are always daemon threads.
+     *
+     * @param on true for a daemon thread.
+     */
+    public void setDaemon(final boolean on) {
+        thread.setDaemon(on);
+    }
+
+    /**
+     * Returns the thread running the poller.
+     *
+     * @return the poller thread.
+     */
+    public Thread getThread() {
+        return thread;
     }
 
     @Override
@@ -109,7 +209,7 @@ public class GENMessagePoller<I, O> extends Thread implements GENReceptionHandle
         boolean bContinue = true;
 
         // handles message reads from this client
-        while (bContinue && !interrupted()) {
+        while (bContinue && !Thread.interrupted()) {
             try {
                 messageReceiver.receiveMessage();
             } catch (InterruptedException ex) {
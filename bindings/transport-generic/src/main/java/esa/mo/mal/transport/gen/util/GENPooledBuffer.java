@@ -0,0 +1,185 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO Generic Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.transport.gen.util;
+
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference counted buffer taken from a GENBufferPool. It starts with one
+ * reference, each retain must be matched by a release, and the buffer goes
+ * back to its pool with the last release. It must not be used after that.
+ */
+public final class GENPooledBuffer {
+
+    private final GENBufferPool pool;
+    private final ByteBuffer buffer;
+    private final int length;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    GENPooledBuffer(GENBufferPool pool, ByteBuffer buffer, int length) {
+        this.pool = pool;
+        this.buffer = buffer;
+        this.length = length;
+        ((Buffer) buffer).clear();
+        ((Buffer) buffer).limit(length);
+    }
+
+    /**
+     * Returns the underlying buffer, limited to the requested length.
+     *
+     * @return The buffer.
+     */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns the requested length of the buffer.
+     *
+     * @return The length.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Returns a view of the bytes of the buffer, independent of the
+     * position of the underlying buffer.
+     *
+     * @return The view.
+     */
+    public ByteBuffer view() {
+        final ByteBuffer view = buffer.duplicate();
+        ((Buffer) view).clear();
+        ((Buffer) view).limit(length);
+        return view;
+    }
+
+    /**
+     * Returns a stream over the bytes of the buffer.
+     *
+     * @return The stream.
+     */
+    public InputStream asInputStream() {
+        return new ViewInputStream(view());
+    }
+
+    /**
+     * Copies a range of the bytes of the buffer into a new array.
+     *
+     * @param offset The offset of the first byte.
+     * @param count The number of bytes.
+     * @return The copied bytes.
+     */
+    public byte[] copy(int offset, int count) {
+        final byte[] copy = new byte[count];
+
+        if (buffer.hasArray()) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + offset, copy, 0, count);
+        } else {
+            final ByteBuffer view = view();
+            ((Buffer) view).position(offset);
+            view.get(copy);
+        }
+
+        return copy;
+    }
+
+    /**
+     * Adds a reference to the buffer.
+     *
+     * @return This buffer.
+     */
+    public GENPooledBuffer retain() {
+        if (references.getAndIncrement() <= 0) {
+            references.getAndDecrement();
+            throw new IllegalStateException("The buffer has already been released");
+        }
+
+        return this;
+    }
+
+    /**
+     * Releases a reference to the buffer, the last release returns it to its
+     * pool.
+     */
+    public void release() {
+        final int remaining = references.decrementAndGet();
+
+        if (0 == remaining) {
+            if (null != pool) {
+                pool.recycle(buffer);
+            }
+        } else if (remaining < 0) {
+            references.incrementAndGet();
+            throw new IllegalStateException("The buffer has already been released");
+        }
+    }
+
+    /**
+     * Returns the number of references held on the buffer.
+     *
+     * @return The reference count.
+     */
+    public int referenceCount() {
+        return references.get();
+    }
+
+    /**
+     * Simple stream over a buffer view.
+     */
+    private static final class ViewInputStream extends InputStream {
+
+        private final ByteBuffer view;
+
+        ViewInputStream(ByteBuffer view) {
+            this.view = view;
+        }
+
+        @Override
+        public int read() {
+            return view.hasRemaining() ? (view.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (0 == len) {
+                return 0;
+            }
+
+            if (!view.hasRemaining()) {
+                return -1;
+            }
+
+            final int count = Math.min(len, view.remaining());
+            view.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return view.remaining();
+        }
+    }
+}
@@ -20,12 +20,16 @@
  */
 package esa.mo.mal.transport.gen.util;
 
+import java.lang.reflect.Method;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import static esa.mo.mal.transport.gen.GENTransport.LOGGER;
 
 /**
  * The transport backend thread factory
@@ -47,6 +51,12 @@ public class TransportThreadFactory implements ThreadFactory {
      */
     public static final String IDLE_INPUT_PROCESSORS_PROPERTY
             = "org.ccsds.moims.mo.mal.transport.gen.idleinputprocessors";
+    /**
+     * System property to run the dispatcher and the sender threads as virtual
+     * threads. It needs a Java 21 runtime, platform threads are used otherwise.
+     */
+    public static final String VIRTUAL_THREADS_PROPERTY
+            = "org.ccsds.moims.mo.mal.transport.gen.virtualthreads";
 
     private final ThreadGroup group;
     private final AtomicInteger threadNumber = new AtomicInteger(1);
@@ -73,7 +83,93 @@ public class TransportThreadFactory implements ThreadFactory {
         return t;
     }
 
+    /**
+     * Creates the single threaded executors that decode the incoming messages.
+     *
+     * @param lanes The number of lanes, at least one is created.
+     * @return The lanes.
+     */
+    public static ThreadPoolExecutor[] createDecoderLanes(final int lanes) {
+        final TransportThreadFactory decFactory = new TransportThreadFactory("Transport_Decoder");
+        final ThreadPoolExecutor[] rv = new ThreadPoolExecutor[Math.max(1, lanes)];
+
+        for (int i = 0; i < rv.length; i++) {
+            rv[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(), decFactory);
+        }
+
+        return rv;
+    }
+
+    /**
+     * Returns true if the properties ask for virtual threads.
+     *
+     * @param properties The transport properties, may be null.
+     * @return True for virtual threads.
+     */
+    public static boolean isVirtualThreads(final java.util.Map properties) {
+        return (null != properties) && properties.containsKey(VIRTUAL_THREADS_PROPERTY)
+                && Boolean.parseBoolean((String) properties.get(VIRTUAL_THREADS_PROPERTY));
+    }
+
+    /**
+     * Creates a factory of virtual threads named with the prefix and a
+     * counter. The runtime is looked up by reflection so that the transport
+     * still runs on the older Java versions.
+     *
+     * @param prefix The thread name prefix.
+     * @return The factory, or null if the runtime has no virtual threads.
+     */
+    public static ThreadFactory createVirtualThreadFactory(final String prefix) {
+        if (null == VirtualThreads.BUILDER) {
+            return null;
+        }
+
+        try {
+            final Object builder = VirtualThreads.OF_VIRTUAL.invoke(null);
+            VirtualThreads.NAME.invoke(builder, prefix + "-vthread-", 1L);
+            return (ThreadFactory) VirtualThreads.FACTORY.invoke(builder);
+        } catch (ReflectiveOperationException | UnsupportedOperationException ex) {
+            LOGGER.log(Level.WARNING, "Cannot create a virtual thread factory", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Creates a thread, a virtual one if requested and supported.
+     *
+     * @param task The task of the thread.
+     * @param name The name of the thread.
+     * @param virtual True for a virtual thread.
+     * @return The new, not started, thread.
+     */
+    public static Thread newThread(final Runnable task, final String name, final boolean virtual) {
+        final ThreadFactory factory = virtual ? VirtualThreads.FACTORY_INSTANCE : null;
+
+        if (null == factory) {
+            return new Thread(task, name);
+        }
+
+        final Thread t = factory.newThread(task);
+        t.setName(name);
+        return t;
+    }
+
     public static ExecutorService createDispatcherExecutor(final java.util.Map properties) {
+        if (isVirtualThreads(properties)) {
+            final ThreadFactory factory = createVirtualThreadFactory("Transport_Dispatcher");
+
+            if (null != factory) {
+                try {
+                    // a new virtual thread for each task, there is no pool to size
+                    return (ExecutorService) VirtualThreads.PER_TASK_EXECUTOR.invoke(null, factory);
+                } catch (ReflectiveOperationException | UnsupportedOperationException ex) {
+                    LOGGER.log(Level.WARNING,
+                            "Cannot create the virtual thread dispatcher, using platform threads", ex);
+                }
+            }
+        }
+
         boolean needsTuning = false;
         int lInputProcessorThreads = 100;
         int lMinInputProcessorThreads = lInputProcessorThreads;
@@ -118,4 +214,52 @@ public class TransportThreadFactory implements ThreadFactory {
         return rv;
     }
 
+    /**
+     * The virtual thread builder methods and the shared factory of unnamed
+     * virtual threads, resolved once.
+     */
+    private static final class VirtualThreads {
+
+        private static final Class<?> BUILDER;
+        private static final Method OF_VIRTUAL;
+        private static final Method NAME;
+        private static final Method FACTORY;
+        private static final Method PER_TASK_EXECUTOR;
+        private static final ThreadFactory FACTORY_INSTANCE;
+
+        static {
+            Class<?> builder = null;
+            Method ofVirtual = null;
+            Method name = null;
+            Method factory = null;
+            Method perTaskExecutor = null;
+            ThreadFactory factoryInstance = null;
+
+            try {
+                ofVirtual = Thread.class.getMethod("ofVirtual");
+                builder = Class.forName("java.lang.Thread$Builder");
+                name = builder.getMethod("name", String.class, long.class);
+                factory = builder.getMethod("factory");
+                perTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor",
+                        ThreadFactory.class);
+                // the threads are named by their creator, the factory is thread safe
+                factoryInstance = (ThreadFactory) factory.invoke(ofVirtual.invoke(null));
+            } catch (ReflectiveOperationException | UnsupportedOperationException ex) {
+                // Java 19 and 20 have the methods but throw an
+                // UnsupportedOperationException without --enable-preview
+                builder = null;
+                factoryInstance = null;
+                LOGGER.log(Level.WARNING,
+                        "Virtual threads are not supported by this runtime, platform threads are used");
+                LOGGER.log(Level.FINE, "Virtual threads lookup failed", ex);
+            }
+
+            BUILDER = builder;
+            OF_VIRTUAL = ofVirtual;
+            NAME = name;
+            FACTORY = factory;
+            PER_TASK_EXECUTOR = perTaskExecutor;
+            FACTORY_INSTANCE = factoryInstance;
+        }
+    }
 }
@@ -0,0 +1,112 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO Generic Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.transport.gen;
+
+import esa.mo.mal.support.EncodedPartCache;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.ccsds.moims.mo.mal.MALPubSubOperation;
+import org.ccsds.moims.mo.mal.MALStandardError;
+import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.transport.MALEndpoint;
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.ccsds.moims.mo.mal.transport.MALMessageListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a message routed to an endpoint of the same transport reaches
+ * it without the cache of the encoded NOTIFY parts a broker passes to the
+ * transport in the message QoS properties.
+ */
+public class GENTransportTest {
+
+    private RecordingTransport transport;
+
+    @Before
+    public void setUp() throws Exception {
+        transport = RecordingTransport.create(false);
+        transport.init();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        transport.close();
+    }
+
+    @Test
+    public void testInProcessNotifyHasNoEncodedPartCache() throws Exception {
+        final BlockingQueue<MALMessage> received = new LinkedBlockingQueue<>();
+        final MALEndpoint endpoint = transport.createEndpoint("consumer", null);
+        endpoint.setMessageListener(new MALMessageListener() {
+            @Override
+            public void onMessage(MALEndpoint callingEndpoint, MALMessage msg) {
+                received.add(msg);
+            }
+
+            @Override
+            public void onMessages(MALEndpoint callingEndpoint, MALMessage[] msgList) {
+                for (MALMessage msg : msgList) {
+                    received.add(msg);
+                }
+            }
+
+            @Override
+            public void onInternalError(MALEndpoint callingEndpoint, Throwable err) {
+            }
+
+            @Override
+            public void onTransmitError(MALEndpoint callingEndpoint, MALMessageHeader srcMessageHeader,
+                    MALStandardError err, Map qosMap) {
+            }
+        });
+        endpoint.startMessageDelivery();
+
+        final Map qos = new HashMap();
+        qos.put(EncodedPartCache.QOS_PROPERTY, new EncodedPartCache());
+        qos.put("other", "kept");
+
+        final GENMessageHeader header = new GENMessageHeader(new URI("gentest://broker"), null,
+                endpoint.getURI(), null, null, null, null, new Identifier("zone"), null, null,
+                InteractionType.PUBSUB, MALPubSubOperation.NOTIFY_STAGE, 1L, new UShort(1),
+                new UShort(1), new UShort(2), new UOctet((short) 1), false);
+        final GENMessage msg = new GENMessage(false, false, header, qos, new byte[0],
+                MALElementStreamFactory.newFactory("gentest", null));
+
+        transport.sendMessageAsync(null, true, msg).get(5, TimeUnit.SECONDS);
+
+        final MALMessage delivered = received.poll(5, TimeUnit.SECONDS);
+        assertSame(msg, delivered);
+        assertFalse(delivered.getQoSProperties().containsKey(EncodedPartCache.QOS_PROPERTY));
+        assertEquals("kept", delivered.getQoSProperties().get("other"));
+    }
+}
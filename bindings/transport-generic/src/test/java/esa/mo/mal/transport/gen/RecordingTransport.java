@@ -0,0 +1,148 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO Generic Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.transport.gen;
+
+import esa.mo.mal.encoder.binary.fixed.FixedBinaryStreamFactory;
+import esa.mo.mal.transport.gen.receivers.GENIncomingMessageDecoder;
+import esa.mo.mal.transport.gen.sending.GENMessageSender;
+import esa.mo.mal.transport.gen.sending.GENOutgoingMessageHolder;
+import esa.mo.mal.transport.gen.util.TransportThreadFactory;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.broker.MALBrokerBinding;
+import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.transport.MALEndpoint;
+
+/**
+ * A transport that only records the calls the threads of the generic
+ * transport make on it, for the tests of those threads.
+ */
+public class RecordingTransport extends GENTransport<byte[], byte[]> {
+
+    private static final String PROTOCOL = "gentest";
+
+    /**
+     * The URIs passed to closeConnection.
+     */
+    public final List<String> closedConnections = new CopyOnWriteArrayList<>();
+    /**
+     * The URIs passed to communicationError.
+     */
+    public final List<String> communicationErrors = new CopyOnWriteArrayList<>();
+    /**
+     * The decoders passed to receive.
+     */
+    public final List<GENIncomingMessageDecoder> receivedDecoders = new CopyOnWriteArrayList<>();
+
+    private RecordingTransport(final Map properties) throws MALException {
+        super(PROTOCOL, false, false, null, properties);
+    }
+
+    /**
+     * Creates a transport with the fixed binary encoding.
+     *
+     * @param virtualThreads True to ask for virtual threads.
+     * @return The transport.
+     * @throws MALException On error.
+     */
+    public static RecordingTransport create(final boolean virtualThreads) throws MALException {
+        System.setProperty(MALElementStreamFactory.FACTORY_PROP_NAME_PREFIX + "." + PROTOCOL,
+                FixedBinaryStreamFactory.class.getName());
+
+        final Map<String, String> properties = new HashMap<>();
+        properties.put(TransportThreadFactory.VIRTUAL_THREADS_PROPERTY,
+                Boolean.toString(virtualThreads));
+        properties.put(DECODE_LANES_PROPERTY, "1");
+        properties.put(TransportThreadFactory.INPUT_PROCESSORS_PROPERTY, "1");
+        return new RecordingTransport(properties);
+    }
+
+    @Override
+    public void receive(final GENReceptionHandler receptionHandler,
+            final GENIncomingMessageDecoder decoder) {
+        receivedDecoders.add(decoder);
+    }
+
+    @Override
+    public void closeConnection(final String uriTo, final GENReceptionHandler receptionHandler) {
+        closedConnections.add(String.valueOf(uriTo));
+    }
+
+    @Override
+    public void communicationError(final String uriTo, final GENReceptionHandler receptionHandler) {
+        communicationErrors.add(String.valueOf(uriTo));
+    }
+
+    @Override
+    public GENMessage createMessage(final byte[] packet) throws MALException {
+        throw new MALException("Not used by the tests");
+    }
+
+    @Override
+    protected GENOutgoingMessageHolder<byte[]> internalEncodeMessage(
+            final String destinationRootURI, final String destinationURI,
+            final Object multiSendHandle, final boolean lastForHandle,
+            final String targetURI, final GENMessage msg) throws Exception {
+        throw new MALException("Not used by the tests");
+    }
+
+    @Override
+    protected String createTransportAddress() throws MALException {
+        return "recording";
+    }
+
+    @Override
+    protected GENMessageSender createMessageSender(final GENMessage msg,
+            final String remoteRootURI) throws MALException {
+        throw new MALException("Not used by the tests");
+    }
+
+    @Override
+    public MALBrokerBinding createBroker(final String localName,
+            final Blob authenticationId, final QoSLevel[] expectedQos,
+            final UInteger priorityLevelNumber, final Map defaultQoSProperties) {
+        return null;
+    }
+
+    @Override
+    public MALBrokerBinding createBroker(final MALEndpoint endpoint,
+            final Blob authenticationId, final QoSLevel[] qosLevels,
+            final UInteger priorities, final Map properties) {
+        return null;
+    }
+
+    @Override
+    public boolean isSupportedInteractionType(final InteractionType type) {
+        return true;
+    }
+
+    @Override
+    public boolean isSupportedQoSLevel(final QoSLevel qos) {
+        return true;
+    }
+}
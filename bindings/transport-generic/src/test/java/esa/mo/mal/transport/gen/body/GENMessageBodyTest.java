@@ -0,0 +1,401 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO Generic Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.transport.gen.body;
+
+import esa.mo.mal.encoder.binary.fixed.FixedBinaryStreamFactory;
+import esa.mo.mal.encoder.binary.split.SplitBinaryStreamFactory;
+import esa.mo.mal.encoder.binary.variable.VariableBinaryStreamFactory;
+import esa.mo.mal.support.EncodedPartCache;
+import esa.mo.mal.transport.gen.GENMessage;
+import esa.mo.mal.transport.gen.GENMessageHeader;
+import esa.mo.mal.transport.gen.util.GENBufferPool;
+import esa.mo.mal.transport.gen.util.GENPooledBuffer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.ccsds.moims.mo.mal.MALContextFactory;
+import org.ccsds.moims.mo.mal.MALElementsRegistry;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALOperation;
+import org.ccsds.moims.mo.mal.MALOperationStage;
+import org.ccsds.moims.mo.mal.MALPubSubOperation;
+import org.ccsds.moims.mo.mal.MALSendOperation;
+import org.ccsds.moims.mo.mal.encoding.GENElementInputStream;
+import org.ccsds.moims.mo.mal.encoding.MALElementInputStream;
+import org.ccsds.moims.mo.mal.encoding.MALElementOutputStream;
+import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
+import org.ccsds.moims.mo.mal.encoding.MALEncodingContext;
+import org.ccsds.moims.mo.mal.structures.Attribute;
+import org.ccsds.moims.mo.mal.structures.AttributeList;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UIntegerList;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the lazy decoding of the body parts of GENMessageBody and that a
+ * body re-encoded with the encoding it was read with is passed through byte
+ * for byte, whether it is untouched, partly or fully decoded. Also checks
+ * that the shared parts of the NOTIFY messages of a PUBLISH are encoded once,
+ * through the cache the broker passes with the message QoS properties, and
+ * that a body decoded from a pooled buffer gives the buffer back once decoded.
+ */
+public class GENMessageBodyTest {
+
+    private static final UOctet STAGE = new UOctet((short) 1);
+    private static final Object[] PARTS = new Object[]{
+        new Identifier("first"), new UInteger(42), new Identifier("third")
+    };
+    private static final MALOperation OPERATION = new MALSendOperation(new UShort(1),
+            new Identifier("testSend"), false, new UShort(0),
+            new MALOperationStage(STAGE, new Object[]{
+        Attribute.IDENTIFIER_SHORT_FORM, Attribute.UINTEGER_SHORT_FORM, Attribute.IDENTIFIER_SHORT_FORM
+    }, new Object[0]));
+    private static final MALOperation NOTIFY_OPERATION = new MALPubSubOperation(new UShort(2),
+            new Identifier("testPubSub"), false, new UShort(0),
+            new Object[]{new UIntegerList().getShortForm()}, new Object[0]);
+
+    @BeforeClass
+    public static void registerElements() {
+        final MALElementsRegistry registry = MALContextFactory.getElementsRegistry();
+        registry.addElementSupplier(Attribute.IDENTIFIER_SHORT_FORM, Identifier::new);
+        registry.addElementSupplier(Attribute.UINTEGER_SHORT_FORM, UInteger::new);
+    }
+
+    @Test
+    public void testPartialDecodeFixedBinary() throws Exception {
+        checkPartialDecode(new FixedBinaryStreamFactory());
+    }
+
+    @Test
+    public void testPartialDecodeVariableBinary() throws Exception {
+        checkPartialDecode(new VariableBinaryStreamFactory());
+    }
+
+    @Test
+    public void testPassThroughFixedBinary() throws Exception {
+        checkPassThrough(new FixedBinaryStreamFactory());
+    }
+
+    @Test
+    public void testPassThroughVariableBinary() throws Exception {
+        checkPassThrough(new VariableBinaryStreamFactory());
+    }
+
+    @Test
+    public void testSourceArrayContract() throws Exception {
+        final MALElementStreamFactory factory = new FixedBinaryStreamFactory();
+        final byte[] body = encodeParts(factory);
+        final byte[] packet = new byte[body.length + 5];
+        System.arraycopy(body, 0, packet, 5, body.length);
+
+        final GENElementInputStream in = (GENElementInputStream) factory.createInputStream(packet, 5);
+        assertSame(packet, in.getSourceArray());
+        assertEquals(5, in.getSourceOffset());
+        assertEquals(packet.length, in.getSourceLimit());
+
+        final MALEncodingContext ctx = newContext();
+        ctx.setBodyElementIndex(0);
+        assertEquals(PARTS[0], in.readElement(new Identifier(), ctx));
+        assertEquals(5 + encodeParts(factory, 1).length, in.getSourceOffset());
+        assertEquals(packet.length, in.getSourceLimit());
+
+        final GENElementInputStream stream = (GENElementInputStream) factory.createInputStream(
+                new ByteArrayInputStream(body));
+        assertNull(stream.getSourceArray());
+
+        // the split encoding holds the Boolean values of the message in one bit field
+        final MALElementStreamFactory split = new SplitBinaryStreamFactory();
+        assertNull(((GENElementInputStream) split.createInputStream(encodeParts(split), 0))
+                .getSourceArray());
+    }
+
+    @Test
+    public void testBodyIsDecodedInPlaceFromAPooledBuffer() throws Exception {
+        final MALElementStreamFactory factory = new FixedBinaryStreamFactory();
+        final byte[] encoded = encodeParts(factory);
+        final GENBufferPool pool = new GENBufferPool(4, false);
+        final GENPooledBuffer pooled = newPooledBody(pool, encoded);
+
+        final GENMessage msg = new GENMessage(false, (GENMessageHeader) newContext().getHeader(),
+                null, pooled, 7, encoded.length, factory);
+        pooled.release();
+        assertEquals(1, pooled.referenceCount());
+        assertEquals(0, pool.getFreeCount());
+
+        final GENMessageBody body = (GENMessageBody) msg.getBody();
+        body.ctx.setOperation(OPERATION);
+
+        // only the body is passed through, not the rest of the pooled array
+        assertArrayEquals(encoded, encodeBody(factory, body));
+
+        assertEquals(PARTS[0], body.getBodyElement(0, null));
+        assertEquals(1, pooled.referenceCount());
+        assertArrayEquals(encoded, encodeBody(factory, body));
+
+        // the buffer goes back to the pool with the last part decoded
+        assertEquals(PARTS[2], body.getBodyElement(2, null));
+        assertEquals(0, pooled.referenceCount());
+        assertEquals(1, pool.getFreeCount());
+
+        msg.free();
+        assertEquals(PARTS[1], body.getBodyElement(1, null));
+        assertArrayEquals(encoded, encodeBody(factory, body));
+    }
+
+    @Test
+    public void testFreeReleasesAnUndecodedPooledBody() throws Exception {
+        final MALElementStreamFactory factory = new VariableBinaryStreamFactory();
+        final byte[] encoded = encodeParts(factory);
+        final GENBufferPool pool = new GENBufferPool(4, false);
+        final GENPooledBuffer pooled = newPooledBody(pool, encoded);
+
+        final GENMessage msg = new GENMessage(false, (GENMessageHeader) newContext().getHeader(),
+                null, pooled, 7, encoded.length, factory);
+        pooled.release();
+
+        msg.free();
+        assertEquals(0, pooled.referenceCount());
+        assertEquals(1, pool.getFreeCount());
+        msg.free();
+    }
+
+    @Test
+    public void testDirectPooledBodyIsCopied() throws Exception {
+        final MALElementStreamFactory factory = new FixedBinaryStreamFactory();
+        final byte[] encoded = encodeParts(factory);
+        final GENPooledBuffer pooled = new GENBufferPool(4, true).acquire(encoded.length + 7);
+        for (int i = 0; i < encoded.length; i++) {
+            pooled.buffer().put(7 + i, encoded[i]);
+        }
+
+        final GENMessage msg = new GENMessage(false, (GENMessageHeader) newContext().getHeader(),
+                null, pooled, 7, encoded.length, factory);
+        assertEquals(1, pooled.referenceCount());
+        pooled.release();
+
+        final GENMessageBody body = (GENMessageBody) msg.getBody();
+        body.ctx.setOperation(OPERATION);
+        assertEquals(PARTS[2], body.getBodyElement(2, null));
+        assertArrayEquals(encoded, encodeBody(factory, body));
+    }
+
+    @Test
+    public void testStreamBodyIsDecodedToReencode() throws Exception {
+        final MALElementStreamFactory factory = new FixedBinaryStreamFactory();
+        final byte[] encoded = encodeParts(factory);
+        final GENMessageBody body = new GENMessageBody(newContext(), false, factory, null,
+                factory.createInputStream(new ByteArrayInputStream(encoded)));
+
+        assertEquals(PARTS[0], body.getBodyElement(0, null));
+        assertArrayEquals(encoded, encodeBody(factory, body));
+        assertTrue(body.decodedBody);
+    }
+
+    @Test
+    public void testNotifyPartsAreEncodedOncePerPublish() throws Exception {
+        final MALElementStreamFactory factory = new FixedBinaryStreamFactory();
+        final UpdateHeaderList headers = newUpdateHeaders("P1");
+        final UIntegerList updates = new UIntegerList();
+        updates.add(new UInteger(7));
+
+        final byte[] expected = encodeNotify(factory, "sub1", headers, updates, null);
+        final EncodedPartCache cache = new EncodedPartCache();
+
+        assertArrayEquals(expected, encodeNotify(factory, "sub1", headers, updates, cache));
+        assertEquals(2, cache.size());
+        assertEquals(0, cache.getHitCount());
+
+        // the second consumer gets the shared parts from the cache
+        final byte[] other = encodeNotify(factory, "sub2", headers, updates, cache);
+        assertArrayEquals(encodeNotify(factory, "sub2", headers, updates, null), other);
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.getHitCount());
+    }
+
+    @Test
+    public void testNotifyPartsAreNotServedAcrossPublishes() throws Exception {
+        final MALElementStreamFactory factory = new FixedBinaryStreamFactory();
+        final UpdateHeaderList headers = newUpdateHeaders("P1");
+        final UIntegerList updates = new UIntegerList();
+        updates.add(new UInteger(7));
+
+        final EncodedPartCache first = new EncodedPartCache();
+        final byte[] before = encodeNotify(factory, "sub1", headers, updates, first);
+
+        // the same list objects, modified and published again
+        headers.add(newUpdateHeaders("P2").get(0));
+        updates.add(new UInteger(8));
+
+        final EncodedPartCache second = new EncodedPartCache();
+        final byte[] after = encodeNotify(factory, "sub1", headers, updates, second);
+
+        assertFalse(Arrays.equals(before, after));
+        assertArrayEquals(encodeNotify(factory, "sub1", headers, updates, null), after);
+        assertEquals(0, second.getHitCount());
+        assertEquals(0, first.getHitCount());
+    }
+
+    private static void checkPartialDecode(final MALElementStreamFactory factory) throws Exception {
+        final GENMessageBody body = newBody(factory, encodeParts(factory));
+
+        assertEquals(PARTS.length, body.getElementCount());
+        assertEquals(0, body.decodedParts);
+
+        assertEquals(PARTS[0], body.getBodyElement(0, null));
+        assertEquals(1, body.decodedParts);
+        assertFalse(body.decodedBody);
+
+        // asking for a later part decodes the ones before it, in order
+        assertEquals(PARTS[2], body.getBodyElement(2, null));
+        assertEquals(3, body.decodedParts);
+        assertTrue(body.decodedBody);
+
+        assertEquals(PARTS[1], body.getBodyElement(1, null));
+        assertEquals(PARTS[0], body.getBodyElement(0, null));
+    }
+
+    private static void checkPassThrough(final MALElementStreamFactory factory) throws Exception {
+        final byte[] encoded = encodeParts(factory);
+
+        // untouched, nothing is decoded
+        GENMessageBody body = newBody(factory, encoded);
+        assertArrayEquals(encoded, encodeBody(factory, body));
+        assertEquals(0, body.decodedParts);
+
+        // the decoded part is encoded, the rest is copied from the source array
+        body = newBody(factory, encoded);
+        assertEquals(PARTS[0], body.getBodyElement(0, null));
+        assertArrayEquals(encoded, encodeBody(factory, body));
+        assertEquals(1, body.decodedParts);
+        assertFalse(body.decodedBody);
+
+        body = newBody(factory, encoded);
+        assertEquals(PARTS[1], body.getBodyElement(1, null));
+        assertArrayEquals(encoded, encodeBody(factory, body));
+        assertEquals(2, body.decodedParts);
+
+        // fully decoded
+        body = newBody(factory, encoded);
+        assertEquals(PARTS[2], body.getBodyElement(2, null));
+        assertArrayEquals(encoded, encodeBody(factory, body));
+
+        // the encoded parts are still there after being passed through
+        body = newBody(factory, encoded);
+        body.getBodyElement(0, null);
+        encodeBody(factory, body);
+        assertEquals(PARTS[1], body.getBodyElement(1, null));
+        assertEquals(PARTS[2], body.getBodyElement(2, null));
+    }
+
+    /**
+     * Returns a pooled buffer holding the body after 7 bytes of header, the
+     * rest of its array is filled with other bytes.
+     */
+    private static GENPooledBuffer newPooledBody(final GENBufferPool pool, final byte[] encoded) {
+        final GENPooledBuffer pooled = pool.acquire(encoded.length + 7);
+        final byte[] array = pooled.buffer().array();
+        Arrays.fill(array, (byte) 0x55);
+        System.arraycopy(encoded, 0, array, pooled.buffer().arrayOffset() + 7, encoded.length);
+        return pooled;
+    }
+
+    private static GENMessageBody newBody(final MALElementStreamFactory factory,
+            final byte[] encoded) throws MALException {
+        final MALElementInputStream in = factory.createInputStream(encoded, 0);
+        return new GENMessageBody(newContext(), false, factory, null, in);
+    }
+
+    private static byte[] encodeBody(final MALElementStreamFactory factory,
+            final GENMessageBody body) throws MALException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final MALElementOutputStream enc = factory.createOutputStream(baos);
+        body.encodeMessageBody(factory, enc, baos, STAGE, newContext());
+        return baos.toByteArray();
+    }
+
+    private static byte[] encodeParts(final MALElementStreamFactory factory) throws MALException {
+        return encodeParts(factory, PARTS.length);
+    }
+
+    private static byte[] encodeParts(final MALElementStreamFactory factory,
+            final int count) throws MALException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final MALElementOutputStream enc = factory.createOutputStream(baos);
+        final MALEncodingContext ctx = newContext();
+
+        for (int i = 0; i < count; i++) {
+            ctx.setBodyElementIndex(i);
+            enc.writeElement(PARTS[i], ctx);
+        }
+
+        enc.flush();
+        enc.close();
+        return baos.toByteArray();
+    }
+
+    private static byte[] encodeNotify(final MALElementStreamFactory factory,
+            final String subscription, final UpdateHeaderList headers,
+            final UIntegerList updates, final EncodedPartCache cache) throws MALException {
+        final Map qos = new HashMap();
+
+        if (null != cache) {
+            qos.put(EncodedPartCache.QOS_PROPERTY, cache);
+        }
+
+        final GENMessageHeader header = new GENMessageHeader(null, null, null, null, null, null,
+                null, null, null, null, InteractionType.PUBSUB, MALPubSubOperation.NOTIFY_STAGE,
+                1L, new UShort(1), new UShort(1), new UShort(2), new UOctet((short) 1), false);
+        final MALEncodingContext ctx = new MALEncodingContext(header, NOTIFY_OPERATION, 0, qos, qos);
+        final GENMessageBody body = new GENMessageBody(ctx, factory,
+                new Object[]{new Identifier(subscription), headers, updates});
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        body.encodeMessageBody(factory, factory.createOutputStream(baos), baos,
+                MALPubSubOperation.NOTIFY_STAGE, ctx);
+        return baos.toByteArray();
+    }
+
+    private static UpdateHeaderList newUpdateHeaders(final String key) {
+        final AttributeList keyValues = new AttributeList();
+        keyValues.add(new Identifier(key));
+
+        final UpdateHeaderList headers = new UpdateHeaderList();
+        headers.add(new UpdateHeader(new Identifier("provider"), null, keyValues));
+        return headers;
+    }
+
+    private static MALEncodingContext newContext() {
+        final GENMessageHeader header = new GENMessageHeader(null, null, null, null, null, null,
+                null, null, null, null, InteractionType.SEND, STAGE, 1L, new UShort(1),
+                new UShort(1), new UShort(1), new UOctet((short) 1), false);
+        return new MALEncodingContext(header, OPERATION, 0, null, null);
+    }
+}
@@ -0,0 +1,186 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO Generic Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.transport.gen.sending;
+
+import esa.mo.mal.transport.gen.RecordingTransport;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.ccsds.moims.mo.mal.MALException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the sender threads of the GENConcurrentMessageSender send the
+ * queued messages on their own threads, batch the messages already waiting,
+ * report the failures to the transport and stop when terminated.
+ */
+public class GENConcurrentMessageSenderTest {
+
+    private static final String URI_TO = "maltest://remote";
+
+    private RecordingTransport transport;
+    private GENConcurrentMessageSender sender;
+
+    @Before
+    public void setUp() throws MALException {
+        transport = RecordingTransport.create(false);
+        sender = new GENConcurrentMessageSender(transport, URI_TO);
+    }
+
+    @After
+    public void tearDown() throws MALException {
+        sender.terminate();
+        transport.close();
+    }
+
+    @Test
+    public void testMessageIsSentOnTheSenderThread() throws Exception {
+        final RecordingSender messageSender = new RecordingSender();
+
+        assertEquals(1, sender.addProcessor(messageSender, URI_TO));
+
+        final GENOutgoingMessageHolder<byte[]> msg = holder();
+        sender.sendMessage(msg);
+
+        assertEquals(Boolean.TRUE, msg.getResultFuture().get(5, TimeUnit.SECONDS));
+        assertEquals(1, messageSender.sent.size());
+        assertSame(msg, messageSender.sent.get(0));
+        assertEquals("Transport_Send URI: " + URI_TO, messageSender.threadName);
+        assertNotSame(Thread.currentThread().getName(), messageSender.threadName);
+    }
+
+    @Test
+    public void testWaitingMessagesAreSentAsABatch() throws Exception {
+        final RecordingSender messageSender = new RecordingSender();
+        messageSender.blocked = new CountDownLatch(1);
+        sender.addProcessor(messageSender, URI_TO);
+
+        final GENOutgoingMessageHolder<byte[]> first = holder();
+        sender.sendMessage(first);
+        assertTrue(messageSender.entered.await(5, TimeUnit.SECONDS));
+
+        // queued while the sender thread is busy with the first message
+        final GENOutgoingMessageHolder<byte[]> second = holder();
+        final GENOutgoingMessageHolder<byte[]> third = holder();
+        sender.sendMessage(second);
+        sender.sendMessage(third);
+        messageSender.blocked.countDown();
+
+        assertEquals(Boolean.TRUE, first.getResultFuture().get(5, TimeUnit.SECONDS));
+        assertEquals(Boolean.TRUE, second.getResultFuture().get(5, TimeUnit.SECONDS));
+        assertEquals(Boolean.TRUE, third.getResultFuture().get(5, TimeUnit.SECONDS));
+        assertEquals(3, messageSender.sent.size());
+        assertEquals(1, messageSender.batches.size());
+        assertEquals(2, (int) messageSender.batches.get(0));
+    }
+
+    @Test
+    public void testSendErrorFailsTheMessageAndInformsTheTransport() throws Exception {
+        final RecordingSender messageSender = new RecordingSender();
+        messageSender.fail = true;
+        sender.addProcessor(messageSender, URI_TO);
+
+        final GENOutgoingMessageHolder<byte[]> msg = holder();
+        sender.sendMessage(msg);
+
+        assertEquals(Boolean.FALSE, msg.getResultFuture().get(5, TimeUnit.SECONDS));
+        assertTrue(messageSender.closed.await(5, TimeUnit.SECONDS));
+        assertEquals(1, transport.communicationErrors.size());
+        assertEquals(URI_TO, transport.communicationErrors.get(0));
+    }
+
+    @Test
+    public void testTerminateStopsTheSenderThreads() throws Exception {
+        final RecordingSender first = new RecordingSender();
+        final RecordingSender second = new RecordingSender();
+        sender.addProcessor(first, URI_TO);
+
+        assertEquals(2, sender.addProcessor(second, URI_TO));
+
+        sender.terminate();
+
+        assertTrue(first.closed.await(5, TimeUnit.SECONDS));
+        assertTrue(second.closed.await(5, TimeUnit.SECONDS));
+        assertEquals(0, sender.getNumberOfProcessors());
+
+        final GENOutgoingMessageHolder<byte[]> msg = holder();
+        sender.sendMessage(msg);
+        assertEquals(Boolean.FALSE, msg.getResultFuture().get(5, TimeUnit.SECONDS));
+    }
+
+    private static GENOutgoingMessageHolder<byte[]> holder() {
+        return new GENOutgoingMessageHolder<>(5, URI_TO, URI_TO, null, false,
+                null, new byte[]{1, 2, 3});
+    }
+
+    /**
+     * Records the messages and the batches sent, can block in the first send
+     * and fail all of them.
+     */
+    private static final class RecordingSender implements GENMessageSender<byte[]> {
+
+        private final List<GENOutgoingMessageHolder<byte[]>> sent = new CopyOnWriteArrayList<>();
+        private final List<Integer> batches = new CopyOnWriteArrayList<>();
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch closed = new CountDownLatch(1);
+        private volatile CountDownLatch blocked = null;
+        private volatile boolean fail = false;
+        private volatile String threadName = null;
+
+        @Override
+        public void sendEncodedMessage(GENOutgoingMessageHolder<byte[]> encodedMessage)
+                throws IOException {
+            threadName = Thread.currentThread().getName();
+            entered.countDown();
+
+            if (fail) {
+                throw new IOException("send failed");
+            }
+
+            if (null != blocked) {
+                try {
+                    blocked.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    throw new IOException(ex);
+                }
+            }
+
+            sent.add(encodedMessage);
+        }
+
+        @Override
+        public void sendEncodedMessages(List<GENOutgoingMessageHolder<byte[]>> encodedMessages)
+                throws IOException {
+            batches.add(encodedMessages.size());
+            GENMessageSender.super.sendEncodedMessages(encodedMessages);
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+}
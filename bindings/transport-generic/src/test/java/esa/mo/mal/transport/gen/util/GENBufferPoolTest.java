@@ -0,0 +1,195 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO Generic Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.transport.gen.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the size classes, the reuse and the reference counting of the
+ * GENBufferPool and its GENPooledBuffers.
+ */
+public class GENBufferPoolTest {
+
+    @Test
+    public void testAcquireIsLimitedToTheRequestedSize() {
+        final GENBufferPool pool = new GENBufferPool(4, false);
+        final GENPooledBuffer pooled = pool.acquire(300);
+        final ByteBuffer buffer = pooled.buffer();
+
+        assertEquals(0, buffer.position());
+        assertEquals(300, buffer.limit());
+        assertEquals(512, buffer.capacity());
+        assertEquals(300, pooled.length());
+        assertEquals(1, pooled.referenceCount());
+        assertEquals(1, pool.getMissCount());
+        assertEquals(0, pool.getHitCount());
+    }
+
+    @Test
+    public void testSmallRequestsUseTheSmallestClass() {
+        final GENBufferPool pool = new GENBufferPool(4, false);
+
+        assertEquals(GENBufferPool.MIN_BUFFER_SIZE, pool.acquire(1).buffer().capacity());
+        assertEquals(GENBufferPool.MIN_BUFFER_SIZE, pool.acquire(256).buffer().capacity());
+        assertEquals(512, pool.acquire(257).buffer().capacity());
+    }
+
+    @Test
+    public void testReleasedBufferIsReused() {
+        final GENBufferPool pool = new GENBufferPool(4, false);
+        final GENPooledBuffer first = pool.acquire(1000);
+        final ByteBuffer buffer = first.buffer();
+        buffer.put(new byte[600]);
+        first.release();
+
+        assertEquals(1, pool.getFreeCount());
+
+        final GENPooledBuffer second = pool.acquire(700);
+
+        assertSame(buffer, second.buffer());
+        assertEquals(0, second.buffer().position());
+        assertEquals(700, second.buffer().limit());
+        assertEquals(1, pool.getHitCount());
+        assertEquals(1, pool.getMissCount());
+        assertEquals(0, pool.getFreeCount());
+        assertEquals(0.5, pool.getHitRate(), 0.0);
+    }
+
+    @Test
+    public void testDifferentClassIsNotReused() {
+        final GENBufferPool pool = new GENBufferPool(4, false);
+        final GENPooledBuffer small = pool.acquire(100);
+        small.release();
+
+        final GENPooledBuffer large = pool.acquire(2000);
+
+        assertNotSame(small.buffer(), large.buffer());
+        assertEquals(2048, large.buffer().capacity());
+        assertEquals(2, pool.getMissCount());
+        assertEquals(1, pool.getFreeCount());
+    }
+
+    @Test
+    public void testOversizedBufferIsNotPooled() {
+        final GENBufferPool pool = new GENBufferPool(4, false);
+        final int size = GENBufferPool.MAX_BUFFER_SIZE + 1;
+        final GENPooledBuffer pooled = pool.acquire(size);
+
+        assertEquals(size, pooled.buffer().capacity());
+        assertEquals(size, pooled.buffer().limit());
+        assertEquals(1, pool.getOversizedCount());
+        assertEquals(0, pool.getMissCount());
+
+        pooled.release();
+
+        assertEquals(0, pool.getFreeCount());
+        assertEquals(0.0, pool.getHitRate(), 0.0);
+    }
+
+    @Test
+    public void testFullClassDiscardsTheBuffer() {
+        final GENBufferPool pool = new GENBufferPool(1, false);
+        final GENPooledBuffer first = pool.acquire(100);
+        final GENPooledBuffer second = pool.acquire(100);
+        first.release();
+        second.release();
+
+        assertEquals(1, pool.getFreeCount());
+        assertEquals(1, pool.getDiscardedCount());
+    }
+
+    @Test
+    public void testLastReleaseReturnsTheBuffer() {
+        final GENBufferPool pool = new GENBufferPool(4, false);
+        final GENPooledBuffer pooled = pool.acquire(100);
+
+        assertSame(pooled, pooled.retain());
+        assertEquals(2, pooled.referenceCount());
+
+        pooled.release();
+        assertEquals(0, pool.getFreeCount());
+
+        pooled.release();
+        assertEquals(0, pooled.referenceCount());
+        assertEquals(1, pool.getFreeCount());
+    }
+
+    @Test
+    public void testUseAfterReleaseIsRejected() {
+        final GENBufferPool pool = new GENBufferPool(4, false);
+        final GENPooledBuffer pooled = pool.acquire(100);
+        pooled.release();
+
+        try {
+            pooled.release();
+            fail("A second release must be rejected");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+
+        try {
+            pooled.retain();
+            fail("A retain after the last release must be rejected");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+
+        assertEquals(0, pooled.referenceCount());
+        assertEquals(1, pool.getFreeCount());
+    }
+
+    @Test
+    public void testViewsAndCopies() throws IOException {
+        checkViewsAndCopies(new GENBufferPool(4, false));
+        checkViewsAndCopies(new GENBufferPool(4, true));
+    }
+
+    private static void checkViewsAndCopies(GENBufferPool pool) throws IOException {
+        final GENPooledBuffer pooled = pool.acquire(10);
+        final ByteBuffer buffer = pooled.buffer();
+
+        assertEquals(pool.isDirect(), buffer.isDirect());
+
+        for (int i = 0; i < 10; i++) {
+            buffer.put((byte) i);
+        }
+
+        final ByteBuffer view = pooled.view();
+        assertEquals(0, view.position());
+        assertEquals(10, view.limit());
+        assertEquals(10, buffer.position());
+
+        assertArrayEquals(new byte[]{3, 4, 5}, pooled.copy(3, 3));
+
+        final InputStream in = pooled.asInputStream();
+        final byte[] read = new byte[20];
+        assertEquals(10, in.available());
+        assertEquals(10, in.read(read, 0, read.length));
+        assertEquals(9, read[9]);
+        assertEquals(-1, in.read());
+
+        pooled.release();
+    }
+}
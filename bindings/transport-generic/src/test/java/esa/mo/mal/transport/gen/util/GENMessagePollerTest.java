@@ -0,0 +1,219 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO Generic Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.transport.gen.util;
+
+import esa.mo.mal.transport.gen.RecordingTransport;
+import esa.mo.mal.transport.gen.sending.GENMessageSender;
+import esa.mo.mal.transport.gen.sending.GENOutgoingMessageHolder;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.ccsds.moims.mo.mal.MALException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the GENMessagePoller passes the messages it reads to the
+ * transport on its own thread, that it closes the connection when the stream
+ * ends, fails or the thread is interrupted, and that the Thread methods are
+ * delegated to the thread it owns.
+ */
+public class GENMessagePollerTest {
+
+    private static final byte[] END = new byte[0];
+    private static final byte[] FAIL = new byte[1];
+
+    private RecordingTransport transport;
+    private RecordingSender sender;
+    private QueueReceiver receiver;
+    private GENMessagePoller<byte[], byte[]> poller;
+
+    @Before
+    public void setUp() throws MALException {
+        transport = RecordingTransport.create(false);
+        sender = new RecordingSender();
+        receiver = new QueueReceiver();
+        poller = new GENMessagePoller<>(transport, sender, receiver,
+                (t, handler, msg) -> () -> null);
+        poller.setRemoteURI("maltest://remote");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        poller.interrupt();
+        poller.join(5000);
+        transport.close();
+    }
+
+    @Test
+    public void testReceivedMessagesArePassedToTheTransport() throws Exception {
+        receiver.queue.add(new byte[]{1});
+        receiver.queue.add(new byte[]{2});
+        receiver.queue.add(END);
+
+        poller.start();
+        poller.join(5000);
+
+        assertFalse(poller.isAlive());
+        assertEquals(2, transport.receivedDecoders.size());
+    }
+
+    @Test
+    public void testEndOfStreamClosesTheConnection() throws Exception {
+        receiver.queue.add(END);
+
+        poller.start();
+        poller.join(5000);
+
+        assertFalse(poller.isAlive());
+        assertEquals(1, transport.closedConnections.size());
+        assertEquals("maltest://remote", transport.closedConnections.get(0));
+        assertTrue(transport.communicationErrors.isEmpty());
+        assertTrue(sender.closed.get());
+        assertTrue(receiver.closed.get());
+    }
+
+    @Test
+    public void testReadErrorInformsTheTransport() throws Exception {
+        receiver.queue.add(FAIL);
+
+        poller.start();
+        poller.join(5000);
+
+        assertFalse(poller.isAlive());
+        assertEquals(1, transport.communicationErrors.size());
+        assertEquals("maltest://remote", transport.communicationErrors.get(0));
+        assertTrue(transport.closedConnections.isEmpty());
+        assertTrue(sender.closed.get());
+        assertTrue(receiver.closed.get());
+    }
+
+    @Test
+    public void testInterruptTerminatesThePoller() throws Exception {
+        poller.start();
+        assertTrue(receiver.reading.await(5, TimeUnit.SECONDS));
+        assertTrue(poller.isAlive());
+
+        // interrupts the blocked read
+        poller.interrupt();
+        poller.join(5000);
+
+        assertFalse(poller.isAlive());
+        assertEquals(1, transport.closedConnections.size());
+        assertTrue(sender.closed.get());
+        assertTrue(receiver.closed.get());
+    }
+
+    @Test
+    public void testThreadMethodsAreDelegated() {
+        final Thread thread = poller.getThread();
+
+        assertEquals("Transport_Receive URI:maltest://remote", poller.getName());
+        assertEquals(thread.getName(), poller.getName());
+        assertFalse(poller.isAlive());
+        assertFalse(poller.isInterrupted());
+
+        poller.setName("renamed");
+        poller.setDaemon(true);
+
+        assertEquals("renamed", thread.getName());
+        assertTrue(thread.isDaemon());
+        assertSame(sender, poller.getMessageSender());
+        assertEquals("maltest://remote", poller.getRemoteURI());
+    }
+
+    @Test
+    public void testPollerRunsOnItsOwnThread() throws Exception {
+        final Thread[] reader = new Thread[1];
+        final GENMessagePoller<byte[], byte[]> own = new GENMessagePoller<>(transport,
+                sender, new GENMessagePoller.GENMessageReceiver<byte[]>() {
+            @Override
+            public byte[] readEncodedMessage() throws IOException {
+                reader[0] = Thread.currentThread();
+                throw new EOFException();
+            }
+
+            @Override
+            public void close() {
+            }
+        }, (t, handler, msg) -> () -> null);
+
+        own.start();
+        own.join(5000);
+
+        assertSame(own.getThread(), reader[0]);
+        assertNotSame(Thread.currentThread(), reader[0]);
+    }
+
+    /**
+     * Hands out the queued messages, ends the stream on END and fails on FAIL.
+     */
+    private static final class QueueReceiver implements GENMessagePoller.GENMessageReceiver<byte[]> {
+
+        private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final CountDownLatch reading = new CountDownLatch(1);
+
+        @Override
+        public byte[] readEncodedMessage() throws IOException, InterruptedException {
+            reading.countDown();
+            final byte[] msg = queue.take();
+
+            if (END == msg) {
+                throw new EOFException();
+            }
+
+            if (FAIL == msg) {
+                throw new IOException("read failed");
+            }
+
+            return msg;
+        }
+
+        @Override
+        public void close() {
+            closed.set(true);
+        }
+    }
+
+    /**
+     * Records that it has been closed.
+     */
+    private static final class RecordingSender implements GENMessageSender<byte[]> {
+
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        @Override
+        public void sendEncodedMessage(GENOutgoingMessageHolder<byte[]> encodedMessage) {
+        }
+
+        @Override
+        public void close() {
+            closed.set(true);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO Generic Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.transport.gen.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assume;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the virtual threads property and that the threads and the dispatcher
+ * fall back to platform threads on a runtime without virtual threads.
+ */
+public class TransportThreadFactoryTest {
+
+    @Test
+    public void testVirtualThreadsProperty() {
+        final Map<String, String> properties = new HashMap<>();
+
+        assertFalse(TransportThreadFactory.isVirtualThreads(null));
+        assertFalse(TransportThreadFactory.isVirtualThreads(properties));
+
+        properties.put(TransportThreadFactory.VIRTUAL_THREADS_PROPERTY, "false");
+        assertFalse(TransportThreadFactory.isVirtualThreads(properties));
+
+        properties.put(TransportThreadFactory.VIRTUAL_THREADS_PROPERTY, "true");
+        assertTrue(TransportThreadFactory.isVirtualThreads(properties));
+    }
+
+    @Test
+    public void testPlatformThreadIsNamed() throws Exception {
+        final Thread[] ran = new Thread[1];
+        final Thread thread = TransportThreadFactory.newThread(
+                () -> ran[0] = Thread.currentThread(), "platform", false);
+
+        assertEquals("platform", thread.getName());
+        assertFalse(thread.isDaemon());
+
+        thread.start();
+        thread.join(5000);
+
+        assertSame(thread, ran[0]);
+    }
+
+    @Test
+    public void testVirtualThreadIsNamedOnAnyRuntime() throws Exception {
+        final Thread[] ran = new Thread[1];
+        final Thread thread = TransportThreadFactory.newThread(
+                () -> ran[0] = Thread.currentThread(), "virtual", true);
+
+        assertEquals("virtual", thread.getName());
+
+        thread.start();
+        thread.join(5000);
+
+        assertSame(thread, ran[0]);
+    }
+
+    @Test
+    public void testDispatcherFallsBackToPlatformThreads() throws Exception {
+        Assume.assumeTrue(null == TransportThreadFactory.createVirtualThreadFactory("test"));
+
+        final Map<String, String> properties = new HashMap<>();
+        properties.put(TransportThreadFactory.VIRTUAL_THREADS_PROPERTY, "true");
+        properties.put(TransportThreadFactory.INPUT_PROCESSORS_PROPERTY, "3");
+
+        final ExecutorService executor = TransportThreadFactory.createDispatcherExecutor(properties);
+
+        try {
+            assertTrue(executor instanceof ThreadPoolExecutor);
+            assertEquals(3, ((ThreadPoolExecutor) executor).getMaximumPoolSize());
+            assertEquals(Boolean.TRUE, executor.submit(() -> Boolean.TRUE).get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDispatcherUsesVirtualThreadsWhenSupported() throws Exception {
+        Assume.assumeTrue(null != TransportThreadFactory.createVirtualThreadFactory("test"));
+
+        final Map<String, String> properties = new HashMap<>();
+        properties.put(TransportThreadFactory.VIRTUAL_THREADS_PROPERTY, "true");
+
+        final ExecutorService executor = TransportThreadFactory.createDispatcherExecutor(properties);
+
+        try {
+            assertFalse(executor instanceof ThreadPoolExecutor);
+            final String name = executor.submit(() -> Thread.currentThread().getName())
+                    .get(5, TimeUnit.SECONDS);
+            assertTrue(name.startsWith("Transport_Dispatcher-vthread-"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
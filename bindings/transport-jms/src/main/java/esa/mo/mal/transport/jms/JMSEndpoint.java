@@ -24,6 +24,7 @@ import java.io.ByteArrayOutputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import javax.jms.Queue;
 import javax.jms.Session;
@@ -136,6 +137,22 @@ public class JMSEndpoint extends GENEndpoint implements MALEndpoint {
         lqs.close();
     }
 
+    @Override
+    protected CompletableFuture<Void> internalSendMessageAsync(Object handle,
+            boolean lastForHandle, GENMessage msg) {
+        // The JMS sessions are handled per call, so the send stays synchronous
+        CompletableFuture<Void> result = new CompletableFuture<>();
+
+        try {
+            internalSendMessage(handle, lastForHandle, msg);
+            result.complete(null);
+        } catch (MALTransmitErrorException ex) {
+            result.completeExceptionally(ex);
+        }
+
+        return result;
+    }
+
     @Override
     protected void internalSendMessage(Object handle, boolean lastForHandle,
             GENMessage msg) throws MALTransmitErrorException {
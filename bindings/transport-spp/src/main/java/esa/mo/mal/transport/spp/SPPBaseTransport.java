@@ -22,26 +22,32 @@ package esa.mo.mal.transport.spp;
 
 import esa.mo.mal.transport.gen.GENEndpoint;
 import esa.mo.mal.transport.gen.GENMessage;
-import esa.mo.mal.transport.gen.GENMessageHeader;
 import esa.mo.mal.transport.gen.GENTransport;
 import esa.mo.mal.transport.gen.sending.GENOutgoingMessageHolder;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.ccsds.moims.mo.mal.MALException;
 import org.ccsds.moims.mo.mal.MALHelper;
+import org.ccsds.moims.mo.mal.MALStandardError;
 import org.ccsds.moims.mo.mal.broker.MALBrokerBinding;
+import org.ccsds.moims.mo.mal.encoding.GENElementInputStream;
+import org.ccsds.moims.mo.mal.encoding.MALElementInputStream;
 import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
+import org.ccsds.moims.mo.mal.encoding.MALEncodingContext;
 import org.ccsds.moims.mo.mal.structures.Blob;
 import org.ccsds.moims.mo.mal.structures.InteractionType;
 import org.ccsds.moims.mo.mal.structures.QoSLevel;
 import org.ccsds.moims.mo.mal.structures.UInteger;
 import org.ccsds.moims.mo.mal.transport.MALEndpoint;
+import org.ccsds.moims.mo.mal.transport.MALTransmitErrorException;
 import org.ccsds.moims.mo.mal.transport.MALTransportFactory;
 
 public abstract class SPPBaseTransport<I> extends GENTransport<I, List<ByteBuffer>> {
@@ -55,6 +61,17 @@ public abstract class SPPBaseTransport<I> extends GENTransport<I, List<ByteBuffe
     public static final String ENCODE_BODY_FIXED = "org.ccsds.moims.mo.malspp.isFixedBody";
     public static final String IS_TC_PACKET_PROPERTY = "org.ccsds.moims.mo.malspp.isTcPacket";
     public static final String SEGMENT_MAX_SIZE_PROPERTY = "org.ccsds.moims.mo.malspp.segmentMaxSize";
+    /**
+     * The time in milliseconds after which a segmented message that does not
+     * receive any segment is discarded.
+     */
+    public static final String SEGMENT_TIMEOUT_PROPERTY = "org.ccsds.moims.mo.malspp.segmentTimeout";
+    /**
+     * The maximum number of bytes held for segmented messages being
+     * reassembled.
+     */
+    public static final String SEGMENT_BUFFER_SIZE_PROPERTY
+            = "org.ccsds.moims.mo.malspp.segmentBufferSize";
     public static final String APID_QUALIFIER_PROPERTY = "org.ccsds.moims.mo.malspp.apidQualifier";
     public static final String APID_PROPERTY = "org.ccsds.moims.mo.malspp.apid";
     public static final String APPEND_ID_TO_URI = "org.ccsds.moims.mo.malspp.appendIdToUri";
@@ -71,15 +88,19 @@ public abstract class SPPBaseTransport<I> extends GENTransport<I, List<ByteBuffe
     protected final SPPSourceSequenceCounterSimple ssc;
     protected final int defaultApidQualifier;
     protected final int defaultApid;
+    /**
+     * The configurations of specific APIDs, these should be set with
+     * setApidConfiguration so that the lookup used on reception is rebuilt.
+     */
     protected final Map<QualifiedApid, SPPConfiguration> apidConfigurations
             = new HashMap<QualifiedApid, SPPConfiguration>();
-    protected final Map<QualifiedApid, Map<Long, SPPSegmentsHandler>> segmentHandlers
-            = new HashMap<QualifiedApid, Map<Long, SPPSegmentsHandler>>();
+    protected final SPPSegmentsHandler segmentsHandler;
     /**
      * The stream factory used for encoding and decoding message headers.
      */
     private final MALElementStreamFactory hdrStreamFactory;
     private final AtomicInteger uniqueIdGenerator = new AtomicInteger(0);
+    private volatile ConfigurationLookup configurationLookup = null;
 
     /*
    * Constructor.
@@ -103,6 +124,8 @@ public abstract class SPPBaseTransport<I> extends GENTransport<I, List<ByteBuffe
 
         int aq = -1;
         int a = 1;
+        long segmentTimeout = 60000;
+        long segmentBufferSize = 16 * 1024 * 1024;
 
         // decode configuration
         if (properties != null) {
@@ -113,10 +136,20 @@ public abstract class SPPBaseTransport<I> extends GENTransport<I, List<ByteBuffe
             if (properties.containsKey(APID_PROPERTY)) {
                 a = Integer.parseInt((String) properties.get(APID_PROPERTY));
             }
+
+            if (properties.containsKey(SEGMENT_TIMEOUT_PROPERTY)) {
+                segmentTimeout = Long.parseLong((String) properties.get(SEGMENT_TIMEOUT_PROPERTY));
+            }
+
+            if (properties.containsKey(SEGMENT_BUFFER_SIZE_PROPERTY)) {
+                segmentBufferSize = Long.parseLong(
+                        (String) properties.get(SEGMENT_BUFFER_SIZE_PROPERTY));
+            }
         }
 
         this.defaultApidQualifier = aq;
         this.defaultApid = a;
+        this.segmentsHandler = new SPPSegmentsHandler(this, segmentTimeout, segmentBufferSize);
 
         MALElementStreamFactory lsf = super.getStreamFactory();
 
@@ -218,16 +251,23 @@ public abstract class SPPBaseTransport<I> extends GENTransport<I, List<ByteBuffe
             final boolean lastForHandle,
             final String targetURI,
             final GENMessage msg) throws Exception {
-        byte[] buf = internalEncodeByteMessage(destinationRootURI,
-                destinationURI, multiSendHandle, lastForHandle, targetURI, msg);
-
-        int sequenceFlags = (buf[2] & 0xC0) >> 6;
+        List<ByteBuffer> encodedMessage;
 
-        List<ByteBuffer> encodedMessage = new ArrayList<ByteBuffer>();
-
-        if (3 == sequenceFlags) {
-            encodedMessage.add(ByteBuffer.wrap(buf));
+        if (msg instanceof SPPMessage) {
+            // the packets are encoded directly, one per segment
+            try {
+                encodedMessage = ((SPPMessage) msg).encodePackets(getStreamFactory());
+            } catch (MALException ex) {
+                LOGGER.log(Level.SEVERE, "Could not encode message!", ex);
+                throw new MALTransmitErrorException(msg.getHeader(),
+                        new MALStandardError(MALHelper.BAD_ENCODING_ERROR_NUMBER, null),
+                        null);
+            }
         } else {
+            byte[] buf = internalEncodeByteMessage(destinationRootURI,
+                    destinationURI, multiSendHandle, lastForHandle, targetURI, msg);
+
+            encodedMessage = new ArrayList<ByteBuffer>();
             ByteBuffer buffer = ByteBuffer.wrap(buf);
             int index = 0;
             while ((buf.length - index) > 0) {
@@ -252,65 +292,42 @@ public abstract class SPPBaseTransport<I> extends GENTransport<I, List<ByteBuffe
     protected GENMessage internalCreateMessage(final int apidQualifier, final int apid,
             int sequenceFlags, final byte[] packet) throws MALException {
         if (3 == sequenceFlags) {
-            SPPConfiguration configuration
-                    = apidConfigurations.get(new QualifiedApid(apidQualifier, apid));
-            if (null == configuration) {
-                configuration = defaultConfiguration;
-            }
+            final SPPConfiguration configuration = getConfiguration(apidQualifier, apid);
 
             MALElementStreamFactory localBodyStreamFactory = hdrStreamFactory;
             if (!configuration.isFixedBody()) {
                 localBodyStreamFactory = getStreamFactory();
             }
 
-            // need to decode in two stages, first message header
-            SPPMessage dummyMessage = internalDecodeMessageHeader(apidQualifier, apid, packet);
+            // the header is decoded once and the body straight after it
+            final SPPMessageHeader header = new SPPMessageHeader(hdrStreamFactory,
+                    configuration, null, apidQualifier, uriRep, ssc);
+            final int bodyOffset = internalDecodeHeader(header, packet);
 
-            // now full message including body
             try {
-                return new SPPMessage(hdrStreamFactory, configuration, null, wrapBodyParts, false,
-                        (GENMessageHeader) dummyMessage.getHeader(), qosProperties,
-                        dummyMessage.getBody().getEncodedBody().getEncodedBody().getValue(),
-                        localBodyStreamFactory);
+                if (0 > bodyOffset) {
+                    // the header stream does not tell where the body starts
+                    SPPMessage dummyMessage = internalDecodeMessageHeader(apidQualifier, apid, packet);
+                    return new SPPMessage(hdrStreamFactory, configuration, null, wrapBodyParts,
+                            false, header, qosProperties,
+                            dummyMessage.getBody().getEncodedBody().getEncodedBody().getValue(),
+                            localBodyStreamFactory);
+                }
+
+                return new SPPMessage(hdrStreamFactory, configuration, null, wrapBodyParts,
+                        header, qosProperties, packet, bodyOffset, localBodyStreamFactory);
             } catch (MALException ex) {
                 returnErrorMessage(null,
-                        dummyMessage,
+                        internalDecodeMessageHeader(apidQualifier, apid, packet),
                         MALHelper.INTERNAL_ERROR_NUMBER,
                         "The message body could not be decoded. The message will be discarded!");
 
                 return null;
             }
         } else {
-            // find packet segment handler
-            final Long transactionId = (long) java.nio.ByteBuffer.wrap(packet).getLong(18);
-
-            Map<Long, SPPSegmentsHandler> map
-                    = segmentHandlers.get(new QualifiedApid(apidQualifier, apid));
-
-            if (null == map) {
-                map = new HashMap<Long, SPPSegmentsHandler>();
-                segmentHandlers.put(new QualifiedApid(apidQualifier, apid), map);
-            }
-
-            SPPSegmentsHandler segmentHandler = map.get(transactionId);
-
-            if (null == segmentHandler) {
-                segmentHandler = new SPPSegmentsHandler(this, apidQualifier, apid);
-                map.put(transactionId, segmentHandler);
-            }
-
-            segmentHandler.addSegment(sequenceFlags, packet);
-            byte[] sppRaw = segmentHandler.getNextMessage();
+            byte[] sppRaw = segmentsHandler.addSegment(apidQualifier, apid, sequenceFlags, packet);
 
             if (sppRaw != null) {
-                if (map.get(transactionId).isEmpty()) {
-                    map.remove(transactionId);
-                }
-
-                // We don't remove the map from the segmentHandlers because we are not expecting
-                // to have a big number of different consumers connected. Removing it and
-                // re-adding it from/to the map every time we have a new message would
-                // make things go slower. The map won't grow like crazy, no worries...
                 GENMessage msg = internalCreateMessage(apidQualifier, apid, 3, sppRaw);
                 LOGGER.log(Level.FINE, "Decoded SPP segmented message: {0}", msg.getHeader());
                 return msg;
@@ -322,10 +339,7 @@ public abstract class SPPBaseTransport<I> extends GENTransport<I, List<ByteBuffe
 
     protected SPPMessage internalDecodeMessageHeader(final int apidQualifier,
             final int apid, final byte[] packet) throws MALException {
-        SPPConfiguration configuration = apidConfigurations.get(new QualifiedApid(apidQualifier, apid));
-        if (null == configuration) {
-            configuration = defaultConfiguration;
-        }
+        final SPPConfiguration configuration = getConfiguration(apidQualifier, apid);
 
         // need to decode in two stages, first message header
         return new SPPMessage(hdrStreamFactory, configuration, null, wrapBodyParts, true,
@@ -333,10 +347,153 @@ public abstract class SPPBaseTransport<I> extends GENTransport<I, List<ByteBuffe
                 qosProperties, packet, hdrStreamFactory);
     }
 
+    /**
+     * Sets the configuration used for the messages of an APID.
+     *
+     * @param apidQualifier The APID qualifier.
+     * @param apid The APID.
+     * @param configuration The configuration, or null to use the default one.
+     */
+    protected void setApidConfiguration(final int apidQualifier, final int apid,
+            final SPPConfiguration configuration) {
+        synchronized (apidConfigurations) {
+            if (null == configuration) {
+                apidConfigurations.remove(new QualifiedApid(apidQualifier, apid));
+            } else {
+                apidConfigurations.put(new QualifiedApid(apidQualifier, apid), configuration);
+            }
+
+            configurationLookup = null;
+        }
+    }
+
+    /**
+     * Returns the configuration used for the messages of an APID.
+     *
+     * @param apidQualifier The APID qualifier.
+     * @param apid The APID.
+     * @return The configuration of the APID or the default one.
+     */
+    protected SPPConfiguration getConfiguration(final int apidQualifier, final int apid) {
+        ConfigurationLookup lookup = configurationLookup;
+
+        // also rebuilt if configurations were added to the map directly
+        if ((null == lookup) || (lookup.size() != apidConfigurations.size())) {
+            synchronized (apidConfigurations) {
+                lookup = new ConfigurationLookup(apidConfigurations);
+                configurationLookup = lookup;
+            }
+        }
+
+        final SPPConfiguration configuration = lookup.get(apidQualifier, apid);
+        return (null != configuration) ? configuration : defaultConfiguration;
+    }
+
+    /**
+     * Returns the length of the header of a segment, which is the same for
+     * all the segments of a message.
+     *
+     * @param apidQualifier The APID qualifier of the segment.
+     * @param apid The APID of the segment.
+     * @param packet The segment.
+     * @return The offset of the body in the segment.
+     * @throws MALException If the header could not be decoded.
+     */
+    protected int internalDecodeBodyOffset(final int apidQualifier, final int apid,
+            final byte[] packet) throws MALException {
+        final int bodyOffset = internalDecodeHeader(new SPPMessageHeader(hdrStreamFactory,
+                getConfiguration(apidQualifier, apid), null, apidQualifier, uriRep, ssc), packet);
+
+        if (0 <= bodyOffset) {
+            return bodyOffset;
+        }
+
+        SPPMessage msg = internalDecodeMessageHeader(apidQualifier, apid, packet);
+        return packet.length - msg.getBody().getEncodedBody().getEncodedBody().getValue().length;
+    }
+
+    /**
+     * Decodes the header of a packet into the supplied header.
+     *
+     * @param header The header to decode into.
+     * @param packet The packet.
+     * @return The offset of the body in the packet, or -1 if the header stream
+     * does not provide it.
+     * @throws MALException If the header could not be decoded.
+     */
+    private int internalDecodeHeader(final SPPMessageHeader header, final byte[] packet)
+            throws MALException {
+        final MALElementInputStream enc = hdrStreamFactory.createInputStream(packet, 0);
+        enc.readElement(header, new MALEncodingContext(header, null, 0, qosProperties, qosProperties));
+
+        if ((enc instanceof GENElementInputStream)
+                && (packet == ((GENElementInputStream) enc).getSourceArray())) {
+            return ((GENElementInputStream) enc).getSourceOffset();
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the reassembly of the segmented messages received by this
+     * transport, which also counts the expired and lost segments.
+     *
+     * @return The segments handler.
+     */
+    public SPPSegmentsHandler getSegmentsHandler() {
+        return segmentsHandler;
+    }
+
     protected MALElementStreamFactory getHeaderStreamFactory() {
         return hdrStreamFactory;
     }
 
+    /**
+     * Immutable copy of the APID configurations, sorted on the qualified APID
+     * so that the configuration of a received packet is found without
+     * allocating a key.
+     */
+    private static final class ConfigurationLookup {
+
+        private final long[] keys;
+        private final SPPConfiguration[] configurations;
+
+        private ConfigurationLookup(Map<QualifiedApid, SPPConfiguration> source) {
+            final TreeMap<Long, SPPConfiguration> sorted = new TreeMap<Long, SPPConfiguration>();
+
+            for (Map.Entry<QualifiedApid, SPPConfiguration> entry : source.entrySet()) {
+                sorted.put(key(entry.getKey().apidQualifier, entry.getKey().apid),
+                        entry.getValue());
+            }
+
+            keys = new long[sorted.size()];
+            configurations = new SPPConfiguration[sorted.size()];
+            int i = 0;
+
+            for (Map.Entry<Long, SPPConfiguration> entry : sorted.entrySet()) {
+                keys[i] = entry.getKey();
+                configurations[i++] = entry.getValue();
+            }
+        }
+
+        private int size() {
+            return keys.length;
+        }
+
+        private SPPConfiguration get(int apidQualifier, int apid) {
+            if (0 == keys.length) {
+                return null;
+            }
+
+            final int i = Arrays.binarySearch(keys, key(apidQualifier, apid));
+            return (0 <= i) ? configurations[i] : null;
+        }
+
+        private static long key(int apidQualifier, int apid) {
+            return ((long) apidQualifier << 32) | (apid & 0xFFFFFFFFL);
+        }
+    }
+
     public static class QualifiedApid {
 
         public final int apidQualifier;
@@ -20,7 +20,6 @@
  */
 package esa.mo.mal.transport.spp;
 
-import esa.mo.mal.encoder.binary.fixed.FixedBinaryElementOutputStream;
 import esa.mo.mal.transport.gen.GENMessage;
 import esa.mo.mal.transport.gen.GENMessageHeader;
 import static esa.mo.mal.transport.spp.SPPBaseTransport.LOGGER;
@@ -29,6 +28,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import org.ccsds.moims.mo.mal.MALException;
@@ -105,6 +107,34 @@ public class SPPMessage extends GENMessage {
         this.segmentCounter = segmentCounter;
     }
 
+    /**
+     * Constructor for a message whose header has already been decoded from the
+     * packet.
+     *
+     * @param hdrStreamFactory The header stream factory.
+     * @param configuration The SPP configuration to use for this message.
+     * @param segmentCounter The segment counter.
+     * @param wrapBodyParts True if the encoded body parts should be wrapped in
+     * BLOBs.
+     * @param header The decoded message header.
+     * @param qosProperties The QoS properties for this message.
+     * @param packet The message in encoded form.
+     * @param bodyOffset The offset of the body in the packet.
+     * @param encFactory The stream factory to use for decoding the body.
+     * @throws MALException On decoding error.
+     */
+    public SPPMessage(final MALElementStreamFactory hdrStreamFactory,
+            final SPPConfiguration configuration,
+            final SPPSegmentCounter segmentCounter, boolean wrapBodyParts,
+            GENMessageHeader header, Map qosProperties, byte[] packet, int bodyOffset,
+            MALElementStreamFactory encFactory) throws MALException {
+        super(wrapBodyParts, header, qosProperties, packet, bodyOffset, encFactory);
+
+        this.hdrStreamFactory = hdrStreamFactory;
+        this.configuration = configuration;
+        this.segmentCounter = segmentCounter;
+    }
+
     /**
      * Constructor.
      *
@@ -138,90 +168,229 @@ public class SPPMessage extends GENMessage {
             final OutputStream lowLevelOutputStream,
             final boolean writeHeader) throws MALException {
         try {
-            MALElementStreamFactory localBodyStreamFactory = hdrStreamFactory;
-            if (!configuration.isFixedBody()) {
-                localBodyStreamFactory = streamFactory;
+            for (ByteBuffer packet : encodePackets(streamFactory)) {
+                lowLevelOutputStream.write(packet.array(),
+                        packet.arrayOffset() + packet.position(), packet.remaining());
             }
+        } catch (IOException ex) {
+            throw new MALException("Internal error encoding message", ex);
+        }
+    }
+
+    /**
+     * Encodes the message into its space packets. The body is encoded straight
+     * into the packets, each of them with room for its header in front, so
+     * that a segmented body is not copied again to be split.
+     *
+     * @param streamFactory The stream factory to use for the body if it is not
+     * encoded with the fixed encoding.
+     * @return The packets of the message, one per segment.
+     * @throws MALException On encoding error.
+     */
+    public List<ByteBuffer> encodePackets(final MALElementStreamFactory streamFactory)
+            throws MALException {
+        MALElementStreamFactory localBodyStreamFactory = hdrStreamFactory;
+        if (!configuration.isFixedBody()) {
+            localBodyStreamFactory = streamFactory;
+        }
 
-            final ByteArrayOutputStream hdrBaos = new ByteArrayOutputStream();
-            FixedBinaryElementOutputStream hdrEnc
-                    = (FixedBinaryElementOutputStream) hdrStreamFactory.createOutputStream(hdrBaos);
-            final ByteArrayOutputStream bodyBaos = new ByteArrayOutputStream();
-            final MALElementOutputStream bodyEnc = localBodyStreamFactory.createOutputStream(bodyBaos);
+        // the source sequence counts are reserved once the number of
+        // packets is known, the packets of a segmented message take
+        // consecutive ones
+        final SPPMessageHeader sppHeader
+                = (header instanceof SPPMessageHeader) ? (SPPMessageHeader) header : null;
+        final ByteArrayOutputStream hdrBaos = new ByteArrayOutputStream();
+        final MALElementOutputStream hdrEnc = hdrStreamFactory.createOutputStream(hdrBaos);
+        MALEncodingContext ctx = new MALEncodingContext(header,
+                operation, 0, qosProperties, qosProperties);
 
-            super.encodeMessage(localBodyStreamFactory, bodyEnc, bodyBaos, false);
+        if (null != sppHeader) {
+            sppHeader.setDeferredSSC(true);
+        }
 
-            MALEncodingContext ctx = new MALEncodingContext(header,
-                    operation, 0, qosProperties, qosProperties);
+        try {
             hdrEnc.writeElement(header, ctx);
-            byte[] hdrBuf = hdrBaos.toByteArray();
-            byte[] bodyBuf = bodyBaos.toByteArray();
-
-            LOGGER.log(Level.FINE,
-                    "Check segmenting: Segment size is {0} and required length is {1}",
-                    new Object[]{
-                        configuration.getSegmentSize(), bodyBuf.length + hdrBuf.length - 6
-                    });
-            if ((bodyBuf.length + hdrBuf.length - 6) > configuration.getSegmentSize()) {
-                // encode segmented header
-                ((SPPMessageHeader) header).setSegmentFlags((byte) 0x40);
-                hdrBaos.reset();
-                hdrEnc = (FixedBinaryElementOutputStream) hdrStreamFactory.createOutputStream(hdrBaos);
-                hdrEnc.writeElement(header, ctx);
-                hdrBuf = hdrBaos.toByteArray();
-
-                final int adjustedSegmentSize = configuration.getSegmentSize() - (hdrBuf.length - 6);
-                // first check to see if we can actually fit any data in the 
-                // body when we have a large header and small segment size
-                if (0 >= adjustedSegmentSize) {
-                    throw new MALException(
-                            "SPP Segment size of " + configuration.getSegmentSize()
-                            + " is too small for encoded MAL Message header or size "
-                            + (hdrBuf.length - 6),
-                            new MALInteractionException(
-                                    new MALStandardError(MALHelper.INTERNAL_ERROR_NUMBER, null)));
-                }
+        } finally {
+            if (null != sppHeader) {
+                sppHeader.setDeferredSSC(false);
+            }
+        }
+
+        hdrEnc.flush();
+        final byte[] hdrBuf = hdrBaos.toByteArray();
+
+        // the header of a segment also holds the segment counter
+        int extra = (hdrBuf[26] & 0x80) != 0 ? 1 : 0;
+        extra += (hdrBuf[26] & 0x40) != 0 ? 1 : 0;
+        final int counterOffset = 27 + extra;
+        final byte[] segHdrBuf = new byte[hdrBuf.length + 4];
+        System.arraycopy(hdrBuf, 0, segHdrBuf, 0, counterOffset);
+        System.arraycopy(hdrBuf, counterOffset, segHdrBuf, counterOffset + 4,
+                hdrBuf.length - counterOffset);
+
+        final int adjustedSegmentSize = configuration.getSegmentSize() - (segHdrBuf.length - 6);
+        // first check to see if we can actually fit any data in the
+        // body when we have a large header and small segment size
+        if (0 >= adjustedSegmentSize) {
+            throw new MALException(
+                    "SPP Segment size of " + configuration.getSegmentSize()
+                    + " is too small for encoded MAL Message header or size "
+                    + (segHdrBuf.length - 6),
+                    new MALInteractionException(
+                            new MALStandardError(MALHelper.INTERNAL_ERROR_NUMBER, null)));
+        }
+
+        final PacketOutputStream bodyStream
+                = new PacketOutputStream(segHdrBuf.length, adjustedSegmentSize);
+        final MALElementOutputStream bodyEnc = localBodyStreamFactory.createOutputStream(bodyStream);
+        super.encodeMessage(localBodyStreamFactory, bodyEnc, bodyStream, false);
+        bodyEnc.flush();
+
+        final List<byte[]> packets = bodyStream.getPackets();
+        final long bodyLength = bodyStream.getLength();
+
+        LOGGER.log(Level.FINE,
+                "Check segmenting: Segment size is {0} and required length is {1}",
+                new Object[]{
+                    configuration.getSegmentSize(), bodyLength + hdrBuf.length - 6
+                });
 
-                // segment data
-                ByteBuffer hdrBytes = ByteBuffer.wrap(hdrBuf);
-                int index = 0;
-                int extra = (hdrBuf[26] & 0x80) != 0 ? 1 : 0;
-                extra += (hdrBuf[26] & 0x40) != 0 ? 1 : 0;
-                boolean first = true;
-
-                SPPSegmentCounter localSegmentCounter = new SPPSegmentCounter();
-
-                while (index < bodyBuf.length) {
-                    int packetSize = Math.min(adjustedSegmentSize, bodyBuf.length - index);
-
-                    if (first) {
-                        first = false;
-                    } //else if (packetSize < adjustedSegmentSize)
-                    else if ((index + packetSize) >= bodyBuf.length) {
-                        hdrBuf[2] = (byte) ((hdrBuf[2] & 0x3F) | 0x80);
-                    } else {
-                        hdrBuf[2] = (byte) ((hdrBuf[2] & 0x3F));
-                    }
-
-                    // increment the SSC
-                    hdrBytes.putShort(4, (short) (packetSize + hdrBuf.length - 7));
-                    int count = localSegmentCounter.getNextSegmentCount();
-                    hdrBytes.putInt(27 + extra, count);
-
-                    LOGGER.log(Level.FINE, "Segment: {0} : {1} : {2} : {3}", new Object[]{
-                        hdrBuf[2] & 0xC0, packetSize + hdrBuf.length - 7, count, index
-                    });
-                    lowLevelOutputStream.write(hdrBuf);
-                    lowLevelOutputStream.write(bodyBuf, index, packetSize);
-                    index += packetSize;
+        final List<ByteBuffer> encodedMessage = new ArrayList<ByteBuffer>(packets.size());
+
+        final boolean segmented = (bodyLength + hdrBuf.length - 6) > configuration.getSegmentSize();
+        final ByteBuffer hdrBytes = ByteBuffer.wrap(segmented ? segHdrBuf : hdrBuf);
+        final int firstSsc = (null != sppHeader)
+                ? sppHeader.reserveSourceSequenceCounts(segmented ? packets.size() : 1)
+                : hdrBytes.getShort(2) & 0x3FFF;
+
+        if (!segmented) {
+            final int length = hdrBuf.length + (int) bodyLength;
+            hdrBytes.putShort(2, (short) ((hdrBytes.getShort(2) & 0xC000) | firstSsc));
+            hdrBytes.putShort(4, (short) (length - 7));
+
+            if (1 == packets.size()) {
+                // the shorter header goes just in front of the body
+                final int offset = segHdrBuf.length - hdrBuf.length;
+                System.arraycopy(hdrBuf, 0, packets.get(0), offset, hdrBuf.length);
+                encodedMessage.add(ByteBuffer.wrap(packets.get(0), offset, length));
+            } else {
+                // the body only spills over the segment size of a segmented one
+                final byte[] packet = new byte[length];
+                System.arraycopy(hdrBuf, 0, packet, 0, hdrBuf.length);
+                bodyStream.copyBody(packet, hdrBuf.length);
+                encodedMessage.add(ByteBuffer.wrap(packet));
+            }
+
+            return encodedMessage;
+        }
+
+        // segment data
+        final int last = packets.size() - 1;
+
+        for (int count = 0; count <= last; count++) {
+            final int packetSize = (count < last) ? adjustedSegmentSize
+                    : (int) (bodyLength - (long) last * adjustedSegmentSize);
+            final int flags = (0 == count) ? 0x4000 : ((count == last) ? 0x8000 : 0);
+
+            // increment the SSC, the receiver finds the first segment
+            // of the message from the SSC and the segment counter
+            hdrBytes.putShort(2, (short) (flags | ((firstSsc + count) & 0x3FFF)));
+            hdrBytes.putShort(4, (short) (packetSize + segHdrBuf.length - 7));
+            hdrBytes.putInt(counterOffset, count);
+
+            LOGGER.log(Level.FINE, "Segment: {0} : {1} : {2}", new Object[]{
+                flags >> 8, packetSize + segHdrBuf.length - 7, count
+            });
+
+            final byte[] packet = packets.get(count);
+            System.arraycopy(segHdrBuf, 0, packet, 0, segHdrBuf.length);
+            encodedMessage.add(ByteBuffer.wrap(packet, 0, segHdrBuf.length + packetSize));
+        }
+
+        return encodedMessage;
+    }
+
+    /**
+     * Output stream that writes the body of a message into the packets it is
+     * sent in, a new packet is started whenever the current one is full. The
+     * first packet starts small and grows up to the segment size, so that a
+     * small message does not take a whole segment.
+     */
+    private static final class PacketOutputStream extends OutputStream {
+
+        private static final int INITIAL_BODY_SIZE = 256;
+
+        private final int headerLength;
+        private final int segmentSize;
+        private final List<byte[]> packets = new ArrayList<byte[]>();
+        private byte[] current = null;
+        private int position = 0;
+        private long length = 0;
+
+        private PacketOutputStream(int headerLength, int segmentSize) {
+            this.headerLength = headerLength;
+            this.segmentSize = segmentSize;
+            nextPacket();
+        }
+
+        @Override
+        public void write(int b) {
+            if (current.length == position) {
+                nextPacket();
+            }
+
+            current[position++] = (byte) b;
+            length++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            while (0 < len) {
+                if (current.length == position) {
+                    nextPacket();
                 }
+
+                final int count = Math.min(len, current.length - position);
+                System.arraycopy(b, off, current, position, count);
+                position += count;
+                off += count;
+                len -= count;
+                length += count;
+            }
+        }
+
+        private void nextPacket() {
+            final int capacity = headerLength + segmentSize;
+
+            if (null == current) {
+                current = new byte[headerLength + Math.min(segmentSize, INITIAL_BODY_SIZE)];
+                position = headerLength;
+                packets.add(current);
+            } else if (current.length < capacity) {
+                // only the first packet grows, the next ones are started once it is full
+                current = Arrays.copyOf(current, (int) Math.min(capacity, 2L * current.length));
+                packets.set(packets.size() - 1, current);
             } else {
-                java.nio.ByteBuffer.wrap(hdrBuf).putShort(4, (short) (bodyBuf.length + hdrBuf.length - 7));
-                lowLevelOutputStream.write(hdrBuf);
-                lowLevelOutputStream.write(bodyBuf);
+                current = new byte[capacity];
+                position = headerLength;
+                packets.add(current);
+            }
+        }
+
+        private List<byte[]> getPackets() {
+            return packets;
+        }
+
+        private long getLength() {
+            return length;
+        }
+
+        private void copyBody(byte[] destination, int offset) {
+            for (byte[] packet : packets) {
+                final int count = (packet == current) ? position - headerLength : segmentSize;
+                System.arraycopy(packet, headerLength, destination, offset, count);
+                offset += count;
             }
-        } catch (IOException ex) {
-            throw new MALException("Internal error encoding message", ex);
         }
     }
 }
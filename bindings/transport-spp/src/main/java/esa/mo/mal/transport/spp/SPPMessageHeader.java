@@ -53,6 +53,7 @@ public class SPPMessageHeader extends GENMessageHeader {
     private short ssc = -1;
     private int segmentFlags = 0x0000C000;
     private long segmentCounter = 0;
+    private boolean deferredSSC = false;
 
     /**
      * Constructor.
@@ -155,7 +156,7 @@ public class SPPMessageHeader extends GENMessageHeader {
         // CCSDS packet header
         encoder.encodeUShort(new UShort(pktType | 0x00000800 | primaryApid));
         int lssc = 0;
-        if (null != ssCounter) {
+        if ((null != ssCounter) && !deferredSSC) {
             lssc = ssCounter.getNextSourceSequenceCount();
             ssc = (short) lssc;
         }
@@ -193,7 +194,6 @@ public class SPPMessageHeader extends GENMessageHeader {
         // nasty hack for now
         MALEncoder usurperEncoder = encoder;
         if (!configuration.isFixedBody()) {
-            System.out.println("Encoding with variable");
             FixedBinaryEncoder fixedEncoder = (FixedBinaryEncoder) encoder;
             usurperEncoder = new VariableBinaryEncoder(fixedEncoder.getStreamHolder().getOutputStream(),
                     fixedEncoder.getTimeHandler());
@@ -416,6 +416,34 @@ public class SPPMessageHeader extends GENMessageHeader {
         }
     }
 
+    /**
+     * Leaves the source sequence count out of the encoded header, so that the
+     * packets of a message can take consecutive counts once it is known how
+     * many of them there are.
+     *
+     * @param deferred True if the count is reserved after the encoding.
+     */
+    void setDeferredSSC(boolean deferred) {
+        this.deferredSSC = deferred;
+    }
+
+    /**
+     * Reserves consecutive source sequence counts for the packets of the
+     * message.
+     *
+     * @param count The number of packets.
+     * @return The count of the first packet.
+     */
+    int reserveSourceSequenceCounts(int count) {
+        if (null == ssCounter) {
+            return 0;
+        }
+
+        final int first = ssCounter.getNextSourceSequenceCounts(count);
+        ssc = (short) first;
+        return first;
+    }
+
     public short getSSC() {
         if (-1 == ssc) {
             return transactionId.shortValue();
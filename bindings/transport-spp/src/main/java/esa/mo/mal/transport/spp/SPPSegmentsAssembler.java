@@ -20,103 +20,216 @@
  */
 package esa.mo.mal.transport.spp;
 
-import java.util.TreeMap;
-import org.ccsds.moims.mo.mal.MALException;
+import java.util.Arrays;
+import java.util.BitSet;
 
 /**
+ * Reassembles the segments of one segmented SPP message into a single packet.
+ * Every segment repeats the header of the message and all of them but the
+ * last carry the same amount of body data, so the place of the body of a
+ * segment in the reassembled packet follows from its segment counter and it is
+ * copied there as soon as it arrives. The first segment also provides the
+ * header of the reassembled packet.
  *
  * @author Cesar Coelho
  */
 public class SPPSegmentsAssembler {
 
-    // use TreeMap so that key is kept sorted
-    private final TreeMap<Long, SPPSegment> segmentsMap = new TreeMap<>();
+    private static final int INITIAL_SEGMENTS = 8;
+
     private final long sequenceIndex;
-    private int totalSize = 0;
-    private boolean receivedFirst = false;
-    private boolean receivedLast = false;
+    private final int bodyOffset;
+    private final long maxLength;
+    private final BitSet received = new BitSet();
+    private byte[] buffer = null;
+    private int segmentBodySize = -1;
+    private int receivedCount = 0;
+    private int expectedCount = -1;
+    private int lastBodySize = 0;
+    private byte[] pendingLast = null;
+    private long lastUpdate;
 
-    SPPSegmentsAssembler(long sequenceIndex) {
+    /**
+     * Constructor.
+     *
+     * @param sequenceIndex The source sequence count of the first segment.
+     * @param bodyOffset The length of the header of each segment.
+     * @param maxLength The maximum length of the reassembled packet.
+     * @param now The current time in nanoseconds.
+     */
+    SPPSegmentsAssembler(long sequenceIndex, int bodyOffset, long maxLength, long now) {
         this.sequenceIndex = sequenceIndex;
+        this.bodyOffset = bodyOffset;
+        this.maxLength = Math.min(maxLength, Integer.MAX_VALUE - 8);
+        this.lastUpdate = now;
     }
 
     public long getSequenceIndex() {
         return sequenceIndex;
     }
 
-    public boolean isReady() {
-        if (!receivedLast) { // Most likely to occur
+    /**
+     * Adds a segment to the message.
+     *
+     * @param segmentIndex The segment counter of the segment.
+     * @param isLast True if the segment is the last one of the message.
+     * @param packet The segment.
+     * @param now The current time in nanoseconds.
+     * @return False if the segment was already received or does not fit the
+     * other segments of the message, in which case it is ignored.
+     */
+    public boolean addSegment(long segmentIndex, boolean isLast, byte[] packet, long now) {
+        final int bodySize = packet.length - bodyOffset;
+
+        if ((0 > bodySize) || (0 > segmentIndex) || (Integer.MAX_VALUE < segmentIndex)) {
             return false;
         }
 
-        if (!receivedFirst) {
+        final int index = (int) segmentIndex;
+
+        if (received.get(index) || ((0 <= expectedCount) && (index >= expectedCount))) {
             return false;
         }
 
-        int segChecker = 0;
+        int newSegmentBodySize = segmentBodySize;
+        int newLastBodySize = lastBodySize;
+        int lastIndex = expectedCount - 1;
 
-        // check if we indeed have all of them without gaps...
-        for (SPPSegment segment : segmentsMap.values()) {
-            if (segment.getSegmentIndex() != segChecker++) {
+        if (isLast) {
+            if ((0 == index) || (index < received.length())) {
                 return false;
             }
+
+            newLastBodySize = bodySize;
+            lastIndex = index;
+        } else if (0 > newSegmentBodySize) {
+            newSegmentBodySize = bodySize;
+        } else if (newSegmentBodySize != bodySize) {
+            return false;
         }
 
-        return true;
-    }
+        // a body size that is not known yet is at least one byte
+        final long knownBodySize = Math.max(newSegmentBodySize, 1);
+        final long end = (0 <= lastIndex)
+                ? bodyOffset + lastIndex * knownBodySize + newLastBodySize
+                : bodyOffset + (index + 1) * knownBodySize;
 
-    public void addSegment(long segmentIndex, SPPSegment segment) {
-        segmentsMap.put(segmentIndex, segment);
+        if ((end > maxLength) || ((0 <= lastIndex) && (0 <= newSegmentBodySize)
+                && (newLastBodySize > newSegmentBodySize))) {
+            return false;
+        }
 
-        if (segment.isFirst()) {
-            receivedFirst = true;
+        segmentBodySize = newSegmentBodySize;
+        lastBodySize = newLastBodySize;
+        expectedCount = lastIndex + 1;
+        received.set(index);
+        receivedCount++;
+        lastUpdate = now;
+
+        if (0 > segmentBodySize) {
+            // the place of the last segment is only known from the others
+            pendingLast = packet;
+            return true;
         }
 
-        if (segment.isLast()) {
-            receivedLast = true;
+        if (null != pendingLast) {
+            copySegment(lastIndex, pendingLast);
+            pendingLast = null;
         }
 
-        totalSize += segment.getPacket().length;
+        copySegment(index, packet);
+        return true;
     }
 
     /**
-     * Tries to get a message if there is one that can be assembled from the
-     * segments.Returns null if the message is still not available.
+     * Returns true if all the segments of the message have been received.
      *
-     * @param transport The transport.
-     * @param apid The APID.
-     * @param apidQualifier The APID qualifier.
-     * @return A new message or null if there are none available.
-     * @throws MALException if any of the segments header could not be decoded.
+     * @return True if the message can be assembled.
      */
-    public byte[] getCompleteMessage(final SPPBaseTransport transport,
-            final int apid, final int apidQualifier) throws MALException {
-        byte[] concatenated = new byte[totalSize];
-        byte[] tmpPacket;
-        int index = 0;
-
-        for (SPPSegment segment : segmentsMap.values()) { // Tree garantees order
-            if (segment.isFirst()) {
-                System.arraycopy(segment.getPacket(), 0, concatenated, 0, segment.getPacket().length);
-                index = segment.getPacket().length;
-                continue;
-            }
+    public boolean isReady() {
+        return (0 <= expectedCount) && (receivedCount == expectedCount) && (null == pendingLast);
+    }
 
-            SPPMessage msg = transport.internalDecodeMessageHeader(apidQualifier, 
-                    apid, segment.getPacket());
-            tmpPacket = msg.getBody().getEncodedBody().getEncodedBody().getValue();
+    /**
+     * Returns the reassembled message, only valid once isReady returns true.
+     *
+     * @return The reassembled packet.
+     */
+    public byte[] getCompleteMessage() {
+        final int length = getLength();
+        return (buffer.length == length) ? buffer : Arrays.copyOf(buffer, length);
+    }
 
-            System.arraycopy(tmpPacket, 0, concatenated, index, tmpPacket.length);
-            index += tmpPacket.length;
+    /**
+     * Returns the number of bytes held for this message.
+     *
+     * @return The number of bytes.
+     */
+    public int getBufferedBytes() {
+        return (null != buffer ? buffer.length : 0) + (null != pendingLast ? pendingLast.length : 0);
+    }
 
-            if (segment.isLast()) {
-                byte[] out = new byte[index]; // Trim to fit!
-                System.arraycopy(concatenated, 0, out, 0, index);
-                return out;
-            }
+    /**
+     * Returns the number of segments received for this message.
+     *
+     * @return The number of segments.
+     */
+    public int getReceivedCount() {
+        return receivedCount;
+    }
+
+    /**
+     * Returns the number of segments of this message that have not been
+     * received, counting up to the last segment if it has been received and
+     * up to the highest received segment otherwise.
+     *
+     * @return The number of missing segments.
+     */
+    public int getMissingCount() {
+        final int count = (0 <= expectedCount) ? expectedCount : received.length();
+        return count - receivedCount;
+    }
+
+    /**
+     * Returns the time the last segment was added.
+     *
+     * @return The time in nanoseconds.
+     */
+    public long getLastUpdate() {
+        return lastUpdate;
+    }
+
+    private void copySegment(int index, byte[] packet) {
+        final int position = bodyOffset + index * segmentBodySize;
+        final int bodySize = packet.length - bodyOffset;
+        ensureCapacity(position + bodySize);
+
+        if (0 == index) {
+            System.arraycopy(packet, 0, buffer, 0, packet.length);
+        } else {
+            System.arraycopy(packet, bodyOffset, buffer, position, bodySize);
+        }
+    }
+
+    private void ensureCapacity(int length) {
+        if ((null != buffer) && (buffer.length >= length)) {
+            return;
         }
 
-        return null;
+        final long target;
+        if (0 <= expectedCount) {
+            target = getLength();
+        } else if (null == buffer) {
+            target = (long) bodyOffset + (long) segmentBodySize * INITIAL_SEGMENTS;
+        } else {
+            target = 2L * buffer.length;
+        }
+
+        final int size = (int) Math.max(length, Math.min(target, maxLength));
+        buffer = (null == buffer) ? new byte[size] : Arrays.copyOf(buffer, size);
     }
 
+    private int getLength() {
+        return bodyOffset + (expectedCount - 1) * segmentBodySize + lastBodySize;
+    }
 }
@@ -13,99 +13,319 @@
  * You on an "as is" basis and without warranties of any kind, including without
  * limitation merchantability, fitness for a particular purpose, absence of
  * defects or errors, accuracy or non-infringement of intellectual property rights.
- * 
+ *
  * See the License for the specific language governing permissions and
- * limitations under the License. 
+ * limitations under the License.
  * ----------------------------------------------------------------------------
  */
 package esa.mo.mal.transport.spp;
 
 import static esa.mo.mal.transport.spp.SPPBaseTransport.LOGGER;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
-import java.util.logging.Logger;
 import org.ccsds.moims.mo.mal.MALException;
 
 /**
+ * Holds the messages of a transport that are being reassembled from their
+ * segments. The segments of a message are identified by their APID, the
+ * transaction id of the message and the source sequence count of its first
+ * segment. Messages that do not receive a segment within the timeout, or that
+ * are the least recently updated ones once the buffered bytes exceed the
+ * budget, are discarded together with their segments.
  *
  * @author Cesar Coelho
  */
 public class SPPSegmentsHandler {
 
-    private final HashMap<Long, SPPSegmentsAssembler> segmentsAssemblerMap
-            = new HashMap<Long, SPPSegmentsAssembler>(); // use TreeMap so that key is kept sorted
-    private final int apidQualifier;
-    private final int apid;
+    // in the order of their last accepted segment, the least recent first
+    private final Map<Key, SPPSegmentsAssembler> assemblers
+            = new LinkedHashMap<Key, SPPSegmentsAssembler>();
     private final SPPBaseTransport transport;
+    private final long timeout;
+    private final long byteBudget;
+    private long bufferedBytes = 0;
+    private long completedMessages = 0;
+    private long expiredMessages = 0;
+    private long expiredSegments = 0;
+    private long lostSegments = 0;
+    private long rejectedSegments = 0;
+    private long droppedSegments = 0;
 
-    SPPSegmentsHandler(SPPBaseTransport transport, int apidQualifier, int apid) {
+    /**
+     * Constructor.
+     *
+     * @param transport The transport the segments are received by.
+     * @param timeout The time in milliseconds after which a message that does
+     * not receive any segment is discarded.
+     * @param byteBudget The maximum number of bytes held for the messages being
+     * reassembled.
+     */
+    SPPSegmentsHandler(SPPBaseTransport transport, long timeout, long byteBudget) {
         this.transport = transport;
-        this.apid = apid;
-        this.apidQualifier = apidQualifier;
+        this.timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
+        this.byteBudget = byteBudget;
     }
 
-    public void addSegment(int segmentFlags, byte[] packet) {
-        // Mask to remove the sequence Flags
-        long localSSC = java.nio.ByteBuffer.wrap(packet).getShort(2) & 0x3FFF;
+    /**
+     * Adds a segment and returns the reassembled message if it was the last
+     * missing segment of its message.
+     *
+     * @param apidQualifier The APID qualifier of the segment.
+     * @param apid The APID of the segment.
+     * @param segmentFlags The sequence flags of the segment.
+     * @param packet The segment.
+     * @return The reassembled packet or null if the message is not complete.
+     */
+    public byte[] addSegment(int apidQualifier, int apid, int segmentFlags, byte[] packet) {
+        if (27 > packet.length) {
+            return drop(apidQualifier, apid, null);
+        }
 
         int extra = (packet[26] & 0x80) != 0 ? 1 : 0; // Flags
         extra += (packet[26] & 0x40) != 0 ? 1 : 0; // Flags
-        long segmentIndex = java.nio.ByteBuffer.wrap(packet).getInt(27 + extra);
+
+        if ((31 + extra) > packet.length) {
+            return drop(apidQualifier, apid, null);
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(packet);
+        // Mask to remove the sequence Flags
+        final long localSSC = buffer.getShort(2) & 0x3FFF;
+        final long transactionId = buffer.getLong(18);
+        final long segmentIndex = buffer.getInt(27 + extra) & 0xFFFFFFFFL;
         LOGGER.log(Level.FINE, "Segment index: {0} - Local SSC: {1}",
                 new Object[]{segmentIndex, localSSC});
 
-        long segAssemblerIndex = localSSC - segmentIndex;
+        long sequenceIndex = (localSSC - segmentIndex) % 16384;
 
-        if (segAssemblerIndex < 0) {  // Cope with transition zone
-            segAssemblerIndex += 16384;
+        if (sequenceIndex < 0) {  // Cope with transition zone
+            sequenceIndex += 16384;
         }
 
-        SPPSegmentsAssembler assembler;
+        final Key key = new Key(apidQualifier, apid, transactionId, sequenceIndex);
+        final boolean isLast = (2 == segmentFlags);
+        int bodyOffset = -1;
 
-        synchronized (segmentsAssemblerMap) {
-            assembler = segmentsAssemblerMap.get(segAssemblerIndex);
+        synchronized (this) {
+            if (!assemblers.containsKey(key)) {
+                bodyOffset = 0;
+            }
+        }
 
-            if (assembler == null) {
-                assembler = new SPPSegmentsAssembler(segAssemblerIndex);
-                segmentsAssemblerMap.put(segAssemblerIndex, assembler);
+        if (0 == bodyOffset) {
+            // all the segments of a message carry the same header
+            try {
+                bodyOffset = decodeBodyOffset(apidQualifier, apid, packet);
+            } catch (MALException ex) {
+                return drop(apidQualifier, apid, ex);
             }
         }
 
-        SPPSegment segment = new SPPSegment(segmentIndex, segmentFlags, localSSC, packet);
-        assembler.addSegment(segmentIndex, segment);
+        synchronized (this) {
+            final long now = System.nanoTime();
+            SPPSegmentsAssembler assembler = assemblers.get(key);
+
+            if (null == assembler) {
+                if (0 > bodyOffset) {
+                    // the message was completed or evicted in the meantime
+                    rejectedSegments++;
+                    return null;
+                }
+
+                assembler = new SPPSegmentsAssembler(sequenceIndex, bodyOffset, byteBudget, now);
+            }
+
+            final int before = assembler.getBufferedBytes();
+
+            if (!assembler.addSegment(segmentIndex, isLast, packet, now)) {
+                rejectedSegments++;
+                LOGGER.log(Level.FINE, "Ignored segment {0} of transaction {1}",
+                        new Object[]{segmentIndex, transactionId});
+                return null;
+            }
+
+            bufferedBytes += assembler.getBufferedBytes() - before;
+            assemblers.remove(key);
+
+            if (assembler.isReady()) {
+                bufferedBytes -= assembler.getBufferedBytes();
+                completedMessages++;
+                evict(now);
+                return assembler.getCompleteMessage();
+            }
+
+            // moved to the end, as the most recently updated message
+            assemblers.put(key, assembler);
+            evict(now);
+            return null;
+        }
     }
 
     /**
-     * Checks if any of the assemblers contains all the segments of its message
-     * and returns the assembled message. If none is ready, a null will be
-     * returned. If the header of a segment is damaged, the exception will be
-     * logged and the assembler will be removed from this handler.
+     * Returns the number of messages that have been reassembled.
      *
-     * @return The assembled message or null if none available.
+     * @return The number of messages.
      */
-    public byte[] getNextMessage() {
-        synchronized (segmentsAssemblerMap) {
-            for (SPPSegmentsAssembler assembler : segmentsAssemblerMap.values()) {
-                if (assembler.isReady()) {
-                    byte[] out = null;
-                    try {
-                        out = assembler.getCompleteMessage(transport, apid, apidQualifier);
-                    } catch (MALException ex) {
-                        Logger.getLogger(SPPBaseTransport.class.getName()).log(Level.SEVERE,
-                                "The message could not be assembled. One of "
-                                + "the segments header could not be decoded. "
-                                + "The whole message will be discarded.", ex);
-                    }
-                    segmentsAssemblerMap.remove(assembler.getSequenceIndex());
-                    return out;
-                }
-            }
+    public synchronized long getCompletedMessages() {
+        return completedMessages;
+    }
+
+    /**
+     * Returns the number of messages that have been discarded before all their
+     * segments were received.
+     *
+     * @return The number of messages.
+     */
+    public synchronized long getExpiredMessages() {
+        return expiredMessages;
+    }
+
+    /**
+     * Returns the number of received segments that have been discarded with
+     * their incomplete messages.
+     *
+     * @return The number of segments.
+     */
+    public synchronized long getExpiredSegments() {
+        return expiredSegments;
+    }
+
+    /**
+     * Returns the number of segments that were missing from the discarded
+     * messages, as far as known from the segments that were received.
+     *
+     * @return The number of segments.
+     */
+    public synchronized long getLostSegments() {
+        return lostSegments;
+    }
+
+    /**
+     * Returns the number of segments that have been ignored because they were
+     * duplicates or did not fit the other segments of their message.
+     *
+     * @return The number of segments.
+     */
+    public synchronized long getRejectedSegments() {
+        return rejectedSegments;
+    }
+
+    /**
+     * Returns the number of segments that have been dropped because their
+     * header could not be decoded.
+     *
+     * @return The number of segments.
+     */
+    public synchronized long getDroppedSegments() {
+        return droppedSegments;
+    }
+
+    /**
+     * Returns the number of bytes currently held for incomplete messages.
+     *
+     * @return The number of bytes.
+     */
+    public synchronized long getBufferedBytes() {
+        return bufferedBytes;
+    }
+
+    /**
+     * Returns the number of messages currently being reassembled.
+     *
+     * @return The number of messages.
+     */
+    public synchronized int getPendingMessages() {
+        return assemblers.size();
+    }
+
+    public synchronized boolean isEmpty() {
+        return assemblers.isEmpty();
+    }
+
+    /**
+     * Returns the length of the header of a segment.
+     *
+     * @param apidQualifier The APID qualifier of the segment.
+     * @param apid The APID of the segment.
+     * @param packet The segment.
+     * @return The offset of the body in the segment.
+     * @throws MALException If the header could not be decoded.
+     */
+    int decodeBodyOffset(int apidQualifier, int apid, byte[] packet) throws MALException {
+        return transport.internalDecodeBodyOffset(apidQualifier, apid, packet);
+    }
+
+    private byte[] drop(int apidQualifier, int apid, MALException ex) {
+        synchronized (this) {
+            droppedSegments++;
         }
 
-        return null;  // No messages found!
+        LOGGER.log(Level.WARNING, "The segment received on APID "
+                + apidQualifier + "/" + apid + " could not be decoded and will be discarded.", ex);
+        return null;
+    }
+
+    private void evict(long now) {
+        final Iterator<SPPSegmentsAssembler> it = assemblers.values().iterator();
+
+        while (it.hasNext()) {
+            final SPPSegmentsAssembler assembler = it.next();
+
+            if ((now - assembler.getLastUpdate() <= timeout) && (bufferedBytes <= byteBudget)) {
+                // the remaining ones have been updated more recently
+                return;
+            }
+
+            it.remove();
+            bufferedBytes -= assembler.getBufferedBytes();
+            expiredMessages++;
+            expiredSegments += assembler.getReceivedCount();
+            lostSegments += assembler.getMissingCount();
+            LOGGER.log(Level.WARNING,
+                    "Discarded incomplete segmented message with {0} of its segments "
+                    + "received and at least {1} missing",
+                    new Object[]{assembler.getReceivedCount(), assembler.getMissingCount()});
+        }
     }
 
-    public boolean isEmpty() {
-        return segmentsAssemblerMap.isEmpty();
+    private static final class Key {
+
+        private final int apidQualifier;
+        private final int apid;
+        private final long transactionId;
+        private final long sequenceIndex;
+
+        private Key(int apidQualifier, int apid, long transactionId, long sequenceIndex) {
+            this.apidQualifier = apidQualifier;
+            this.apid = apid;
+            this.transactionId = transactionId;
+            this.sequenceIndex = sequenceIndex;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = 29 * hash + this.apidQualifier;
+            hash = 29 * hash + this.apid;
+            hash = 29 * hash + (int) (this.transactionId ^ (this.transactionId >>> 32));
+            hash = 29 * hash + (int) this.sequenceIndex;
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            final Key other = (Key) obj;
+            return (this.apidQualifier == other.apidQualifier) && (this.apid == other.apid)
+                    && (this.transactionId == other.transactionId)
+                    && (this.sequenceIndex == other.sequenceIndex);
+        }
     }
 }
@@ -32,4 +32,23 @@ public interface SPPSourceSequenceCounter {
      * @return the next SPP SSC.s
      */
     int getNextSourceSequenceCount();
+
+    /**
+     * Reserves consecutive values of the sequence count, one for each packet
+     * of a segmented message.
+     *
+     * @param count The number of values to reserve.
+     * @return the first reserved SPP SSC, the others follow it modulo 16384.
+     */
+    default int getNextSourceSequenceCounts(int count) {
+        synchronized (this) {
+            final int first = getNextSourceSequenceCount();
+
+            for (int i = 1; i < count; i++) {
+                getNextSourceSequenceCount();
+            }
+
+            return first;
+        }
+    }
 }
@@ -41,4 +41,16 @@ public class SPPSourceSequenceCounterSimple implements SPPSourceSequenceCounter
 
         return i;
     }
+
+    @Override
+    public int getNextSourceSequenceCounts(int count) {
+        int i;
+
+        synchronized (this) {
+            i = sequenceCount;
+            sequenceCount = (sequenceCount + count) % 16384;
+        }
+
+        return i;
+    }
 }
@@ -0,0 +1,272 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO SPP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.transport.spp;
+
+import esa.mo.mal.transport.gen.GENMessage;
+import esa.mo.mal.transport.gen.sending.GENMessageSender;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.ccsds.moims.mo.mal.MALArea;
+import org.ccsds.moims.mo.mal.MALContextFactory;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALOperation;
+import org.ccsds.moims.mo.mal.MALOperationStage;
+import org.ccsds.moims.mo.mal.MALSendOperation;
+import org.ccsds.moims.mo.mal.MALService;
+import org.ccsds.moims.mo.mal.ServiceKey;
+import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
+import org.ccsds.moims.mo.mal.structures.Attribute;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the encoding of SPP messages into their packets, the source sequence
+ * counts of the segments of a segmented message, and that the segments are
+ * reassembled and decoded back into the message by the transport.
+ */
+public class SPPMessageTest {
+
+    private static final String PROTOCOL = "malspp";
+    private static final int SEGMENT_SIZE = 256;
+    private static final int LARGE_SEGMENT_SIZE = 4096;
+    private static final UShort AREA = new UShort(902);
+    private static final UShort SERVICE = new UShort(1);
+    private static final UOctet VERSION = new UOctet((short) 1);
+    private static final UOctet STAGE = new UOctet((short) 1);
+    private static final MALOperation OPERATION = new MALSendOperation(new UShort(1),
+            new Identifier("testSend"), false, new UShort(0),
+            new MALOperationStage(STAGE, new Object[]{Attribute.BLOB_SHORT_FORM}, new Object[0]));
+
+    private final SPPConfiguration configuration = new SPPConfiguration(false,
+            SEGMENT_SIZE, true, true, false, true, false, false, false, false);
+    private final SPPSourceSequenceCounterSimple ssc = new SPPSourceSequenceCounterSimple();
+    private LoopbackTransport transport;
+
+    @BeforeClass
+    public static void registerArea() throws Exception {
+        System.setProperty(MALElementStreamFactory.FACTORY_PROP_NAME_PREFIX + "." + PROTOCOL,
+                "esa.mo.mal.encoder.spp.SPPVarBinaryStreamFactory");
+        System.setProperty(MALElementStreamFactory.FACTORY_PROP_NAME_PREFIX + "." + PROTOCOL
+                + "_header", "esa.mo.mal.encoder.spp.SPPFixedBinaryStreamFactory");
+        MALContextFactory.getElementsRegistry().addElementSupplier(Attribute.BLOB_SHORT_FORM, Blob::new);
+
+        final MALArea area = new MALArea(AREA, new Identifier("TestArea"), VERSION);
+        area.addService(new MALService(new ServiceKey(AREA, SERVICE, VERSION),
+                new Identifier("TestService"), new MALOperation[]{OPERATION}));
+        MALContextFactory.registerArea(area);
+    }
+
+    @Before
+    public void setUp() throws MALException {
+        final Map<String, String> properties = new HashMap<String, String>();
+        properties.put("org.ccsds.moims.mo.mal.transport.gen.wrap", "false");
+        properties.put(SPPBaseTransport.APID_QUALIFIER_PROPERTY, "247");
+        transport = new LoopbackTransport(configuration, ssc, properties);
+    }
+
+    @After
+    public void tearDown() throws MALException {
+        transport.close();
+    }
+
+    @Test
+    public void testSegmentsTakeConsecutiveSourceSequenceCounts() throws Exception {
+        final List<ByteBuffer> first = transport.encode(newMessage(2000));
+        final List<ByteBuffer> second = transport.encode(newMessage(2000));
+        final List<ByteBuffer> single = transport.encode(newMessage(10));
+
+        assertTrue(1 < first.size());
+        assertEquals(1, single.size());
+
+        int expected = 0;
+        for (List<ByteBuffer> packets : new List[]{first, second}) {
+            for (int i = 0; i < packets.size(); i++) {
+                final int flags = (0 == i) ? 1 : ((i == packets.size() - 1) ? 2 : 0);
+                assertEquals(flags, sequenceFlags(packets.get(i)));
+                assertEquals(expected++, sourceSequenceCount(packets.get(i)));
+            }
+        }
+
+        assertEquals(3, sequenceFlags(single.get(0)));
+        assertEquals(expected, sourceSequenceCount(single.get(0)));
+        assertEquals(expected + 1, ssc.getNextSourceSequenceCount());
+    }
+
+    @Test
+    public void testSegmentedMessageRoundTrip() throws Exception {
+        assertTrue(1 < checkRoundTrip(configuration, 2000));
+        assertEquals(1, checkRoundTrip(configuration, 200));
+        assertEquals(1, transport.getSegmentsHandler().getCompletedMessages());
+        assertTrue(transport.getSegmentsHandler().isEmpty());
+    }
+
+    @Test
+    public void testGrowingPacketRoundTrip() throws Exception {
+        final SPPConfiguration large = new SPPConfiguration(false,
+                LARGE_SEGMENT_SIZE, true, true, false, true, false, false, false, false);
+
+        for (int length : new int[]{10, 255, 257, 1000, 3000, 4200, 20000}) {
+            checkRoundTrip(large, length);
+        }
+
+        // a small message does not take a whole segment
+        final ByteBuffer packet = transport.encode(newMessage(large, 10)).get(0);
+        assertTrue(packet.array().length < LARGE_SEGMENT_SIZE);
+    }
+
+    @Test
+    public void testSourceSequenceCountsWrap() {
+        final SPPSourceSequenceCounterSimple counter = new SPPSourceSequenceCounterSimple();
+
+        assertEquals(0, counter.getNextSourceSequenceCounts(16380));
+        assertEquals(16380, counter.getNextSourceSequenceCounts(6));
+        assertEquals(2, counter.getNextSourceSequenceCount());
+
+        // the default reservation of a counter takes the values one by one
+        final SPPSourceSequenceCounter other = new SPPSourceSequenceCounter() {
+            private int next = 0;
+
+            @Override
+            public int getNextSourceSequenceCount() {
+                return next++;
+            }
+        };
+
+        assertEquals(0, other.getNextSourceSequenceCounts(5));
+        assertEquals(5, other.getNextSourceSequenceCount());
+    }
+
+    private int checkRoundTrip(SPPConfiguration config, int bodyLength) throws Exception {
+        final List<ByteBuffer> packets = transport.encode(newMessage(config, bodyLength));
+        GENMessage received = null;
+
+        for (ByteBuffer packet : packets) {
+            assertTrue(packet.remaining() <= config.getSegmentSize() + 6);
+            assertNull(received);
+
+            final byte[] raw = new byte[packet.remaining()];
+            packet.duplicate().get(raw);
+            received = transport.createMessage(raw);
+        }
+
+        assertNotNull(received);
+        assertEquals(1L, (long) received.getHeader().getTransactionId());
+        assertEquals(newBody(bodyLength), received.getBody().getBodyElement(0, new Blob()));
+        return packets.size();
+    }
+
+    private SPPMessage newMessage(int bodyLength) throws Exception {
+        return newMessage(configuration, bodyLength);
+    }
+
+    private SPPMessage newMessage(SPPConfiguration config, int bodyLength) throws Exception {
+        final IdentifierList domain = new IdentifierList();
+        domain.add(new Identifier("ccsds"));
+
+        final SPPMessageHeader header = new SPPMessageHeader(transport.getHeaderFactory(),
+                config, null, 247, transport.getURIRepresentation(), ssc,
+                new URI(PROTOCOL + ":247/1/1"), new Blob("".getBytes()),
+                new URI(PROTOCOL + ":247/2/1"), new Time(System.currentTimeMillis()),
+                QoSLevel.ASSURED, new UInteger(1), domain, new Identifier("network"),
+                SessionType.LIVE, new Identifier("LIVE"), InteractionType.SEND, STAGE, 1L,
+                AREA, SERVICE, OPERATION.getNumber(), VERSION, Boolean.FALSE);
+
+        return new SPPMessage(transport.getHeaderFactory(), config,
+                new SPPSegmentCounter(), false, header, new HashMap(), OPERATION,
+                transport.getStreamFactory(), newBody(bodyLength));
+    }
+
+    private static Blob newBody(int bodyLength) {
+        final byte[] value = new byte[bodyLength];
+
+        for (int i = 0; i < value.length; i++) {
+            value[i] = (byte) i;
+        }
+
+        return new Blob(value);
+    }
+
+    private static int sequenceFlags(ByteBuffer packet) {
+        return (packet.get(packet.position() + 2) & 0xC0) >> 6;
+    }
+
+    private static int sourceSequenceCount(ByteBuffer packet) {
+        return packet.getShort(packet.position() + 2) & 0x3FFF;
+    }
+
+    /**
+     * SPP transport that does not send the packets it encodes, they are
+     * returned to the test instead.
+     */
+    private static final class LoopbackTransport extends SPPBaseTransport<byte[]> {
+
+        private LoopbackTransport(SPPConfiguration configuration,
+                SPPSourceSequenceCounterSimple ssc, Map properties) throws MALException {
+            super(configuration, new SPPURIRepresentationSimple(), ssc, PROTOCOL, ":",
+                    '/', '@', false, false, null, properties);
+        }
+
+        private List<ByteBuffer> encode(GENMessage msg) throws Exception {
+            return internalEncodeMessage(null, null, null, true, null, msg).getEncodedMessage();
+        }
+
+        private MALElementStreamFactory getHeaderFactory() {
+            return getHeaderStreamFactory();
+        }
+
+        private SPPURIRepresentationSimple getURIRepresentation() {
+            return (SPPURIRepresentationSimple) uriRep;
+        }
+
+        @Override
+        public GENMessage createMessage(byte[] packet) throws MALException {
+            return internalCreateMessage(defaultApidQualifier,
+                    ((packet[0] & 0x07) << 8) | (packet[1] & 0xFF),
+                    (packet[2] & 0xC0) >> 6, packet);
+        }
+
+        @Override
+        protected String createTransportAddress() throws MALException {
+            return "";
+        }
+
+        @Override
+        protected GENMessageSender createMessageSender(GENMessage msg, String remoteRootURI) {
+            throw new UnsupportedOperationException("The packets are not sent");
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO SPP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.transport.spp;
+
+import java.io.ByteArrayOutputStream;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the reassembly of the segments of one message, whatever the order
+ * they arrive in, and that the segments that do not fit are ignored.
+ */
+public class SPPSegmentsAssemblerTest {
+
+    private static final int HEADER = 10;
+    private static final int BODY = 16;
+
+    @Test
+    public void testInOrder() {
+        checkArrival(0, 1, 2, 3);
+    }
+
+    @Test
+    public void testOutOfOrder() {
+        checkArrival(2, 0, 3, 1);
+        checkArrival(1, 2, 0, 3);
+    }
+
+    @Test
+    public void testLastFirst() {
+        checkArrival(3, 0, 1, 2);
+        checkArrival(3, 2, 1, 0);
+    }
+
+    @Test
+    public void testDuplicatesAreIgnored() {
+        final SPPSegmentsAssembler assembler = new SPPSegmentsAssembler(0, HEADER, 1 << 20, 0);
+
+        assertTrue(assembler.addSegment(0, false, segment(0, BODY), 1));
+        assertFalse(assembler.addSegment(0, false, segment(0, BODY), 2));
+        assertTrue(assembler.addSegment(2, true, segment(2, 5), 3));
+        assertFalse(assembler.addSegment(2, true, segment(2, 5), 4));
+        assertFalse(assembler.isReady());
+        assertEquals(2, assembler.getReceivedCount());
+        assertEquals(1, assembler.getMissingCount());
+        assertEquals(3, assembler.getLastUpdate());
+
+        assertTrue(assembler.addSegment(1, false, segment(1, BODY), 5));
+        assertTrue(assembler.isReady());
+        assertArrayEquals(message(new int[]{BODY, BODY, 5}), assembler.getCompleteMessage());
+    }
+
+    @Test
+    public void testMismatchedChunkSizeIsIgnored() {
+        final SPPSegmentsAssembler assembler = new SPPSegmentsAssembler(0, HEADER, 1 << 20, 0);
+
+        assertTrue(assembler.addSegment(1, false, segment(1, BODY), 1));
+        assertFalse(assembler.addSegment(0, false, segment(0, BODY + 1), 2));
+        assertFalse(assembler.addSegment(2, false, segment(2, BODY - 1), 3));
+        // the last segment cannot carry more than the others
+        assertFalse(assembler.addSegment(2, true, segment(2, BODY + 1), 4));
+        assertEquals(1, assembler.getReceivedCount());
+        assertEquals(1, assembler.getLastUpdate());
+
+        assertTrue(assembler.addSegment(0, false, segment(0, BODY), 5));
+        assertTrue(assembler.addSegment(2, true, segment(2, BODY), 6));
+        assertTrue(assembler.isReady());
+        assertArrayEquals(message(new int[]{BODY, BODY, BODY}), assembler.getCompleteMessage());
+    }
+
+    @Test
+    public void testSegmentsAfterTheLastAreIgnored() {
+        final SPPSegmentsAssembler assembler = new SPPSegmentsAssembler(0, HEADER, 1 << 20, 0);
+
+        assertTrue(assembler.addSegment(1, true, segment(1, 4), 1));
+        assertFalse(assembler.addSegment(2, false, segment(2, BODY), 2));
+        assertFalse(assembler.addSegment(0, true, segment(0, BODY), 3));
+        assertEquals(1, assembler.getMissingCount());
+    }
+
+    @Test
+    public void testMessageLongerThanTheLimitIsIgnored() {
+        final SPPSegmentsAssembler assembler = new SPPSegmentsAssembler(0, HEADER,
+                HEADER + 2 * BODY, 0);
+
+        assertTrue(assembler.addSegment(0, false, segment(0, BODY), 1));
+        assertFalse(assembler.addSegment(2, false, segment(2, BODY), 2));
+        assertFalse(assembler.addSegment(2, true, segment(2, 1), 3));
+        assertTrue(assembler.addSegment(1, true, segment(1, BODY), 4));
+        assertTrue(assembler.isReady());
+    }
+
+    private static void checkArrival(int... order) {
+        final int last = order.length - 1;
+        final int[] sizes = new int[order.length];
+
+        for (int i = 0; i < last; i++) {
+            sizes[i] = BODY;
+        }
+        sizes[last] = 7;
+
+        final SPPSegmentsAssembler assembler = new SPPSegmentsAssembler(0, HEADER, 1 << 20, 0);
+
+        for (int i = 0; i < order.length; i++) {
+            final int index = order[i];
+            assertFalse(assembler.isReady());
+            assertTrue(assembler.addSegment(index, index == last, segment(index, sizes[index]), i));
+        }
+
+        assertTrue(assembler.isReady());
+        assertEquals(order.length, assembler.getReceivedCount());
+        assertEquals(0, assembler.getMissingCount());
+        assertArrayEquals(message(sizes), assembler.getCompleteMessage());
+    }
+
+    /**
+     * Returns a segment whose header and body bytes tell which segment they
+     * come from.
+     */
+    private static byte[] segment(int index, int bodySize) {
+        final byte[] packet = new byte[HEADER + bodySize];
+
+        for (int i = 0; i < packet.length; i++) {
+            packet[i] = (byte) ((i < HEADER) ? (0x70 + index) : (index * 32 + i - HEADER));
+        }
+
+        return packet;
+    }
+
+    private static byte[] message(int[] bodySizes) {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+
+        for (int i = 0; i < bodySizes.length; i++) {
+            final byte[] packet = segment(i, bodySizes[i]);
+            final int offset = (0 == i) ? 0 : HEADER;
+            baos.write(packet, offset, packet.length - offset);
+        }
+
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,163 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO SPP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.transport.spp;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the reassembly of segmented messages by the SPPSegmentsHandler and
+ * the discarding of the incomplete ones on timeout or when the buffered bytes
+ * exceed the budget.
+ */
+public class SPPSegmentsHandlerTest {
+
+    private static final int HEADER = 31;
+    private static final int BODY = 10;
+
+    @Test
+    public void testSegmentsAreReassembled() {
+        final SPPSegmentsHandler handler = newHandler(60000, 1 << 20);
+
+        assertNull(handler.addSegment(0, 1, 0, segment(5, 100, 1, BODY)));
+        assertNull(handler.addSegment(0, 1, 1, segment(5, 100, 0, BODY)));
+        assertEquals(1, handler.getPendingMessages());
+        assertTrue(0 < handler.getBufferedBytes());
+
+        final byte[] message = handler.addSegment(0, 1, 2, segment(5, 100, 2, 3));
+        assertNotNull(message);
+        assertEquals(HEADER + 2 * BODY + 3, message.length);
+        assertEquals(1, handler.getCompletedMessages());
+        assertEquals(0, handler.getBufferedBytes());
+        assertTrue(handler.isEmpty());
+    }
+
+    @Test
+    public void testInterleavedMessagesAcrossTheCounterWrap() {
+        final SPPSegmentsHandler handler = newHandler(60000, 1 << 20);
+
+        // the second message starts just before the source sequence count wraps
+        assertNull(handler.addSegment(0, 1, 0, segment(5, 100, 1, BODY)));
+        assertNull(handler.addSegment(0, 1, 0, segment(6, 16383, 1, BODY)));
+        assertNull(handler.addSegment(0, 1, 1, segment(6, 16383, 0, BODY)));
+        assertNull(handler.addSegment(0, 1, 1, segment(5, 100, 0, BODY)));
+        assertEquals(2, handler.getPendingMessages());
+
+        assertNotNull(handler.addSegment(0, 1, 2, segment(6, 16383, 2, 1)));
+        assertNotNull(handler.addSegment(0, 1, 2, segment(5, 100, 2, 1)));
+        assertEquals(2, handler.getCompletedMessages());
+        assertTrue(handler.isEmpty());
+    }
+
+    @Test
+    public void testRejectedAndDroppedSegmentsAreCounted() {
+        final SPPSegmentsHandler handler = newHandler(60000, 1 << 20);
+
+        assertNull(handler.addSegment(0, 1, 1, segment(5, 100, 0, BODY)));
+        assertNull(handler.addSegment(0, 1, 1, segment(5, 100, 0, BODY)));
+        assertNull(handler.addSegment(0, 1, 0, segment(5, 100, 1, BODY + 1)));
+        assertEquals(2, handler.getRejectedSegments());
+
+        // a new message whose first received segment is rejected is not kept
+        assertNull(handler.addSegment(0, 1, 2, segment(7, 200, 0, BODY)));
+        assertEquals(3, handler.getRejectedSegments());
+        assertEquals(1, handler.getPendingMessages());
+
+        assertNull(handler.addSegment(0, 1, 0, new byte[20]));
+        assertEquals(1, handler.getDroppedSegments());
+    }
+
+    @Test
+    public void testTimeoutEviction() throws Exception {
+        final SPPSegmentsHandler handler = newHandler(200, 1 << 20);
+
+        assertNull(handler.addSegment(0, 1, 0, segment(1, 100, 1, BODY)));
+        Thread.sleep(120);
+        assertNull(handler.addSegment(0, 1, 1, segment(2, 200, 0, BODY)));
+        // a rejected segment does not refresh its message
+        assertNull(handler.addSegment(0, 1, 0, segment(1, 100, 1, BODY)));
+        Thread.sleep(120);
+        assertNull(handler.addSegment(0, 1, 1, segment(3, 300, 0, BODY)));
+
+        assertEquals(2, handler.getPendingMessages());
+        assertEquals(1, handler.getExpiredMessages());
+        assertEquals(1, handler.getExpiredSegments());
+        assertEquals(1, handler.getLostSegments());
+        assertEquals(1, handler.getRejectedSegments());
+
+        // the segments of the expired message start a new one
+        assertNull(handler.addSegment(0, 1, 1, segment(1, 100, 0, BODY)));
+        assertEquals(3, handler.getPendingMessages());
+    }
+
+    @Test
+    public void testByteBudgetEviction() {
+        final SPPSegmentsHandler handler = newHandler(60000, 250);
+
+        assertNull(handler.addSegment(0, 1, 0, segment(1, 100, 1, BODY)));
+        final long single = handler.getBufferedBytes();
+        assertNull(handler.addSegment(0, 1, 1, segment(2, 200, 0, BODY)));
+        assertEquals(2 * single, handler.getBufferedBytes());
+
+        // a rejected segment does not make its message the most recent one
+        assertNull(handler.addSegment(0, 1, 0, segment(1, 100, 1, BODY)));
+        assertNull(handler.addSegment(0, 1, 1, segment(3, 300, 0, BODY)));
+
+        assertEquals(2, handler.getPendingMessages());
+        assertEquals(2 * single, handler.getBufferedBytes());
+        assertEquals(1, handler.getExpiredMessages());
+        assertEquals(1, handler.getExpiredSegments());
+        assertEquals(1, handler.getLostSegments());
+
+        // the evicted message is the first one, the second one completes
+        assertNotNull(handler.addSegment(0, 1, 2, segment(2, 200, 1, 2)));
+        assertEquals(1, handler.getCompletedMessages());
+        assertEquals(single, handler.getBufferedBytes());
+    }
+
+    private static SPPSegmentsHandler newHandler(long timeout, long byteBudget) {
+        return new SPPSegmentsHandler(null, timeout, byteBudget) {
+            @Override
+            int decodeBodyOffset(int apidQualifier, int apid, byte[] packet) {
+                return HEADER;
+            }
+        };
+    }
+
+    /**
+     * Returns a segment with the transaction id, source sequence count and
+     * segment counter at the place of the SPP header.
+     */
+    private static byte[] segment(long transactionId, int firstSsc, int index, int bodySize) {
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER + bodySize);
+        buffer.putShort(2, (short) ((firstSsc + index) % 16384));
+        buffer.putLong(18, transactionId);
+        buffer.put(26, (byte) 0);
+        buffer.putInt(27, index);
+
+        for (int i = HEADER; i < buffer.capacity(); i++) {
+            buffer.put(i, (byte) (index + i));
+        }
+
+        return buffer.array();
+    }
+}
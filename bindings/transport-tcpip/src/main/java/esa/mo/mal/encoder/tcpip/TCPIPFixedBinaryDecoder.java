@@ -22,6 +22,7 @@ package esa.mo.mal.encoder.tcpip;
 
 import esa.mo.mal.encoder.binary.base.BinaryTimeHandler;
 import java.io.InputStream;
+import java.util.BitSet;
 import java.util.List;
 
 import org.ccsds.moims.mo.mal.MALException;
@@ -48,7 +49,7 @@ public class TCPIPFixedBinaryDecoder extends FixedBinaryDecoder {
 
     public TCPIPFixedBinaryDecoder(byte[] buf, int offset,
             final BinaryTimeHandler timeHandler) {
-        super(new TCPIPBufferHolder(null, buf, offset, 0), timeHandler);
+        super(new TCPIPBufferHolder(null, buf, offset, buf.length), timeHandler);
     }
 
     public TCPIPFixedBinaryDecoder(final BufferHolder srcBuffer,
@@ -92,6 +93,18 @@ public class TCPIPFixedBinaryDecoder extends FixedBinaryDecoder {
         return ((TCPIPBufferHolder) sourceBuffer).get32();
     }
 
+    @Override
+    public void decodeNullableIntegers(final int[] values, final BitSet nulls,
+            final int offset, final int count) throws MALException {
+        for (int i = offset; i < offset + count; i++) {
+            if (sourceBuffer.readIsNotNull()) {
+                values[i] = ((TCPIPBufferHolder) sourceBuffer).get32();
+            } else {
+                nulls.set(i);
+            }
+        }
+    }
+
     @Override
     public Blob decodeBlob() throws MALException {
         int sz = (int) decodeUInteger().getValue();
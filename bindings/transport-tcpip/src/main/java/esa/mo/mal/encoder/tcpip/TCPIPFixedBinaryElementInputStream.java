@@ -50,7 +50,7 @@ public class TCPIPFixedBinaryElementInputStream extends FixedBinaryElementInputS
         super(new TCPIPFixedBinaryDecoder(is, timeHandler));
     }
 
-    protected TCPIPFixedBinaryElementInputStream(final byte[] src, final int offset,
+    public TCPIPFixedBinaryElementInputStream(final byte[] src, final int offset,
             final BinaryTimeHandler timeHandler) {
         super(new TCPIPFixedBinaryDecoder(src, offset, timeHandler));
     }
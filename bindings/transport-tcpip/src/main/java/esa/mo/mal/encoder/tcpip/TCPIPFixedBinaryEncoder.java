@@ -183,6 +183,10 @@ public class TCPIPFixedBinaryEncoder extends FixedBinaryEncoder {
          * @throws IOException
          */
         public void addUnsignedVarint4(int value) throws IOException {
+            if (null != buffer) {
+                buffer.writeVarInt(value);
+                return;
+            }
 
             while ((value & 0xFFFFFF80) != 0L) {
                 outputStream.write((value & 0x7F) | 0x80);
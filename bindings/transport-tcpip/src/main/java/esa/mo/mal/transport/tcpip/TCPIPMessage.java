@@ -21,21 +21,22 @@
 package esa.mo.mal.transport.tcpip;
 
 import esa.mo.mal.encoder.tcpip.TCPIPFixedBinaryStreamFactory;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.Map;
 
 import org.ccsds.moims.mo.mal.MALException;
 import org.ccsds.moims.mo.mal.MALInteractionException;
 import org.ccsds.moims.mo.mal.MALOperation;
+import org.ccsds.moims.mo.mal.encoding.ByteArrayOutputBuffer;
 import org.ccsds.moims.mo.mal.encoding.MALElementOutputStream;
 import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
+import org.ccsds.moims.mo.mal.encoding.MALEncodingContext;
 
 import esa.mo.mal.transport.gen.GENMessage;
 import esa.mo.mal.transport.gen.GENMessageHeader;
+import esa.mo.mal.transport.gen.util.GENPooledBuffer;
 import static esa.mo.mal.transport.tcpip.TCPIPTransport.RLOGGER;
 import java.util.logging.Level;
 
@@ -54,6 +55,19 @@ public class TCPIPMessage extends GENMessage {
         super(wrapBodyParts, true, header, qosProperties, packet, encFactory);
     }
 
+    public TCPIPMessage(boolean wrapBodyParts,
+            GENMessageHeader header, Map qosProperties, InputStream packet,
+            MALElementStreamFactory encFactory) throws MALException {
+        super(wrapBodyParts, true, header, qosProperties, packet, encFactory);
+    }
+
+    public TCPIPMessage(boolean wrapBodyParts,
+            GENMessageHeader header, Map qosProperties, GENPooledBuffer packet,
+            int bodyOffset, int bodyLength,
+            MALElementStreamFactory encFactory) throws MALException {
+        super(wrapBodyParts, header, qosProperties, packet, bodyOffset, bodyLength, encFactory);
+    }
+
     public TCPIPMessage(boolean wrapBodyParts, GENMessageHeader header, Map qosProperties,
             MALOperation operation,
             MALElementStreamFactory encFactory, Object... body) throws MALInteractionException {
@@ -68,6 +82,10 @@ public class TCPIPMessage extends GENMessage {
      * according to the specifications in the TCPIP Transport Binding red book,
      * but the body can be whatever.
      *
+     * Both are encoded into the same buffer, the output stream itself if it is
+     * a ByteArrayOutputBuffer, and the body length field of the header is
+     * patched in place once the body is encoded.
+     *
      * @param bodyStreamFactory the stream factory to use for body encoding
      * @param lowLevelOutputStream the stream onto which both the encoded head
      * and body will be written
@@ -77,32 +95,33 @@ public class TCPIPMessage extends GENMessage {
             final OutputStream lowLevelOutputStream)
             throws MALException {
         // encode header and body using TCPIPEncoder class
-        ByteArrayOutputStream hdrBaos = new ByteArrayOutputStream();
-        ByteArrayOutputStream bodyBaos = new ByteArrayOutputStream();
-        MALElementOutputStream bodyEncoder = bodyStreamFactory.createOutputStream(bodyBaos);
+        final ByteArrayOutputBuffer buffer = (lowLevelOutputStream instanceof ByteArrayOutputBuffer)
+                ? (ByteArrayOutputBuffer) lowLevelOutputStream : new ByteArrayOutputBuffer();
+        final int start = buffer.size();
         // Header must be always Fixed Binary
         final MALElementStreamFactory headerStreamFactory = new TCPIPFixedBinaryStreamFactory();
 
-        super.encodeMessage(headerStreamFactory, headerStreamFactory.createOutputStream(hdrBaos),
-                hdrBaos, true);
-        super.encodeMessage(bodyStreamFactory, bodyEncoder, bodyBaos, false);
+        // only the header is written with it, so that an undecoded body is
+        // left as it is for the body encoding
+        final MALElementOutputStream hdrEnc = headerStreamFactory.createOutputStream(buffer);
+        hdrEnc.writeElement(header, new MALEncodingContext(header,
+                operation, 0, qosProperties, qosProperties));
+        hdrEnc.flush();
+        hdrEnc.close();
+        super.encodeMessage(bodyStreamFactory, bodyStreamFactory.createOutputStream(buffer),
+                buffer, false);
 
         // overwrite bodysize parameter in the header
-        byte[] hdrBuf = hdrBaos.toByteArray();
-        ByteBuffer b = ByteBuffer.allocate(4);
-        b.order(ByteOrder.BIG_ENDIAN);
-        b.putInt(hdrBaos.size() + bodyBaos.size() - 23);
-        System.arraycopy(b.array(), 0, hdrBuf, 19, 4);
+        buffer.setInt(start + 19, buffer.size() - start - 23);
 
-        try {
-            lowLevelOutputStream.write(hdrBuf);
-            if (this.getBody() != null) {
-                lowLevelOutputStream.write(bodyBaos.toByteArray());
+        if (buffer != lowLevelOutputStream) {
+            try {
+                buffer.writeTo(lowLevelOutputStream);
+            } catch (IOException e) {
+                RLOGGER.log(Level.WARNING,
+                        "An IOException was thrown during message encoding!", e);
+                throw new MALException(e.getMessage());
             }
-        } catch (IOException e) {
-            RLOGGER.log(Level.WARNING, 
-                    "An IOException was thrown during message encoding!", e);
-            throw new MALException(e.getMessage());
         }
     }
 
@@ -57,8 +57,15 @@ public class TCPIPMessageDecoderFactory<O> implements GENIncomingMessageDecoderF
         public GENIncomingMessageHolder decodeAndCreateMessage()
                 throws MALException {
             PacketToString smsg = new PacketToString(null);
-            GENMessage msg = transport.createMessage(packetInfo);
-            packetInfo.setPacketData(null);
+            GENMessage msg;
+
+            try {
+                msg = transport.createMessage(packetInfo);
+            } finally {
+                // the decoded message holds its own reference to the packet buffer
+                packetInfo.setPacketData(null);
+                packetInfo.release();
+            }
 
             if (msg != null) {
                 return new GENIncomingMessageHolder(msg.getHeader().getTransactionId(), msg, smsg);
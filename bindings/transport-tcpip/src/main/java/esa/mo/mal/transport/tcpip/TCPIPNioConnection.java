@@ -0,0 +1,388 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO TCP/IP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.transport.tcpip;
+
+import esa.mo.mal.transport.gen.GENReceptionHandler;
+import esa.mo.mal.transport.gen.sending.GENMessageSender;
+import esa.mo.mal.transport.gen.sending.GENNonBlockingMessageSender;
+import esa.mo.mal.transport.gen.sending.GENOutgoingMessageHolder;
+import esa.mo.mal.transport.gen.util.GENBufferPool;
+import esa.mo.mal.transport.gen.util.GENPooledBuffer;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import org.ccsds.moims.mo.mal.structures.URI;
+import static esa.mo.mal.transport.tcpip.TCPIPTransport.RLOGGER;
+
+/**
+ * A TCP/IP connection served by a NIO event loop. It reassembles the incoming
+ * frames from whatever the channel delivers and passes them to the transport,
+ * and it writes the outgoing messages with gathering writes from the loop
+ * thread, so no thread is bound to the connection.
+ *
+ * The framing is the same as the one of the TCPIPTransportDataTransceiver: a
+ * fixed size header which holds the length of the variable size body. The
+ * frames are read into buffers of the transport pool when it has one.
+ */
+public class TCPIPNioConnection implements GENReceptionHandler,
+        GENNonBlockingMessageSender<byte[]>, TCPIPNioEventLoop.Handler {
+
+    private static final int HEADER_SIZE = 23;
+    private static final int BODY_LENGTH_OFFSET = 19;
+
+    /**
+     * Maximum number of messages passed to a single gathering write.
+     */
+    private static final int MAX_GATHER = 64;
+
+    private final TCPIPTransport transport;
+    private final TCPIPNioEventLoop loop;
+    private final SocketChannel channel;
+    private final TCPIPMessageDecoderFactory decoderFactory = new TCPIPMessageDecoderFactory();
+    private final GENBufferPool bufferPool;
+    private final URI from;
+    private final URI to;
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private volatile String remoteURI = null;
+    private volatile SelectionKey key = null;
+
+    // read state, only used from the loop thread
+    private final byte[] header = new byte[HEADER_SIZE];
+    private int headerPos = 0;
+    private ByteBuffer frame = null;
+    private GENPooledBuffer pooledFrame = null;
+
+    // write state, the pending deques are only used from the loop thread
+    private final Queue<GENOutgoingMessageHolder<byte[]>> outgoing = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    private final ArrayDeque<GENOutgoingMessageHolder<byte[]>> pendingMessages = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> pendingBuffers = new ArrayDeque<>();
+    private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+    private final Runnable flushTask = this::flush;
+
+    /**
+     * Constructor.
+     *
+     * @param transport The parent TCPIP transport.
+     * @param loop The event loop serving the connection.
+     * @param channel The connected channel, in non-blocking mode.
+     * @param localPort The port of the transport, used for the URI to of the
+     * incoming messages.
+     */
+    public TCPIPNioConnection(TCPIPTransport transport, TCPIPNioEventLoop loop,
+            SocketChannel channel, int localPort) {
+        this.transport = transport;
+        this.loop = loop;
+        this.channel = channel;
+        this.bufferPool = transport.getBufferPool();
+
+        final Socket socket = channel.socket();
+        this.from = new URI("maltcp://" + socket.getInetAddress().getHostAddress()
+                + ":" + socket.getPort());
+        // We need to use this localPort in order to fool the MAL
+        this.to = new URI("maltcp://" + socket.getLocalAddress().getHostAddress()
+                + ":" + localPort);
+    }
+
+    /**
+     * Registers the connection with its event loop.
+     */
+    public void start() {
+        loop.register(channel, SelectionKey.OP_READ, this);
+    }
+
+    @Override
+    public String getRemoteURI() {
+        return remoteURI;
+    }
+
+    @Override
+    public void setRemoteURI(String remoteURI) {
+        this.remoteURI = remoteURI;
+    }
+
+    @Override
+    public GENMessageSender getMessageSender() {
+        return this;
+    }
+
+    @Override
+    public void queueEncodedMessage(GENOutgoingMessageHolder<byte[]> encodedMessage) {
+        if (closed.get()) {
+            encodedMessage.setResult(Boolean.FALSE);
+            return;
+        }
+
+        outgoing.add(encodedMessage);
+
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(flushTask);
+        }
+
+        if (closed.get()) {
+            // closed in the meanwhile, the message might not have been seen
+            failOutgoing();
+        }
+    }
+
+    /**
+     * Queues the message and waits until it has been written.
+     *
+     * @param encodedMessage the MALMessage
+     * @throws IOException in case the message cannot be sent to the client
+     */
+    @Override
+    public void sendEncodedMessage(GENOutgoingMessageHolder<byte[]> encodedMessage) throws IOException {
+        queueEncodedMessage(encodedMessage);
+
+        try {
+            if (!Boolean.TRUE.equals(encodedMessage.getResult())) {
+                throw new IOException("The message could not be written to: " + remoteURI);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while sending to: " + remoteURI, ex);
+        }
+    }
+
+    @Override
+    public void registered(SelectionKey key) {
+        this.key = key;
+
+        if (closed.get()) {
+            key.cancel();
+        } else {
+            flush();
+        }
+    }
+
+    @Override
+    public void ready(SelectionKey key) throws IOException {
+        if (key.isReadable()) {
+            read();
+        }
+
+        if (key.isValid() && key.isWritable()) {
+            write();
+        }
+    }
+
+    @Override
+    public void failed(IOException ex) {
+        if (closed.get()) {
+            return;
+        }
+
+        if (ex instanceof EOFException) {
+            RLOGGER.log(Level.INFO, "Client closing connection: {0}", remoteURI);
+            transport.closeConnection(remoteURI, this);
+        } else {
+            RLOGGER.log(Level.WARNING, "Cannot read message from client", ex);
+            transport.communicationError(remoteURI, this);
+        }
+
+        close();
+    }
+
+    /**
+     * Close the channel and fail the messages not yet written.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        RLOGGER.log(Level.FINE, "Closing connection: {0}", channel);
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            RLOGGER.log(Level.WARNING,
+                    "An exception occured while trying to close the channel!", e);
+        }
+
+        failOutgoing();
+        loop.execute(this::failPending);
+    }
+
+    private void read() throws IOException {
+        final ByteBuffer buffer = loop.getReadBuffer();
+        int n;
+
+        do {
+            ((Buffer) buffer).clear();
+            n = channel.read(buffer);
+
+            if (n < 0) {
+                throw new EOFException("The channel reached end of stream");
+            }
+
+            ((Buffer) buffer).flip();
+
+            while (buffer.hasRemaining()) {
+                consume(buffer);
+            }
+        } while (n == buffer.capacity());
+    }
+
+    private void consume(ByteBuffer buffer) throws IOException {
+        if (null == frame) {
+            final int len = Math.min(buffer.remaining(), HEADER_SIZE - headerPos);
+            buffer.get(header, headerPos, len);
+            headerPos += len;
+
+            if (headerPos < HEADER_SIZE) {
+                return;
+            }
+
+            final int bodyLength = ByteBuffer.wrap(header).getInt(BODY_LENGTH_OFFSET);
+
+            if (bodyLength < 0) {
+                throw new IOException("Invalid body length received: " + bodyLength);
+            }
+
+            if (null == bufferPool) {
+                frame = ByteBuffer.allocate(HEADER_SIZE + bodyLength);
+            } else {
+                pooledFrame = bufferPool.acquire(HEADER_SIZE + bodyLength);
+                frame = pooledFrame.buffer();
+            }
+
+            frame.put(header);
+        }
+
+        final int len = Math.min(buffer.remaining(), frame.remaining());
+        final int limit = buffer.limit();
+        ((Buffer) buffer).limit(buffer.position() + len);
+        frame.put(buffer);
+        ((Buffer) buffer).limit(limit);
+
+        if (!frame.hasRemaining()) {
+            final TCPIPPacketInfoHolder packetInfo = (null == pooledFrame)
+                    ? new TCPIPPacketInfoHolder(frame.array(), from, to)
+                    : new TCPIPPacketInfoHolder(pooledFrame, from, to);
+
+            frame = null;
+            pooledFrame = null;
+            headerPos = 0;
+
+            transport.receive(this, decoderFactory.createDecoder(transport, this, packetInfo));
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+
+        GENOutgoingMessageHolder<byte[]> message;
+
+        while ((message = outgoing.poll()) != null) {
+            pendingMessages.add(message);
+            pendingBuffers.add(ByteBuffer.wrap(message.getEncodedMessage()));
+        }
+
+        if (closed.get()) {
+            failPending();
+            return;
+        }
+
+        // not registered yet, or waiting for the socket to become writable
+        if ((null == key) || ((key.interestOps() & SelectionKey.OP_WRITE) != 0)) {
+            return;
+        }
+
+        try {
+            write();
+        } catch (IOException ex) {
+            key.cancel();
+            failed(ex);
+        }
+    }
+
+    private void write() throws IOException {
+        while (!pendingBuffers.isEmpty()) {
+            int count = 0;
+            final Iterator<ByteBuffer> it = pendingBuffers.iterator();
+
+            while ((count < MAX_GATHER) && it.hasNext()) {
+                gather[count++] = it.next();
+            }
+
+            channel.write(gather, 0, count);
+            Arrays.fill(gather, 0, count, null);
+            int written = 0;
+
+            while (!pendingBuffers.isEmpty() && !pendingBuffers.peek().hasRemaining()) {
+                pendingBuffers.poll();
+                pendingMessages.poll().setResult(Boolean.TRUE);
+                written++;
+            }
+
+            if (written < count) {
+                // the socket buffer is full, continue once it is writable
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                return;
+            }
+        }
+
+        if ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+            key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private void failOutgoing() {
+        GENOutgoingMessageHolder<byte[]> message;
+
+        while ((message = outgoing.poll()) != null) {
+            message.setResult(Boolean.FALSE);
+        }
+    }
+
+    private void failPending() {
+        failOutgoing();
+
+        for (GENOutgoingMessageHolder<byte[]> message : pendingMessages) {
+            message.setResult(Boolean.FALSE);
+        }
+
+        pendingMessages.clear();
+        pendingBuffers.clear();
+
+        // drop a partially read frame
+        if (null != pooledFrame) {
+            pooledFrame.release();
+            pooledFrame = null;
+        }
+
+        frame = null;
+    }
+}
@@ -0,0 +1,180 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO TCP/IP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.transport.tcpip;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import static esa.mo.mal.transport.tcpip.TCPIPTransport.RLOGGER;
+
+/**
+ * The NIO engine of the TCPIP transport. A fixed set of event loops serves all
+ * the connections, accepted and initiated ones, which are spread round robin
+ * over the loops. The server channel is served by the first loop.
+ */
+public class TCPIPNioEngine {
+
+    private final TCPIPTransport transport;
+    private final TCPIPNioEventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+
+    /**
+     * Constructor. Starts the event loops.
+     *
+     * @param transport The parent TCPIP transport.
+     * @param threads The number of event loops.
+     * @throws IOException if a selector cannot be opened.
+     */
+    public TCPIPNioEngine(TCPIPTransport transport, int threads) throws IOException {
+        this.transport = transport;
+        this.loops = new TCPIPNioEventLoop[Math.max(1, threads)];
+
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new TCPIPNioEventLoop("TCPIP_EventLoop_" + i);
+            loops[i].start();
+        }
+
+        RLOGGER.log(Level.INFO, "Started TCP/IP NIO engine with {0} event loops", loops.length);
+    }
+
+    /**
+     * Accepts the connections of the server channel.
+     *
+     * @param serverChannel The bound server channel.
+     * @throws IOException if the channel cannot be made non-blocking.
+     */
+    public void listen(final ServerSocketChannel serverChannel) throws IOException {
+        serverChannel.configureBlocking(false);
+        loops[0].register(serverChannel, SelectionKey.OP_ACCEPT, new Acceptor(serverChannel));
+    }
+
+    /**
+     * Opens a connection to a remote server. The connect itself blocks the
+     * caller, the connection is then served by one of the event loops.
+     *
+     * @param localPort The local port to bind to, an ephemeral port is used if
+     * it is not available.
+     * @param host The remote host.
+     * @param port The remote port.
+     * @return The new connection.
+     * @throws IOException if the connection cannot be established.
+     */
+    public TCPIPNioConnection connect(int localPort, String host, int port) throws IOException {
+        final SocketChannel channel = SocketChannel.open();
+
+        try {
+            try {
+                channel.bind(new InetSocketAddress(localPort));
+                RLOGGER.log(Level.INFO, "New socket created on port: {0}", localPort);
+            } catch (IOException e) {
+                channel.bind(null);
+                RLOGGER.log(Level.WARNING, "Failed to create a socket at port {0}! {1}",
+                        new Object[]{localPort, e.getMessage()});
+            }
+
+            channel.connect(new InetSocketAddress(host, port));
+            return open(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Stops the event loops, which closes all the channels served by them.
+     */
+    public void close() {
+        RLOGGER.info("Closing TCP/IP NIO engine...");
+
+        for (TCPIPNioEventLoop loop : loops) {
+            loop.close();
+        }
+    }
+
+    private TCPIPNioConnection open(SocketChannel channel) throws IOException {
+        channel.configureBlocking(false);
+
+        final TCPIPNioEventLoop loop
+                = loops[(nextLoop.getAndIncrement() & Integer.MAX_VALUE) % loops.length];
+        final TCPIPNioConnection connection = new TCPIPNioConnection(
+                transport, loop, channel, transport.getTransportPort());
+        connection.start();
+
+        return connection;
+    }
+
+    /**
+     * Accepts the incoming connections of the server channel.
+     */
+    private class Acceptor implements TCPIPNioEventLoop.Handler {
+
+        private final ServerSocketChannel serverChannel;
+
+        Acceptor(ServerSocketChannel serverChannel) {
+            this.serverChannel = serverChannel;
+        }
+
+        @Override
+        public void registered(SelectionKey key) {
+            RLOGGER.log(Level.INFO, "Accepting TCP/IP connections on: {0}",
+                    serverChannel.socket().getLocalSocketAddress());
+        }
+
+        @Override
+        public void ready(SelectionKey key) throws IOException {
+            SocketChannel channel;
+
+            while ((channel = serverChannel.accept()) != null) {
+                final String from = channel.socket().getInetAddress().getHostAddress()
+                        + ":" + channel.socket().getPort();
+                RLOGGER.log(Level.INFO, "New TCP/IP client connected! From: {0}", from);
+
+                try {
+                    open(channel);
+                } catch (IOException e) {
+                    RLOGGER.log(Level.WARNING, "Error while accepting connection", e);
+                    channel.close();
+                }
+            }
+        }
+
+        @Override
+        public void failed(IOException ex) {
+            RLOGGER.log(Level.WARNING, "Error while accepting connection", ex);
+            close();
+        }
+
+        @Override
+        public void close() {
+            RLOGGER.info("Closing server socket...");
+
+            try {
+                serverChannel.close();
+            } catch (IOException e) {
+                RLOGGER.log(Level.WARNING, "Error while closing server socket", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO TCP/IP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.transport.tcpip;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import static esa.mo.mal.transport.tcpip.TCPIPTransport.RLOGGER;
+
+/**
+ * A single I/O thread of the NIO engine. It owns a selector and serves all the
+ * channels registered with it: it accepts connections, reads the incoming
+ * frames and writes the queued outgoing messages. Other threads hand work to
+ * it through its task queue.
+ */
+public class TCPIPNioEventLoop extends Thread {
+
+    /**
+     * Size of the buffer the channels of this loop read into.
+     */
+    private static final int READ_BUFFER_SIZE = 65536;
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private volatile boolean running = true;
+
+    /**
+     * Constructor.
+     *
+     * @param name The name of the thread.
+     * @throws IOException if the selector cannot be opened.
+     */
+    public TCPIPNioEventLoop(String name) throws IOException {
+        super(name);
+        this.selector = Selector.open();
+        setDaemon(true);
+    }
+
+    /**
+     * Runs the task on the loop thread.
+     *
+     * @param task The task to run.
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+
+        if (Thread.currentThread() != this) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Registers a channel with the selector of this loop. The channel must be
+     * in non-blocking mode.
+     *
+     * @param channel The channel.
+     * @param ops The initial interest set.
+     * @param handler The handler of the ready operations.
+     */
+    public void register(final SelectableChannel channel, final int ops, final Handler handler) {
+        execute(() -> {
+            try {
+                handler.registered(channel.register(selector, ops, handler));
+            } catch (IOException ex) {
+                handler.failed(ex);
+            } catch (ClosedSelectorException ex) {
+                handler.failed(new IOException("The event loop is closed", ex));
+            }
+        });
+    }
+
+    /**
+     * Returns the read buffer shared by the channels of this loop. It must only
+     * be used from the loop thread.
+     *
+     * @return The cleared read buffer.
+     */
+    ByteBuffer getReadBuffer() {
+        ((Buffer) readBuffer).clear();
+        return readBuffer;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+                runTasks();
+
+                final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+
+                while (it.hasNext()) {
+                    final SelectionKey key = it.next();
+                    it.remove();
+
+                    final Handler handler = (Handler) key.attachment();
+
+                    try {
+                        if (key.isValid()) {
+                            handler.ready(key);
+                        }
+                    } catch (IOException ex) {
+                        key.cancel();
+                        handler.failed(ex);
+                    }
+                }
+            } catch (ClosedSelectorException ex) {
+                running = false;
+            } catch (Throwable ex) {
+                RLOGGER.log(Level.WARNING, "Unexpected error in the TCP/IP event loop", ex);
+            }
+        }
+
+        try {
+            runTasks();
+
+            for (SelectionKey key : new ArrayList<>(selector.keys())) {
+                ((Handler) key.attachment()).close();
+            }
+
+            runTasks();
+            selector.close();
+        } catch (ClosedSelectorException | IOException ex) {
+            RLOGGER.log(Level.WARNING, "Error while closing the selector", ex);
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * Stops the loop. The channels still registered with it are closed before
+     * the loop thread terminates.
+     */
+    public void close() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Handles the ready operations of a channel registered with the loop. All
+     * the methods are called from the loop thread.
+     */
+    public interface Handler {
+
+        /**
+         * Called once the channel has been registered.
+         *
+         * @param key The selection key of the channel.
+         */
+        void registered(SelectionKey key);
+
+        /**
+         * Called when the channel is ready for some of its interest set.
+         *
+         * @param key The selection key of the channel.
+         * @throws IOException if the channel fails.
+         */
+        void ready(SelectionKey key) throws IOException;
+
+        /**
+         * Called when the channel failed and its key has been cancelled.
+         *
+         * @param ex The failure.
+         */
+        void failed(IOException ex);
+
+        /**
+         * Closes the channel, called when the loop terminates.
+         */
+        void close();
+    }
+}
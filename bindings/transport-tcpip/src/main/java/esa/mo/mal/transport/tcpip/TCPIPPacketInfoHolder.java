@@ -20,6 +20,7 @@
  */
 package esa.mo.mal.transport.tcpip;
 
+import esa.mo.mal.transport.gen.util.GENPooledBuffer;
 import org.ccsds.moims.mo.mal.structures.URI;
 
 /**
@@ -36,6 +37,11 @@ public class TCPIPPacketInfoHolder {
      */
     private byte[] packetData;
 
+    /**
+     * The pooled buffer holding the raw packet data, if it was read into one
+     */
+    private GENPooledBuffer packetBuffer;
+
     /**
      * The TCP/IP address of the source
      */
@@ -52,10 +58,54 @@ public class TCPIPPacketInfoHolder {
         this.tcpipTo = to;
     }
 
+    /**
+     * Constructor for packet data read into a pooled buffer. The holder takes
+     * over the reference of the caller.
+     *
+     * @param packetBuffer The buffer holding the raw packet data.
+     * @param from The TCP/IP address of the source.
+     * @param to The TCP/IP address of the destination.
+     */
+    public TCPIPPacketInfoHolder(GENPooledBuffer packetBuffer, URI from, URI to) {
+        this.packetBuffer = packetBuffer;
+        this.tcpipFrom = from;
+        this.tcpipTo = to;
+    }
+
+    /**
+     * Returns the raw packet data. For data held in a pooled buffer this is a
+     * copy of it.
+     *
+     * @return The raw packet data.
+     */
     public byte[] getPacketData() {
+        if ((null == packetData) && (null != packetBuffer)) {
+            return packetBuffer.copy(0, packetBuffer.length());
+        }
+
         return packetData;
     }
 
+    /**
+     * Returns the pooled buffer holding the raw packet data.
+     *
+     * @return The buffer, null if the data is not pooled.
+     */
+    public GENPooledBuffer getPacketBuffer() {
+        return packetBuffer;
+    }
+
+    /**
+     * Releases the pooled buffer, if any. The packet data must not be used
+     * afterwards.
+     */
+    public void release() {
+        if (null != packetBuffer) {
+            packetBuffer.release();
+            packetBuffer = null;
+        }
+    }
+
     public void setPacketData(byte[] packetData) {
         this.packetData = packetData;
     }
@@ -24,8 +24,9 @@ import esa.mo.mal.encoder.tcpip.TCPIPFixedBinaryStreamFactory;
 import esa.mo.mal.transport.gen.*;
 import esa.mo.mal.transport.gen.sending.GENMessageSender;
 import esa.mo.mal.transport.gen.sending.GENOutgoingMessageHolder;
+import esa.mo.mal.transport.gen.util.GENBufferPool;
 import esa.mo.mal.transport.gen.util.GENMessagePoller;
-import java.io.ByteArrayOutputStream;
+import esa.mo.mal.transport.gen.util.GENPooledBuffer;
 import java.io.IOException;
 import java.net.Inet6Address;
 import java.net.InetAddress;
@@ -35,6 +36,7 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.channels.ServerSocketChannel;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.ConsoleHandler;
@@ -44,6 +46,7 @@ import org.ccsds.moims.mo.mal.MALException;
 import org.ccsds.moims.mo.mal.MALHelper;
 import org.ccsds.moims.mo.mal.MALStandardError;
 import org.ccsds.moims.mo.mal.broker.MALBrokerBinding;
+import org.ccsds.moims.mo.mal.encoding.ByteArrayOutputBuffer;
 import org.ccsds.moims.mo.mal.structures.Blob;
 import org.ccsds.moims.mo.mal.structures.InteractionType;
 import org.ccsds.moims.mo.mal.structures.QoSLevel;
@@ -64,6 +67,17 @@ import org.ccsds.moims.mo.mal.transport.MALTransportFactory;
  * client (i.e. not offering any services) this property should be omitted.
  * org.ccsds.moims.mo.mal.transport.tcpip.port == port that the transport
  * listens to. In case this is a pure client, this property should be omitted.
+ * org.ccsds.moims.mo.mal.transport.tcpip.nio == true to serve the connections
+ * with the NIO engine instead of a receiving and a sending thread per
+ * connection.
+ * org.ccsds.moims.mo.mal.transport.tcpip.nio.threads == number of event loop
+ * threads of the NIO engine, defaults to the number of available processors.
+ * org.ccsds.moims.mo.mal.transport.tcpip.bufferpool == false to allocate a new
+ * array for each incoming frame instead of reading into pooled buffers.
+ * org.ccsds.moims.mo.mal.transport.tcpip.bufferpool.size == number of free
+ * buffers kept for each size class of the pool, 32 by default.
+ * org.ccsds.moims.mo.mal.transport.tcpip.bufferpool.direct == true to pool
+ * direct buffers.
  *
  * The general logic is the following: The transport at first initializes the
  * server listen port (if this is a server, offering services). On receiving a
@@ -75,8 +89,8 @@ import org.ccsds.moims.mo.mal.transport.MALTransportFactory;
  * client.
  *
  * On the server, each incoming connection is handled separately by a different
- * thread which on the first message reception associates the remote URI with
- * the connection (socket). This has the consequence that if the server wants to
+ * thread, or by one of the event loops of the NIO engine, which on the first
+ * message reception associates the remote URI with the connection (socket). This has the consequence that if the server wants to
  * either use a service, or reply to the remote URI, it will use on of these
  * already allocated communication resources.
  *
@@ -125,6 +139,35 @@ public class TCPIPTransport extends GENTransport<byte[], byte[]> {
      */
     private static final String PROPERTY_PORT = "org.ccsds.moims.mo.mal.transport.tcpip.port";
 
+    /**
+     * System property to select the NIO engine.
+     */
+    private static final String PROPERTY_NIO = "org.ccsds.moims.mo.mal.transport.tcpip.nio";
+
+    /**
+     * System property to define the number of event loops of the NIO engine.
+     */
+    private static final String PROPERTY_NIO_THREADS
+            = "org.ccsds.moims.mo.mal.transport.tcpip.nio.threads";
+
+    /**
+     * System property to disable the pooling of the incoming frame buffers.
+     */
+    private static final String PROPERTY_BUFFER_POOL = "org.ccsds.moims.mo.mal.transport.tcpip.bufferpool";
+
+    /**
+     * System property to define the number of free buffers kept for each size
+     * class of the pool.
+     */
+    private static final String PROPERTY_BUFFER_POOL_SIZE
+            = "org.ccsds.moims.mo.mal.transport.tcpip.bufferpool.size";
+
+    /**
+     * System property to select direct buffers for the pool.
+     */
+    private static final String PROPERTY_BUFFER_POOL_DIRECT
+            = "org.ccsds.moims.mo.mal.transport.tcpip.bufferpool.direct";
+
     /**
      * Port delimiter
      */
@@ -161,6 +204,26 @@ public class TCPIPTransport extends GENTransport<byte[], byte[]> {
      */
     private TCPIPServerConnectionListener serverConnectionListener = null;
 
+    /**
+     * True if the connections are served by the NIO engine.
+     */
+    private final boolean nio;
+
+    /**
+     * The number of event loops of the NIO engine.
+     */
+    private final int nioThreads;
+
+    /**
+     * Holds the NIO engine, if selected.
+     */
+    private TCPIPNioEngine nioEngine = null;
+
+    /**
+     * The pool of the incoming frame buffers, null if pooling is disabled.
+     */
+    private final GENBufferPool bufferPool;
+
     private boolean autohost = false;
     private ServerSocket serverSocket;
     private final Map<String, Integer> clientPorts = new HashMap<>();
@@ -197,6 +260,38 @@ public class TCPIPTransport extends GENTransport<byte[], byte[]> {
 
         RLOGGER.fine("TCPIPTransport (constructor)");
 
+        boolean lNio = false;
+        int lNioThreads = Runtime.getRuntime().availableProcessors();
+        boolean lBufferPool = true;
+        int lBufferPoolSize = 32;
+        boolean lBufferPoolDirect = false;
+
+        if (properties != null) {
+            if (properties.containsKey(PROPERTY_NIO)) {
+                lNio = Boolean.parseBoolean((String) properties.get(PROPERTY_NIO));
+            }
+
+            if (properties.containsKey(PROPERTY_NIO_THREADS)) {
+                lNioThreads = Integer.parseInt((String) properties.get(PROPERTY_NIO_THREADS));
+            }
+
+            if (properties.containsKey(PROPERTY_BUFFER_POOL)) {
+                lBufferPool = Boolean.parseBoolean((String) properties.get(PROPERTY_BUFFER_POOL));
+            }
+
+            if (properties.containsKey(PROPERTY_BUFFER_POOL_SIZE)) {
+                lBufferPoolSize = Integer.parseInt((String) properties.get(PROPERTY_BUFFER_POOL_SIZE));
+            }
+
+            if (properties.containsKey(PROPERTY_BUFFER_POOL_DIRECT)) {
+                lBufferPoolDirect = Boolean.parseBoolean((String) properties.get(PROPERTY_BUFFER_POOL_DIRECT));
+            }
+        }
+
+        this.nio = lNio;
+        this.nioThreads = lNioThreads;
+        this.bufferPool = lBufferPool ? new GENBufferPool(lBufferPoolSize, lBufferPoolDirect) : null;
+
         // decode configuration
         if (properties != null) {
             loadHostAliases(properties);
@@ -247,7 +342,7 @@ public class TCPIPTransport extends GENTransport<byte[], byte[]> {
                     try {
                         this.serverPort = Integer.parseInt((String) properties.get(PROPERTY_PORT));
                         InetAddress serverHostAddr = InetAddress.getByName(serverBindIp);
-                        serverSocket = new ServerSocket(this.serverPort, 0, serverHostAddr);
+                        serverSocket = openServerSocket(this.serverPort, serverHostAddr);
                     } catch (NumberFormatException ex) {
                         RLOGGER.log(Level.WARNING, "Cannot parse server port "
                                 + "number from properties file to Integer", ex);
@@ -268,7 +363,7 @@ public class TCPIPTransport extends GENTransport<byte[], byte[]> {
 
                         while (true) {
                             try {
-                                serverSocket = new ServerSocket(portNumber, 0, serverHostAddr);
+                                serverSocket = openServerSocket(portNumber, serverHostAddr);
                                 break;
                             } catch (Exception ex) {
                                 RLOGGER.log(Level.FINE,
@@ -346,6 +441,32 @@ public class TCPIPTransport extends GENTransport<byte[], byte[]> {
         aliasesLoaded = true;
     }
 
+    /**
+     * Opens the server socket. For the NIO engine the socket is the one of a
+     * server channel.
+     *
+     * @param port The port to listen to.
+     * @param bindAddr The address to bind to.
+     * @return The bound server socket.
+     * @throws IOException if the socket cannot be bound.
+     */
+    private ServerSocket openServerSocket(int port, InetAddress bindAddr) throws IOException {
+        if (!nio) {
+            return new ServerSocket(port, 0, bindAddr);
+        }
+
+        final ServerSocketChannel channel = ServerSocketChannel.open();
+
+        try {
+            channel.bind(new InetSocketAddress(bindAddr, port));
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+
+        return channel.socket();
+    }
+
     /**
      * Initialize a server socket, if this is a provider
      *
@@ -357,9 +478,20 @@ public class TCPIPTransport extends GENTransport<byte[], byte[]> {
         super.init();
         RLOGGER.fine("TCPIPTransport.init()");
 
-        // Is it a server?
-        if (serverBindIp != null) {
-            // start server socket on predefined port / interface
+        if (nio) {
+            try {
+                synchronized (this) {
+                    nioEngine = new TCPIPNioEngine(this, nioThreads);
+
+                    if (serverBindIp != null) {
+                        nioEngine.listen(serverSocket.getChannel());
+                    }
+                }
+            } catch (IOException ex) {
+                throw new MALException("Error initialising TCP NIO engine", ex);
+            }
+        } else if (serverBindIp != null) {
+            // Is it a server? start server socket on predefined port / interface
             try {
                 // create thread that will listen for connections
                 synchronized (this) {
@@ -428,6 +560,10 @@ public class TCPIPTransport extends GENTransport<byte[], byte[]> {
     public void close() throws MALException {
         RLOGGER.info("Closing TCPIPTransport...");
 
+        if (null != bufferPool) {
+            RLOGGER.log(Level.FINE, "Frame buffer pool: {0}", bufferPool);
+        }
+
         synchronized (this) {
             clientSockets.close();
 
@@ -445,6 +581,10 @@ public class TCPIPTransport extends GENTransport<byte[], byte[]> {
                 serverConnectionListener.interrupt();
 
             }
+
+            if (null != nioEngine) {
+                nioEngine.close();
+            }
         }
     }
 
@@ -467,9 +607,9 @@ public class TCPIPTransport extends GENTransport<byte[], byte[]> {
             final String targetURI, final GENMessage msg) throws Exception {
         try {
             // try to encode the TCPIP Message
-            final ByteArrayOutputStream lowLevelOutputStream = new ByteArrayOutputStream();
-            ((TCPIPMessage) msg).encodeMessage(getStreamFactory(), lowLevelOutputStream);
-            byte[] data = lowLevelOutputStream.toByteArray();
+            final ByteArrayOutputBuffer buffer = getEncodingBuffer();
+            ((TCPIPMessage) msg).encodeMessage(getStreamFactory(), buffer);
+            byte[] data = buffer.toByteArray();
 
             // message is encoded!
             LOGGER.log(Level.FINE, "GEN Sending data to {0} : {1}",
@@ -561,23 +701,38 @@ public class TCPIPTransport extends GENTransport<byte[], byte[]> {
         TCPIPMessageHeader header = new TCPIPMessageHeader(new URI(from), new URI(to));
 
         // msg with decoded header and empty body
-        byte[] packetData = packetInfo.getPacketData();
+        final GENPooledBuffer packetBuffer = packetInfo.getPacketBuffer();
+        final byte[] packetData = (null == packetBuffer) ? packetInfo.getPacketData() : null;
 
         // Header must be always Fixed Binary
-        TCPIPMessage msg = new TCPIPMessage(wrapBodyParts, header,
-                qosProperties, packetData, new TCPIPFixedBinaryStreamFactory());
+        TCPIPMessage msg;
+
+        if (null == packetBuffer) {
+            msg = new TCPIPMessage(wrapBodyParts, header, qosProperties,
+                    packetData, new TCPIPFixedBinaryStreamFactory());
+        } else {
+            msg = new TCPIPMessage(wrapBodyParts, header, qosProperties,
+                    packetBuffer.asInputStream(), new TCPIPFixedBinaryStreamFactory());
+        }
 
         int decodedHeaderBytes = ((TCPIPMessageHeader) msg.getHeader()).decodedHeaderBytes;
         int bodySize = ((TCPIPMessageHeader) msg.getHeader()).getBodyLength() + 23 - decodedHeaderBytes;
 
-        // copy body to separate packet
-        byte[] bodyPacketData = new byte[bodySize];
-        System.arraycopy(packetData, decodedHeaderBytes, bodyPacketData, 0, bodySize);
-
         // decode the body
+        if (null == packetBuffer) {
+            final byte[] bodyPacketData = new byte[bodySize];
+            System.arraycopy(packetData, decodedHeaderBytes, bodyPacketData, 0, bodySize);
+
+            return new TCPIPMessage(wrapBodyParts,
+                    (TCPIPMessageHeader) msg.getHeader(), qosProperties,
+                    bodyPacketData, getStreamFactory());
+        }
+
+        // the body is decoded from the pooled buffer in place, the message
+        // holds it until the body is decoded
         return new TCPIPMessage(wrapBodyParts,
                 (TCPIPMessageHeader) msg.getHeader(), qosProperties,
-                bodyPacketData, getStreamFactory());
+                packetBuffer, decodedHeaderBytes, bodySize, getStreamFactory());
     }
 
     /**
@@ -606,6 +761,24 @@ public class TCPIPTransport extends GENTransport<byte[], byte[]> {
             }
 
             ConnectionTuple toCt = getConnectionParts(remoteRootURI);
+
+            if (null != nioEngine) {
+                TCPIPNioConnection connection;
+
+                try {
+                    connection = nioEngine.connect(localPort, toCt.host, toCt.port);
+                } catch (IOException exc) {
+                    RLOGGER.warning("A problem was detected! Assigning a new consumer port...");
+
+                    localPort = this.getRandomClientPort();
+                    clientPorts.put(remoteRootURI, localPort);
+                    connection = nioEngine.connect(localPort, toCt.host, toCt.port);
+                }
+
+                connection.setRemoteURI(remoteRootURI);
+                return connection;
+            }
+
             Socket s = clientSockets.get(localPort);
 
             try {
@@ -667,7 +840,27 @@ public class TCPIPTransport extends GENTransport<byte[], byte[]> {
      */
     protected TCPIPTransportDataTransceiver createDataTransceiver(Socket socket) throws IOException {
         RLOGGER.fine("TCPIPTransport.createDataTransceiver()");
-        return new TCPIPTransportDataTransceiver(socket, ((clientPort == 0) ? serverPort : clientPort));
+        return new TCPIPTransportDataTransceiver(socket, getTransportPort(), bufferPool);
+    }
+
+    /**
+     * Returns the pool the incoming frames are read into, its counters show
+     * how often a buffer could be reused.
+     *
+     * @return The buffer pool, null if pooling is disabled.
+     */
+    public GENBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * Returns the port of this transport, the server port for a provider and
+     * the client port otherwise.
+     *
+     * @return The port of the transport address.
+     */
+    int getTransportPort() {
+        return (clientPort == 0) ? serverPort : clientPort;
     }
 
     /**
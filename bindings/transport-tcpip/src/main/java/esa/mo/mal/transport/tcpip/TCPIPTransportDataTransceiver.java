@@ -22,14 +22,20 @@ package esa.mo.mal.transport.tcpip;
 
 import esa.mo.mal.transport.gen.sending.GENMessageSender;
 import esa.mo.mal.transport.gen.sending.GENOutgoingMessageHolder;
+import esa.mo.mal.transport.gen.util.GENBufferPool;
+import esa.mo.mal.transport.gen.util.GENPooledBuffer;
 import esa.mo.mal.transport.gen.util.GENMessagePoller.GENMessageReceiver;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.net.Socket;
 import java.net.SocketException;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
 import java.util.logging.Level;
 import org.ccsds.moims.mo.mal.structures.URI;
 import static esa.mo.mal.transport.tcpip.TCPIPTransport.RLOGGER;
@@ -41,13 +47,17 @@ import static esa.mo.mal.transport.tcpip.TCPIPTransport.RLOGGER;
  *
  * This class manages both the transmitting and receiving of messages.
  */
-public class TCPIPTransportDataTransceiver implements GENMessageReceiver<TCPIPPacketInfoHolder>, GENMessageSender {
+public class TCPIPTransportDataTransceiver implements GENMessageReceiver<TCPIPPacketInfoHolder>, GENMessageSender<byte[]> {
 
     private boolean closed = false;
     private final static int HEADER_SIZE = 23;
+    private final static int WRITE_BUFFER_SIZE = 65536;
     protected final Socket socket;
     protected final DataOutputStream socketWriteIf;
     protected final DataInputStream socketReadIf;
+    private final GENBufferPool bufferPool;
+    private final byte[] rawHeader = new byte[HEADER_SIZE];
+    private ReadableByteChannel socketReadChannel = null;
     private final URI from;
     private final URI to;
 
@@ -59,9 +69,26 @@ public class TCPIPTransportDataTransceiver implements GENMessageReceiver<TCPIPPa
      * @throws IOException if there is an error.
      */
     public TCPIPTransportDataTransceiver(Socket socket, int localPort) throws IOException {
+        this(socket, localPort, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param socket the TCPIP socket.
+     * @param localPort
+     * @param bufferPool the pool to read the incoming frames into, null to
+     * allocate a new array for each frame.
+     * @throws IOException if there is an error.
+     */
+    public TCPIPTransportDataTransceiver(Socket socket, int localPort,
+            GENBufferPool bufferPool) throws IOException {
         RLOGGER.log(Level.FINE, "Creating new Data Transceiver");
         this.socket = socket;
-        socketWriteIf = new DataOutputStream(socket.getOutputStream());
+        this.bufferPool = bufferPool;
+        // Buffered, so a batch of small messages goes out in a single write
+        socketWriteIf = new DataOutputStream(new BufferedOutputStream(
+                socket.getOutputStream(), WRITE_BUFFER_SIZE));
         socketReadIf = new DataInputStream(socket.getInputStream());
 
         // get information
@@ -80,9 +107,26 @@ public class TCPIPTransportDataTransceiver implements GENMessageReceiver<TCPIPPa
      * @throws java.io.IOException
      */
     @Override
-    public void sendEncodedMessage(GENOutgoingMessageHolder packetData) throws IOException {
+    public void sendEncodedMessage(GENOutgoingMessageHolder<byte[]> packetData) throws IOException {
+        if (!closed) {
+            socketWriteIf.write(packetData.getEncodedMessage());
+            socketWriteIf.flush();
+        }
+    }
+
+    /**
+     * Send a batch of encoded messages out over the socket with a single flush.
+     *
+     * @param packets The encoded messages to send
+     * @throws java.io.IOException
+     */
+    @Override
+    public void sendEncodedMessages(List<GENOutgoingMessageHolder<byte[]>> packets) throws IOException {
         if (!closed) {
-            socketWriteIf.write((byte[]) packetData.getEncodedMessage());
+            for (GENOutgoingMessageHolder<byte[]> packetData : packets) {
+                socketWriteIf.write(packetData.getEncodedMessage());
+            }
+
             socketWriteIf.flush();
         }
     }
@@ -103,15 +147,17 @@ public class TCPIPTransportDataTransceiver implements GENMessageReceiver<TCPIPPa
      * and one for client-side, while still being compliant with the MAL
      * restriction that every client/provider has exactly one unique address.
      *
+     * When a buffer pool is configured the frame is read into a pooled buffer,
+     * which is released once the message has been decoded.
+     *
      * @return
      * @throws java.io.IOException
      */
     @Override
     public TCPIPPacketInfoHolder readEncodedMessage() throws IOException {
         // figure out length according to mal message mapping to determine 
-        // byte arr length, then read the rest.
-        byte[] rawHeader = new byte[HEADER_SIZE];
-
+        // byte arr length, then read the rest. Only the poller thread reads,
+        // so the header array is reused.
         try {
             this.readUntilComplete(rawHeader, 0, HEADER_SIZE);
         } catch (SocketException socketExc) {
@@ -127,7 +173,11 @@ public class TCPIPTransportDataTransceiver implements GENMessageReceiver<TCPIPPa
         }
 
         // Get the lenght of the body directly at the byte level
-        final int bodyLength = byteArrayToInt(Arrays.copyOfRange(rawHeader, 19, 23));
+        final int bodyLength = byteArrayToInt(rawHeader, 19);
+
+        if (null != bufferPool) {
+            return readPooledBody(bodyLength);
+        }
 
         // Allocate memory for header and body
         byte[] totalPacketData = new byte[HEADER_SIZE + bodyLength];
@@ -153,6 +203,39 @@ public class TCPIPTransportDataTransceiver implements GENMessageReceiver<TCPIPPa
         return new TCPIPPacketInfoHolder(totalPacketData, from, to);
     }
 
+    private TCPIPPacketInfoHolder readPooledBody(final int bodyLength) throws IOException {
+        final GENPooledBuffer packet = bufferPool.acquire(HEADER_SIZE + bodyLength);
+        final ByteBuffer buffer = packet.buffer();
+        buffer.put(rawHeader);
+
+        try {
+            // read body straight into the pooled buffer
+            if (buffer.hasArray()) {
+                this.readUntilComplete(buffer.array(),
+                        buffer.arrayOffset() + HEADER_SIZE, bodyLength);
+            } else {
+                this.readUntilComplete(buffer);
+            }
+        } catch (SocketException socketExc) {
+            packet.release();
+
+            if (socket.isClosed()) {
+                // socket has been closed to throw EOF exception higher
+                throw new java.io.EOFException();
+            }
+
+            throw socketExc;
+        } catch (EOFException eofEx) {
+            packet.release();
+            RLOGGER.log(Level.WARNING, "EOF reached for input stream!", eofEx);
+            throw new IOException("EOF reached for input stream!");
+        } catch (IOException bodyReadIo) {
+            RLOGGER.warning("Socket connection closed while reading!");
+        }
+
+        return new TCPIPPacketInfoHolder(packet, from, to);
+    }
+
     /**
      * Close the socket
      */
@@ -176,8 +259,19 @@ public class TCPIPTransportDataTransceiver implements GENMessageReceiver<TCPIPPa
      * @return int
      */
     public static int byteArrayToInt(byte[] b) {
-        return b[3] & 0xFF | (b[2] & 0xFF) << 8 | (b[1] & 0xFF) << 16
-                | (b[0] & 0xFF) << 24;
+        return byteArrayToInt(b, 0);
+    }
+
+    /**
+     * Convert 4 bytes of a byte array to an integer.
+     *
+     * @param b The byte array to convert
+     * @param offset The offset of the first byte
+     * @return int
+     */
+    public static int byteArrayToInt(byte[] b, int offset) {
+        return b[offset + 3] & 0xFF | (b[offset + 2] & 0xFF) << 8
+                | (b[offset + 1] & 0xFF) << 16 | (b[offset] & 0xFF) << 24;
     }
 
     private int readUntilComplete(final byte[] b, final int off,
@@ -194,4 +288,16 @@ public class TCPIPTransportDataTransceiver implements GENMessageReceiver<TCPIPPa
         } while (len < completeLength);
         return len;
     }
+
+    private void readUntilComplete(final ByteBuffer b) throws IOException {
+        if (null == socketReadChannel) {
+            socketReadChannel = Channels.newChannel(socketReadIf);
+        }
+
+        while (b.hasRemaining()) {
+            if (socketReadChannel.read(b) < 0) {
+                throw new SocketException("The socket read -1 from the input stream.");
+            }
+        }
+    }
 }
@@ -0,0 +1,166 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO TCP/IP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.transport.tcpip;
+
+import esa.mo.mal.encoder.binary.base.BinaryTimeHandler;
+import esa.mo.mal.encoder.binary.fixed.FixedBinaryStreamFactory;
+import esa.mo.mal.encoder.tcpip.TCPIPFixedBinaryDecoder;
+import esa.mo.mal.encoder.tcpip.TCPIPFixedBinaryStreamFactory;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import org.ccsds.moims.mo.mal.MALArea;
+import org.ccsds.moims.mo.mal.MALContextFactory;
+import org.ccsds.moims.mo.mal.MALElementsRegistry;
+import org.ccsds.moims.mo.mal.MALOperation;
+import org.ccsds.moims.mo.mal.MALOperationStage;
+import org.ccsds.moims.mo.mal.MALSendOperation;
+import org.ccsds.moims.mo.mal.MALService;
+import org.ccsds.moims.mo.mal.ServiceKey;
+import org.ccsds.moims.mo.mal.encoding.GENElementInputStream;
+import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
+import org.ccsds.moims.mo.mal.structures.Attribute;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.transport.MALMessageBody;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a TCP/IP message whose header is read with the TCP/IP fixed
+ * binary decoder, and whose fixed binary body is decoded lazily from the
+ * packet, is encoded again byte for byte.
+ */
+public class TCPIPMessageTest {
+
+    private static final UShort AREA = new UShort(901);
+    private static final UShort SERVICE = new UShort(1);
+    private static final UOctet VERSION = new UOctet((short) 1);
+    private static final UOctet STAGE = new UOctet((short) 1);
+    private static final Object[] PARTS = new Object[]{
+        new Identifier("first"), new UInteger(42), new Identifier("third")
+    };
+    private static final MALOperation OPERATION = new MALSendOperation(new UShort(1),
+            new Identifier("testSend"), false, new UShort(0),
+            new MALOperationStage(STAGE, new Object[]{
+        Attribute.IDENTIFIER_SHORT_FORM, Attribute.UINTEGER_SHORT_FORM, Attribute.IDENTIFIER_SHORT_FORM
+    }, new Object[0]));
+    private static final String FROM = "maltcp://localhost:1024/";
+    private static final String TO = "maltcp://localhost:1025/";
+
+    private final MALElementStreamFactory bodyFactory = new FixedBinaryStreamFactory();
+
+    @BeforeClass
+    public static void registerArea() throws Exception {
+        final MALElementsRegistry registry = MALContextFactory.getElementsRegistry();
+        registry.addElementSupplier(Attribute.IDENTIFIER_SHORT_FORM, Identifier::new);
+        registry.addElementSupplier(Attribute.UINTEGER_SHORT_FORM, UInteger::new);
+
+        final MALArea area = new MALArea(AREA, new Identifier("TestArea"), VERSION);
+        area.addService(new MALService(new ServiceKey(AREA, SERVICE, VERSION),
+                new Identifier("TestService"), new MALOperation[]{OPERATION}));
+        MALContextFactory.registerArea(area);
+    }
+
+    @Test
+    public void testHeaderDecoderReportsTheWholePacket() throws Exception {
+        final byte[] packet = encodeSent();
+        final TCPIPFixedBinaryDecoder decoder
+                = new TCPIPFixedBinaryDecoder(packet, 0, new BinaryTimeHandler());
+
+        assertSame(packet, decoder.getSourceArray());
+        assertEquals(0, decoder.getSourceOffset());
+        assertEquals(packet.length, decoder.getSourceLimit());
+
+        final GENElementInputStream in = (GENElementInputStream) new TCPIPFixedBinaryStreamFactory()
+                .createInputStream(packet, 4);
+        assertSame(packet, in.getSourceArray());
+        assertEquals(4, in.getSourceOffset());
+        assertEquals(packet.length, in.getSourceLimit());
+    }
+
+    @Test
+    public void testPartialDecodeThenRemainingParts() throws Exception {
+        final MALMessageBody body = receive(encodeSent()).getBody();
+
+        assertEquals(PARTS.length, body.getElementCount());
+        assertEquals(PARTS[0], body.getBodyElement(0, null));
+        assertEquals(PARTS[2], body.getBodyElement(2, null));
+        assertEquals(PARTS[1], body.getBodyElement(1, null));
+    }
+
+    @Test
+    public void testReceivedMessageIsEncodedByteForByte() throws Exception {
+        final byte[] packet = encodeSent();
+
+        // untouched body
+        assertArrayEquals(packet, encodeReceived(receive(packet)));
+
+        // partly, then fully, decoded body
+        for (int i = 0; i < PARTS.length; i++) {
+            final TCPIPMessage msg = receive(packet);
+            assertEquals(PARTS[i], msg.getBody().getBodyElement(i, null));
+            assertArrayEquals("Decoded up to part " + i, packet, encodeReceived(msg));
+        }
+    }
+
+    private byte[] encodeSent() throws Exception {
+        final TCPIPMessageHeader header = new TCPIPMessageHeader(new URI(FROM + "from"), "from",
+                null, new URI(TO + "to"), "to", null, QoSLevel.ASSURED, null, null, null,
+                SessionType.LIVE, null, InteractionType.SEND, STAGE, 7L, AREA, SERVICE,
+                new UShort(1), VERSION, false);
+        final TCPIPMessage msg = new TCPIPMessage(false, header, new HashMap(), OPERATION,
+                bodyFactory, PARTS);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        msg.encodeMessage(bodyFactory, baos);
+        return baos.toByteArray();
+    }
+
+    /**
+     * Decodes a packet as TCPIPTransport.createMessage does.
+     */
+    private TCPIPMessage receive(final byte[] packet) throws Exception {
+        final TCPIPMessage hdrMsg = new TCPIPMessage(false,
+                new TCPIPMessageHeader(new URI(FROM), new URI(TO)), new HashMap(), packet,
+                new TCPIPFixedBinaryStreamFactory());
+        final TCPIPMessageHeader header = (TCPIPMessageHeader) hdrMsg.getHeader();
+        final byte[] body = Arrays.copyOfRange(packet, header.decodedHeaderBytes, packet.length);
+
+        return new TCPIPMessage(false, header, new HashMap(), body, bodyFactory);
+    }
+
+    private byte[] encodeReceived(final TCPIPMessage msg) throws Exception {
+        final TCPIPMessageHeader header = (TCPIPMessageHeader) msg.getHeader();
+        header.setServiceFrom("from");
+        header.setServiceTo("to");
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        msg.encodeMessage(bodyFactory, baos);
+        return baos.toByteArray();
+    }
+}
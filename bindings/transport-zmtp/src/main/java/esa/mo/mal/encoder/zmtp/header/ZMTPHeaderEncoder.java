@@ -23,13 +23,16 @@ package esa.mo.mal.encoder.zmtp.header;
 import esa.mo.mal.encoder.binary.base.BinaryTimeHandler;
 import esa.mo.mal.encoder.binary.fixed.FixedBinaryEncoder;
 import org.ccsds.moims.mo.mal.encoding.StreamHolder;
+import esa.mo.mal.transport.zmtp.ZMTPHeaderTemplates;
 import esa.mo.mal.transport.zmtp.ZMTPTransport;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import org.ccsds.moims.mo.mal.MALException;
 import org.ccsds.moims.mo.mal.MALListEncoder;
 import org.ccsds.moims.mo.mal.structures.Blob;
 import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
 import org.ccsds.moims.mo.mal.structures.UInteger;
 import org.ccsds.moims.mo.mal.structures.URI;
 
@@ -86,6 +89,151 @@ public class ZMTPHeaderEncoder extends FixedBinaryEncoder {
         outputStream.write((byte) ((int) value & 127));
     }
 
+    /**
+     * Encodes the source and destination URIs of a message, reusing their
+     * encoded form if the same URIs have been encoded before.
+     *
+     * @param uriFrom The source URI.
+     * @param uriTo The destination URI.
+     * @throws MALException if they could not be encoded.
+     */
+    public void encodeURIs(URI uriFrom, URI uriTo) throws MALException {
+        final ZMTPHeaderTemplates templates = getHeaderTemplates();
+
+        if ((null == templates) || !isSet(uriFrom) || !isSet(uriTo)) {
+            encodeURI(uriFrom);
+            encodeURI(uriTo);
+            return;
+        }
+
+        final Object[] fields = {uriFrom, uriTo};
+        byte[] encoded = templates.get(fields);
+
+        if (null == encoded) {
+            final long generation = templates.getGeneration();
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            final ZMTPHeaderEncoder enc = new ZMTPHeaderEncoder(baos, transport, timeHandler);
+            enc.encodeURI(uriFrom);
+            enc.encodeURI(uriTo);
+            encoded = baos.toByteArray();
+            templates.put(fields, encoded, generation);
+        }
+
+        writeEncoded(encoded);
+    }
+
+    /**
+     * Encodes the network zone, session name, domain and authentication id of
+     * a message that are enabled by the header flags, reusing their encoded
+     * form if the same fields have been encoded before.
+     *
+     * @param flags The header flags.
+     * @param networkZone The network zone.
+     * @param sessionName The session name.
+     * @param domain The domain.
+     * @param authenticationId The authentication id.
+     * @throws MALException if they could not be encoded.
+     */
+    public void encodeContext(short flags, Identifier networkZone, Identifier sessionName,
+            IdentifierList domain, Blob authenticationId) throws MALException {
+        final boolean hasNetwork = 0 != (flags & 0x08);
+        final boolean hasSessionName = 0 != (flags & 0x04);
+        final boolean hasDomain = 0 != (flags & 0x02);
+        final boolean hasAuth = 0 != (flags & 0x01);
+        final ZMTPHeaderTemplates templates = getHeaderTemplates();
+
+        if ((null == templates) || (hasNetwork && !isSet(networkZone))
+                || (hasSessionName && !isSet(sessionName))
+                || (hasDomain && !isSet(domain)) || (hasAuth && !isSet(authenticationId))) {
+            encodeContext(this, hasNetwork, hasSessionName, hasDomain, hasAuth,
+                    networkZone, sessionName, domain, authenticationId);
+            return;
+        }
+
+        final Object[] fields = {(short) (flags & 0x0F),
+            hasNetwork ? networkZone : null,
+            hasSessionName ? sessionName : null,
+            hasDomain ? domain : null,
+            hasAuth ? authenticationId : null};
+        byte[] encoded = templates.get(fields);
+
+        if (null == encoded) {
+            final long generation = templates.getGeneration();
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            encodeContext(new ZMTPHeaderEncoder(baos, transport, timeHandler),
+                    hasNetwork, hasSessionName, hasDomain, hasAuth,
+                    networkZone, sessionName, domain, authenticationId);
+            encoded = baos.toByteArray();
+
+            // the caller may modify its list and blob once the message is sent
+            if (hasDomain) {
+                fields[3] = new IdentifierList(domain);
+            }
+            if (hasAuth) {
+                fields[4] = new Blob(authenticationId.getValue().clone());
+            }
+            templates.put(fields, encoded, generation);
+        }
+
+        writeEncoded(encoded);
+    }
+
+    private static void encodeContext(ZMTPHeaderEncoder encoder, boolean hasNetwork,
+            boolean hasSessionName, boolean hasDomain, boolean hasAuth,
+            Identifier networkZone, Identifier sessionName, IdentifierList domain,
+            Blob authenticationId) throws MALException {
+        if (hasNetwork) {
+            encoder.encodeIdentifier(networkZone);
+        }
+        if (hasSessionName) {
+            encoder.encodeIdentifier(sessionName);
+        }
+        if (hasDomain) {
+            encoder.encodeElement(domain);
+        }
+        if (hasAuth) {
+            encoder.encodeBlob(authenticationId);
+        }
+    }
+
+    private static boolean isSet(URI value) {
+        return (null != value) && (null != value.getValue());
+    }
+
+    private static boolean isSet(Identifier value) {
+        return (null != value) && (null != value.getValue());
+    }
+
+    private static boolean isSet(Blob value) throws MALException {
+        return (null != value) && !value.isURLBased() && (null != value.getValue());
+    }
+
+    private static boolean isSet(IdentifierList value) {
+        if (null == value) {
+            return false;
+        }
+
+        for (Identifier id : value) {
+            if (!isSet(id)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private ZMTPHeaderTemplates getHeaderTemplates() {
+        return (null == transport) ? null : transport.getHeaderTemplates();
+    }
+
+    private void writeEncoded(byte[] encoded) throws MALException {
+        try {
+            outputStream.write(encoded);
+        } catch (IOException ex) {
+            throw new MALException(ENCODING_EXCEPTION_STR, ex);
+        }
+    }
+
     @Override
     public MALListEncoder createListEncoder(final java.util.List value) throws MALException {
         checkForNull(value);
@@ -0,0 +1,146 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO ZMTP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.transport.zmtp;
+
+import java.util.List;
+import java.util.Map;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.MALOperation;
+import org.ccsds.moims.mo.mal.MALStandardError;
+import org.ccsds.moims.mo.mal.broker.MALBrokerBinding;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.ccsds.moims.mo.mal.transport.MALTransmitErrorListener;
+
+/**
+ * Broker binding of the broker-less PubSub. It only provides the broker URI
+ * the publishers and consumers send their PubSub messages to, the messages are
+ * handled by the ZMTPTopicBroker of the transport.
+ */
+public class ZMTPBrokerBinding implements MALBrokerBinding {
+
+    private final URI uri;
+    private Blob authenticationId;
+    private MALTransmitErrorListener listener = null;
+
+    public ZMTPBrokerBinding(URI uri, Blob authenticationId) {
+        this.uri = uri;
+        this.authenticationId = authenticationId;
+    }
+
+    @Override
+    public Blob getAuthenticationId() {
+        return authenticationId;
+    }
+
+    @Override
+    public Blob setAuthenticationId(Blob newAuthenticationId) {
+        Blob previous = this.authenticationId;
+        this.authenticationId = newAuthenticationId;
+        return previous;
+    }
+
+    @Override
+    public URI getURI() {
+        return uri;
+    }
+
+    @Override
+    public void setTransmitErrorListener(MALTransmitErrorListener listener) throws MALException {
+        this.listener = listener;
+    }
+
+    @Override
+    public MALTransmitErrorListener getTransmitErrorListener() throws MALException {
+        return listener;
+    }
+
+    @Override
+    public MALMessage sendNotify(UShort area, UShort service, UShort operation, UOctet version,
+            URI subscriber, Long transactionId, IdentifierList domainId, Identifier networkZone,
+            SessionType sessionType, Identifier sessionName, QoSLevel notifyQos, Map notifyQosProps,
+            UInteger notifyPriority, Identifier subscriptionId, UpdateHeaderList updateHeaderList,
+            List... updateList) throws IllegalArgumentException, MALInteractionException, MALException {
+        ZMTPTransport.RLOGGER.warning("ZMTPBrokerBinding::sendNotify1");
+        return null;
+    }
+
+    @Override
+    public MALMessage sendNotify(MALOperation op, URI subscriber, Long transactionId,
+            IdentifierList domainId, Identifier networkZone, SessionType sessionType,
+            Identifier sessionName, QoSLevel notifyQos, Map notifyQosProps, UInteger notifyPriority,
+            Identifier subscriptionId, UpdateHeaderList updateHeaderList, List... updateList) throws
+            IllegalArgumentException, MALInteractionException, MALException {
+        ZMTPTransport.RLOGGER.warning("ZMTPBrokerBinding::sendNotify2");
+        return null;
+    }
+
+    @Override
+    public MALMessage sendNotifyError(UShort area, UShort service, UShort operation, UOctet version,
+            URI subscriber, Long transactionId, IdentifierList domainId, Identifier networkZone,
+            SessionType sessionType, Identifier sessionName, QoSLevel notifyQos, Map notifyQosProps,
+            UInteger notifyPriority, MALStandardError error) throws IllegalArgumentException,
+            MALInteractionException, MALException {
+        ZMTPTransport.RLOGGER.warning("ZMTPBrokerBinding::sendNotifyError1");
+        return null;
+    }
+
+    @Override
+    public MALMessage sendNotifyError(MALOperation op, URI subscriber, Long transactionId,
+            IdentifierList domainId, Identifier networkZone, SessionType sessionType,
+            Identifier sessionName, QoSLevel notifyQos, Map notifyQosProps, UInteger notifyPriority,
+            MALStandardError error) throws IllegalArgumentException, MALInteractionException, MALException {
+        ZMTPTransport.RLOGGER.warning("ZMTPBrokerBinding::sendNotifyError2");
+        return null;
+    }
+
+    @Override
+    public MALMessage sendPublishError(UShort area, UShort service, UShort operation, UOctet version,
+            URI publisher, Long transactionId, IdentifierList domainId, Identifier networkZone,
+            SessionType sessionType, Identifier sessionName, QoSLevel qos, Map qosProps, UInteger priority,
+            MALStandardError error) throws IllegalArgumentException, MALInteractionException, MALException {
+        ZMTPTransport.RLOGGER.warning("ZMTPBrokerBinding::sendPublishError1");
+        return null;
+    }
+
+    @Override
+    public MALMessage sendPublishError(MALOperation op, URI publisher, Long transactionId,
+            IdentifierList domainId, Identifier networkZone, SessionType sessionType,
+            Identifier sessionName, QoSLevel qos, Map qosProps, UInteger priority, MALStandardError error)
+            throws IllegalArgumentException, MALInteractionException, MALException {
+        ZMTPTransport.RLOGGER.warning("ZMTPBrokerBinding::sendPublishError2");
+        return null;
+    }
+
+    @Override
+    public void close() throws MALException {
+    }
+}
@@ -92,7 +92,7 @@ public class ZMTPChannelDestination {
         rxThread = new Thread(new Runnable() {
             public void run() {
                 zmqContext = ZContext.shadow(transport.getZmqContext());
-                socket = ZMTPTransport.openSocket(zmqContext, communicationPattern, zmtpURI, true);
+                socket = createSocket();
                 
                 while (true) {
                     if (Thread.interrupted()) {
@@ -100,12 +100,12 @@ public class ZMTPChannelDestination {
                         break;
                     }
                     try {
+                        beforeReceive();
                         org.zeromq.ZMsg recvMsg = org.zeromq.ZMsg.recvMsg(socket);
-                        ZFrame first = recvMsg.pop(); // The frame with sender id
-                        byte[] remoteIdentity = first.getData();
-                        byte[] rxData = getMessageBuffer(recvMsg);
-                        transport.channelDataReceived(remoteIdentity, rxData);
-                        recvMsg.destroy();
+                        if (null != recvMsg) {
+                            messageReceived(recvMsg);
+                            recvMsg.destroy();
+                        }
                     } catch (ZMQException e) {
                         if (e.getErrorCode() == ZMQ.Error.ETERM.getCode()) {
                             ZMTPTransport.RLOGGER.log(Level.INFO, 
@@ -133,6 +133,34 @@ public class ZMTPChannelDestination {
         rxThread.start();
     }
 
+    /**
+     * Creates the socket of the destination, called from the receiver thread.
+     *
+     * @return The socket.
+     */
+    protected ZMQ.Socket createSocket() {
+        return ZMTPTransport.openSocket(zmqContext, communicationPattern, zmtpURI, true);
+    }
+
+    /**
+     * Called from the receiver thread before each receive on the socket. Does
+     * nothing by default.
+     */
+    protected void beforeReceive() {
+    }
+
+    /**
+     * Passes a message received on the socket to the transport.
+     *
+     * @param recvMsg The received message.
+     */
+    protected void messageReceived(org.zeromq.ZMsg recvMsg) {
+        ZFrame first = recvMsg.pop(); // The frame with sender id
+        byte[] remoteIdentity = first.getData();
+        byte[] rxData = getMessageBuffer(recvMsg);
+        transport.channelDataReceived(remoteIdentity, rxData);
+    }
+
     private byte[] getMessageBuffer(org.zeromq.ZMsg recvMsg) {
         int totalSize = 0;
         // Calculate total data size
@@ -23,6 +23,8 @@ package esa.mo.mal.transport.zmtp;
 import esa.mo.mal.transport.gen.sending.GENMessageSender;
 import esa.mo.mal.transport.gen.sending.GENOutgoingMessageHolder;
 import java.io.IOException;
+import java.util.logging.Level;
+import org.ccsds.moims.mo.mal.MALException;
 import org.zeromq.ZMQ;
 import org.zeromq.ZMsg;
 
@@ -42,19 +44,49 @@ public class ZMTPChannelSource implements GENMessageSender<byte[]> {
      */
     protected final ZMQ.Socket socket;
 
+    /**
+     * The templates of the headers sent in delta form on the socket, null if
+     * the messages are sent in full.
+     */
+    protected final ZMTPDeltaHeaders deltaHeaders;
+
     /**
      * Constructor.
      *
      * @param socket The ZMTP socket.
      */
     public ZMTPChannelSource(ZMQ.Socket socket) {
+        this(socket, null);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param socket The ZMTP socket.
+     * @param deltaHeaders The templates of the headers sent in delta form on
+     * the socket, null to send the messages in full.
+     */
+    public ZMTPChannelSource(ZMQ.Socket socket, ZMTPDeltaHeaders deltaHeaders) {
         this.socket = socket;
+        this.deltaHeaders = deltaHeaders;
     }
 
     @Override
     public void sendEncodedMessage(GENOutgoingMessageHolder<byte[]> packetData) throws IOException {
+        byte[] data = packetData.getEncodedMessage();
+
+        if (null != deltaHeaders) {
+            try {
+                data = deltaHeaders.compress(data);
+            } catch (MALException ex) {
+                // a message in full can always be sent instead
+                ZMTPTransport.RLOGGER.log(Level.WARNING,
+                        "Could not send the message header in delta form", ex);
+            }
+        }
+
         ZMsg outMsg = new ZMsg();
-        outMsg.add(packetData.getEncodedMessage());
+        outMsg.add(data);
         outMsg.send(socket, true);
     }
 
@@ -21,6 +21,11 @@
 package esa.mo.mal.transport.zmtp;
 
 import java.util.Map;
+import java.util.StringTokenizer;
+import javax.xml.bind.DatatypeConverter;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
 
 /**
  * Small class that holds the mapping and QoS configuration properties for
@@ -68,6 +73,12 @@ public class ZMTPConfiguration {
     protected boolean authFlag;
     protected short flags = 0x0;
 
+    // Default values in decoded form, built once rather than per message
+    private Identifier defaultNetworkId;
+    private Identifier defaultSessionNameId;
+    private Identifier[] defaultDomainIds;
+    private byte[] defaultAuthBytes;
+
     public ZMTPConfiguration() {
         this(false, false, false, false, false, false);
     }
@@ -85,6 +96,7 @@ public class ZMTPConfiguration {
         this.domainFlag = hasDomain;
         this.authFlag = hasAuth;
         updateFlags();
+        updateDefaults(null);
     }
 
     public ZMTPConfiguration(ZMTPConfiguration other, final Map properties) {
@@ -102,6 +114,7 @@ public class ZMTPConfiguration {
         domainFlag = getBooleanProperty(properties, DOMAIN_FLAG, other.domainFlag);
         authFlag = getBooleanProperty(properties, AUTHENTICATION_ID_FLAG, other.authFlag);
         updateFlags();
+        updateDefaults(other);
     }
 
     private Integer getIntegerProperty(final Map properties, 
@@ -137,6 +150,46 @@ public class ZMTPConfiguration {
                 isNetworkFlag(), isSessionNameFlag(), isDomainFlag(), isAuthFlag());
     }
 
+    /**
+     * Builds the decoded form of the default values, reusing the ones of the
+     * other configuration for the values that were not overridden.
+     *
+     * @param other The configuration this one was derived from, may be null.
+     */
+    private void updateDefaults(ZMTPConfiguration other) {
+        if ((null != other) && (defaultNetwork == other.defaultNetwork)) {
+            defaultNetworkId = other.defaultNetworkId;
+        } else {
+            defaultNetworkId = new Identifier(defaultNetwork);
+        }
+
+        if ((null != other) && (defaultSessionName == other.defaultSessionName)) {
+            defaultSessionNameId = other.defaultSessionNameId;
+        } else {
+            defaultSessionNameId = new Identifier(defaultSessionName);
+        }
+
+        if ((null != other) && (defaultDomain == other.defaultDomain)) {
+            defaultDomainIds = other.defaultDomainIds;
+        } else if (null == defaultDomain) {
+            defaultDomainIds = new Identifier[0];
+        } else {
+            StringTokenizer tokenizer = new StringTokenizer(defaultDomain, ".");
+            defaultDomainIds = new Identifier[tokenizer.countTokens()];
+            for (int i = 0; i < defaultDomainIds.length; i++) {
+                defaultDomainIds[i] = new Identifier(tokenizer.nextToken());
+            }
+        }
+
+        if ((null != other) && (defaultAuth == other.defaultAuth)) {
+            defaultAuthBytes = other.defaultAuthBytes;
+        } else if ((null == defaultAuth) || defaultAuth.isEmpty()) {
+            defaultAuthBytes = new byte[0];
+        } else {
+            defaultAuthBytes = DatatypeConverter.parseBase64Binary(defaultAuth);
+        }
+    }
+
     private static short calculateFlags(boolean priority,
             boolean timestamp,
             boolean network,
@@ -187,6 +240,42 @@ public class ZMTPConfiguration {
         return defaultSessionName;
     }
 
+    /**
+     * @return the default network zone, used when a message does not carry
+     * one, an empty Identifier if there is no default
+     */
+    public Identifier getDefaultNetworkIdentifier() {
+        return defaultNetworkId;
+    }
+
+    /**
+     * @return the default session name, used when a message does not carry
+     * one, an empty Identifier if there is no default
+     */
+    public Identifier getDefaultSessionNameIdentifier() {
+        return defaultSessionNameId;
+    }
+
+    /**
+     * @return a new list holding the default domain, used when a message does
+     * not carry one
+     */
+    public IdentifierList getDefaultDomainList() {
+        IdentifierList domain = new IdentifierList(defaultDomainIds.length);
+        for (Identifier id : defaultDomainIds) {
+            domain.add(id);
+        }
+        return domain;
+    }
+
+    /**
+     * @return a new Blob holding the decoded default authentication id, used
+     * when a message does not carry one
+     */
+    public Blob getDefaultAuthBlob() {
+        return new Blob(defaultAuthBytes.clone());
+    }
+
     /**
      * @return the priorityFlag
      */
@@ -234,6 +323,7 @@ public class ZMTPConfiguration {
      */
     public void setDefaultAuth(String defaultAuth) {
         this.defaultAuth = defaultAuth;
+        updateDefaults(null);
     }
 
     /**
@@ -241,6 +331,7 @@ public class ZMTPConfiguration {
      */
     public void setDefaultDomain(String defaultDomain) {
         this.defaultDomain = defaultDomain;
+        updateDefaults(null);
     }
 
     /**
@@ -248,6 +339,7 @@ public class ZMTPConfiguration {
      */
     public void setDefaultNetwork(String defaultNetwork) {
         this.defaultNetwork = defaultNetwork;
+        updateDefaults(null);
     }
 
     /**
@@ -262,6 +354,7 @@ public class ZMTPConfiguration {
      */
     public void setDefaultSessionName(String defaultSessionName) {
         this.defaultSessionName = defaultSessionName;
+        updateDefaults(null);
     }
 
     /**
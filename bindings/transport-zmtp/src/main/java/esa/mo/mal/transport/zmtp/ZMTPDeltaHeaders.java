@@ -0,0 +1,336 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO ZMTP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.transport.zmtp;
+
+import esa.mo.mal.encoder.binary.base.BinaryTimeHandler;
+import esa.mo.mal.encoder.zmtp.header.ZMTPHeaderDecoder;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+
+/**
+ * Implements the opt-in delta header mode of the point to point channels. The
+ * header fields that repeat from one message to the next on a channel, the
+ * service, the flags, the URIs and the network zone, session name, domain and
+ * authentication id, form a template. The first message of a template is sent
+ * in full with the identifier the sender gives to the template, the following
+ * ones only carry that identifier and the fields that change: the stage, the
+ * QoS, session and error bits, the transaction id, the priority and the
+ * timestamp.
+ *
+ * The messages in delta form have the version number 2 in their first octet,
+ * followed by a variable length unsigned integer holding the template
+ * identifier shifted left by one and, in the lowest bit, whether the template
+ * is defined by the message. A defining message then continues as a message
+ * of the version 1. Otherwise the changing fields and the body follow.
+ *
+ * The receiver expands the messages back to the version 1, so their decoding
+ * is unchanged. Both peers must enable the mode, which only applies to the
+ * point to point channels where the messages of a sender socket are received
+ * in order. A template is sent in full again every REFRESH_INTERVAL messages
+ * so that a peer that has lost it, as after a restart, recovers.
+ *
+ * An instance serves one direction of one channel: the compress methods are
+ * used by the sender and the expand methods by the receiver.
+ */
+public class ZMTPDeltaHeaders {
+
+    /**
+     * The version number of the messages in delta form.
+     */
+    public static final int DELTA_VERSION_NUMBER = 2;
+    /**
+     * The number of templates of a channel, their identifiers are below it.
+     */
+    public static final int MAX_TEMPLATES = 64;
+    /**
+     * The number of messages after which a template is sent in full again.
+     */
+    public static final int REFRESH_INTERVAL = 100;
+
+    private static final int SERVICE_OFFSET = 1;
+    private static final int SERVICE_LENGTH = 7;
+    private static final int CHANGING_OFFSET = SERVICE_OFFSET + SERVICE_LENGTH;
+    private static final int CHANGING_LENGTH = 9;
+    private static final int FLAGS_OFFSET = CHANGING_OFFSET + CHANGING_LENGTH;
+
+    private final ZMTPTransport transport;
+    private final BinaryTimeHandler timeHandler = new BinaryTimeHandler();
+    private final Map<Template, SentTemplate> sent
+            = new LinkedHashMap<Template, SentTemplate>(16, 0.75f, true);
+    private final Template[] received = new Template[MAX_TEMPLATES];
+
+    /**
+     * Constructor.
+     *
+     * @param transport The transport holding the String Mapping Directory.
+     */
+    public ZMTPDeltaHeaders(final ZMTPTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Returns true if a received message is in delta form.
+     *
+     * @param packet The received message.
+     * @return True if it has to be expanded.
+     */
+    public static boolean isDelta(final byte[] packet) {
+        return (0 < packet.length) && (DELTA_VERSION_NUMBER == ((packet[0] & 0xE0) >> 5));
+    }
+
+    /**
+     * Returns the delta form of a message to send.
+     *
+     * @param packet The encoded message, of the version 1.
+     * @return The message in delta form.
+     * @throws MALException if the header cannot be read.
+     */
+    public synchronized byte[] compress(final byte[] packet) throws MALException {
+        final int[] layout = readLayout(packet);
+        final Template template = new Template(packet, layout);
+        SentTemplate sentTemplate = sent.get(template);
+        final boolean define;
+
+        if (null == sentTemplate) {
+            sentTemplate = new SentTemplate(nextTemplateId());
+            sent.put(template, sentTemplate);
+            define = true;
+        } else {
+            define = 0 == (++sentTemplate.uses % REFRESH_INTERVAL);
+        }
+
+        final int reference = (sentTemplate.id << 1) | (define ? 1 : 0);
+
+        if (define) {
+            final byte[] rv = new byte[packet.length + 1];
+            final int pos = writeStart(rv, packet[0], reference);
+            System.arraycopy(packet, SERVICE_OFFSET, rv, pos, packet.length - SERVICE_OFFSET);
+            return rv;
+        }
+
+        final int deltaLength = layout[1] - layout[0];
+        final int bodyLength = packet.length - layout[2];
+        final byte[] rv = new byte[2 + CHANGING_LENGTH + deltaLength + bodyLength];
+        int pos = writeStart(rv, packet[0], reference);
+        System.arraycopy(packet, CHANGING_OFFSET, rv, pos, CHANGING_LENGTH);
+        pos += CHANGING_LENGTH;
+        System.arraycopy(packet, layout[0], rv, pos, deltaLength);
+        pos += deltaLength;
+        System.arraycopy(packet, layout[2], rv, pos, bodyLength);
+
+        return rv;
+    }
+
+    /**
+     * Returns the version 1 form of a received message in delta form.
+     *
+     * @param packet The received message.
+     * @return The message of the version 1.
+     * @throws MALException if the message refers to an unknown template or
+     * cannot be read.
+     */
+    public synchronized byte[] expand(final byte[] packet) throws MALException {
+        if (2 > packet.length) {
+            throw new MALException("Truncated ZMTP delta header");
+        }
+
+        final int reference = packet[1] & 0xFF;
+
+        if (MAX_TEMPLATES <= (reference >> 1)) {
+            throw new MALException("Invalid ZMTP header template reference: " + reference);
+        }
+
+        final int id = reference >> 1;
+        final byte first = (byte) ((ZMTPMessageHeader.ZMTP_BINDING_VERSION_NUMBER << 5)
+                | (packet[0] & 0x1F));
+
+        if (0 != (reference & 1)) {
+            final byte[] rv = new byte[packet.length - 1];
+            rv[0] = first;
+            System.arraycopy(packet, 2, rv, SERVICE_OFFSET, rv.length - SERVICE_OFFSET);
+            received[id] = new Template(rv, readLayout(rv));
+            return rv;
+        }
+
+        final Template template = received[id];
+
+        if (null == template) {
+            throw new MALException("Unknown ZMTP header template: " + id);
+        }
+
+        final byte[] fields = template.fields;
+        final int deltaStart = 2 + CHANGING_LENGTH;
+
+        if (deltaStart > packet.length) {
+            throw new MALException("Truncated ZMTP delta header");
+        }
+
+        final int bodyStart = skipChangingFields(packet, deltaStart,
+                fields[SERVICE_LENGTH] & 0xFF);
+        final int deltaLength = bodyStart - deltaStart;
+        final int contextStart = SERVICE_LENGTH + template.uriLength;
+        final int contextLength = fields.length - contextStart;
+        final byte[] rv = new byte[1 + CHANGING_LENGTH + fields.length + deltaLength
+                + packet.length - bodyStart];
+        int pos = 0;
+
+        rv[pos++] = first;
+        System.arraycopy(fields, 0, rv, pos, SERVICE_LENGTH);
+        pos += SERVICE_LENGTH;
+        System.arraycopy(packet, 2, rv, pos, CHANGING_LENGTH);
+        pos += CHANGING_LENGTH;
+        System.arraycopy(fields, SERVICE_LENGTH, rv, pos, template.uriLength);
+        pos += template.uriLength;
+        System.arraycopy(packet, deltaStart, rv, pos, deltaLength);
+        pos += deltaLength;
+        System.arraycopy(fields, contextStart, rv, pos, contextLength);
+        pos += contextLength;
+        System.arraycopy(packet, bodyStart, rv, pos, packet.length - bodyStart);
+
+        return rv;
+    }
+
+    private int nextTemplateId() {
+        if (sent.size() < MAX_TEMPLATES) {
+            return sent.size();
+        }
+
+        // reuses the identifier of the least recently sent template
+        final Iterator<SentTemplate> eldest = sent.values().iterator();
+        final int id = eldest.next().id;
+        eldest.remove();
+        return id;
+    }
+
+    private static int writeStart(final byte[] rv, final byte first, final int reference) {
+        rv[0] = (byte) ((DELTA_VERSION_NUMBER << 5) | (first & 0x1F));
+        rv[1] = (byte) reference;
+        return 2;
+    }
+
+    /**
+     * Reads where the repeated fields are in a message of the version 1.
+     *
+     * @return The offsets of the end of the URIs, of the start of the context
+     * fields and of the end of the header.
+     */
+    private int[] readLayout(final byte[] packet) throws MALException {
+        final ZMTPHeaderDecoder decoder = new ZMTPHeaderDecoder(packet, FLAGS_OFFSET,
+                transport, timeHandler);
+        final short flags = decoder.decodeUOctet().getValue();
+        decoder.decodeURI();
+        decoder.decodeURI();
+
+        if (3 == ((flags >> 6) & 0x3)) {
+            decoder.decodeUOctet();
+        }
+
+        final int uriEnd = decoder.getSourceOffset();
+        final int contextStart = skipChangingFields(packet, uriEnd, flags);
+        final ZMTPHeaderDecoder contextDecoder = new ZMTPHeaderDecoder(packet, contextStart,
+                transport, timeHandler);
+
+        if (0 != (flags & 0x08)) {
+            contextDecoder.decodeIdentifier();
+        }
+        if (0 != (flags & 0x04)) {
+            contextDecoder.decodeIdentifier();
+        }
+        if (0 != (flags & 0x02)) {
+            contextDecoder.decodeElement(new IdentifierList());
+        }
+        if (0 != (flags & 0x01)) {
+            contextDecoder.decodeBlob();
+        }
+
+        return new int[]{uriEnd, contextStart, contextDecoder.getSourceOffset()};
+    }
+
+    private int skipChangingFields(final byte[] packet, final int offset, final int flags)
+            throws MALException {
+        final ZMTPHeaderDecoder decoder = new ZMTPHeaderDecoder(packet, offset,
+                transport, timeHandler);
+
+        if (0 != (flags & 0x20)) {
+            decoder.decodeVariableUInteger();
+        }
+        if (0 != (flags & 0x10)) {
+            decoder.decodeTime();
+        }
+
+        return decoder.getSourceOffset();
+    }
+
+    /**
+     * The encoded repeated fields of a message: the service, the flags and
+     * the URIs, then the context fields.
+     */
+    private static final class Template {
+
+        private final byte[] fields;
+        private final int uriLength;
+        private final int hash;
+
+        private Template(final byte[] packet, final int[] layout) {
+            this.uriLength = layout[0] - FLAGS_OFFSET;
+            this.fields = new byte[SERVICE_LENGTH + uriLength + layout[2] - layout[1]];
+            System.arraycopy(packet, SERVICE_OFFSET, fields, 0, SERVICE_LENGTH);
+            System.arraycopy(packet, FLAGS_OFFSET, fields, SERVICE_LENGTH, uriLength);
+            System.arraycopy(packet, layout[1], fields, SERVICE_LENGTH + uriLength,
+                    layout[2] - layout[1]);
+            this.hash = 31 * Arrays.hashCode(fields) + uriLength;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Template)) {
+                return false;
+            }
+
+            final Template other = (Template) obj;
+            return (hash == other.hash) && (uriLength == other.uriLength)
+                    && Arrays.equals(fields, other.fields);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * The identifier given to a template and the number of messages sent with
+     * it since it was last sent in full.
+     */
+    private static final class SentTemplate {
+
+        private final int id;
+        private int uses = 0;
+
+        private SentTemplate(final int id) {
+            this.id = id;
+        }
+    }
+}
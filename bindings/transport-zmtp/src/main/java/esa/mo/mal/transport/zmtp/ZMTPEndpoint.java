@@ -21,9 +21,11 @@
 package esa.mo.mal.transport.zmtp;
 
 import esa.mo.mal.transport.gen.GENEndpoint;
+import esa.mo.mal.transport.gen.GENMessage;
 import esa.mo.mal.transport.gen.GENMessageHeader;
 import esa.mo.mal.transport.gen.GENTransport;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import org.ccsds.moims.mo.mal.MALException;
 import org.ccsds.moims.mo.mal.MALInteractionException;
 import org.ccsds.moims.mo.mal.MALOperation;
@@ -40,6 +42,7 @@ import org.ccsds.moims.mo.mal.structures.URI;
 import org.ccsds.moims.mo.mal.structures.UShort;
 import org.ccsds.moims.mo.mal.transport.MALEncodedBody;
 import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.ccsds.moims.mo.mal.transport.MALTransmitErrorException;
 
 /**
  *
@@ -295,4 +298,47 @@ public class ZMTPEndpoint extends GENEndpoint {
         ((ZMTPTransport) transport).getBodyEncodingSelector().applyEncodingIdToHeader(header);
         return header;
     }
+
+    @Override
+    public void close() throws MALException {
+        final ZMTPTopicBroker topicBroker = ((ZMTPTransport) transport).getTopicBroker();
+
+        if (null != topicBroker) {
+            topicBroker.removeSubscriptions(this);
+        }
+
+        super.close();
+    }
+
+    @Override
+    protected void internalSendMessage(final Object multiSendHandle,
+            final boolean lastForHandle,
+            final GENMessage msg) throws MALTransmitErrorException {
+        final ZMTPTopicBroker topicBroker = ((ZMTPTransport) transport).getTopicBroker();
+
+        if ((null == topicBroker) || !topicBroker.handleMessage(this, msg)) {
+            super.internalSendMessage(multiSendHandle, lastForHandle, msg);
+        }
+    }
+
+    @Override
+    protected CompletableFuture<Void> internalSendMessageAsync(final Object multiSendHandle,
+            final boolean lastForHandle,
+            final GENMessage msg) {
+        final ZMTPTopicBroker topicBroker = ((ZMTPTransport) transport).getTopicBroker();
+
+        if (null != topicBroker) {
+            try {
+                if (topicBroker.handleMessage(this, msg)) {
+                    return CompletableFuture.completedFuture(null);
+                }
+            } catch (MALTransmitErrorException ex) {
+                final CompletableFuture<Void> rv = new CompletableFuture<Void>();
+                rv.completeExceptionally(ex);
+                return rv;
+            }
+        }
+
+        return super.internalSendMessageAsync(multiSendHandle, lastForHandle, msg);
+    }
 }
@@ -0,0 +1,140 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO ZMTP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.transport.zmtp;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds the encoded form of the header fields that repeat from one message to
+ * the next on a channel, such as the URIs, the domain and the session. The
+ * fields are matched on their values, so the encoded form is reused for as
+ * long as a channel keeps sending the same ones. The encoded forms depend on
+ * the String Mapping Directory of the transport and are discarded when it is
+ * modified. The generation of the held forms changes at the same time, an
+ * encoded form is only held if the generation it was encoded in is still the
+ * current one.
+ */
+public class ZMTPHeaderTemplates {
+
+    private final ZMTPTransport transport;
+    private final Map<Key, byte[]> entries;
+    private ZMTPStringMappingDirectory directory;
+    private int directoryVersion;
+    private long generation;
+
+    /**
+     * Constructor.
+     *
+     * @param transport The transport holding the String Mapping Directory.
+     * @param maxEntries The number of encoded forms kept, the least recently
+     * used one is dropped first.
+     */
+    public ZMTPHeaderTemplates(final ZMTPTransport transport, final int maxEntries) {
+        this.transport = transport;
+        this.entries = new LinkedHashMap<Key, byte[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, byte[]> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the encoded form of a set of header fields.
+     *
+     * @param fields The header fields, in encoding order.
+     * @return The encoded fields, or null if they are not held.
+     */
+    public synchronized byte[] get(final Object[] fields) {
+        checkDirectory();
+        return entries.get(new Key(fields));
+    }
+
+    /**
+     * Returns the generation of the held encoded forms, to read before
+     * encoding fields that are then passed to put.
+     *
+     * @return The current generation.
+     */
+    public synchronized long getGeneration() {
+        checkDirectory();
+        return generation;
+    }
+
+    /**
+     * Holds the encoded form of a set of header fields, unless the String
+     * Mapping Directory has been modified since the generation was read. The
+     * fields must not be modified afterwards.
+     *
+     * @param fields The header fields, in encoding order.
+     * @param encoded The encoded fields.
+     * @param encodedGeneration The generation read before encoding the fields.
+     */
+    public synchronized void put(final Object[] fields, final byte[] encoded,
+            final long encodedGeneration) {
+        checkDirectory();
+
+        if (encodedGeneration == generation) {
+            entries.put(new Key(fields), encoded);
+        }
+    }
+
+    private void checkDirectory() {
+        final ZMTPStringMappingDirectory current = transport.stringMappingDirectory;
+
+        if ((directory != current) || (directoryVersion != current.getVersion())) {
+            entries.clear();
+            directory = current;
+            directoryVersion = current.getVersion();
+            generation++;
+        }
+    }
+
+    private static final class Key {
+
+        private final Object[] fields;
+        private final int hash;
+
+        private Key(final Object[] fields) {
+            this.fields = fields;
+            this.hash = Arrays.hashCode(fields);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            final Key other = (Key) obj;
+            return (hash == other.hash) && Arrays.equals(fields, other.fields);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
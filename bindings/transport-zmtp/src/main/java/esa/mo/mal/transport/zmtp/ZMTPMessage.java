@@ -87,6 +87,29 @@ public class ZMTPMessage extends GENMessage {
         this.hdrStreamFactory = hdrStreamFactory;
     }
 
+    /**
+     * Constructor for a message whose header has already been decoded from the
+     * packet.
+     *
+     * @param hdrStreamFactory The stream factory to use for message header
+     * encoding.
+     * @param wrapBodyParts True if the encoded body parts should be wrapped in
+     * BLOBs.
+     * @param header The decoded message header.
+     * @param qosProperties The QoS properties for this message.
+     * @param packet The message in encoded form.
+     * @param bodyOffset The offset of the body in the packet.
+     * @param encFactory The stream factory to use for decoding the body.
+     * @throws MALException On decoding error.
+     */
+    public ZMTPMessage(final MALElementStreamFactory hdrStreamFactory, boolean wrapBodyParts,
+            GENMessageHeader header, Map qosProperties, byte[] packet, int bodyOffset,
+            MALElementStreamFactory encFactory) throws MALException {
+        super(wrapBodyParts, header, qosProperties, packet, bodyOffset, encFactory);
+
+        this.hdrStreamFactory = hdrStreamFactory;
+    }
+
     /**
      * Constructor.
      *
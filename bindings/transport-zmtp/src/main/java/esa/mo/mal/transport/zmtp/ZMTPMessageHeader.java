@@ -25,9 +25,7 @@ import esa.mo.mal.encoder.zmtp.header.ZMTPHeaderEncoder;
 import esa.mo.mal.transport.gen.GENMessageHeader;
 import java.text.MessageFormat;
 import java.util.Date;
-import java.util.StringTokenizer;
 import java.util.logging.Logger;
-import javax.xml.bind.DatatypeConverter;
 import org.ccsds.moims.mo.mal.MALDecoder;
 import org.ccsds.moims.mo.mal.MALEncoder;
 import org.ccsds.moims.mo.mal.MALException;
@@ -164,8 +162,7 @@ public class ZMTPMessageHeader extends GENMessageHeader {
         encoder.encodeUOctet(new UOctet((short) (getErrorBit() | getQoSLevelBits() | getSessionBits())));
         encoder.encodeLong(transactionId);
         encoder.encodeUOctet(new UOctet((short) (getEncodingIdBits() | configuration.getFlags())));
-        encoder.encodeURI(URIFrom);
-        encoder.encodeURI(URITo);
+        encoder.encodeURIs(URIFrom, URITo);
         if (getEncodingId() == 3) {
             encoder.encodeUOctet(new UOctet(getEncodingExtendedId()));
         }
@@ -175,18 +172,8 @@ public class ZMTPMessageHeader extends GENMessageHeader {
         if (configuration.isTimestampFlag()) {
             encoder.encodeTime(timestamp);
         }
-        if (configuration.isNetworkFlag()) {
-            encoder.encodeIdentifier(networkZone);
-        }
-        if (configuration.isSessionNameFlag()) {
-            encoder.encodeIdentifier(sessionName);
-        }
-        if (configuration.isDomainFlag()) {
-            encoder.encodeElement(domain);
-        }
-        if (configuration.isAuthFlag()) {
-            encoder.encodeBlob(authenticationId);
-        }
+        encoder.encodeContext(configuration.getFlags(), networkZone, sessionName,
+                domain, authenticationId);
     }
 
     @Override
@@ -238,30 +225,22 @@ public class ZMTPMessageHeader extends GENMessageHeader {
         if (0 != (flags & 0x08)) {
             networkZone = decoder.decodeIdentifier();
         } else {
-            networkZone = new Identifier(configuration.getDefaultNetwork());
+            networkZone = configuration.getDefaultNetworkIdentifier();
         }
         if (0 != (flags & 0x04)) {
             sessionName = decoder.decodeIdentifier();
         } else {
-            sessionName = new Identifier(configuration.getDefaultSessionName());
+            sessionName = configuration.getDefaultSessionNameIdentifier();
         }
         if (0 != (flags & 0x02)) {
             domain = (IdentifierList) decoder.decodeElement(new IdentifierList());
         } else {
-            domain = new IdentifierList();
-            StringTokenizer defaultDomainTokenizer = new StringTokenizer(configuration.getDefaultDomain(),
-                    ".");
-            while (defaultDomainTokenizer.hasMoreTokens()) {
-                domain.add(new Identifier(defaultDomainTokenizer.nextToken()));
-            }
+            domain = configuration.getDefaultDomainList();
         }
         if (0 != (flags & 0x01)) {
             authenticationId = decoder.decodeBlob();
-        } else if (configuration.getDefaultAuth().length() > 0) {
-            authenticationId = new Blob(
-                    DatatypeConverter.parseBase64Binary(configuration.getDefaultAuth()));
         } else {
-            authenticationId = new Blob(new byte[0]);
+            authenticationId = configuration.getDefaultAuthBlob();
         }
         return this;
     }
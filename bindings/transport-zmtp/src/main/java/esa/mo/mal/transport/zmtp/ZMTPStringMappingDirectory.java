@@ -38,6 +38,7 @@ public class ZMTPStringMappingDirectory {
 
     private final Map<Integer, String> keyToValueMap = new HashMap<>();
     private final Map<String, Integer> valueToKeyMap = new HashMap<>();
+    private int version = 0;
 
     /**
      * Cleans currently stored String Mapping Directory and loads String Mapping
@@ -53,6 +54,7 @@ public class ZMTPStringMappingDirectory {
     public void loadDirectory(String filePath) throws MALException {
         keyToValueMap.clear();
         valueToKeyMap.clear();
+        version++;
         try {
             BufferedReader br = new BufferedReader(new FileReader(filePath));
             String line;
@@ -103,6 +105,7 @@ public class ZMTPStringMappingDirectory {
         }
         keyToValueMap.put(key, value);
         valueToKeyMap.put(value, key);
+        version++;
     }
 
     public String getValue(int key) {
@@ -117,4 +120,14 @@ public class ZMTPStringMappingDirectory {
         return -1;
     }
 
+    /**
+     * Returns a number that changes whenever the directory is modified, so
+     * that encoded forms of strings can be discarded once outdated.
+     *
+     * @return The version of the directory.
+     */
+    public int getVersion() {
+        return version;
+    }
+
 }
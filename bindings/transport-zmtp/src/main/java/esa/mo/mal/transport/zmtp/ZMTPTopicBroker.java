@@ -0,0 +1,773 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO ZMTP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.transport.zmtp;
+
+import esa.mo.mal.transport.gen.GENEndpoint;
+import esa.mo.mal.transport.gen.GENMessage;
+import esa.mo.mal.transport.gen.GENMessageHeader;
+import esa.mo.mal.transport.gen.PacketToString;
+import esa.mo.mal.transport.gen.receivers.GENIncomingMessageHolder;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALHelper;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.MALPubSubOperation;
+import org.ccsds.moims.mo.mal.MALStandardError;
+import org.ccsds.moims.mo.mal.encoding.MALElementInputStream;
+import org.ccsds.moims.mo.mal.encoding.MALElementOutputStream;
+import org.ccsds.moims.mo.mal.encoding.MALEncodingContext;
+import org.ccsds.moims.mo.mal.helpertools.helpers.HelperAttributes;
+import org.ccsds.moims.mo.mal.helpertools.helpers.HelperMisc;
+import org.ccsds.moims.mo.mal.structures.Attribute;
+import org.ccsds.moims.mo.mal.structures.AttributeList;
+import org.ccsds.moims.mo.mal.structures.Element;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.NamedValue;
+import org.ccsds.moims.mo.mal.structures.Subscription;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.Union;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.transport.MALDeregisterBody;
+import org.ccsds.moims.mo.mal.transport.MALEncodedElementList;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.ccsds.moims.mo.mal.transport.MALPublishBody;
+import org.ccsds.moims.mo.mal.transport.MALPublishRegisterBody;
+import org.ccsds.moims.mo.mal.transport.MALRegisterBody;
+import org.ccsds.moims.mo.mal.transport.MALTransmitErrorException;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMsg;
+
+/**
+ * Transport level broker of the broker-less PubSub. The PubSub messages sent
+ * by the endpoints of the transport are handled here instead of being sent to
+ * a MAL broker, and the acknowledgements are returned locally.
+ *
+ * The updates of a PUBLISH are sent on the PUB socket of the transport, with a
+ * topic made of the broker URI, the session, the area, service and operation,
+ * the domain and the first key value of each update. A REGISTER connects the
+ * SUB socket of the consumer transport to the PUB socket of the provider and
+ * subscribes to the topic prefixes of the subscription, so that the updates
+ * are filtered and fanned out by ZMQ. As the prefixes can only select the
+ * literal leading part of a subscription, the received updates are matched
+ * against the subscriptions before they are delivered as NOTIFY messages.
+ *
+ * The topic of an update is laid out as:
+ * {@code <broker URI>|<session>.<session name>|<area>.<service>.<operation>|<domain part>.<domain part>.|<first key name>=<value>|}
+ * where the key part is {@code <first key name>*|} when the first key value
+ * cannot be put in a topic, and is {@code |} when the publisher has no keys.
+ * The topic frame is followed by a frame with the domain and the key names of
+ * the publisher, as the domain is left out of the ZMTP header unless its flag
+ * is set, and by the PUBLISH message.
+ *
+ * The first key names of the publishers of a domain are learned from the key
+ * names of their PUBLISH_REGISTER, which the publishers also announce on the
+ * {@code #} key part of the domain, with an empty message frame, when they
+ * register and then at most once a second with their updates. A subscription
+ * with no wildcard in its domain only subscribes to the key values it filters
+ * on for each of the learned names, and to the announcements for the names
+ * that are not known yet. Until a name is known, it subscribes to the whole
+ * domain. As with a new subscription, the updates published before the
+ * prefixes of a new name reach the PUB socket are dropped by ZMQ.
+ *
+ * Only the updates published to a broker URI of this transport are handled
+ * here, the messages of a publisher of another broker are sent to it as
+ * usual.
+ */
+public class ZMTPTopicBroker {
+
+    /**
+     * The key part of the topic the publishers announce their key names on.
+     */
+    static final String ANNOUNCEMENT_TOPIC = "#";
+
+    private static final long ANNOUNCEMENT_INTERVAL_MS = 1000;
+    private static final byte[] NO_DATA = new byte[0];
+
+    /**
+     * The domain and key names of a publisher are encoded as the body of a
+     * PUBLISH_REGISTER message.
+     */
+    private static final MALEncodingContext PUBLISHER_CONTEXT = createPublisherContext();
+
+    private final ZMTPTransport transport;
+    private final ZMQ.Socket publisher;
+    private final ZMTPTopicDestination subscriber;
+    private final Map<String, PublisherDetails> publishers = new HashMap<String, PublisherDetails>();
+    private final Map<String, ZMTPTopicSubscription> subscriptions
+            = new HashMap<String, ZMTPTopicSubscription>();
+    private final Map<String, Integer> connections = new HashMap<String, Integer>();
+    private final Map<String, Set<String>> firstKeyNames = new HashMap<String, Set<String>>();
+    private volatile ZMTPTopicSubscription[] activeSubscriptions = new ZMTPTopicSubscription[0];
+
+    /**
+     * Constructor.
+     *
+     * @param transport The parent transport.
+     * @param zmtpURI The ZMTP URI the PUB socket binds to.
+     * @throws IOException if the SUB socket could not be created.
+     */
+    public ZMTPTopicBroker(ZMTPTransport transport, String zmtpURI) throws IOException {
+        this.transport = transport;
+        this.publisher = transport.getZmqContext().createSocket(ZMQ.PUB);
+        this.publisher.bind(zmtpURI);
+        this.subscriber = new ZMTPTopicDestination(transport, this);
+        this.subscriber.runRxThread();
+    }
+
+    /**
+     * Handles a PubSub message sent by an endpoint of the transport.
+     *
+     * @param endpoint The endpoint sending the message.
+     * @param msg The message.
+     * @return False if the message is not handled by the broker and has to be
+     * sent as usual.
+     * @throws MALTransmitErrorException If the message could not be handled.
+     */
+    public boolean handleMessage(GENEndpoint endpoint, GENMessage msg)
+            throws MALTransmitErrorException {
+        final MALMessageHeader hdr = msg.getHeader();
+
+        if (!InteractionType.PUBSUB.equals(hdr.getInteractionType())
+                || Boolean.TRUE.equals(hdr.getIsErrorMessage())) {
+            return false;
+        }
+
+        final short stage = hdr.getInteractionStage().getValue();
+
+        // updates can only be published on the PUB socket of the broker
+        if (isPublisherStage(stage) && !transport.isLocalURI(hdr.getURITo())) {
+            return false;
+        }
+
+        try {
+            switch (stage) {
+                case MALPubSubOperation._REGISTER_STAGE:
+                    register(endpoint, hdr, ((MALRegisterBody) msg.getBody()).getSubscription());
+                    break;
+                case MALPubSubOperation._DEREGISTER_STAGE:
+                    deregister(hdr, ((MALDeregisterBody) msg.getBody()).getIdentifierList());
+                    break;
+                case MALPubSubOperation._PUBLISH_REGISTER_STAGE:
+                    publishRegister(hdr,
+                            ((MALPublishRegisterBody) msg.getBody()).getSubscriptionKeyNames());
+                    break;
+                case MALPubSubOperation._PUBLISH_STAGE:
+                    publish(msg);
+                    return true;
+                case MALPubSubOperation._PUBLISH_DEREGISTER_STAGE:
+                    synchronized (this) {
+                        publishers.remove(createPublisherKey(hdr));
+                    }
+                    break;
+                default:
+                    return false;
+            }
+
+            acknowledge(hdr);
+            return true;
+        } catch (MALTransmitErrorException ex) {
+            throw ex;
+        } catch (MALInteractionException ex) {
+            throw new MALTransmitErrorException(hdr, ex.getStandardError(), null);
+        } catch (MALException ex) {
+            ZMTPTransport.RLOGGER.log(Level.WARNING, "Error handling PubSub message", ex);
+            throw new MALTransmitErrorException(hdr, new MALStandardError(
+                    MALHelper.INTERNAL_ERROR_NUMBER, new Union(ex.getMessage())), null);
+        }
+    }
+
+    /**
+     * Removes the subscriptions of an endpoint.
+     *
+     * @param endpoint The endpoint.
+     */
+    public synchronized void removeSubscriptions(GENEndpoint endpoint) {
+        final Iterator<ZMTPTopicSubscription> it = subscriptions.values().iterator();
+
+        while (it.hasNext()) {
+            final ZMTPTopicSubscription sub = it.next();
+
+            if (endpoint == sub.getEndpoint()) {
+                it.remove();
+                removed(sub);
+            }
+        }
+
+        activeSubscriptions = subscriptions.values().toArray(new ZMTPTopicSubscription[0]);
+    }
+
+    /**
+     * Returns the number of subscriptions registered with the broker.
+     *
+     * @return The number of subscriptions.
+     */
+    synchronized int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Delivers the updates received on the SUB socket to the matching
+     * subscriptions.
+     *
+     * @param topic The topic of the updates.
+     * @param publisherData The encoded domain and key names of the publisher.
+     * @param data The encoded PUBLISH message, empty for an announcement.
+     */
+    void topicDataReceived(String topic, byte[] publisherData, byte[] data) {
+        try {
+            if (0 == data.length) {
+                if (topic.endsWith(ANNOUNCEMENT_TOPIC)) {
+                    final MALElementInputStream dec = transport.getStreamFactory()
+                            .createInputStream(publisherData, 0);
+                    dec.readElement(new IdentifierList(), PUBLISHER_CONTEXT);
+                    learnFirstKeyName(topic.substring(0,
+                            topic.length() - ANNOUNCEMENT_TOPIC.length()),
+                            (IdentifierList) dec.readElement(new IdentifierList(),
+                                    PUBLISHER_CONTEXT));
+                }
+
+                return;
+            }
+
+            final GENMessage msg = transport.createMessage(data);
+
+            if (null == msg) {
+                return;
+            }
+
+            final GENMessageHeader hdr = (GENMessageHeader) msg.getHeader();
+            final MALElementInputStream dec = transport.getStreamFactory()
+                    .createInputStream(publisherData, 0);
+            hdr.setDomain((IdentifierList) dec.readElement(new IdentifierList(), PUBLISHER_CONTEXT));
+            final IdentifierList keyNames
+                    = (IdentifierList) dec.readElement(new IdentifierList(), PUBLISHER_CONTEXT);
+            learnFirstKeyName(appendDomainTopic(appendServiceTopic(new StringBuilder(),
+                    hdr.getURITo(), hdr), hdr.getDomain()).toString(), keyNames);
+
+            final List<ZMTPTopicSubscription> matched = new ArrayList<ZMTPTopicSubscription>();
+
+            for (ZMTPTopicSubscription sub : activeSubscriptions) {
+                if (sub.matches(hdr)) {
+                    matched.add(sub);
+                }
+            }
+
+            if (matched.isEmpty()) {
+                return;
+            }
+
+            final MALPublishBody body = (MALPublishBody) msg.getBody();
+            final UpdateHeaderList updateHeaders = body.getUpdateHeaderList();
+            final List[] updateLists = body.getUpdateLists((List[]) null);
+            final List<List<NamedValue>> keyValues = createKeyValues(keyNames, updateHeaders);
+            final int[] indexes = new int[updateHeaders.size()];
+
+            for (ZMTPTopicSubscription sub : matched) {
+                int count = 0;
+
+                for (int i = 0; i < indexes.length; i++) {
+                    if ((null != keyValues.get(i)) && sub.matchesFilters(keyValues.get(i))) {
+                        indexes[count++] = i;
+                    }
+                }
+
+                if (0 < count) {
+                    final GENMessage notify = sub.createNotify(hdr, updateHeaders, updateLists,
+                            indexes, count, transport.getStreamFactory());
+                    transport.receiveIncomingMessage(new GENIncomingMessageHolder(
+                            notify.getHeader().getTransactionId(), notify, new PacketToString(null)));
+                }
+            }
+        } catch (MALException ex) {
+            ZMTPTransport.RLOGGER.log(Level.WARNING, "Error decoding PubSub message", ex);
+        } catch (MALInteractionException ex) {
+            ZMTPTransport.RLOGGER.log(Level.WARNING, "Error creating NOTIFY message", ex);
+        }
+    }
+
+    /**
+     * Closes the sockets of the broker.
+     */
+    public void close() {
+        subscriber.interrupt();
+
+        synchronized (publisher) {
+            publisher.setLinger(0);
+            publisher.close();
+        }
+    }
+
+    private synchronized void register(GENEndpoint endpoint, MALMessageHeader hdr,
+            Subscription subscription) throws MALException {
+        final ZMTPTopicSubscription sub = new ZMTPTopicSubscription(endpoint, hdr, subscription);
+        final ZMTPTopicSubscription old = subscriptions.put(createSubscriptionKey(
+                hdr.getURIFrom(), hdr.getURITo(), subscription.getSubscriptionId()), sub);
+
+        if (null == old) {
+            connect(hdr.getURITo());
+        }
+
+        updatePrefixes(sub, sub.createPrefixes(firstKeyNames.get(sub.getDomainTopic())));
+
+        if (null != old) {
+            for (String prefix : old.getPrefixes()) {
+                subscriber.unsubscribe(prefix);
+            }
+        }
+
+        activeSubscriptions = subscriptions.values().toArray(new ZMTPTopicSubscription[0]);
+    }
+
+    private synchronized void deregister(MALMessageHeader hdr, IdentifierList subscriptionIds) {
+        if (null == subscriptionIds) {
+            return;
+        }
+
+        for (Identifier id : subscriptionIds) {
+            final ZMTPTopicSubscription old = subscriptions.remove(
+                    createSubscriptionKey(hdr.getURIFrom(), hdr.getURITo(), id));
+
+            if (null != old) {
+                removed(old);
+            }
+        }
+
+        activeSubscriptions = subscriptions.values().toArray(new ZMTPTopicSubscription[0]);
+    }
+
+    private void removed(ZMTPTopicSubscription sub) {
+        for (String prefix : sub.getPrefixes()) {
+            subscriber.unsubscribe(prefix);
+        }
+
+        try {
+            final String uri = transport.getRemoteMcastZmtpUri(sub.getBrokerURI());
+            final Integer count = connections.remove(uri);
+
+            if ((null != count) && (1 < count)) {
+                connections.put(uri, count - 1);
+            } else {
+                subscriber.disconnect(uri);
+            }
+        } catch (MALException ex) {
+            ZMTPTransport.RLOGGER.log(Level.WARNING, "Error disconnecting from broker", ex);
+        }
+    }
+
+    private void connect(URI brokerURI) throws MALException {
+        final String uri = transport.getRemoteMcastZmtpUri(brokerURI);
+        final Integer count = connections.get(uri);
+
+        if (null == count) {
+            subscriber.connect(uri);
+            connections.put(uri, 1);
+        } else {
+            connections.put(uri, count + 1);
+        }
+    }
+
+    private void updatePrefixes(ZMTPTopicSubscription sub, List<String> prefixes) {
+        // the new prefixes are subscribed first so no update is missed
+        for (String prefix : prefixes) {
+            subscriber.subscribe(prefix);
+        }
+
+        for (String prefix : sub.getPrefixes()) {
+            subscriber.unsubscribe(prefix);
+        }
+
+        sub.setPrefixes(prefixes);
+    }
+
+    /**
+     * Adds the first key name of a publisher to the names of its domain and
+     * updates the prefixes of the subscriptions to the domain when the name
+     * is new. The names of the publishers of a domain are kept, each with its
+     * own prefixes, so that a publisher with other key names only adds its
+     * prefixes to the ones of the domain.
+     *
+     * @param domainTopic The part of the topic up to the domain.
+     * @param keyNames The key names of the publisher.
+     */
+    private void learnFirstKeyName(String domainTopic, IdentifierList keyNames) {
+        final String name = keyNames.isEmpty() ? "" : keyNames.get(0).getValue();
+
+        synchronized (this) {
+            Set<String> names = firstKeyNames.get(domainTopic);
+
+            if (null == names) {
+                names = new TreeSet<String>();
+                firstKeyNames.put(domainTopic, names);
+            }
+
+            if (!names.add(name)) {
+                return;
+            }
+
+            for (ZMTPTopicSubscription sub : subscriptions.values()) {
+                if (domainTopic.equals(sub.getDomainTopic())) {
+                    updatePrefixes(sub, sub.createPrefixes(names));
+                }
+            }
+        }
+    }
+
+    private void publishRegister(MALMessageHeader hdr, IdentifierList keyNames)
+            throws MALException {
+        if (null == keyNames) {
+            keyNames = new IdentifierList();
+        }
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final MALElementOutputStream enc = transport.getStreamFactory().createOutputStream(baos);
+        enc.writeElement((null == hdr.getDomain()) ? new IdentifierList() : hdr.getDomain(),
+                PUBLISHER_CONTEXT);
+        enc.writeElement(keyNames, PUBLISHER_CONTEXT);
+        enc.flush();
+        enc.close();
+
+        final String domainTopic = appendDomainTopic(appendServiceTopic(new StringBuilder(),
+                hdr.getURITo(), hdr), hdr.getDomain()).toString();
+        final PublisherDetails details = new PublisherDetails(keyNames, baos.toByteArray(),
+                domainTopic);
+
+        synchronized (this) {
+            publishers.put(createPublisherKey(hdr), details);
+        }
+
+        learnFirstKeyName(domainTopic, keyNames);
+        announce(details);
+    }
+
+    private void announce(PublisherDetails details) {
+        if (details.isAnnouncementDue()) {
+            send(details.domainTopic + ANNOUNCEMENT_TOPIC, details.encoded, NO_DATA);
+        }
+    }
+
+    private void publish(GENMessage msg) throws MALException, MALInteractionException,
+            MALTransmitErrorException {
+        final MALMessageHeader hdr = msg.getHeader();
+        final PublisherDetails details;
+
+        synchronized (this) {
+            details = publishers.get(createPublisherKey(hdr));
+        }
+
+        if (null == details) {
+            ZMTPTransport.RLOGGER.log(Level.WARNING,
+                    "PUBLISH received from an unregistered publisher: {0}", hdr.getURIFrom());
+            throw new MALTransmitErrorException(hdr,
+                    new MALStandardError(MALHelper.INCORRECT_STATE_ERROR_NUMBER, null), null);
+        }
+
+        final MALPublishBody body = (MALPublishBody) msg.getBody();
+        final UpdateHeaderList updateHeaders = body.getUpdateHeaderList();
+
+        if ((null == updateHeaders) || updateHeaders.isEmpty()) {
+            return;
+        }
+
+        // for the consumers that joined since the last announcement
+        announce(details);
+
+        final StringBuilder buf = new StringBuilder(details.domainTopic);
+        final int topicLength = buf.length();
+        final Map<String, List<Integer>> topics = new LinkedHashMap<String, List<Integer>>();
+
+        for (int i = 0; i < updateHeaders.size(); i++) {
+            buf.setLength(topicLength);
+            final String topic = appendKeyTopic(buf, details.keyNames,
+                    updateHeaders.get(i)).toString();
+            List<Integer> indexes = topics.get(topic);
+
+            if (null == indexes) {
+                indexes = new ArrayList<Integer>();
+                topics.put(topic, indexes);
+            }
+
+            indexes.add(i);
+        }
+
+        if (1 == topics.size()) {
+            send(topics.keySet().iterator().next(), details.encoded,
+                    transport.encodeMessage(msg));
+            return;
+        }
+
+        final List[] updateLists = body.getUpdateLists((List[]) null);
+
+        for (Map.Entry<String, List<Integer>> entry : topics.entrySet()) {
+            send(entry.getKey(), details.encoded, transport.encodeMessage(
+                    createPublish(msg, updateHeaders, updateLists, entry.getValue())));
+        }
+    }
+
+    private GENMessage createPublish(GENMessage msg, UpdateHeaderList updateHeaders,
+            List[] updateLists, List<Integer> indexes) throws MALInteractionException {
+        final int listCount = (null == updateLists) ? 0 : updateLists.length;
+        final Object[] body = new Object[listCount + 1];
+        final UpdateHeaderList headers = new UpdateHeaderList(indexes.size());
+        body[0] = headers;
+
+        for (int j = 0; j < listCount; j++) {
+            body[j + 1] = createEmptyList(updateLists[j]);
+        }
+
+        for (int index : indexes) {
+            headers.add(updateHeaders.get(index));
+
+            for (int j = 0; j < listCount; j++) {
+                if (null != body[j + 1]) {
+                    ((List) body[j + 1]).add(updateLists[j].get(index));
+                }
+            }
+        }
+
+        return new ZMTPMessage(transport.getHeaderStreamFactory(), msg.isWrapBodyParts(),
+                (GENMessageHeader) msg.getHeader(), msg.getQoSProperties(), null,
+                transport.getStreamFactory(), body);
+    }
+
+    private void send(String topic, byte[] publisherData, byte[] data) {
+        final ZMsg outMsg = new ZMsg();
+        outMsg.add(topic.getBytes(StandardCharsets.UTF_8));
+        outMsg.add(publisherData);
+        outMsg.add(data);
+
+        synchronized (publisher) {
+            outMsg.send(publisher, true);
+        }
+    }
+
+    private void acknowledge(MALMessageHeader srcHdr) throws MALInteractionException {
+        final GENMessageHeader hdr = new GENMessageHeader();
+        hdr.setURIFrom(srcHdr.getURITo());
+        hdr.setURITo(srcHdr.getURIFrom());
+        hdr.setAuthenticationId(srcHdr.getAuthenticationId());
+        hdr.setTimestamp(Time.now());
+        hdr.setQoSlevel(srcHdr.getQoSlevel());
+        hdr.setPriority(srcHdr.getPriority());
+        hdr.setDomain(srcHdr.getDomain());
+        hdr.setNetworkZone(srcHdr.getNetworkZone());
+        hdr.setSession(srcHdr.getSession());
+        hdr.setSessionName(srcHdr.getSessionName());
+        hdr.setInteractionType(srcHdr.getInteractionType());
+        hdr.setInteractionStage(new UOctet((short) (srcHdr.getInteractionStage().getValue() + 1)));
+        hdr.setTransactionId(srcHdr.getTransactionId());
+        hdr.setServiceArea(srcHdr.getServiceArea());
+        hdr.setService(srcHdr.getService());
+        hdr.setOperation(srcHdr.getOperation());
+        hdr.setAreaVersion(srcHdr.getAreaVersion());
+        hdr.setIsErrorMessage(false);
+
+        final GENMessage ack = new GENMessage(false, hdr, null, null,
+                transport.getStreamFactory(), (Object[]) null);
+        transport.receiveIncomingMessage(new GENIncomingMessageHolder(
+                hdr.getTransactionId(), ack, new PacketToString(null)));
+    }
+
+    private static boolean isPublisherStage(short stage) {
+        return (MALPubSubOperation._PUBLISH_REGISTER_STAGE == stage)
+                || (MALPubSubOperation._PUBLISH_STAGE == stage)
+                || (MALPubSubOperation._PUBLISH_DEREGISTER_STAGE == stage);
+    }
+
+    private static List<List<NamedValue>> createKeyValues(IdentifierList keyNames,
+            UpdateHeaderList updateHeaders) {
+        final List<List<NamedValue>> rv = new ArrayList<List<NamedValue>>(updateHeaders.size());
+
+        for (UpdateHeader updateHeader : updateHeaders) {
+            final AttributeList keyValues = updateHeader.getKeyValues();
+            final int size = (null == keyValues) ? 0 : keyValues.size();
+
+            if (size != keyNames.size()) {
+                ZMTPTransport.RLOGGER.log(Level.WARNING,
+                        "Discarding update with {0} key values for the key names {1}",
+                        new Object[]{size, keyNames});
+                rv.add(null);
+                continue;
+            }
+
+            final List<NamedValue> values = new ArrayList<NamedValue>(size);
+
+            for (int j = 0; j < size; j++) {
+                values.add(new NamedValue(keyNames.get(j),
+                        (Attribute) Attribute.javaType2Attribute(keyValues.get(j))));
+            }
+
+            rv.add(values);
+        }
+
+        return rv;
+    }
+
+    private static MALEncodingContext createPublisherContext() {
+        final GENMessageHeader hdr = new GENMessageHeader();
+        hdr.setInteractionType(InteractionType.PUBSUB);
+        hdr.setInteractionStage(MALPubSubOperation.PUBLISH_REGISTER_STAGE);
+        hdr.setIsErrorMessage(false);
+        return new MALEncodingContext(hdr, null, 0, null, null);
+    }
+
+    private static String createPublisherKey(MALMessageHeader hdr) {
+        return hdr.getURIFrom() + " " + hdr.getURITo() + " " + hdr.getDomain() + " "
+                + hdr.getSession() + " " + hdr.getSessionName();
+    }
+
+    private static String createSubscriptionKey(URI consumer, URI broker, Identifier id) {
+        return consumer + " " + broker + " " + id;
+    }
+
+    /**
+     * Appends the part of a topic that identifies the broker, the session and
+     * the operation.
+     *
+     * @param buf The topic being built.
+     * @param brokerURI The broker URI.
+     * @param hdr The header of the message.
+     * @return The topic being built.
+     */
+    static StringBuilder appendServiceTopic(StringBuilder buf, URI brokerURI,
+            MALMessageHeader hdr) {
+        return buf.append(brokerURI.getValue()).append('|')
+                .append(hdr.getSession()).append('.').append(hdr.getSessionName()).append('|')
+                .append(hdr.getServiceArea()).append('.').append(hdr.getService())
+                .append('.').append(hdr.getOperation()).append('|');
+    }
+
+    private static StringBuilder appendDomainTopic(StringBuilder buf, IdentifierList domain) {
+        if (null != domain) {
+            for (Identifier part : domain) {
+                buf.append(part.getValue()).append('.');
+            }
+        }
+
+        return buf.append('|');
+    }
+
+    private static StringBuilder appendKeyTopic(StringBuilder buf, IdentifierList keyNames,
+            UpdateHeader updateHeader) {
+        if (keyNames.isEmpty()) {
+            return buf.append('|');
+        }
+
+        final AttributeList keyValues = updateHeader.getKeyValues();
+        final Object value = ((null == keyValues) || keyValues.isEmpty())
+                ? null : Attribute.javaType2Attribute(keyValues.get(0));
+        final String topicValue = (value instanceof Attribute)
+                ? toTopicValue((Attribute) value) : null;
+        buf.append(keyNames.get(0).getValue());
+
+        if (null == topicValue) {
+            return buf.append("*|");
+        }
+
+        return buf.append('=').append(topicValue).append('|');
+    }
+
+    /**
+     * Returns the form of a key value used in a topic. Key values that match
+     * each other have the same form, which can also be shared by values that
+     * do not match.
+     *
+     * @param value The key value.
+     * @return The value in a topic, or null if the value cannot be put in a
+     * topic.
+     */
+    static String toTopicValue(Attribute value) {
+        if ((null == value) || ((value instanceof Union) && ((Union) value).isNull())) {
+            return null;
+        }
+
+        if (HelperMisc.isStringAttribute(value)) {
+            return HelperAttributes.attribute2string(value);
+        }
+
+        final Object javaValue = HelperAttributes.attribute2JavaType(value);
+
+        if ((javaValue instanceof Number) || (javaValue instanceof Boolean)) {
+            return String.valueOf(javaValue);
+        }
+
+        return null;
+    }
+
+    /**
+     * Creates an empty list of the type of an update list.
+     *
+     * @param updateList The update list.
+     * @return The empty list, or null if the update list is null.
+     */
+    static List createEmptyList(List updateList) {
+        if (null == updateList) {
+            return null;
+        }
+
+        if (updateList instanceof MALEncodedElementList) {
+            return new MALEncodedElementList(
+                    ((MALEncodedElementList) updateList).getShortForm(), updateList.size());
+        }
+
+        return (List) ((Element) updateList).createElement();
+    }
+
+    private static final class PublisherDetails {
+
+        private final IdentifierList keyNames;
+        private final byte[] encoded;
+        private final String domainTopic;
+        private long announced;
+
+        private PublisherDetails(IdentifierList keyNames, byte[] encoded, String domainTopic) {
+            this.keyNames = keyNames;
+            this.encoded = encoded;
+            this.domainTopic = domainTopic;
+        }
+
+        private synchronized boolean isAnnouncementDue() {
+            final long now = System.currentTimeMillis();
+
+            if (ANNOUNCEMENT_INTERVAL_MS > now - announced) {
+                return false;
+            }
+
+            announced = now;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO ZMTP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.transport.zmtp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import org.zeromq.ZMQ;
+import org.zeromq.ZMsg;
+
+/**
+ * The SUB socket of the broker-less PubSub. The socket is not bound, it
+ * connects to the PUB sockets of the providers instead, and only receives the
+ * topics it is subscribed to. As ZMQ sockets must not be shared between
+ * threads, the connections and subscriptions are queued and applied by the
+ * receiver thread, which polls the queue every POLL_TIMEOUT_MS.
+ */
+public class ZMTPTopicDestination extends ZMTPChannelDestination {
+
+    private final ZMTPTopicBroker broker;
+    private final Queue<Runnable> operations = new ConcurrentLinkedQueue<Runnable>();
+
+    /**
+     * Constructor.
+     *
+     * @param transport the parent transport
+     * @param broker the broker the received messages are passed to
+     * @throws IOException if there is an error.
+     */
+    public ZMTPTopicDestination(ZMTPTransport transport, ZMTPTopicBroker broker)
+            throws IOException {
+        super(transport, ZMTPTransport.ZMTP_COMMUNICATION_PATTERN_MULTICAST, null);
+        this.broker = broker;
+    }
+
+    /**
+     * Connects the socket to a PUB socket.
+     *
+     * @param uri The ZMTP URI of the PUB socket.
+     */
+    public void connect(final String uri) {
+        operations.add(new Runnable() {
+            @Override
+            public void run() {
+                socket.connect(uri);
+            }
+        });
+    }
+
+    /**
+     * Disconnects the socket from a PUB socket.
+     *
+     * @param uri The ZMTP URI of the PUB socket.
+     */
+    public void disconnect(final String uri) {
+        operations.add(new Runnable() {
+            @Override
+            public void run() {
+                socket.disconnect(uri);
+            }
+        });
+    }
+
+    /**
+     * Subscribes to the topics starting with a prefix. A prefix subscribed
+     * several times has to be unsubscribed as many times.
+     *
+     * @param prefix The topic prefix.
+     */
+    public void subscribe(String prefix) {
+        final byte[] topic = prefix.getBytes(StandardCharsets.UTF_8);
+        operations.add(new Runnable() {
+            @Override
+            public void run() {
+                socket.subscribe(topic);
+            }
+        });
+    }
+
+    /**
+     * Removes a subscription to the topics starting with a prefix.
+     *
+     * @param prefix The topic prefix.
+     */
+    public void unsubscribe(String prefix) {
+        final byte[] topic = prefix.getBytes(StandardCharsets.UTF_8);
+        operations.add(new Runnable() {
+            @Override
+            public void run() {
+                socket.unsubscribe(topic);
+            }
+        });
+    }
+
+    @Override
+    protected ZMQ.Socket createSocket() {
+        ZMQ.Socket ret = zmqContext.createSocket(ZMQ.SUB);
+        ret.setReceiveTimeOut((int) POLL_TIMEOUT_MS);
+        return ret;
+    }
+
+    @Override
+    protected void beforeReceive() {
+        Runnable operation;
+
+        while (null != (operation = operations.poll())) {
+            operation.run();
+        }
+    }
+
+    @Override
+    protected void messageReceived(ZMsg recvMsg) {
+        // topic, publisher and message frames
+        if (3 != recvMsg.size()) {
+            ZMTPTransport.RLOGGER.log(Level.WARNING,
+                    "Discarding PubSub message with {0} frames", recvMsg.size());
+            return;
+        }
+
+        String topic = new String(recvMsg.pop().getData(), StandardCharsets.UTF_8);
+        byte[] publisherData = recvMsg.pop().getData();
+        broker.topicDataReceived(topic, publisherData, recvMsg.pop().getData());
+    }
+}
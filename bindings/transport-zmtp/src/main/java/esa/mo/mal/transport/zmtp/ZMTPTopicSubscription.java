@@ -0,0 +1,433 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO ZMTP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.transport.zmtp;
+
+import esa.mo.mal.transport.gen.GENEndpoint;
+import esa.mo.mal.transport.gen.GENMessage;
+import esa.mo.mal.transport.gen.GENMessageHeader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.MALPubSubOperation;
+import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
+import org.ccsds.moims.mo.mal.helpertools.helpers.HelperAttributes;
+import org.ccsds.moims.mo.mal.helpertools.helpers.HelperMisc;
+import org.ccsds.moims.mo.mal.structures.Attribute;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.NamedValue;
+import org.ccsds.moims.mo.mal.structures.Subscription;
+import org.ccsds.moims.mo.mal.structures.SubscriptionFilter;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.Union;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+
+/**
+ * A subscription registered by a consumer endpoint with the broker-less
+ * PubSub. It provides the topic prefixes the SUB socket subscribes to for it,
+ * and, as the prefixes may also select updates the subscription does not
+ * match, checks the received updates the same way the MAL broker does.
+ */
+public class ZMTPTopicSubscription {
+
+    private static final String ALL_ID = "*";
+
+    private final GENEndpoint endpoint;
+    private final MALMessageHeader registerHeader;
+    private final Subscription subscription;
+    private final String domainTopic;
+    private final boolean literalDomain;
+    private List<String> prefixes = Collections.emptyList();
+
+    /**
+     * Constructor.
+     *
+     * @param endpoint The consumer endpoint.
+     * @param registerHeader The header of the REGISTER message.
+     * @param subscription The subscription.
+     */
+    public ZMTPTopicSubscription(GENEndpoint endpoint, MALMessageHeader registerHeader,
+            Subscription subscription) {
+        this.endpoint = endpoint;
+        this.registerHeader = registerHeader;
+        this.subscription = subscription;
+        final StringBuilder buf = ZMTPTopicBroker.appendServiceTopic(new StringBuilder(),
+                registerHeader.getURITo(), registerHeader);
+        final IdentifierList domain = subscription.getDomain();
+        boolean literal = (null != domain) && !domain.isEmpty();
+
+        if (literal) {
+            for (Identifier part : domain) {
+                if (ALL_ID.equals(part.getValue())) {
+                    literal = false;
+                    break;
+                }
+
+                buf.append(part.getValue()).append('.');
+            }
+
+            if (literal) {
+                buf.append('|');
+            }
+        }
+
+        this.domainTopic = buf.toString();
+        this.literalDomain = literal;
+    }
+
+    public GENEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    public URI getBrokerURI() {
+        return registerHeader.getURITo();
+    }
+
+    public Identifier getSubscriptionId() {
+        return subscription.getSubscriptionId();
+    }
+
+    /**
+     * Returns the part of the topics of the updates of the subscription that
+     * identifies the broker, the session, the operation and the domain.
+     *
+     * @return The topic part, or null if the domain of the subscription has a
+     * wildcard.
+     */
+    public String getDomainTopic() {
+        return literalDomain ? domainTopic : null;
+    }
+
+    /**
+     * Returns the prefixes the subscription is currently subscribed with.
+     *
+     * @return The topic prefixes.
+     */
+    public List<String> getPrefixes() {
+        return prefixes;
+    }
+
+    /**
+     * Sets the prefixes the subscription is currently subscribed with.
+     *
+     * @param prefixes The topic prefixes.
+     */
+    public void setPrefixes(List<String> prefixes) {
+        this.prefixes = prefixes;
+    }
+
+    /**
+     * Creates the topic prefixes of the subscription. The domain is included
+     * up to its first wildcard. When the domain has no wildcard and the first
+     * key names of its publishers are known, there are prefixes for each of
+     * the names, with the values the subscription filters that key on when
+     * it does, and a prefix for the announcements of the publishers with
+     * names not known yet. When no name is known, the prefix of the domain
+     * selects all the updates of the domain.
+     *
+     * @param firstKeyNames The first key names of the publishers of the
+     * domain, with an empty name for a publisher without keys, or null if
+     * they are not known.
+     * @return The topic prefixes.
+     */
+    public List<String> createPrefixes(Collection<String> firstKeyNames) {
+        if (!literalDomain || (null == firstKeyNames) || firstKeyNames.isEmpty()) {
+            return Collections.singletonList(domainTopic);
+        }
+
+        final List<String> rv = new ArrayList<String>();
+        rv.add(domainTopic + ZMTPTopicBroker.ANNOUNCEMENT_TOPIC);
+
+        for (String firstKeyName : firstKeyNames) {
+            if (firstKeyName.isEmpty()) {
+                // the updates of a publisher without keys
+                rv.add(domainTopic + '|');
+                continue;
+            }
+
+            final List<Attribute> values = getFirstKeyValues(firstKeyName);
+
+            if (null == values) {
+                rv.add(domainTopic + firstKeyName + '=');
+            } else {
+                for (Attribute value : values) {
+                    rv.add(domainTopic + firstKeyName + '='
+                            + ZMTPTopicBroker.toTopicValue(value) + '|');
+                }
+            }
+
+            // updates without a literal key value are published on this topic
+            rv.add(domainTopic + firstKeyName + "*|");
+        }
+
+        return rv;
+    }
+
+    /**
+     * Checks whether the updates of a PUBLISH message are for this
+     * subscription, without looking at their key values.
+     *
+     * @param publishHeader The header of the PUBLISH message.
+     * @return True if the updates are for this subscription.
+     */
+    public boolean matches(MALMessageHeader publishHeader) {
+        if (!registerHeader.getURITo().equals(publishHeader.getURITo())
+                || !registerHeader.getServiceArea().equals(publishHeader.getServiceArea())
+                || !registerHeader.getService().equals(publishHeader.getService())
+                || !registerHeader.getOperation().equals(publishHeader.getOperation())
+                || !equals(registerHeader.getSession(), publishHeader.getSession())
+                || !equals(registerHeader.getSessionName(), publishHeader.getSessionName())) {
+            return false;
+        }
+
+        // Don't check the domain if the subscription is done with a null on it
+        return (null == subscription.getDomain())
+                || domainMatches(subscription.getDomain(), publishHeader.getDomain());
+    }
+
+    /**
+     * Checks the key values of an update against the filters of the
+     * subscription.
+     *
+     * @param keyValues The key values of the update.
+     * @return True if the update matches the filters.
+     */
+    public boolean matchesFilters(List<NamedValue> keyValues) {
+        if ((null == subscription.getFilters()) || subscription.getFilters().isEmpty()
+                || (null == keyValues) || keyValues.isEmpty()) {
+            return true;
+        }
+
+        for (SubscriptionFilter filter : subscription.getFilters()) {
+            for (NamedValue keyValue : keyValues) {
+                if (filter.getName().equals(keyValue.getName())
+                        && !matchesAny(filter.getValues().getAsAttributes(), keyValue.getValue())) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Creates the NOTIFY message of the matched updates of a PUBLISH message.
+     *
+     * @param publishHeader The header of the PUBLISH message.
+     * @param updateHeaders The update headers of the PUBLISH message.
+     * @param updateLists The update lists of the PUBLISH message.
+     * @param indexes The indexes of the matched updates.
+     * @param count The number of matched updates.
+     * @param streamFactory The stream factory of the transport.
+     * @return The NOTIFY message.
+     * @throws MALInteractionException If the operation is not known.
+     */
+    public GENMessage createNotify(MALMessageHeader publishHeader,
+            UpdateHeaderList updateHeaders, List[] updateLists, int[] indexes, int count,
+            MALElementStreamFactory streamFactory) throws MALInteractionException {
+        final UpdateHeaderList notifyHeaders = new UpdateHeaderList(count);
+        final int listCount = (null == updateLists) ? 0 : updateLists.length;
+        final Object[] body = new Object[listCount + 2];
+        body[0] = subscription.getSubscriptionId();
+        body[1] = notifyHeaders;
+
+        for (int j = 0; j < listCount; j++) {
+            body[j + 2] = ZMTPTopicBroker.createEmptyList(updateLists[j]);
+        }
+
+        for (int i = 0; i < count; i++) {
+            notifyHeaders.add(updateHeaders.get(indexes[i]));
+
+            for (int j = 0; j < listCount; j++) {
+                if (null != body[j + 2]) {
+                    ((List) body[j + 2]).add(updateLists[j].get(indexes[i]));
+                }
+            }
+        }
+
+        final GENMessageHeader hdr = new GENMessageHeader();
+        hdr.setURIFrom(registerHeader.getURITo());
+        hdr.setURITo(registerHeader.getURIFrom());
+        hdr.setAuthenticationId(publishHeader.getAuthenticationId());
+        hdr.setTimestamp(Time.now());
+        hdr.setQoSlevel(registerHeader.getQoSlevel());
+        hdr.setPriority(registerHeader.getPriority());
+        hdr.setDomain(publishHeader.getDomain());
+        hdr.setNetworkZone(registerHeader.getNetworkZone());
+        hdr.setSession(registerHeader.getSession());
+        hdr.setSessionName(registerHeader.getSessionName());
+        hdr.setInteractionType(InteractionType.PUBSUB);
+        hdr.setInteractionStage(MALPubSubOperation.NOTIFY_STAGE);
+        hdr.setTransactionId(registerHeader.getTransactionId());
+        hdr.setServiceArea(publishHeader.getServiceArea());
+        hdr.setService(publishHeader.getService());
+        hdr.setOperation(publishHeader.getOperation());
+        hdr.setAreaVersion(publishHeader.getAreaVersion());
+        hdr.setIsErrorMessage(false);
+
+        return new GENMessage(false, hdr, null, null, streamFactory, body);
+    }
+
+    private List<Attribute> getFirstKeyValues(String firstKeyName) {
+        if (null == subscription.getFilters()) {
+            return null;
+        }
+
+        for (SubscriptionFilter filter : subscription.getFilters()) {
+            if (!firstKeyName.equals(filter.getName().getValue())) {
+                continue;
+            }
+
+            final List<Attribute> values = filter.getValues().getAsAttributes();
+
+            for (Attribute value : values) {
+                if ((null == value) || isWildcard(value)
+                        || (null == ZMTPTopicBroker.toTopicValue(value))) {
+                    return null;
+                }
+            }
+
+            return values;
+        }
+
+        return null;
+    }
+
+    private static boolean isWildcard(Attribute consumer) {
+        if (HelperMisc.isStringAttribute(consumer)) {
+            return ALL_ID.equals(HelperAttributes.attribute2string(consumer));
+        }
+
+        return (consumer instanceof Union) && ((Union) consumer).isZero();
+    }
+
+    private static boolean matchesAny(List<Attribute> consumerValues, Attribute provider) {
+        for (Attribute consumer : consumerValues) {
+            if (matchKeyValues(consumer, provider)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean matchKeyValues(Attribute consumer, Attribute provider) {
+        if (null == consumer) {
+            return null == provider;
+        }
+
+        if (isWildcard(consumer)) {
+            return true;
+        }
+
+        if (null == provider) {
+            return false;
+        }
+
+        final boolean consumerIsString = HelperMisc.isStringAttribute(consumer);
+
+        if (consumerIsString != HelperMisc.isStringAttribute(provider)) {
+            return consumer.equals(provider);
+        }
+
+        if (consumerIsString) {
+            return HelperAttributes.attribute2string(consumer).equals(
+                    HelperAttributes.attribute2string(provider));
+        }
+
+        // Sometimes the nulls are wrapped in a Union type
+        if (((consumer instanceof Union) && ((Union) consumer).isNull())
+                || ((provider instanceof Union) && ((Union) provider).isNull())) {
+            return true;
+        }
+
+        return HelperAttributes.attribute2JavaType(consumer).equals(
+                HelperAttributes.attribute2JavaType(provider));
+    }
+
+    private static boolean domainMatches(IdentifierList consumer, IdentifierList provider) {
+        if (null == provider) {
+            return false;
+        }
+
+        // Match it if the consumer registered with an empty list
+        if (consumer.isEmpty()) {
+            return true;
+        }
+
+        final int last = consumer.size() - 1;
+        final boolean wildFirst = ALL_ID.equals(consumer.get(0).getValue());
+        final boolean wildLast = ALL_ID.equals(consumer.get(last).getValue());
+
+        if (wildFirst && wildLast) { // *.B.*
+            for (int i = 0; i <= provider.size() - consumer.size() + 2; i++) {
+                if (partsMatch(consumer, provider, 1, i, consumer.size() - 2)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        if (!wildFirst && !wildLast) { // A.B.C or A.B.*.C
+            return (consumer.size() == provider.size())
+                    && partsMatch(consumer, provider, 0, 0, consumer.size());
+        }
+
+        if (consumer.size() > provider.size() + 1) {
+            return false;
+        }
+
+        if (wildLast) { // A.B.*
+            return partsMatch(consumer, provider, 0, 0, last);
+        }
+
+        // *.B.C
+        return partsMatch(consumer, provider, 1, provider.size() - last, last);
+    }
+
+    private static boolean partsMatch(IdentifierList consumer, IdentifierList provider,
+            int consumerStart, int providerStart, int size) {
+        if ((0 > providerStart) || (providerStart + size > provider.size())) {
+            return false;
+        }
+
+        for (int i = 0; i < size; i++) {
+            final String part = consumer.get(consumerStart + i).getValue();
+
+            if (!ALL_ID.equals(part)
+                    && !part.equals(provider.get(providerStart + i).getValue())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean equals(Object a, Object b) {
+        return (a == b) || ((null != a) && a.equals(b));
+    }
+}
@@ -32,6 +32,8 @@ import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -42,6 +44,7 @@ import org.ccsds.moims.mo.mal.structures.InteractionType;
 import org.ccsds.moims.mo.mal.structures.QoSLevel;
 import org.ccsds.moims.mo.mal.structures.UInteger;
 import org.ccsds.moims.mo.mal.transport.MALEndpoint;
+import org.ccsds.moims.mo.mal.transport.MALTransmitErrorException;
 import org.ccsds.moims.mo.mal.transport.MALTransportFactory;
 import org.zeromq.ZMQ;
 import org.zeromq.ZContext;
@@ -49,7 +52,10 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.Random;
 import org.ccsds.moims.mo.mal.MALHelper;
+import org.ccsds.moims.mo.mal.encoding.GENElementInputStream;
+import org.ccsds.moims.mo.mal.encoding.MALElementInputStream;
 import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
+import org.ccsds.moims.mo.mal.encoding.MALEncodingContext;
 
 /**
  * The ZMTP MAL Transport implementation.
@@ -67,6 +73,13 @@ import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
  * client (i.e. not offering any services) this property should be omitted.
  * org.ccsds.moims.mo.mal.transport.tcpip.port == port that the transport
  * listens to. In case this is a pure client, this property should be omitted.
+ * org.ccsds.moims.mo.mal.transport.zmtp.pubsub.brokerless == true to handle
+ * the PubSub interactions in the transport, the updates being distributed on
+ * the PUB/SUB sockets of the multicast channel instead of through a MAL broker.
+ * Requires the multicast channel to be mapped.
+ * org.ccsds.moims.mo.mal.transport.zmtp.deltaheaders == true to send the
+ * repeated header fields of the point to point messages once per channel, see
+ * ZMTPDeltaHeaders. Off by default, the peers must all enable it.
  *
  * The general logic is the following : The transport at first initialises the
  * server listen port (if this is a server, offering services).
@@ -114,6 +127,20 @@ public class ZMTPTransport extends GENTransport<byte[], byte[]> {
             = "org.ccsds.moims.mo.mal.transport.zmtp.localuri";
     protected static final String MAPPING_DIRECTORY_FILE_KEY
             = "org.ccsds.moims.mo.mal.transport.zmtp.mappingdirectoryfile";
+    /**
+     * Property enabling the broker-less PubSub.
+     */
+    public static final String BROKERLESS_PUBSUB_PROPERTY
+            = "org.ccsds.moims.mo.mal.transport.zmtp.pubsub.brokerless";
+    /**
+     * Property enabling the delta headers on the point to point channels.
+     */
+    public static final String DELTA_HEADERS_PROPERTY
+            = "org.ccsds.moims.mo.mal.transport.zmtp.deltaheaders";
+    /**
+     * Number of peers whose delta header templates are kept.
+     */
+    protected static final int MAX_DELTA_HEADER_PEERS = 1024;
     /**
      * Logger
      */
@@ -159,6 +186,30 @@ public class ZMTPTransport extends GENTransport<byte[], byte[]> {
      */
     public ZMTPConfiguration defaultConfiguration;
 
+    /**
+     * Holds the encoded form of the header fields repeated across messages,
+     * which depend on the String Mapping Directory.
+     */
+    protected final ZMTPHeaderTemplates headerTemplates = new ZMTPHeaderTemplates(this, 256);
+
+    /**
+     * True if the point to point messages are sent with delta headers.
+     */
+    protected boolean deltaHeaders = false;
+
+    /**
+     * The delta header templates received from each peer socket, by identity.
+     */
+    protected final Map<ByteBuffer, ZMTPDeltaHeaders> receivedDeltaHeaders
+            = new LinkedHashMap<ByteBuffer, ZMTPDeltaHeaders>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<ByteBuffer, ZMTPDeltaHeaders> eldest) {
+            return size() > MAX_DELTA_HEADER_PEERS;
+        }
+    };
+
     /**
      * P2P server
      */
@@ -169,6 +220,16 @@ public class ZMTPTransport extends GENTransport<byte[], byte[]> {
      */
     protected ZMTPChannelDestination multicastDest;
 
+    /**
+     * True if the PubSub interactions are handled by the transport.
+     */
+    protected boolean brokerlessPubSub = false;
+
+    /**
+     * Broker of the broker-less PubSub, replaces the MCAST server.
+     */
+    protected ZMTPTopicBroker topicBroker;
+
     /**
      * Encoder stream factory used to decode/encode the message header.
      */
@@ -218,6 +279,14 @@ public class ZMTPTransport extends GENTransport<byte[], byte[]> {
                     stringMappingDirectory.loadDirectory(mappingDirPath);
                 }
             }
+            if (properties.containsKey(BROKERLESS_PUBSUB_PROPERTY)) {
+                brokerlessPubSub = Boolean.parseBoolean(
+                        properties.get(BROKERLESS_PUBSUB_PROPERTY).toString());
+            }
+            if (properties.containsKey(DELTA_HEADERS_PROPERTY)) {
+                deltaHeaders = Boolean.parseBoolean(
+                        properties.get(DELTA_HEADERS_PROPERTY).toString());
+            }
             if (properties.containsKey(LOCAL_URI_PROPERTY_KEY)) {
                 this.localURI = (String) properties.get(LOCAL_URI_PROPERTY_KEY);
                 try {
@@ -270,7 +339,18 @@ public class ZMTPTransport extends GENTransport<byte[], byte[]> {
             throw new MALException("Error initialising ZMTP PTP Channel Destination", ex);
         }
         String mappedMcastURI = uriMapping.getLocalMcastZmtpUri(localURI);
-        if (mappedMcastURI != null) {
+        if (brokerlessPubSub) {
+            if (mappedMcastURI == null) {
+                throw new MALException("The broker-less PubSub requires the ZMTP MCAST channel");
+            }
+            RLOGGER.log(Level.INFO, "Starting ZMTP PubSub topics at {0} ({1})",
+                    new Object[]{localURI, mappedMcastURI});
+            try {
+                topicBroker = new ZMTPTopicBroker(this, mappedMcastURI);
+            } catch (Exception ex) {
+                throw new MALException("Error initialising ZMTP PubSub topics", ex);
+            }
+        } else if (mappedMcastURI != null) {
             RLOGGER.log(Level.INFO, "Starting ZMTP MCAST Channel Destination at {0} ({1})",
                     new Object[]{localURI, mappedMcastURI});
             try {
@@ -294,6 +374,11 @@ public class ZMTPTransport extends GENTransport<byte[], byte[]> {
     public MALBrokerBinding createBroker(final String localName, final Blob authenticationId,
             final QoSLevel[] expectedQos, final UInteger priorityLevelNumber,
             final Map defaultQoSProperties) throws MALException {
+        if (null != topicBroker) {
+            return new ZMTPBrokerBinding(
+                    new org.ccsds.moims.mo.mal.structures.URI(uriBase + localName),
+                    authenticationId);
+        }
         // not supported by ZMTP transport
         return null;
     }
@@ -302,6 +387,9 @@ public class ZMTPTransport extends GENTransport<byte[], byte[]> {
     public MALBrokerBinding createBroker(final MALEndpoint endpoint, final Blob authenticationId,
             final QoSLevel[] qosLevels, final UInteger priorities, final Map properties) throws
             MALException {
+        if (null != topicBroker) {
+            return new ZMTPBrokerBinding(endpoint.getURI(), authenticationId);
+        }
         // not supported by ZMTP transport
         return null;
     }
@@ -331,6 +419,9 @@ public class ZMTPTransport extends GENTransport<byte[], byte[]> {
         if (null != multicastDest) {
             multicastDest.interrupt();
         }
+        if (null != topicBroker) {
+            topicBroker.close();
+        }
         if (null != this.getZmqContext()) {
             // Don't destroy the context properly as it locks the application
             //this.getZmqContext().destroy();
@@ -353,9 +444,20 @@ public class ZMTPTransport extends GENTransport<byte[], byte[]> {
             String remoteRootURI) throws MALException {
         try {
             String mappedRemoteURI = uriMapping.getRemotePtpZmtpUri(remoteRootURI);
+
+            if (!deltaHeaders) {
+                ZMQ.Socket socket = openSocket(getZmqContext(),
+                        ZMTP_COMMUNICATION_PATTERN_P2P, mappedRemoteURI, false);
+                return new ZMTPChannelSource(socket);
+            }
+
+            // the receiver keeps the templates of the socket across reconnections
+            byte[] identity = new byte[16];
+            new Random().nextBytes(identity);
+            identity[0] |= 0x01; // identities starting with zero are reserved
             ZMQ.Socket socket = openSocket(getZmqContext(),
-                    ZMTP_COMMUNICATION_PATTERN_P2P, mappedRemoteURI, false);
-            return new ZMTPChannelSource(socket);
+                    ZMTP_COMMUNICATION_PATTERN_P2P, mappedRemoteURI, false, identity);
+            return new ZMTPChannelSource(socket, new ZMTPDeltaHeaders(this));
         } catch (IllegalArgumentException e) {
             RLOGGER.log(Level.WARNING,
                     "Malformed parameters when creating sender to : {0}", remoteRootURI);
@@ -373,6 +475,33 @@ public class ZMTPTransport extends GENTransport<byte[], byte[]> {
         // Default configuration (loaded from transport properties) is used for decoding
         ZMTPMessageHeader header = new ZMTPMessageHeader(
                 new ZMTPConfiguration(defaultConfiguration, qosProperties), null);
+        final MALElementInputStream enc = hdrStreamFactory.createInputStream(packet, 0);
+        enc.readElement(header, new MALEncodingContext(header, null, 0, qosProperties, qosProperties));
+
+        if (!(enc instanceof GENElementInputStream)
+                || (packet != ((GENElementInputStream) enc).getSourceArray())) {
+            // the header stream does not tell where the body starts
+            return createMessage(header, packet);
+        }
+
+        try {
+            return new ZMTPMessage(hdrStreamFactory, wrapBodyParts, header, qosProperties,
+                    packet, ((GENElementInputStream) enc).getSourceOffset(),
+                    getBodyEncodingSelector().getDecoderStreamFactory(header));
+        } catch (MALException ex) {
+            returnErrorMessage(null,
+                    new ZMTPMessage(hdrStreamFactory, wrapBodyParts, true,
+                            new ZMTPMessageHeader(header.getConfiguration(), null),
+                            qosProperties, packet, hdrStreamFactory),
+                    MALHelper.INTERNAL_ERROR_NUMBER,
+                    "The message body could not be decoded. The message will be discarded!");
+
+            return null;
+        }
+    }
+
+    private GENMessage createMessage(ZMTPMessageHeader header, byte[] packet)
+            throws MALException {
         ZMTPMessage dummyMessage = new ZMTPMessage(hdrStreamFactory, wrapBodyParts,
                 true, header, qosProperties, packet, hdrStreamFactory);
 
@@ -392,6 +521,16 @@ public class ZMTPTransport extends GENTransport<byte[], byte[]> {
         }
     }
 
+    /**
+     * Returns the encoded forms of the repeated header fields of the messages
+     * sent by this transport.
+     *
+     * @return The header templates.
+     */
+    public ZMTPHeaderTemplates getHeaderTemplates() {
+        return headerTemplates;
+    }
+
     @Override
     protected GENOutgoingMessageHolder<byte[]> internalEncodeMessage(
             String destinationRootURI,
@@ -414,6 +553,52 @@ public class ZMTPTransport extends GENTransport<byte[], byte[]> {
         return hdrStreamFactory;
     }
 
+    /**
+     * Returns the broker of the broker-less PubSub.
+     *
+     * @return The broker, or null if the PubSub is not handled by the
+     * transport.
+     */
+    public ZMTPTopicBroker getTopicBroker() {
+        return topicBroker;
+    }
+
+    /**
+     * Encodes a message in the form it is sent in.
+     *
+     * @param msg The message.
+     * @return The encoded message.
+     * @throws MALTransmitErrorException on an encoding error.
+     */
+    byte[] encodeMessage(GENMessage msg) throws MALTransmitErrorException {
+        return internalEncodeByteMessage(null, null, null, true, null, msg);
+    }
+
+    /**
+     * Checks whether a URI is the URI of an endpoint or broker of this
+     * transport.
+     *
+     * @param uri The URI.
+     * @return True if the URI is local.
+     */
+    boolean isLocalURI(org.ccsds.moims.mo.mal.structures.URI uri) {
+        return (null != uri) && (null != uri.getValue()) && (null != uriBase)
+                && uri.getValue().startsWith(uriBase);
+    }
+
+    /**
+     * Returns the ZMTP URI of the MCAST channel of a broker.
+     *
+     * @param brokerURI The broker URI.
+     * @return The ZMTP URI.
+     * @throws MALException if the URI is invalid.
+     */
+    String getRemoteMcastZmtpUri(org.ccsds.moims.mo.mal.structures.URI brokerURI)
+            throws MALException {
+        return uriMapping.getRemoteMcastZmtpUri(
+                brokerURI.getRootURI(serviceDelim, serviceDelimCounter));
+    }
+
     @Override
     protected GENEndpoint internalCreateEndpoint(final String localName,
             final String routingName, final Map properties) throws MALException {
@@ -447,7 +632,43 @@ public class ZMTPTransport extends GENTransport<byte[], byte[]> {
     }
 
     public void channelDataReceived(byte[] remoteIdentity, byte[] data) {
-        this.receive(null, decoderFactory.createDecoder(this, null, data));
+        byte[] packet = data;
+
+        if (deltaHeaders && ZMTPDeltaHeaders.isDelta(data)) {
+            try {
+                packet = getReceivedDeltaHeaders(remoteIdentity).expand(data);
+            } catch (MALException ex) {
+                RLOGGER.log(Level.WARNING,
+                        "Discarding a message with an unreadable delta header", ex);
+                return;
+            }
+        }
+
+        this.receive(null, decoderFactory.createDecoder(this, null, packet));
+    }
+
+    /**
+     * Returns true if the point to point messages are sent with delta headers.
+     *
+     * @return True for delta headers.
+     */
+    public boolean isDeltaHeaders() {
+        return deltaHeaders;
+    }
+
+    private ZMTPDeltaHeaders getReceivedDeltaHeaders(byte[] remoteIdentity) {
+        final ByteBuffer key = ByteBuffer.wrap(remoteIdentity.clone());
+
+        synchronized (receivedDeltaHeaders) {
+            ZMTPDeltaHeaders rv = receivedDeltaHeaders.get(key);
+
+            if (null == rv) {
+                rv = new ZMTPDeltaHeaders(this);
+                receivedDeltaHeaders.put(key, rv);
+            }
+
+            return rv;
+        }
     }
 
     /**
@@ -484,6 +705,24 @@ public class ZMTPTransport extends GENTransport<byte[], byte[]> {
      */
     public static ZMQ.Socket openSocket(ZContext ctxt, int communicationPattern,
             String zmtpURI, boolean asServer) throws IllegalArgumentException {
+        return openSocket(ctxt, communicationPattern, zmtpURI, asServer, null);
+    }
+
+    /**
+     * Implementation of ZMTP binding OPEN primitive
+     *
+     * @param ctxt context to create the socket from
+     * @param communicationPattern if P2P, ROUTER-DEALER sockets are created, if
+     * multicast, PUB-SUB sockets are created
+     * @param zmtpURI valid ZMTP URI
+     * @param asServer if true, the socket binds to the given URI, listening for
+     * connections, if false the socket connects to the given URI
+     * @param identity the identity of a connecting socket, null for one given
+     * by the peer
+     * @return ZMQ Socket instance configured according to the parameters
+     */
+    public static ZMQ.Socket openSocket(ZContext ctxt, int communicationPattern,
+            String zmtpURI, boolean asServer, byte[] identity) throws IllegalArgumentException {
         ZMQ.Socket ret = null;
         if (zmtpURI == null) {
             throw new IllegalArgumentException();
@@ -513,6 +752,9 @@ public class ZMTPTransport extends GENTransport<byte[], byte[]> {
                 default:
                     throw new IllegalArgumentException();
             }
+            if (null != identity) {
+                ret.setIdentity(identity);
+            }
             ret.connect(zmtpURI);
         }
         return ret;
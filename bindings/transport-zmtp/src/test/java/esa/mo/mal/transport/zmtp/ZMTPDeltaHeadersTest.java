@@ -0,0 +1,204 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO ZMTP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.transport.zmtp;
+
+import esa.mo.mal.encoder.binary.base.BinaryTimeHandler;
+import esa.mo.mal.encoder.zmtp.header.ZMTPHeaderDecoder;
+import esa.mo.mal.encoder.zmtp.header.ZMTPHeaderEncoder;
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the messages sent with delta headers are expanded back to the
+ * messages that were compressed, and when their templates are sent in full.
+ */
+public class ZMTPDeltaHeadersTest {
+
+    private static final byte[] BODY = new byte[]{10, 20, 30, 40};
+
+    private ZMTPTransport transport;
+    private ZMTPDeltaHeaders sender;
+    private ZMTPDeltaHeaders receiver;
+
+    @BeforeClass
+    public static void registerEncoding() {
+        System.setProperty(ZMTPEncodingSelector.MALZMTP_ENCODING_PROPERTY,
+                ZMTPEncodingSelector.ENCODING_FIXED_BINARY_FACTORY);
+    }
+
+    @Before
+    public void setUp() throws MALException {
+        final Map<String, String> properties = new HashMap<String, String>();
+        properties.put(ZMTPTransport.LOCAL_URI_PROPERTY_KEY, "zmtp://localhost:55000");
+        properties.put(ZMTPEncodingSelector.MALZMTP_ENCODING_PROPERTY,
+                ZMTPEncodingSelector.ENCODING_FIXED_BINARY_FACTORY);
+        transport = new ZMTPTransport("malzmtp", false, null, properties, null);
+        sender = new ZMTPDeltaHeaders(transport);
+        receiver = new ZMTPDeltaHeaders(transport);
+    }
+
+    @Test
+    public void testDeltaHeadersAreOffByDefault() {
+        assertFalse(transport.isDeltaHeaders());
+    }
+
+    @Test
+    public void testMessagesAreExpandedToTheOriginal() throws Exception {
+        final ZMTPConfiguration all = new ZMTPConfiguration(true, true, true, true, true, true);
+        final byte[] first = encode(newHeader(all, "to", 7L, 1000));
+        final byte[] second = encode(newHeader(all, "to", 8L, 2000));
+
+        final byte[] defining = sender.compress(first);
+        assertTrue(ZMTPDeltaHeaders.isDelta(defining));
+        assertFalse(ZMTPDeltaHeaders.isDelta(first));
+        assertArrayEquals(first, receiver.expand(defining));
+
+        // the transaction id and the timestamp change, the rest is the template
+        final byte[] delta = sender.compress(second);
+        assertTrue(delta.length < second.length / 2);
+        assertArrayEquals(second, receiver.expand(delta));
+
+        final ZMTPMessageHeader decoded = decode(all, receiver.expand(sender.compress(second)));
+        assertEquals(Long.valueOf(8L), decoded.getTransactionId());
+        assertEquals(new Time(2000), decoded.getTimestamp());
+        assertEquals(newDomain(), decoded.getDomain());
+    }
+
+    @Test
+    public void testMessagesWithoutOptionalFields() throws Exception {
+        final ZMTPConfiguration none = new ZMTPConfiguration();
+        final byte[] first = encode(newHeader(none, "to", 7L, 1000));
+        final byte[] second = encode(newHeader(none, "to", 8L, 2000));
+
+        assertArrayEquals(first, receiver.expand(sender.compress(first)));
+        assertArrayEquals(second, receiver.expand(sender.compress(second)));
+    }
+
+    @Test
+    public void testOtherFieldsDefineANewTemplate() throws Exception {
+        final ZMTPConfiguration all = new ZMTPConfiguration(true, true, true, true, true, true);
+        final byte[] toFirst = encode(newHeader(all, "to", 7L, 1000));
+        final byte[] toOther = encode(newHeader(all, "other", 7L, 1000));
+
+        final byte[] first = sender.compress(toFirst);
+        final byte[] other = sender.compress(toOther);
+        assertEquals(toOther.length + 1, other.length);
+        assertArrayEquals(toFirst, receiver.expand(first));
+        assertArrayEquals(toOther, receiver.expand(other));
+
+        // both templates are still held
+        assertArrayEquals(toFirst, receiver.expand(sender.compress(toFirst)));
+        assertArrayEquals(toOther, receiver.expand(sender.compress(toOther)));
+    }
+
+    @Test
+    public void testTemplatesAreSentInFullAgain() throws Exception {
+        final ZMTPConfiguration all = new ZMTPConfiguration(true, true, true, true, true, true);
+        final byte[] packet = encode(newHeader(all, "to", 7L, 1000));
+        sender.compress(packet);
+
+        for (int i = 1; i < ZMTPDeltaHeaders.REFRESH_INTERVAL; i++) {
+            assertTrue(sender.compress(packet).length < packet.length);
+        }
+
+        // a receiver that has lost the template recovers from the refresh
+        final ZMTPDeltaHeaders restarted = new ZMTPDeltaHeaders(transport);
+        final byte[] refresh = sender.compress(packet);
+        assertEquals(packet.length + 1, refresh.length);
+        assertArrayEquals(packet, restarted.expand(refresh));
+        assertArrayEquals(packet, restarted.expand(sender.compress(packet)));
+    }
+
+    @Test(expected = MALException.class)
+    public void testUnknownTemplatesAreRejected() throws Exception {
+        final ZMTPConfiguration all = new ZMTPConfiguration(true, true, true, true, true, true);
+        final byte[] packet = encode(newHeader(all, "to", 7L, 1000));
+        sender.compress(packet);
+
+        receiver.expand(sender.compress(packet));
+    }
+
+    @Test
+    public void testTemplateIdentifiersAreReused() throws Exception {
+        final ZMTPConfiguration all = new ZMTPConfiguration(true, true, true, true, true, true);
+
+        for (int i = 0; i < ZMTPDeltaHeaders.MAX_TEMPLATES + 10; i++) {
+            final byte[] packet = encode(newHeader(all, "to" + i, i, 1000));
+            assertArrayEquals(packet, receiver.expand(sender.compress(packet)));
+            assertArrayEquals(packet, receiver.expand(sender.compress(packet)));
+        }
+
+        // the least recently sent template has been replaced
+        final byte[] evicted = encode(newHeader(all, "to0", 0L, 1000));
+        final byte[] defining = sender.compress(evicted);
+        assertEquals(evicted.length + 1, defining.length);
+        assertArrayEquals(evicted, receiver.expand(defining));
+    }
+
+    private ZMTPMessageHeader newHeader(ZMTPConfiguration config, String to,
+            long transactionId, long time) {
+        return new ZMTPMessageHeader(config, transport,
+                new URI("malzmtp://localhost:55000/from"), new Blob(new byte[]{1, 2, 3}),
+                new URI("malzmtp://localhost:55001/" + to), new Time(time), QoSLevel.ASSURED,
+                new UInteger(3), newDomain(), new Identifier("network"), SessionType.LIVE,
+                new Identifier("LIVE"), InteractionType.SEND, new UOctet((short) 1),
+                transactionId, new UShort(1), new UShort(1), new UShort(1),
+                new UOctet((short) 1), false);
+    }
+
+    private static IdentifierList newDomain() {
+        final IdentifierList domain = new IdentifierList();
+        domain.add(new Identifier("ccsds"));
+        domain.add(new Identifier("mission"));
+        return domain;
+    }
+
+    private byte[] encode(ZMTPMessageHeader header) throws Exception {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        header.encode(new ZMTPHeaderEncoder(baos, transport, new BinaryTimeHandler()));
+        baos.write(BODY);
+        return baos.toByteArray();
+    }
+
+    private ZMTPMessageHeader decode(ZMTPConfiguration config, byte[] encoded)
+            throws MALException {
+        final ZMTPMessageHeader header = new ZMTPMessageHeader(config, transport);
+        header.decode(new ZMTPHeaderDecoder(encoded, transport, new BinaryTimeHandler()));
+        return header;
+    }
+}
@@ -0,0 +1,202 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO ZMTP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.transport.zmtp;
+
+import esa.mo.mal.encoder.binary.base.BinaryTimeHandler;
+import esa.mo.mal.encoder.zmtp.header.ZMTPHeaderDecoder;
+import esa.mo.mal.encoder.zmtp.header.ZMTPHeaderEncoder;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that a header encoded through the ZMTPHeaderTemplates has the same
+ * bytes as one encoded field by field, also once the String Mapping Directory
+ * has changed, and the values a header is decoded with when it does not carry
+ * its optional fields.
+ */
+public class ZMTPMessageHeaderTest {
+
+    private final ZMTPConfiguration configuration
+            = new ZMTPConfiguration(true, true, true, true, true, true);
+    private ZMTPTransport transport;
+    private ZMTPTransport plainTransport;
+
+    @BeforeClass
+    public static void registerEncoding() {
+        System.setProperty(ZMTPEncodingSelector.MALZMTP_ENCODING_PROPERTY,
+                ZMTPEncodingSelector.ENCODING_FIXED_BINARY_FACTORY);
+    }
+
+    @Before
+    public void setUp() throws MALException {
+        final Map<String, String> properties = new HashMap<String, String>();
+        properties.put(ZMTPTransport.LOCAL_URI_PROPERTY_KEY, "zmtp://localhost:55000");
+        properties.put(ZMTPEncodingSelector.MALZMTP_ENCODING_PROPERTY,
+                ZMTPEncodingSelector.ENCODING_FIXED_BINARY_FACTORY);
+        transport = new ZMTPTransport("malzmtp", false, null, properties, null);
+
+        // encodes the fields one by one, with the same directory
+        plainTransport = new ZMTPTransport("malzmtp", false, null, properties, null) {
+            @Override
+            public ZMTPHeaderTemplates getHeaderTemplates() {
+                return null;
+            }
+        };
+        plainTransport.stringMappingDirectory = transport.stringMappingDirectory;
+    }
+
+    @Test
+    public void testTemplatesDoNotChangeTheEncoding() throws Exception {
+        final IdentifierList domain = newDomain();
+        final Blob auth = new Blob(new byte[]{1, 2, 3});
+        final byte[] expected = encode(plainTransport, newHeader(domain, auth));
+
+        assertArrayEquals(expected, encode(transport, newHeader(domain, auth)));
+        assertNotNull(transport.getHeaderTemplates().get(new Object[]{
+            new URI("malzmtp://localhost:55000/from"), new URI("malzmtp://localhost:55001/to")
+        }));
+        // encoded again from the templates
+        assertArrayEquals(expected, encode(transport, newHeader(domain, auth)));
+
+        // the fields the templates hold are not changed through the message
+        domain.add(new Identifier("extra"));
+        final byte[] changed = encode(plainTransport, newHeader(domain, auth));
+        assertFalse(Arrays.equals(expected, changed));
+        assertArrayEquals(changed, encode(transport, newHeader(domain, auth)));
+    }
+
+    @Test
+    public void testTemplatesFollowTheMappingDirectory() throws Exception {
+        final byte[] before = encode(transport, newHeader(newDomain(), new Blob(new byte[0])));
+
+        transport.stringMappingDirectory.addEntry(1, "malzmtp://localhost:55001/to");
+        transport.stringMappingDirectory.addEntry(2, "mission");
+        transport.stringMappingDirectory.addEntry(3, "LIVE");
+
+        final byte[] expected = encode(plainTransport,
+                newHeader(newDomain(), new Blob(new byte[0])));
+        assertFalse(Arrays.equals(before, expected));
+        assertTrue(expected.length < before.length);
+        assertArrayEquals(expected, encode(transport,
+                newHeader(newDomain(), new Blob(new byte[0]))));
+        assertArrayEquals(expected, encode(transport,
+                newHeader(newDomain(), new Blob(new byte[0]))));
+
+        // a new directory replaces the old one
+        transport.stringMappingDirectory = new ZMTPStringMappingDirectory();
+        plainTransport.stringMappingDirectory = transport.stringMappingDirectory;
+        assertArrayEquals(before, encode(transport,
+                newHeader(newDomain(), new Blob(new byte[0]))));
+    }
+
+    @Test
+    public void testTemplatesDoNotHoldFieldsOfAnOlderDirectory() throws Exception {
+        final ZMTPHeaderTemplates templates = transport.getHeaderTemplates();
+        final Object[] fields = new Object[]{new URI("malzmtp://localhost:55000/from")};
+        final long generation = templates.getGeneration();
+
+        // the directory changes while the fields are encoded
+        transport.stringMappingDirectory.addEntry(1, "malzmtp://localhost:55000/from");
+        templates.put(fields, new byte[]{1}, generation);
+        assertNull(templates.get(fields));
+
+        templates.put(fields, new byte[]{2}, templates.getGeneration());
+        assertArrayEquals(new byte[]{2}, templates.get(fields));
+    }
+
+    @Test
+    public void testMissingFieldsDecodeAsTheDefaults() throws Exception {
+        final ZMTPConfiguration none = new ZMTPConfiguration();
+        none.setDefaultDomain("ccsds.mission");
+        none.setDefaultAuth("AQID");
+
+        final ZMTPMessageHeader header = new ZMTPMessageHeader(none, transport,
+                new URI("malzmtp://localhost:55000/from"), new Blob(new byte[0]),
+                new URI("malzmtp://localhost:55001/to"), new Time(0), QoSLevel.ASSURED,
+                new UInteger(1), newDomain(), new Identifier("network"), SessionType.LIVE,
+                new Identifier("LIVE"), InteractionType.SEND, new UOctet((short) 1), 7L,
+                new UShort(1), new UShort(1), new UShort(1), new UOctet((short) 1), false);
+        final byte[] encoded = encode(transport, header);
+
+        final ZMTPMessageHeader first = decode(none, encoded);
+        final ZMTPMessageHeader second = decode(none, encoded);
+
+        // a missing default decodes as an empty Identifier, as new Identifier(null)
+        assertEquals(new Identifier(), first.getNetworkZone());
+        assertEquals(new Identifier("LIVE"), first.getSessionName());
+        assertEquals(newDomain(), first.getDomain());
+        assertEquals(new Blob(new byte[]{1, 2, 3}), first.getAuthenticationId());
+
+        // the decoded default values are not shared between the messages
+        assertNotSame(first.getAuthenticationId(), second.getAuthenticationId());
+        assertNotSame(first.getDomain(), second.getDomain());
+        first.getAuthenticationId().getValue()[0] = 9;
+        assertEquals(new Blob(new byte[]{1, 2, 3}), none.getDefaultAuthBlob());
+    }
+
+    private ZMTPMessageHeader newHeader(IdentifierList domain, Blob auth) {
+        return new ZMTPMessageHeader(configuration, transport,
+                new URI("malzmtp://localhost:55000/from"), auth,
+                new URI("malzmtp://localhost:55001/to"), new Time(1000), QoSLevel.ASSURED,
+                new UInteger(3), domain, new Identifier("network"), SessionType.LIVE,
+                new Identifier("LIVE"), InteractionType.SEND, new UOctet((short) 1), 7L,
+                new UShort(1), new UShort(1), new UShort(1), new UOctet((short) 1), false);
+    }
+
+    private static IdentifierList newDomain() {
+        final IdentifierList domain = new IdentifierList();
+        domain.add(new Identifier("ccsds"));
+        domain.add(new Identifier("mission"));
+        return domain;
+    }
+
+    private static byte[] encode(ZMTPTransport transport, ZMTPMessageHeader header)
+            throws MALException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        header.encode(new ZMTPHeaderEncoder(baos, transport, new BinaryTimeHandler()));
+        return baos.toByteArray();
+    }
+
+    private ZMTPMessageHeader decode(ZMTPConfiguration config, byte[] encoded)
+            throws MALException {
+        final ZMTPMessageHeader header = new ZMTPMessageHeader(config, transport);
+        header.decode(new ZMTPHeaderDecoder(encoded, transport, new BinaryTimeHandler()));
+        return header;
+    }
+}
@@ -0,0 +1,478 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO ZMTP Transport Framework
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.transport.zmtp;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import esa.mo.mal.transport.gen.GENMessageHeader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.ccsds.moims.mo.mal.MALContextFactory;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALHelper;
+import org.ccsds.moims.mo.mal.MALArea;
+import org.ccsds.moims.mo.mal.MALOperation;
+import org.ccsds.moims.mo.mal.MALPubSubOperation;
+import org.ccsds.moims.mo.mal.MALService;
+import org.ccsds.moims.mo.mal.MALStandardError;
+import org.ccsds.moims.mo.mal.ServiceKey;
+import org.ccsds.moims.mo.mal.structures.AttributeList;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Subscription;
+import org.ccsds.moims.mo.mal.structures.SubscriptionFilter;
+import org.ccsds.moims.mo.mal.structures.SubscriptionFilterList;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UIntegerList;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.transport.MALEndpoint;
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.ccsds.moims.mo.mal.transport.MALMessageListener;
+import org.ccsds.moims.mo.mal.transport.MALNotifyBody;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Runs the broker-less PubSub between two ZMTP transports on the loopback
+ * interface: the subscriptions of a consumer transport, with a key filter and
+ * a wildcard domain, are served from the PUB socket of a provider transport
+ * until they are deregistered or their endpoint is closed. The subscriptions
+ * keep receiving the updates of a publisher with other key names.
+ */
+public class ZMTPTopicBrokerTest {
+
+    private static final UShort AREA = new UShort(903);
+    private static final UShort SERVICE = new UShort(1);
+    private static final UOctet VERSION = new UOctet((short) 1);
+    private static final MALOperation OPERATION = new MALPubSubOperation(new UShort(1),
+            new Identifier("testMonitor"), false, new UShort(0),
+            new Object[]{UIntegerList.SHORT_FORM}, new Object[0]);
+    private static final Identifier SESSION_NAME = new Identifier("LIVE");
+    private static final Identifier NETWORK = new Identifier("GROUND");
+    private static final long TIMEOUT_MS = 5000;
+
+    private final AtomicLong transactionId = new AtomicLong();
+    private final BlockingQueue<MALMessage> providerMessages = new LinkedBlockingQueue<MALMessage>();
+    private final BlockingQueue<MALMessage> consumerMessages = new LinkedBlockingQueue<MALMessage>();
+    private ZMTPTransport providerTransport;
+    private ZMTPTransport consumerTransport;
+    private ZMTPEndpoint provider;
+    private ZMTPEndpoint consumer;
+    private URI brokerURI;
+
+    @BeforeClass
+    public static void registerArea() throws Exception {
+        System.setProperty(ZMTPEncodingSelector.MALZMTP_ENCODING_PROPERTY,
+                ZMTPEncodingSelector.ENCODING_FIXED_BINARY_FACTORY);
+        MALHelper.init(MALContextFactory.getElementsRegistry());
+
+        final ArrayList<MALOperation> operations = new ArrayList<MALOperation>();
+        operations.add(OPERATION);
+        final MALArea area = new MALArea(AREA, new Identifier("TestPubSubArea"), VERSION);
+        area.addService(new MALService(new ServiceKey(AREA, SERVICE, VERSION),
+                new Identifier("TestPubSubService"), operations));
+        MALContextFactory.registerArea(area);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        providerTransport = createTransport();
+        consumerTransport = createTransport();
+        provider = createEndpoint(providerTransport, "provider", providerMessages);
+        consumer = createEndpoint(consumerTransport, "consumer", consumerMessages);
+        brokerURI = providerTransport.createBroker(provider, null, null, null, null).getURI();
+
+        send(provider, brokerURI, newDomain("ccsds", "mission"),
+                MALPubSubOperation.PUBLISH_REGISTER_STAGE, newIdentifiers("name"));
+        assertNotNull(await(providerMessages, MALPubSubOperation.PUBLISH_REGISTER_ACK_STAGE));
+    }
+
+    @After
+    public void tearDown() throws MALException {
+        consumerTransport.close();
+        providerTransport.close();
+    }
+
+    @Test
+    public void testRegisterPublishNotify() throws Exception {
+        register("sub", newDomain("ccsds", "mission"), null);
+
+        final MALMessage notify = publishUntilNotified(newDomain("ccsds", "mission"), "A");
+        final MALMessageHeader hdr = notify.getHeader();
+
+        assertEquals(brokerURI, hdr.getURIFrom());
+        assertEquals(consumer.getURI(), hdr.getURITo());
+        assertEquals(newDomain("ccsds", "mission"), hdr.getDomain());
+        assertEquals(new Identifier("sub"), ((MALNotifyBody) notify.getBody()).getSubscriptionId());
+        assertEquals(newValues(1), getUpdates(notify));
+        assertEquals(1, consumerTransport.getTopicBroker().getSubscriptionCount());
+        assertEquals(0, providerTransport.getTopicBroker().getSubscriptionCount());
+
+        // the updates with different first key values are sent on their own topics
+        drainNotifies();
+        publish(newDomain("ccsds", "mission"), "A", "B");
+
+        final MALMessage first = await(consumerMessages, MALPubSubOperation.NOTIFY_STAGE);
+        final MALMessage second = await(consumerMessages, MALPubSubOperation.NOTIFY_STAGE);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertEquals(new Identifier("A"), getUpdateHeaders(first).get(0).getKeyValues().get(0));
+        assertEquals(newValues(1), getUpdates(first));
+        assertEquals(new Identifier("B"), getUpdateHeaders(second).get(0).getKeyValues().get(0));
+        assertEquals(newValues(2), getUpdates(second));
+    }
+
+    @Test
+    public void testKeyFilterAndWildcardDomain() throws Exception {
+        final SubscriptionFilterList filters = new SubscriptionFilterList();
+        filters.add(new SubscriptionFilter(new Identifier("name"),
+                new AttributeList(new Identifier("B"))));
+        register("sub", newDomain("ccsds", "*"), filters);
+
+        // only the update with the filtered key value is notified
+        final MALMessage notify = publishUntilNotified(newDomain("ccsds", "mission"), "A", "B");
+        assertEquals(1, getUpdateHeaders(notify).size());
+        assertEquals(new Identifier("B"), getUpdateHeaders(notify).get(0).getKeyValues().get(0));
+        assertEquals(newValues(2), getUpdates(notify));
+
+        // the updates of a domain out of the wildcard are not notified
+        drainNotifies();
+        send(provider, brokerURI, newDomain("other", "mission"),
+                MALPubSubOperation.PUBLISH_REGISTER_STAGE, newIdentifiers("name"));
+        assertNotNull(await(providerMessages, MALPubSubOperation.PUBLISH_REGISTER_ACK_STAGE));
+        publish(newDomain("other", "mission"), "A", "B");
+        publish(newDomain("ccsds", "mission"), "B");
+
+        final MALMessage next = await(consumerMessages, MALPubSubOperation.NOTIFY_STAGE);
+        assertNotNull(next);
+        assertEquals(newDomain("ccsds", "mission"), next.getHeader().getDomain());
+        assertEquals(newValues(1), getUpdates(next));
+    }
+
+    @Test
+    public void testPublisherWithOtherKeyNames() throws Exception {
+        final SubscriptionFilterList filters = new SubscriptionFilterList();
+        filters.add(new SubscriptionFilter(new Identifier("name"),
+                new AttributeList(new Identifier("B"))));
+        register("sub", newDomain("ccsds", "mission"), filters);
+        assertNotNull(publishUntilNotified(newDomain("ccsds", "mission"), "A", "B"));
+
+        final ZMTPEndpoint other = createEndpoint(providerTransport, "other",
+                new LinkedBlockingQueue<MALMessage>());
+        send(other, brokerURI, newDomain("ccsds", "mission"),
+                MALPubSubOperation.PUBLISH_REGISTER_STAGE, newIdentifiers("type"));
+        drainNotifies();
+
+        // the subscription does not filter on the key of the other publisher
+        final MALMessage notify = publishUntilNotified(other, newDomain("ccsds", "mission"), "X");
+        assertEquals(new Identifier("X"), getUpdateHeaders(notify).get(0).getKeyValues().get(0));
+
+        // and still only receives the filtered updates of the first one
+        drainNotifies();
+        publish(newDomain("ccsds", "mission"), "A");
+        publish(newDomain("ccsds", "mission"), "B");
+
+        final MALMessage next = await(consumerMessages, MALPubSubOperation.NOTIFY_STAGE);
+        assertNotNull(next);
+        assertEquals(new Identifier("B"), getUpdateHeaders(next).get(0).getKeyValues().get(0));
+    }
+
+    @Test
+    public void testPrefixes() {
+        final GENMessageHeader hdr = new GENMessageHeader();
+        hdr.setURITo(new URI("malzmtp://broker"));
+        hdr.setSession(SessionType.LIVE);
+        hdr.setSessionName(SESSION_NAME);
+        hdr.setServiceArea(AREA);
+        hdr.setService(SERVICE);
+        hdr.setOperation(OPERATION.getNumber());
+
+        final SubscriptionFilterList filters = new SubscriptionFilterList();
+        filters.add(new SubscriptionFilter(new Identifier("name"),
+                new AttributeList(new Identifier("B"))));
+        final String domainTopic = "malzmtp://broker|LIVE.LIVE|903.1.1|ccsds.mission.|";
+        final ZMTPTopicSubscription sub = new ZMTPTopicSubscription(null, hdr,
+                new Subscription(new Identifier("sub"), newDomain("ccsds", "mission"), filters));
+
+        assertEquals(domainTopic, sub.getDomainTopic());
+        assertEquals(Arrays.asList(domainTopic), sub.createPrefixes(null));
+        assertEquals(Arrays.asList(domainTopic + "#", domainTopic + "|",
+                domainTopic + "name=B|", domainTopic + "name*|",
+                domainTopic + "type=", domainTopic + "type*|"),
+                sub.createPrefixes(Arrays.asList("", "name", "type")));
+
+        final ZMTPTopicSubscription wildcard = new ZMTPTopicSubscription(null, hdr,
+                new Subscription(new Identifier("sub"), newDomain("ccsds", "*"), filters));
+        assertNull(wildcard.getDomainTopic());
+        assertEquals(Arrays.asList("malzmtp://broker|LIVE.LIVE|903.1.1|ccsds."),
+                wildcard.createPrefixes(Arrays.asList("name")));
+    }
+
+    @Test
+    public void testDeregister() throws Exception {
+        register("sub", newDomain("ccsds", "mission"), null);
+        assertNotNull(publishUntilNotified(newDomain("ccsds", "mission"), "A"));
+
+        send(consumer, brokerURI, newDomain("ccsds", "mission"),
+                MALPubSubOperation.DEREGISTER_STAGE, newIdentifiers("sub"));
+        assertNotNull(await(consumerMessages, MALPubSubOperation.DEREGISTER_ACK_STAGE));
+        assertEquals(0, consumerTransport.getTopicBroker().getSubscriptionCount());
+
+        assertNoNotify();
+    }
+
+    @Test
+    public void testEndpointClose() throws Exception {
+        register("sub", newDomain("ccsds", "mission"), null);
+        assertNotNull(publishUntilNotified(newDomain("ccsds", "mission"), "A"));
+
+        consumer.close();
+        assertEquals(0, consumerTransport.getTopicBroker().getSubscriptionCount());
+
+        consumer = createEndpoint(consumerTransport, "other", consumerMessages);
+        assertNoNotify();
+    }
+
+    @Test
+    public void testPublishToAnotherBrokerIsSent() throws Exception {
+        // the URI of the consumer stands in for a broker of another transport
+        send(provider, consumer.getURI(), newDomain("ccsds", "mission"),
+                MALPubSubOperation.PUBLISH_REGISTER_STAGE, newIdentifiers("name"));
+
+        final MALMessage received = await(consumerMessages,
+                MALPubSubOperation.PUBLISH_REGISTER_STAGE);
+        assertNotNull(received);
+        assertEquals(provider.getURI(), received.getHeader().getURIFrom());
+        assertNull(await(providerMessages, MALPubSubOperation.PUBLISH_REGISTER_ACK_STAGE, 200));
+    }
+
+    private void register(String id, IdentifierList domain, SubscriptionFilterList filters)
+            throws Exception {
+        send(consumer, brokerURI, domain, MALPubSubOperation.REGISTER_STAGE,
+                new Subscription(new Identifier(id), domain, filters));
+        assertNotNull(await(consumerMessages, MALPubSubOperation.REGISTER_ACK_STAGE));
+    }
+
+    /**
+     * Publishes until the subscription has reached the PUB socket, the
+     * updates published before are dropped by ZMQ.
+     */
+    private MALMessage publishUntilNotified(IdentifierList domain, String... keys)
+            throws Exception {
+        return publishUntilNotified(provider, domain, keys);
+    }
+
+    private MALMessage publishUntilNotified(ZMTPEndpoint publisher, IdentifierList domain,
+            String... keys) throws Exception {
+        final long end = System.currentTimeMillis() + TIMEOUT_MS;
+
+        while (System.currentTimeMillis() < end) {
+            publish(publisher, domain, keys);
+            final MALMessage notify = await(consumerMessages, MALPubSubOperation.NOTIFY_STAGE, 100);
+
+            if (null != notify) {
+                return notify;
+            }
+        }
+
+        fail("No NOTIFY received");
+        return null;
+    }
+
+    private void publish(IdentifierList domain, String... keys) throws Exception {
+        publish(provider, domain, keys);
+    }
+
+    private void publish(ZMTPEndpoint publisher, IdentifierList domain, String... keys)
+            throws Exception {
+        final UpdateHeaderList headers = new UpdateHeaderList();
+        final UIntegerList values = new UIntegerList();
+
+        for (int i = 0; i < keys.length; i++) {
+            headers.add(new UpdateHeader(new Identifier("source"), domain,
+                    new AttributeList(new Identifier(keys[i]))));
+            values.add(new UInteger(i + 1));
+        }
+
+        send(publisher, brokerURI, domain, MALPubSubOperation.PUBLISH_STAGE, headers, values);
+    }
+
+    /**
+     * Drops the NOTIFY messages of the updates published while waiting for
+     * the subscription.
+     */
+    private void drainNotifies() throws InterruptedException {
+        Thread.sleep(200);
+        consumerMessages.clear();
+    }
+
+    private void assertNoNotify() throws Exception {
+        drainNotifies();
+
+        for (int i = 0; i < 3; i++) {
+            publish(newDomain("ccsds", "mission"), "A");
+        }
+
+        assertNull(await(consumerMessages, MALPubSubOperation.NOTIFY_STAGE, 500));
+    }
+
+    private void send(ZMTPEndpoint endpoint, URI uriTo, IdentifierList domain, UOctet stage,
+            Object... body) throws Exception {
+        endpoint.sendMessage(endpoint.createMessage(new Blob(new byte[0]), uriTo, Time.now(),
+                QoSLevel.ASSURED, new UInteger(1), domain, NETWORK, SessionType.LIVE,
+                SESSION_NAME, transactionId.incrementAndGet(), false, OPERATION, stage,
+                new HashMap(), body));
+    }
+
+    private static MALMessage await(BlockingQueue<MALMessage> messages, UOctet stage)
+            throws InterruptedException {
+        return await(messages, stage, TIMEOUT_MS);
+    }
+
+    private static MALMessage await(BlockingQueue<MALMessage> messages, UOctet stage,
+            long timeoutMs) throws InterruptedException {
+        final long end = System.currentTimeMillis() + timeoutMs;
+        long remaining = timeoutMs;
+
+        while (0 < remaining) {
+            final MALMessage msg = messages.poll(remaining, TimeUnit.MILLISECONDS);
+
+            if ((null != msg) && stage.equals(msg.getHeader().getInteractionStage())) {
+                return msg;
+            }
+
+            remaining = end - System.currentTimeMillis();
+        }
+
+        return null;
+    }
+
+    private static UpdateHeaderList getUpdateHeaders(MALMessage notify) throws Exception {
+        return (UpdateHeaderList) notify.getBody().getBodyElement(1, new UpdateHeaderList());
+    }
+
+    private static UIntegerList getUpdates(MALMessage notify) throws Exception {
+        return (UIntegerList) notify.getBody().getBodyElement(2, new UIntegerList());
+    }
+
+    private static UIntegerList newValues(int... values) {
+        final UIntegerList rv = new UIntegerList();
+
+        for (int value : values) {
+            rv.add(new UInteger(value));
+        }
+
+        return rv;
+    }
+
+    private static IdentifierList newDomain(String... parts) {
+        return newIdentifiers(parts);
+    }
+
+    private static IdentifierList newIdentifiers(String... values) {
+        final IdentifierList rv = new IdentifierList();
+
+        for (String value : values) {
+            rv.add(new Identifier(value));
+        }
+
+        return rv;
+    }
+
+    private static ZMTPTransport createTransport() throws Exception {
+        final Map<String, String> properties = new HashMap<String, String>();
+        properties.put(ZMTPTransport.LOCAL_URI_PROPERTY_KEY,
+                "malzmtp://localhost:" + findFreePorts());
+        properties.put(ZMTPEncodingSelector.MALZMTP_ENCODING_PROPERTY,
+                ZMTPEncodingSelector.ENCODING_FIXED_BINARY_FACTORY);
+        properties.put(ZMTPURIMapping.USE_MULTICAST_KEY, "true");
+        properties.put(ZMTPTransport.BROKERLESS_PUBSUB_PROPERTY, "true");
+
+        final ZMTPTransport transport = new ZMTPTransport("malzmtp", false, null, properties,
+                new ZMTPURIMapping(properties));
+        transport.init();
+        return transport;
+    }
+
+    private static ZMTPEndpoint createEndpoint(ZMTPTransport transport, String name,
+            final BlockingQueue<MALMessage> messages) throws MALException {
+        final ZMTPEndpoint endpoint = (ZMTPEndpoint) transport.createEndpoint(name, new HashMap());
+        endpoint.setMessageListener(new MALMessageListener() {
+            @Override
+            public void onMessage(MALEndpoint callingEndpoint, MALMessage msg) {
+                messages.add(msg);
+            }
+
+            @Override
+            public void onMessages(MALEndpoint callingEndpoint, MALMessage[] msgList) {
+                for (MALMessage msg : msgList) {
+                    messages.add(msg);
+                }
+            }
+
+            @Override
+            public void onInternalError(MALEndpoint callingEndpoint, Throwable err) {
+            }
+
+            @Override
+            public void onTransmitError(MALEndpoint callingEndpoint,
+                    MALMessageHeader srcMessageHeader, MALStandardError err, Map qosMap) {
+            }
+        });
+        endpoint.startMessageDelivery();
+        return endpoint;
+    }
+
+    /**
+     * Returns a port that is free along with the next one, which the MCAST
+     * channel binds to.
+     */
+    private static int findFreePorts() throws IOException {
+        while (true) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                try (ServerSocket next = new ServerSocket(socket.getLocalPort() + 1)) {
+                    return socket.getLocalPort();
+                } catch (IOException ex) {
+                    // try another port
+                }
+            }
+        }
+    }
+}
@@ -28,7 +28,6 @@ import esa.mo.mal.impl.state.OperationResponseHolder;
 import esa.mo.mal.impl.state.SubmitOperationHandler;
 import esa.mo.mal.impl.state.PubSubOperationHandler;
 import esa.mo.mal.impl.state.ProgressOperationHandler;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Level;
 import org.ccsds.moims.mo.mal.*;
@@ -49,12 +48,16 @@ import org.ccsds.moims.mo.mal.transport.*;
  * When a new interaction is created, an interaction handler class is created
  * which is responsible for ensuring the correct stages are received in the
  * correct order.
+ *
+ * The transactions are held in TransactionTables, which only lock a segment of
+ * the table for a lookup, and the stage transitions of a transaction are
+ * serialised on its handler, so unrelated transactions do not contend.
  */
 public class InteractionConsumerMap {
 
-    private final Map<Long, BaseOperationHandler> transMap = new HashMap<>();
+    private final TransactionTable<BaseOperationHandler> transMap = new TransactionTable<>();
 
-    private final Map<Long, OperationResponseHolder> syncOpResponseMap = new HashMap<>();
+    private final TransactionTable<OperationResponseHolder> syncOpResponseMap = new TransactionTable<>();
 
     // This object will be shared across. It is thread-safe, so can be static!
     private final static InteractionTimeout INTERACTION_TIMEOUT = new InteractionTimeout();
@@ -62,208 +65,236 @@ public class InteractionConsumerMap {
     public Long createTransaction(final int interactionType,
             final boolean syncOperation,
             final MALInteractionListener listener) throws MALInteractionException {
-        synchronized (transMap) {
-            final Long oTransId = TransactionIdCounter.nextTransactionId();
-
-            BaseOperationHandler handler = null;
-            OperationResponseHolder responseHandler = new OperationResponseHolder(listener);
-
-            switch (interactionType) {
-                case InteractionType._SEND_INDEX:
-                    // do nothing as no handler is required for SEND interaction
-                    break;
-                case InteractionType._SUBMIT_INDEX:
-                    handler = new SubmitOperationHandler(syncOperation, responseHandler);
-                    break;
-                case InteractionType._REQUEST_INDEX:
-                    handler = new RequestOperationHandler(syncOperation, responseHandler);
-                    break;
-                case InteractionType._INVOKE_INDEX:
-                    handler = new InvokeOperationHandler(syncOperation, responseHandler);
-                    break;
-                case InteractionType._PROGRESS_INDEX:
-                    handler = new ProgressOperationHandler(syncOperation, responseHandler);
-                    break;
-                case InteractionType._PUBSUB_INDEX:
-                    handler = new PubSubOperationHandler(syncOperation, responseHandler);
-                    break;
-                default:
-                    throw new MALInteractionException(
-                            new MALStandardError(
-                                    MALHelper.INTERNAL_ERROR_NUMBER,
-                                    new Union("Pattern not supported")
-                            )
-                    );
-            }
+        return createTransaction(interactionType, syncOperation, listener,
+                INTERACTION_TIMEOUT.getTimeout(null, null));
+    }
+
+    /**
+     * Creates a new transaction for an operation, the interaction times out as
+     * configured in the QoS properties of the consumer.
+     *
+     * @param op The operation.
+     * @param syncOperation true if this is a synchronous call.
+     * @param qosProps The QoS properties of the consumer.
+     * @param listener The interaction listener, may be null.
+     * @return The transaction identifier.
+     * @throws MALInteractionException if the pattern is not supported.
+     */
+    public Long createTransaction(final MALOperation op,
+            final boolean syncOperation,
+            final Map qosProps,
+            final MALInteractionListener listener) throws MALInteractionException {
+        return createTransaction(op.getInteractionType().getOrdinal(), syncOperation, listener,
+                INTERACTION_TIMEOUT.getTimeout(qosProps, op));
+    }
 
-            if (null != handler) {
-                transMap.put(oTransId, handler);
-                INTERACTION_TIMEOUT.insertInQueue(handler);
+    private Long createTransaction(final int interactionType,
+            final boolean syncOperation,
+            final MALInteractionListener listener,
+            final long timeout) throws MALInteractionException {
+        final long oTransId = TransactionIdCounter.nextTransactionId();
 
-                if (syncOperation) {
-                    synchronized (syncOpResponseMap) {
-                        syncOpResponseMap.put(oTransId, responseHandler);
-                    }
-                }
+        BaseOperationHandler handler = null;
+        OperationResponseHolder responseHandler = new OperationResponseHolder(listener);
+
+        switch (interactionType) {
+            case InteractionType._SEND_INDEX:
+                // do nothing as no handler is required for SEND interaction
+                break;
+            case InteractionType._SUBMIT_INDEX:
+                handler = new SubmitOperationHandler(syncOperation, responseHandler);
+                break;
+            case InteractionType._REQUEST_INDEX:
+                handler = new RequestOperationHandler(syncOperation, responseHandler);
+                break;
+            case InteractionType._INVOKE_INDEX:
+                handler = new InvokeOperationHandler(syncOperation, responseHandler);
+                break;
+            case InteractionType._PROGRESS_INDEX:
+                handler = new ProgressOperationHandler(syncOperation, responseHandler);
+                break;
+            case InteractionType._PUBSUB_INDEX:
+                handler = new PubSubOperationHandler(syncOperation, responseHandler);
+                break;
+            default:
+                throw new MALInteractionException(
+                        new MALStandardError(
+                                MALHelper.INTERNAL_ERROR_NUMBER,
+                                new Union("Pattern not supported")
+                        )
+                );
+        }
+
+        if (null != handler) {
+            if (syncOperation) {
+                syncOpResponseMap.putIfAbsent(oTransId, responseHandler);
             }
 
-            return oTransId;
+            transMap.putIfAbsent(oTransId, handler);
+
+            final BaseOperationHandler timedHandler = handler;
+            handler.setTimeout(INTERACTION_TIMEOUT.schedule(timeout,
+                    () -> timeoutTransaction(oTransId, timedHandler, timeout)));
         }
+
+        return oTransId;
     }
 
     public Long createTransaction(final boolean syncOperation, final MALPublishInteractionListener listener) {
-        synchronized (transMap) {
-            final Long oTransId = TransactionIdCounter.nextTransactionId();
+        final long oTransId = TransactionIdCounter.nextTransactionId();
 
-            OperationResponseHolder responseHolder = new OperationResponseHolder(listener);
-            transMap.put(oTransId, new PubSubOperationHandler(syncOperation, responseHolder));
+        OperationResponseHolder responseHolder = new OperationResponseHolder(listener);
 
-            if (syncOperation) {
-                synchronized (syncOpResponseMap) {
-                    syncOpResponseMap.put(oTransId, responseHolder);
-                }
-            }
-
-            return oTransId;
+        if (syncOperation) {
+            syncOpResponseMap.putIfAbsent(oTransId, responseHolder);
         }
+
+        transMap.putIfAbsent(oTransId, new PubSubOperationHandler(syncOperation, responseHolder));
+
+        return oTransId;
     }
 
     public void continueTransaction(final int interactionType,
             final UOctet lastInteractionStage,
             final Long oTransId,
             final MALInteractionListener listener) throws MALException, MALInteractionException {
-        synchronized (transMap) {
-            if (transMap.containsKey(oTransId)) {
-                throw new MALException("Transaction Id already in use and cannot be continued");
-            }
+        if (null != transMap.get(oTransId)) {
+            throw new MALException("Transaction Id already in use and cannot be continued");
+        }
 
-            BaseOperationHandler handler = null;
-            OperationResponseHolder responseHolder = new OperationResponseHolder(listener);
-
-            switch (interactionType) {
-                case InteractionType._SUBMIT_INDEX:
-                    handler = new SubmitOperationHandler(responseHolder);
-                    break;
-                case InteractionType._REQUEST_INDEX:
-                    handler = new RequestOperationHandler(responseHolder);
-                    break;
-                case InteractionType._INVOKE_INDEX:
-                    handler = new InvokeOperationHandler(lastInteractionStage, responseHolder);
-                    break;
-                case InteractionType._PROGRESS_INDEX:
-                    handler = new ProgressOperationHandler(lastInteractionStage, responseHolder);
-                    break;
-                case InteractionType._PUBSUB_INDEX:
-                    handler = new PubSubOperationHandler(responseHolder);
-                    break;
-                default:
-                    throw new MALInteractionException(
-                            new MALStandardError(
-                                    MALHelper.INTERNAL_ERROR_NUMBER,
-                                    new Union("Pattern not supported")
-                            )
-                    );
-            }
+        BaseOperationHandler handler = null;
+        OperationResponseHolder responseHolder = new OperationResponseHolder(listener);
+
+        switch (interactionType) {
+            case InteractionType._SUBMIT_INDEX:
+                handler = new SubmitOperationHandler(responseHolder);
+                break;
+            case InteractionType._REQUEST_INDEX:
+                handler = new RequestOperationHandler(responseHolder);
+                break;
+            case InteractionType._INVOKE_INDEX:
+                handler = new InvokeOperationHandler(lastInteractionStage, responseHolder);
+                break;
+            case InteractionType._PROGRESS_INDEX:
+                handler = new ProgressOperationHandler(lastInteractionStage, responseHolder);
+                break;
+            case InteractionType._PUBSUB_INDEX:
+                handler = new PubSubOperationHandler(responseHolder);
+                break;
+            default:
+                throw new MALInteractionException(
+                        new MALStandardError(
+                                MALHelper.INTERNAL_ERROR_NUMBER,
+                                new Union("Pattern not supported")
+                        )
+                );
+        }
 
-            transMap.put(oTransId, handler);
+        if (null != transMap.putIfAbsent(oTransId, handler)) {
+            throw new MALException("Transaction Id already in use and cannot be continued");
         }
     }
 
     public MALMessage waitForResponse(final Long id) throws MALInteractionException, MALException {
-        OperationResponseHolder holder = null;
-
-        synchronized (syncOpResponseMap) {
-            if (syncOpResponseMap.containsKey(id)) {
-                holder = syncOpResponseMap.get(id);
-            } else {
-                MALContextFactoryImpl.LOGGER.log(Level.WARNING,
-                        "No key found in service maps to wait for response! {0}", id);
-            }
-        }
+        final OperationResponseHolder holder = syncOpResponseMap.get(id);
 
         if (holder != null) { // Wait until ready...
             holder.waitForResponseSignal();
 
             // delete entry from trans map
-            synchronized (syncOpResponseMap) {
-                MALContextFactoryImpl.LOGGER.log(Level.FINE,
-                        "Removing handler from sync service map: {0}", id);
-                syncOpResponseMap.remove(id);
-            }
+            MALContextFactoryImpl.LOGGER.log(Level.FINE,
+                    "Removing handler from sync service map: {0}", id);
+            syncOpResponseMap.remove(id);
 
-            synchronized (holder) {
-                return holder.getResult(); // must have value now
-            }
+            return holder.getResult(); // must have value now
         }
 
+        MALContextFactoryImpl.LOGGER.log(Level.WARNING,
+                "No key found in service maps to wait for response! {0}", id);
         return null;
     }
 
     public void handleStage(final MALMessage msg) throws MALInteractionException, MALException {
         final Long id = msg.getHeader().getTransactionId();
-        BaseOperationHandler handler = null;
-        MessageHandlerDetails dets = null;
-
-        synchronized (transMap) {
-            if (transMap.containsKey(id)) {
-                handler = transMap.get(id);
-            } else {
-                MALContextFactoryImpl.LOGGER.log(Level.WARNING,
-                        "The transaction handler could not be found for transactionId: {0}"
-                        + "\nMessage header: {1}\n"
-                        + "This error usually happens because the messages "
-                        + "are being received out-of-order in the MAL layer. "
-                        + "The problem is typically in the transport layer "
-                        + "and usually is related with threading.",
-                        new Object[]{id, msg.getHeader()}
-                );
-            }
+        final BaseOperationHandler handler = (null == id) ? null : transMap.get(id);
+
+        if (null == handler) {
+            MALContextFactoryImpl.LOGGER.log(Level.WARNING,
+                    "The transaction handler could not be found for transactionId: {0}"
+                    + "\nMessage header: {1}\n"
+                    + "This error usually happens because the messages "
+                    + "are being received out-of-order in the MAL layer. "
+                    + "The problem is typically in the transport layer "
+                    + "and usually is related with threading.",
+                    new Object[]{id, msg.getHeader()}
+            );
+            return;
+        }
 
-            if (null != handler) {
-                dets = handler.handleStage(msg);
+        // the stage transitions of a transaction are serialised on its handler
+        handler.lock();
+        try {
+            final MessageHandlerDetails dets = handler.handleStage(msg);
 
-                // delete entry from trans map
-                if (handler.finished()) {
-                    MALContextFactoryImpl.LOGGER.log(Level.FINE,
-                            "Removing handler from service maps: {0}", id);
-                    transMap.remove(id);
-                }
+            // delete entry from trans map
+            if (handler.finished()) {
+                MALContextFactoryImpl.LOGGER.log(Level.FINE,
+                        "Removing handler from service maps: {0}", id);
+                transMap.remove(id, handler);
+                handler.cancelTimeout();
             }
-        }
 
-        if (null != handler) {
-            synchronized (handler) {
-                handler.processStage(dets);
-            }
+            handler.processStage(dets);
+        } finally {
+            handler.unlock();
         }
     }
 
     public void handleError(final MALMessageHeader hdr, final MALStandardError err, final Map qosMap) {
         final Long id = hdr.getTransactionId();
-        BaseOperationHandler handler = null;
+        final BaseOperationHandler handler = (null == id) ? null : transMap.remove(id);
+
+        if (null == handler) {
+            MALContextFactoryImpl.LOGGER.log(Level.WARNING,
+                    "No key found in service maps to get listener! {0} {1}",
+                    new Object[]{id, hdr}
+            );
+            return;
+        }
 
-        synchronized (transMap) {
-            if (transMap.containsKey(id)) {
-                handler = transMap.get(id);
-            } else {
-                MALContextFactoryImpl.LOGGER.log(Level.WARNING,
-                        "No key found in service maps to get listener! {0} {1}",
-                        new Object[]{id, hdr}
-                );
-            }
+        // delete entry from trans map
+        MALContextFactoryImpl.LOGGER.log(Level.FINE,
+                "Removing handler from service maps: {0}", id);
+        handler.cancelTimeout();
 
-            if (null != handler) {
-                // delete entry from trans map
-                MALContextFactoryImpl.LOGGER.log(Level.FINE,
-                        "Removing handler from service maps: {0}", id);
-                transMap.remove(id);
-            }
+        handler.lock();
+        try {
+            handler.handleError(hdr, err, qosMap);
+        } finally {
+            handler.unlock();
         }
+    }
 
-        if (null != handler) {
-            synchronized (handler) {
-                handler.handleError(hdr, err, qosMap);
-            }
+    private void timeoutTransaction(final long id, final BaseOperationHandler handler, final long timeout) {
+        // completed in the meanwhile?
+        if (!transMap.remove(id, handler)) {
+            return;
+        }
+
+        MALContextFactoryImpl.LOGGER.log(Level.FINE,
+                "Removing timed out handler from service maps: {0}", id);
+
+        final String msg = "The interaction timeout in the MAL "
+                + "was triggered! The timeout is currently "
+                + "set to: " + timeout + " ms";
+
+        handler.lock();
+        try {
+            handler.handleError(null,
+                    new MALStandardError(MALHelper.DELIVERY_TIMEDOUT_ERROR_NUMBER, msg),
+                    null);
+        } finally {
+            handler.unlock();
         }
     }
 }
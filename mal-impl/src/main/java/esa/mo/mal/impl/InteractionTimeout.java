@@ -20,17 +20,30 @@
  */
 package esa.mo.mal.impl;
 
-import esa.mo.mal.impl.state.BaseOperationHandler;
-import java.util.AbstractMap.SimpleEntry;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.ccsds.moims.mo.mal.MALHelper;
-import org.ccsds.moims.mo.mal.MALStandardError;
+import org.ccsds.moims.mo.mal.MALOperation;
 
 /**
- * The InteractionTimeout class is responsible for maintaining a queue of
- * transactions and checking if they have timed out.
+ * The InteractionTimeout class is responsible for expiring the consumer
+ * interactions that did not complete in time.
+ *
+ * The pending timeouts are kept in a hierarchical timing wheel: four wheels of
+ * 256 slots, the first one with a resolution of one tick and each following
+ * one covering a full turn of the previous one. A timeout is linked into the
+ * slot of its deadline and unlinked again when it is cancelled, both in
+ * constant time, so only the interactions still in flight are held. A single
+ * thread advances the wheels while there is something pending and cascades
+ * the timeouts down as their deadline gets closer.
+ *
+ * The timeout of an interaction is taken from the QoS properties of the
+ * consumer, first for the operation and then for all the operations, and
+ * defaults to the value of the system property. A timeout of zero or less
+ * disables it.
  */
 public class InteractionTimeout {
 
@@ -38,21 +51,36 @@ public class InteractionTimeout {
     private final static String PROP_INTERACTION_TIMEOUT
             = "org.ccsds.moims.mo.mal.interaction.timeout";
 
+    // The resolution of the wheels in milliseconds
+    private final static long TICK_DURATION = 10;
+
+    private final static int WHEEL_BITS = 8;
+    private final static int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private final static int WHEEL_MASK = WHEEL_SIZE - 1;
+    private final static int WHEEL_LEVELS = 4;
+    private final static long MAX_TICKS = (1L << (WHEEL_BITS * WHEEL_LEVELS)) - 1;
+
     /**
-     * The queue that holds a set of entries with the time when interaction was
-     * started and the respective operation handler.
+     * The heads of the slot lists, per wheel.
      */
-    private final LinkedBlockingQueue<SimpleEntry<Long, BaseOperationHandler>> queue
-            = new LinkedBlockingQueue<>();
+    private final Timeout[][] wheels = new Timeout[WHEEL_LEVELS][WHEEL_SIZE];
+
+    private final long tickNanos = TimeUnit.MILLISECONDS.toNanos(TICK_DURATION);
+    private final long origin = System.nanoTime();
+
+    // The next tick to be processed
+    private long nextTick = 0;
+
+    // The number of timeouts held by the wheels
+    private int pending = 0;
+
+    private Thread thread = null;
 
     // Defines if this object has been initialized
     private boolean initialized = false;
 
-    // Defines if the MAL Interaction Timeout is enabled
-    private boolean enabled = false;
-
-    // The timeout in milliseconds
-    private long timeout = 0;
+    // The default timeout in milliseconds
+    private long defaultTimeout = 0;
 
     public InteractionTimeout() {
         // For testing purposes, one can use:
@@ -61,23 +89,13 @@ public class InteractionTimeout {
                 Level.FINE, "New InteractionTimeout()");
     }
 
-    private void initialize() {
+    private synchronized void initialize() {
         if (!initialized) {
             final String prop = System.getProperty(PROP_INTERACTION_TIMEOUT, null);
 
             if (prop != null) {
                 try {
-                    timeout = Long.valueOf(prop);
-                    // 
-                    if (timeout > 0) {
-                        enabled = true;
-                    }
-
-                    if (enabled) {
-                        Thread t1 = createTimeoutCheckingThread();
-                        t1.setName("MAL_Interaction_Timeout_Thread");
-                        t1.start();
-                    }
+                    defaultTimeout = Long.valueOf(prop);
                 } catch (NumberFormatException ex) {
                     Logger.getLogger(InteractionTimeout.class.getName()).log(
                             Level.SEVERE,
@@ -86,66 +104,250 @@ public class InteractionTimeout {
                             + PROP_INTERACTION_TIMEOUT, ex);
                 }
             }
+
+            initialized = true;
+        }
+    }
+
+    /**
+     * Returns the timeout to use for an interaction. The QoS property
+     * suffixed with the name of the operation takes precedence over the plain
+     * one, which takes precedence over the system property.
+     *
+     * @param qosProps The QoS properties of the consumer, may be null.
+     * @param op The operation, may be null.
+     * @return The timeout in milliseconds, zero or less if disabled.
+     */
+    public long getTimeout(final Map qosProps, final MALOperation op) {
+        initialize();
+
+        if (null != qosProps) {
+            Object value = null;
+
+            if ((null != op) && (null != op.getName())) {
+                value = qosProps.get(PROP_INTERACTION_TIMEOUT + "." + op.getName().getValue());
+            }
+
+            if (null == value) {
+                value = qosProps.get(PROP_INTERACTION_TIMEOUT);
+            }
+
+            if (null != value) {
+                try {
+                    if (value instanceof Number) {
+                        return ((Number) value).longValue();
+                    }
+
+                    return Long.parseLong(value.toString().trim());
+                } catch (NumberFormatException ex) {
+                    Logger.getLogger(InteractionTimeout.class.getName()).log(
+                            Level.WARNING,
+                            "The MAL timeout QoS property value must be a number, "
+                            + "using the default timeout instead: {0}", value);
+                }
+            }
         }
 
-        initialized = true;
+        return defaultTimeout;
     }
 
-    public synchronized void insertInQueue(BaseOperationHandler handler) {
-        if (!initialized) {
-            Logger.getLogger(InteractionTimeout.class.getName()).log(
-                    Level.FINE, "Initializing Interaction Timeout Thread...");
-            initialize();
+    /**
+     * Schedules a task to be run once the timeout has elapsed, unless it is
+     * cancelled before.
+     *
+     * @param timeout The timeout in milliseconds.
+     * @param task The task to run, from the timeout thread.
+     * @return The handle to cancel the timeout with, or null if the timeout is
+     * zero or less.
+     */
+    public Timeout schedule(final long timeout, final Runnable task) {
+        if (timeout <= 0) {
+            return null;
+        }
+
+        final Timeout entry = new Timeout(timeout, task);
+
+        synchronized (wheels) {
+            final long now = currentTick();
+
+            if (0 == pending) {
+                // nothing to catch up with, the wheels can jump to now
+                nextTick = now;
+            }
+
+            entry.deadline = now + (TimeUnit.MILLISECONDS.toNanos(timeout) + tickNanos - 1) / tickNanos;
+            add(entry);
+            pending++;
+
+            if (null == thread) {
+                thread = createTimeoutCheckingThread();
+                thread.setName("MAL_Interaction_Timeout_Thread");
+                thread.setDaemon(true);
+                thread.start();
+            } else if (1 == pending) {
+                wheels.notifyAll();
+            }
+        }
+
+        return entry;
+    }
+
+    /**
+     * Returns the number of timeouts not yet expired or cancelled.
+     *
+     * @return The number of pending timeouts.
+     */
+    public int getPendingCount() {
+        synchronized (wheels) {
+            return pending;
+        }
+    }
+
+    private long currentTick() {
+        return (System.nanoTime() - origin) / tickNanos;
+    }
+
+    private void add(final Timeout entry) {
+        long delta = entry.deadline - nextTick;
+        int level = 0;
+
+        if (delta < 0) {
+            // already due, expire it with the next tick
+            entry.deadline = nextTick;
+        } else {
+            if (delta > MAX_TICKS) {
+                delta = MAX_TICKS;
+                entry.deadline = nextTick + MAX_TICKS;
+            }
+
+            while ((level < WHEEL_LEVELS - 1) && (delta >= (1L << (WHEEL_BITS * (level + 1))))) {
+                level++;
+            }
+        }
+
+        final int slot = (int) ((entry.deadline >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+        entry.level = level;
+        entry.slot = slot;
+        entry.prev = null;
+        entry.next = wheels[level][slot];
+
+        if (null != entry.next) {
+            entry.next.prev = entry;
+        }
+
+        wheels[level][slot] = entry;
+    }
+
+    private boolean remove(final Timeout entry) {
+        synchronized (wheels) {
+            if (entry.level < 0) {
+                // already expired or cancelled
+                return false;
+            }
+
+            if (null == entry.prev) {
+                wheels[entry.level][entry.slot] = entry.next;
+            } else {
+                entry.prev.next = entry.next;
+            }
+
+            if (null != entry.next) {
+                entry.next.prev = entry.prev;
+            }
+
+            entry.level = -1;
+            entry.prev = null;
+            entry.next = null;
+            pending--;
+            return true;
         }
+    }
+
+    private Timeout detach(final int level, final int slot) {
+        final Timeout head = wheels[level][slot];
+        wheels[level][slot] = null;
+        return head;
+    }
+
+    /**
+     * Processes the next tick, must be called with the wheels locked.
+     *
+     * @param expired The list the expired timeouts are added to.
+     */
+    private void tick(final List<Timeout> expired) {
+        final int slot = (int) (nextTick & WHEEL_MASK);
+
+        if (0 == slot) {
+            // a full turn of the first wheel, cascade the next slots down
+            for (int level = 1; level < WHEEL_LEVELS; level++) {
+                final int index = (int) ((nextTick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+                Timeout entry = detach(level, index);
+
+                while (null != entry) {
+                    final Timeout next = entry.next;
+                    add(entry);
+                    entry = next;
+                }
+
+                if (0 != index) {
+                    break;
+                }
+            }
+        }
+
+        Timeout entry = detach(0, slot);
 
-        if (enabled) {
-            queue.add(new SimpleEntry(System.currentTimeMillis(), handler));
+        while (null != entry) {
+            final Timeout next = entry.next;
+            entry.level = -1;
+            entry.prev = null;
+            entry.next = null;
+            pending--;
+            expired.add(entry);
+            entry = next;
         }
+
+        nextTick++;
     }
 
     private Thread createTimeoutCheckingThread() {
         return new Thread(() -> {
+            final List<Timeout> expired = new ArrayList<>();
+
             while (true) {
                 try {
-                    SimpleEntry<Long, BaseOperationHandler> entry = queue.take();
-                    long timeoutAt = entry.getKey() + timeout;
-                    long sleepFor = timeoutAt - System.currentTimeMillis();
-                    
-                    // If the timeout was not reached yet
-                    // then we sleep until we reach it
-                    if (sleepFor > 0) {
-                        try {
-                            Thread.sleep(sleepFor);
-                        } catch (InterruptedException ex) {
-                            Logger.getLogger(InteractionTimeout.class.getName()).log(
-                                    Level.SEVERE, "Something went wrong...", ex);
+                    synchronized (wheels) {
+                        while (0 == pending) {
+                            wheels.wait();
+                        }
+
+                        final long now = currentTick();
+
+                        while ((nextTick <= now) && (0 < pending)) {
+                            tick(expired);
                         }
                     }
-                    
-                    BaseOperationHandler handler = entry.getValue();
-                    
-                    // Is the interaction still pending?
-                    if (!handler.finished()) {
-                        // Then we must trigger an Exception!
+
+                    for (Timeout entry : expired) {
+                        // Then we must trigger the timeout!
                         Logger.getLogger(InteractionTimeout.class.getName()).log(
                                 Level.FINE, "Timeout triggered!");
-                        
-                        String msg = "The interaction timeout in the MAL "
-                                + "was triggered! The timeout is currently "
-                                + "set to: " + timeout + " ms";
-                        
-                            try {
-                                handler.handleError(
-                                        null,
-                                        new MALStandardError(
-                                                MALHelper.DELIVERY_TIMEDOUT_ERROR_NUMBER,
-                                                msg),
-                                        null);
-                            } catch (Exception ex) {
-                                // Do not allow to kill the thread
-                                Logger.getLogger(InteractionTimeout.class.getName()).log(
+
+                        try {
+                            entry.task.run();
+                        } catch (Exception ex) {
+                            // Do not allow to kill the thread
+                            Logger.getLogger(InteractionTimeout.class.getName()).log(
                                     Level.SEVERE, "MAL error handler threw an exception!", ex);
-                            }
+                        }
+                    }
+
+                    expired.clear();
+
+                    final long sleepFor = origin + nextTick * tickNanos - System.nanoTime();
+
+                    if (sleepFor > 0) {
+                        TimeUnit.NANOSECONDS.sleep(sleepFor);
                     }
                 } catch (InterruptedException ex) {
                     Logger.getLogger(InteractionTimeout.class.getName()).log(
@@ -155,4 +357,41 @@ public class InteractionTimeout {
         });
     }
 
+    /**
+     * A timeout held by the wheels, it can be cancelled until it expires.
+     */
+    public final class Timeout {
+
+        private final long timeout;
+        private final Runnable task;
+        private long deadline;
+        private int level = -1;
+        private int slot;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(final long timeout, final Runnable task) {
+            this.timeout = timeout;
+            this.task = task;
+        }
+
+        /**
+         * Returns the timeout this entry was scheduled with.
+         *
+         * @return The timeout in milliseconds.
+         */
+        public long getTimeout() {
+            return timeout;
+        }
+
+        /**
+         * Cancels the timeout, its task will not run.
+         *
+         * @return True if it was cancelled, false if it had already expired or
+         * was already cancelled.
+         */
+        public boolean cancel() {
+            return remove(this);
+        }
+    }
 }
@@ -252,7 +252,7 @@ public class MessageSend {
             final Object... msgBody)
             throws MALInteractionException, MALException {
         if (null == transId) {
-            transId = icmap.createTransaction(op.getInteractionType().getOrdinal(), true, null);
+            transId = icmap.createTransaction(op, true, details.qosProps, null);
         }
 
         return initiateOnewayInteraction(details, createMessage(details, op, transId, stage, msgBody));
@@ -278,7 +278,7 @@ public class MessageSend {
             final MALEncodedBody msgBody)
             throws MALInteractionException, MALException {
         if (null == transId) {
-            transId = icmap.createTransaction(op.getInteractionType().getOrdinal(), true, null);
+            transId = icmap.createTransaction(op, true, details.qosProps, null);
         }
 
         return initiateOnewayInteraction(details, createMessage(details, op, transId, stage, msgBody));
@@ -319,7 +319,7 @@ public class MessageSend {
             final MALInteractionListener listener,
             final Object... msgBody)
             throws MALInteractionException, MALException {
-        final Long transId = icmap.createTransaction(op.getInteractionType().getOrdinal(), true, listener);
+        final Long transId = icmap.createTransaction(op, true, details.qosProps, listener);
         return initiateSynchronousInteraction(transId,
                 details,
                 createMessage(details, op, transId, syncStage, msgBody));
@@ -346,7 +346,7 @@ public class MessageSend {
             final MALInteractionListener listener,
             final MALEncodedBody msgBody)
             throws MALInteractionException, MALException {
-        final Long transId = icmap.createTransaction(op.getInteractionType().getOrdinal(), true, listener);
+        final Long transId = icmap.createTransaction(op, true, details.qosProps, listener);
         return initiateSynchronousInteraction(transId,
                 details,
                 createMessage(details, op, transId, syncStage, msgBody));
@@ -372,7 +372,7 @@ public class MessageSend {
             final MALInteractionListener listener,
             final Object... msgBody)
             throws MALInteractionException, MALException {
-        final Long transId = icmap.createTransaction(op.getInteractionType().getOrdinal(), false, listener);
+        final Long transId = icmap.createTransaction(op, false, details.qosProps, listener);
 
         return initiateAsynchronousInteraction(details, createMessage(details, op, transId, initialStage, msgBody));
     }
@@ -397,7 +397,7 @@ public class MessageSend {
             final MALInteractionListener listener,
             final MALEncodedBody msgBody)
             throws MALInteractionException, MALException {
-        final Long transId = icmap.createTransaction(op.getInteractionType().getOrdinal(), false, listener);
+        final Long transId = icmap.createTransaction(op, false, details.qosProps, listener);
 
         return initiateAsynchronousInteraction(details, createMessage(details, op, transId, initialStage, msgBody));
     }
@@ -48,7 +48,7 @@ public class TransactionIdCounter {
     private static long partAB = recalculatePartAB(); // Time with Randomness
     private static final AtomicLong transactionCounter = new AtomicLong(0);
 
-    public static synchronized Long nextTransactionId() {
+    public static synchronized long nextTransactionId() {
         long counter = transactionCounter.incrementAndGet();
 
         if (counter > MAX_OFFSET) {
@@ -0,0 +1,257 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ * 
+ * See the License for the specific language governing permissions and
+ * limitations under the License. 
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl;
+
+/**
+ * A table of the consumer transactions keyed by their primitive transaction
+ * identifier, so the identifiers are not boxed.
+ *
+ * The table is split in a fixed number of segments, each one an open
+ * addressing hash table with linear probing guarded by its own monitor. A
+ * transaction only locks the segment of its identifier, and only for the time
+ * of the lookup, so the consumer threads creating transactions and the
+ * transport threads completing them rarely meet on the same lock.
+ *
+ * @param <V> The type of the values, null values are not supported.
+ */
+public final class TransactionTable<V> {
+
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Segment<V>[] segments;
+
+    @SuppressWarnings("unchecked")
+    public TransactionTable() {
+        segments = new Segment[1 << SEGMENT_BITS];
+
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment<>();
+        }
+    }
+
+    /**
+     * Returns the value of a transaction.
+     *
+     * @param id The transaction identifier.
+     * @return The value, or null if there is none.
+     */
+    public V get(final long id) {
+        final long hash = hash(id);
+        return segmentFor(hash).get(id, hash);
+    }
+
+    /**
+     * Adds the value of a transaction if the transaction is not already in the
+     * table.
+     *
+     * @param id The transaction identifier.
+     * @param value The value.
+     * @return The value already in the table, or null if the value was added.
+     */
+    public V putIfAbsent(final long id, final V value) {
+        if (null == value) {
+            throw new IllegalArgumentException("The value must not be null");
+        }
+
+        final long hash = hash(id);
+        return segmentFor(hash).putIfAbsent(id, hash, value);
+    }
+
+    /**
+     * Removes a transaction.
+     *
+     * @param id The transaction identifier.
+     * @return The removed value, or null if there was none.
+     */
+    public V remove(final long id) {
+        final long hash = hash(id);
+        return segmentFor(hash).remove(id, hash, null);
+    }
+
+    /**
+     * Removes a transaction only if it still holds the given value.
+     *
+     * @param id The transaction identifier.
+     * @param value The expected value.
+     * @return True if the transaction was removed.
+     */
+    public boolean remove(final long id, final V value) {
+        final long hash = hash(id);
+        return null != segmentFor(hash).remove(id, hash, value);
+    }
+
+    /**
+     * Returns the number of transactions in the table.
+     *
+     * @return The number of transactions.
+     */
+    public int size() {
+        int size = 0;
+
+        for (Segment<V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+
+        return size;
+    }
+
+    private Segment<V> segmentFor(final long hash) {
+        return segments[(int) hash & SEGMENT_MASK];
+    }
+
+    /**
+     * Spreads the bits of the identifier, its low bits are a counter and its
+     * high bits the time it was created at.
+     */
+    private static long hash(long id) {
+        id ^= id >>> 33;
+        id *= 0xff51afd7ed558ccdL;
+        id ^= id >>> 33;
+        id *= 0xc4ceb9fe1a85ec53L;
+        id ^= id >>> 33;
+        return id;
+    }
+
+    /**
+     * A segment of the table. The slots are picked with the bits of the hash
+     * above the ones used to pick the segment, and a slot is empty when its
+     * value is null.
+     */
+    private static final class Segment<V> {
+
+        private long[] keys = new long[INITIAL_CAPACITY];
+        private Object[] values = new Object[INITIAL_CAPACITY];
+        private int size = 0;
+
+        @SuppressWarnings("unchecked")
+        synchronized V get(final long id, final long hash) {
+            final int mask = keys.length - 1;
+
+            for (int i = slot(hash, mask); null != values[i]; i = (i + 1) & mask) {
+                if (keys[i] == id) {
+                    return (V) values[i];
+                }
+            }
+
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized V putIfAbsent(final long id, final long hash, final V value) {
+            final int mask = keys.length - 1;
+            int i = slot(hash, mask);
+
+            for (; null != values[i]; i = (i + 1) & mask) {
+                if (keys[i] == id) {
+                    return (V) values[i];
+                }
+            }
+
+            keys[i] = id;
+            values[i] = value;
+            size++;
+
+            // keep the load factor at most one half
+            if (size * 2 > keys.length) {
+                resize(keys.length * 2);
+            }
+
+            return null;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized V remove(final long id, final long hash, final V expected) {
+            int mask = keys.length - 1;
+            int i = slot(hash, mask);
+
+            while (true) {
+                if (null == values[i]) {
+                    return null;
+                }
+
+                if (keys[i] == id) {
+                    break;
+                }
+
+                i = (i + 1) & mask;
+            }
+
+            final V value = (V) values[i];
+
+            if ((null != expected) && (expected != value)) {
+                return null;
+            }
+
+            // shift back the following entries of the probe sequence
+            int gap = i;
+
+            for (int j = (gap + 1) & mask; null != values[j]; j = (j + 1) & mask) {
+                final int home = slot(hash(keys[j]), mask);
+
+                if (((j - home) & mask) >= ((j - gap) & mask)) {
+                    keys[gap] = keys[j];
+                    values[gap] = values[j];
+                    gap = j;
+                }
+            }
+
+            values[gap] = null;
+            size--;
+
+            // give back the memory of a burst of transactions
+            if ((keys.length > INITIAL_CAPACITY) && (size * 8 < keys.length)) {
+                resize(keys.length / 2);
+            }
+
+            return value;
+        }
+
+        private void resize(final int capacity) {
+            final long[] oldKeys = keys;
+            final Object[] oldValues = values;
+            final int mask = capacity - 1;
+
+            keys = new long[capacity];
+            values = new Object[capacity];
+
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (null != oldValues[j]) {
+                    int i = slot(hash(oldKeys[j]), mask);
+
+                    while (null != values[i]) {
+                        i = (i + 1) & mask;
+                    }
+
+                    keys[i] = oldKeys[j];
+                    values[i] = oldValues[j];
+                }
+            }
+        }
+
+        private static int slot(final long hash, final int mask) {
+            return (int) (hash >>> SEGMENT_BITS) & mask;
+        }
+    }
+}
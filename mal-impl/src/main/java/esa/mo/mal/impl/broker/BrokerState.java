@@ -0,0 +1,115 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker;
+
+import esa.mo.mal.impl.StringPair;
+import esa.mo.mal.impl.pubsub.PublisherSource;
+import esa.mo.mal.impl.pubsub.SubscriptionSource;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Holds the publishers and consumers of a single broker key. The state is
+ * guarded by its own read/write lock: publishes take the read lock, so they
+ * match in parallel, while register/deregister take the write lock.
+ */
+final class BrokerState {
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<StringPair, PublisherSource> providers = new HashMap<>();
+    private final Map<String, SubscriptionSource> consumers = new HashMap<>();
+    private final SubscriptionIndex index = new SubscriptionIndex();
+    private boolean removed = false;
+
+    /**
+     * Returns the lock to be held while reading the state.
+     *
+     * @return The read lock.
+     */
+    Lock readLock() {
+        return lock.readLock();
+    }
+
+    /**
+     * Returns the lock to be held while changing the state.
+     *
+     * @return The write lock.
+     */
+    Lock writeLock() {
+        return lock.writeLock();
+    }
+
+    /**
+     * Returns the registered providers.
+     *
+     * @return The providers.
+     */
+    Map<StringPair, PublisherSource> getProviders() {
+        return providers;
+    }
+
+    /**
+     * Returns the registered consumers keyed on their URI.
+     *
+     * @return The consumers.
+     */
+    Map<String, SubscriptionSource> getConsumers() {
+        return consumers;
+    }
+
+    /**
+     * Returns true if the state has no providers and no consumers left.
+     *
+     * @return True if the state is empty.
+     */
+    boolean isEmpty() {
+        return providers.isEmpty() && consumers.isEmpty();
+    }
+
+    /**
+     * Returns true if the state has been removed from the broker, a thread
+     * that locked it after that must look the broker key up again. Only read
+     * with the lock held.
+     *
+     * @return True if the state is removed.
+     */
+    boolean isRemoved() {
+        return removed;
+    }
+
+    /**
+     * Marks the state as removed from the broker, with the write lock held.
+     */
+    void setRemoved() {
+        removed = true;
+    }
+
+    /**
+     * Returns the index of the consumer subscriptions.
+     *
+     * @return The subscription index.
+     */
+    SubscriptionIndex getIndex() {
+        return index;
+    }
+}
@@ -25,7 +25,7 @@ import esa.mo.mal.impl.ServiceComponentImpl;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.logging.Level;
 import org.ccsds.moims.mo.mal.*;
 import org.ccsds.moims.mo.mal.broker.MALBrokerBinding;
@@ -40,7 +40,7 @@ import org.ccsds.moims.mo.mal.transport.MALTransmitErrorListener;
 public class MALBrokerBindingImpl extends ServiceComponentImpl implements MALBrokerBinding {
 
     private final MALBrokerImpl brokerImpl;
-    private final Set<String> subscriberSet = new TreeSet<>();
+    private final Set<String> subscriberSet = new ConcurrentSkipListSet<>();
     private MALTransmitErrorListener listener;
 
     MALBrokerBindingImpl(final MALBrokerImpl parent,
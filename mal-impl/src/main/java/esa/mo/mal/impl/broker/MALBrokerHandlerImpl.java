@@ -26,10 +26,12 @@ import esa.mo.mal.impl.pubsub.SubscriptionSource;
 import esa.mo.mal.impl.pubsub.PublisherSource;
 import esa.mo.mal.impl.StringPair;
 import esa.mo.mal.impl.util.MALClose;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import org.ccsds.moims.mo.mal.MALException;
 import org.ccsds.moims.mo.mal.MALHelper;
@@ -47,17 +49,21 @@ import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
 import org.ccsds.moims.mo.mal.transport.MALPublishBody;
 import org.ccsds.moims.mo.mal.transport.MALPublishRegisterBody;
 import org.ccsds.moims.mo.mal.transport.MALRegisterBody;
-import org.ccsds.moims.mo.mal.transport.MALTransmitErrorException;
 
 /**
  * Base implementation of the MALBrokerHandler class that should be extended by
  * real broker implementations.
+ *
+ * The state of each broker key is guarded by its own read/write lock, so
+ * publishes on different broker keys never contend and publishes on the same
+ * broker key are matched in parallel. Only register and deregister requests
+ * take exclusive access to the state of their broker key.
  */
 public abstract class MALBrokerHandlerImpl extends MALClose implements MALBrokerHandler {
 
-    private final List<MALBrokerBindingImpl> brokers = new LinkedList<>();
-    private final Map<BrokerKey, Map<StringPair, PublisherSource>> providers = new HashMap();
-    private final Map<BrokerKey, Map<String, SubscriptionSource>> consumers = new HashMap();
+    private final List<MALBrokerBindingImpl> brokers = new CopyOnWriteArrayList<>();
+    private final ConcurrentMap<BrokerKey, BrokerState> states = new ConcurrentHashMap<>();
+    private final NotifyDispatcher dispatcher = NotifyDispatcher.create(this);
 
     /**
      * Constructor.
@@ -79,32 +85,44 @@ public abstract class MALBrokerHandlerImpl extends MALClose implements MALBroker
     }
 
     @Override
-    public synchronized void handleRegister(final MALInteraction interaction,
+    public void handleRegister(final MALInteraction interaction,
             final MALRegisterBody body) throws MALInteractionException, MALException {
         final MALMessageHeader hdr = interaction.getMessageHeader();
         final Subscription subscription = body.getSubscription();
         final BrokerKey key = new BrokerKey(hdr);
-
-        report(key);
-        if ((hdr != null) && (subscription != null)) {
-            SubscriptionSource sub = this.getConsumerEntry(key, hdr, true);
-            sub.addSubscription(hdr, subscription);
+        final BrokerState state = this.lockState(key);
+
+        try {
+            report(state);
+            if ((hdr != null) && (subscription != null)) {
+                SubscriptionSource sub = this.getConsumerEntry(state, hdr, true);
+                sub.addSubscription(hdr, subscription,
+                        dispatcher.isConflationRequested(interaction, subscription));
+                state.getIndex().update(sub);
+            }
+            report(state);
+        } finally {
+            unlockState(key, state);
         }
-        report(key);
     }
 
     @Override
-    public synchronized void handlePublishRegister(final MALInteraction interaction,
+    public void handlePublishRegister(final MALInteraction interaction,
             final MALPublishRegisterBody body) throws MALInteractionException, MALException {
         final MALMessageHeader hdr = interaction.getMessageHeader();
         final BrokerKey key = new BrokerKey(hdr);
+        final BrokerState state = this.lockState(key);
 
-        report(key);
-        if ((hdr != null)) {
-            PublisherSource s = this.getPublisherSource(key, hdr, true);
-            s.setSubscriptionKeyNames(body.getSubscriptionKeyNames());
+        try {
+            report(state);
+            if ((hdr != null)) {
+                PublisherSource s = this.getPublisherSource(state, hdr, true);
+                s.setSubscriptionKeyNames(body.getSubscriptionKeyNames());
+            }
+            report(state);
+        } finally {
+            unlockState(key, state);
         }
-        report(key);
     }
 
     @Override
@@ -113,11 +131,9 @@ public abstract class MALBrokerHandlerImpl extends MALClose implements MALBroker
         final MALMessageHeader hdr = interaction.getMessageHeader();
         final BrokerKey brokerKey = new BrokerKey(hdr);
         // Generate the Notify Messages (the matching is done inside it!)
-        PublisherSource s = this.getPublisherSource(brokerKey, hdr, false);
-        IdentifierList subKeys = s.getSubscriptionKeyNames();
-        final List<NotifyMessageSet> notifyList = generateNotifyMessages(brokerKey, hdr, body, subKeys);
+        final List<NotifyMessageSet> notifyList = generateNotifyMessages(brokerKey, hdr, body);
 
-        // Dispatch the Notify messages
+        // Queue the Notify messages, they are sent by the dispatcher threads
         for (NotifyMessageSet notifyMessageSet : notifyList) {
             String uriTo = notifyMessageSet.getDetails().uriTo.getValue();
             MALBrokerBinding binding = this.getBroker(uriTo);
@@ -130,68 +146,51 @@ public abstract class MALBrokerHandlerImpl extends MALClose implements MALBroker
             }
 
             for (NotifyMessageBody msgBody : notifyMessageSet.getBodies()) {
-                try {
-                    binding.sendNotify(msgBody.getArea(),
-                            msgBody.getService(),
-                            msgBody.getOperation(),
-                            msgBody.getVersion(),
-                            notifyMessageSet.getDetails().uriTo,
-                            notifyMessageSet.getDetails().transactionId,
-                            msgBody.getDomain(),
-                            msgBody.getNetworkZone(),
-                            notifyMessageSet.getDetails().sessionType,
-                            notifyMessageSet.getDetails().sessionName,
-                            notifyMessageSet.getDetails().qosLevel,
-                            notifyMessageSet.getDetails().qosProps,
-                            notifyMessageSet.getDetails().priority,
-                            msgBody.getSubscriptionId(),
-                            msgBody.getUpdateHeaderList(),
-                            msgBody.getUpdateList());
-                } catch (MALTransmitErrorException ex) {
-                    MALBrokerImpl.LOGGER.log(Level.WARNING,
-                            "Unable to send NOTIFY message:\n{0}", msgBody.toString());
-
-                    handleConsumerCommunicationError(brokerKey, uriTo);
-                }
+                dispatcher.enqueue(brokerKey, binding, notifyMessageSet.getDetails(), msgBody);
             }
         }
     }
 
     @Override
-    public synchronized void handleDeregister(final MALInteraction interaction,
+    public void handleDeregister(final MALInteraction interaction,
             final MALDeregisterBody body) throws MALInteractionException, MALException {
         final MALMessageHeader hdr = interaction.getMessageHeader();
         final IdentifierList subIds = body.getIdentifierList();
         final BrokerKey key = new BrokerKey(hdr);
+        final BrokerState state = this.lockState(key);
 
-        report(key);
+        try {
+            report(state);
 
-        if ((hdr != null) && (subIds != null) && !subIds.isEmpty()) {
-            internalDeregisterSubscriptions(key, this.getConsumerEntry(key, hdr, false), subIds);
-        }
+            if ((hdr != null) && (subIds != null) && !subIds.isEmpty()) {
+                internalDeregisterSubscriptions(state, this.getConsumerEntry(state, hdr, false), subIds);
+            }
 
-        report(key);
+            report(state);
+        } finally {
+            unlockState(key, state);
+        }
     }
 
     @Override
-    public synchronized void handlePublishDeregister(final MALInteraction interaction)
+    public void handlePublishDeregister(final MALInteraction interaction)
             throws MALInteractionException, MALException {
         final MALMessageHeader hdr = interaction.getMessageHeader();
         final BrokerKey key = new BrokerKey(hdr);
+        final BrokerState state = this.lockState(key);
 
-        report(key);
-        final Map<StringPair, PublisherSource> subs = this.getProviderSubscriptions(key);
-        String providerKey = createProviderKey(hdr);
-        StringPair pair = new StringPair(hdr.getURIFrom().getValue(), providerKey);
-
-        if (subs.remove(pair) != null) {
-            MALBrokerImpl.LOGGER.log(Level.FINE, "Removing publisher! Details: {0}", hdr);
-        }
+        try {
+            report(state);
+            String providerKey = createProviderKey(hdr);
+            StringPair pair = new StringPair(hdr.getURIFrom().getValue(), providerKey);
 
-        if (subs.isEmpty()) {
-            providers.remove(key);
+            if (state.getProviders().remove(pair) != null) {
+                MALBrokerImpl.LOGGER.log(Level.FINE, "Removing publisher! Details: {0}", hdr);
+            }
+            report(state);
+        } finally {
+            unlockState(key, state);
         }
-        report(key);
     }
 
     /**
@@ -201,8 +200,17 @@ public abstract class MALBrokerHandlerImpl extends MALClose implements MALBroker
      * @return The required QoS level.
      */
     public QoSLevel getProviderQoSLevel(final MALMessageHeader hdr) {
-        final BrokerKey key = new BrokerKey(hdr);
-        final PublisherSource details = this.getPublisherSource(key, hdr, false);
+        final BrokerState state = states.get(new BrokerKey(hdr));
+        PublisherSource details = null;
+
+        if (state != null) {
+            state.readLock().lock();
+            try {
+                details = this.getPublisherSource(state, hdr, false);
+            } finally {
+                state.readLock().unlock();
+            }
+        }
 
         if (details != null) {
             return details.getQosLevel();
@@ -211,7 +219,38 @@ public abstract class MALBrokerHandlerImpl extends MALClose implements MALBroker
         return QoSLevel.BESTEFFORT;
     }
 
-    private synchronized MALBrokerBinding getBroker(String uriTo) {
+    /**
+     * Returns the dispatcher that sends the NOTIFY messages, it holds the
+     * statistics of the consumer queues.
+     *
+     * @return The NOTIFY dispatcher.
+     */
+    public NotifyDispatcher getNotifyDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Returns the number of broker keys that have providers or consumers.
+     *
+     * @return The broker key count.
+     */
+    int getBrokerKeyCount() {
+        return states.size();
+    }
+
+    @Override
+    protected void thisObjectClose() throws MALException {
+        super.thisObjectClose();
+        dispatcher.close();
+    }
+
+    /**
+     * Returns the broker binding that knows the supplied subscriber.
+     *
+     * @param uriTo The URI of the subscriber.
+     * @return The broker binding or null if no binding knows the subscriber.
+     */
+    protected MALBrokerBinding getBroker(String uriTo) {
         for (MALBrokerBindingImpl binding : brokers) {
             if (binding.hasSubscriber(uriTo)) {
                 return binding;
@@ -221,57 +260,64 @@ public abstract class MALBrokerHandlerImpl extends MALClose implements MALBroker
         return null;
     }
 
-    private synchronized List<NotifyMessageSet> generateNotifyMessages(
-            final BrokerKey brokerKey, final MALMessageHeader hdr,
-            final MALPublishBody publishBody, IdentifierList keyNames)
+    private List<NotifyMessageSet> generateNotifyMessages(final BrokerKey brokerKey,
+            final MALMessageHeader hdr, final MALPublishBody publishBody)
             throws MALInteractionException, MALException {
-        MALBrokerImpl.LOGGER.fine("Checking if Provider is registered...");
-        PublisherSource details = this.getPublisherSource(brokerKey, hdr, false);
-
-        if (details == null) {
-            String msg = "Provider not registered! Please register the provider"
-                    + " (with PUBLISH_REGISTER) before publishing!";
-            MALBrokerImpl.LOGGER.warning(msg);
-            throw new MALInteractionException(new MALStandardError(
-                    MALHelper.INCORRECT_STATE_ERROR_NUMBER, msg));
+        // a removed state is empty, so reading it is the same as reading no state
+        final BrokerState state = states.get(brokerKey);
+
+        if (state == null) {
+            throw providerNotRegistered();
         }
 
-        final UpdateHeaderList hl = publishBody.getUpdateHeaderList();
-        details.checkPublish(hdr, hl);
+        state.readLock().lock();
+        try {
+            MALBrokerImpl.LOGGER.fine("Checking if Provider is registered...");
+            PublisherSource details = this.getPublisherSource(state, hdr, false);
 
-        List<NotifyMessageSet> lst = new LinkedList<>();
+            if (details == null) {
+                throw providerNotRegistered();
+            }
 
-        if (hl != null) {
-            Map<String, SubscriptionSource> rv = this.getConsumerSubscriptions(brokerKey);
+            final UpdateHeaderList hl = publishBody.getUpdateHeaderList();
+            details.checkPublish(hdr, hl);
 
-            // Iterate through all the consumer subscriptions and generate
-            // the notify list if it matches the published updates
-            for (SubscriptionSource subSource : rv.values()) {
+            if (hl != null) {
+                // Only the consumer subscriptions that can match the published
+                // updates are checked, the index keeps track of them
                 try {
-                    NotifyMessageSet nms = subSource.generateNotifyList(hdr, hl, publishBody, keyNames);
-                    if (nms != null) {
-                        lst.add(nms);
-                    }
+                    return state.getIndex().generateNotifyMessages(hdr, hl,
+                            publishBody, details.getSubscriptionKeyNames());
                 } catch (MALException ex) {
                     MALBrokerImpl.LOGGER.warning(ex.getMessage());
                     throw new MALInteractionException(new MALStandardError(
                             MALHelper.UNKNOWN_ERROR_NUMBER, null));
                 }
             }
+
+            return new LinkedList<>();
+        } finally {
+            state.readLock().unlock();
         }
+    }
 
-        return lst;
+    private static MALInteractionException providerNotRegistered() {
+        String msg = "Provider not registered! Please register the provider"
+                + " (with PUBLISH_REGISTER) before publishing!";
+        MALBrokerImpl.LOGGER.warning(msg);
+        return new MALInteractionException(new MALStandardError(
+                MALHelper.INCORRECT_STATE_ERROR_NUMBER, msg));
     }
 
-    private synchronized void report(final BrokerKey key) {
+    private static void report(final BrokerState state) {
         if (MALBrokerImpl.LOGGER.isLoggable(Level.FINE)) {
             MALBrokerImpl.LOGGER.fine("START REPORT");
 
-            for (PublisherSource publisherSource : this.getProviderSubscriptions(key).values()) {
+            for (PublisherSource publisherSource : state.getProviders().values()) {
                 publisherSource.report();
             }
 
-            for (SubscriptionSource subscriptionSource : this.getConsumerSubscriptions(key).values()) {
+            for (SubscriptionSource subscriptionSource : state.getConsumers().values()) {
                 subscriptionSource.report();
             }
 
@@ -288,20 +334,58 @@ public abstract class MALBrokerHandlerImpl extends MALClose implements MALBroker
         return buf.toString();
     }
 
-    private Map<String, SubscriptionSource> getConsumerSubscriptions(final BrokerKey key) {
-        Map<String, SubscriptionSource> subs = consumers.get(key);
+    /**
+     * Returns the state of the broker key with its write lock held, it is
+     * created if needed. A state that was removed while waiting for the lock
+     * is looked up again.
+     *
+     * @param key The broker key.
+     * @return The locked state.
+     */
+    private BrokerState lockState(final BrokerKey key) {
+        while (true) {
+            BrokerState state = states.get(key);
 
-        if (subs == null) {
-            subs = new HashMap();
-            consumers.put(key, subs);
+            if (state == null) {
+                state = new BrokerState();
+                BrokerState previous = states.putIfAbsent(key, state);
+
+                if (previous != null) {
+                    state = previous;
+                }
+            }
+
+            state.writeLock().lock();
+
+            if (!state.isRemoved()) {
+                return state;
+            }
+
+            state.writeLock().unlock();
         }
+    }
 
-        return subs;
+    /**
+     * Releases the write lock of the state of the broker key, the state is
+     * removed first if it has no providers and no consumers left.
+     *
+     * @param key The broker key.
+     * @param state The locked state.
+     */
+    private void unlockState(final BrokerKey key, final BrokerState state) {
+        try {
+            if (state.isEmpty()) {
+                state.setRemoved();
+                states.remove(key, state);
+            }
+        } finally {
+            state.writeLock().unlock();
+        }
     }
 
-    private SubscriptionSource getConsumerEntry(final BrokerKey key,
+    private SubscriptionSource getConsumerEntry(final BrokerState state,
             final MALMessageHeader hdr, final boolean create) {
-        final Map<String, SubscriptionSource> subs = this.getConsumerSubscriptions(key);
+        final Map<String, SubscriptionSource> subs = state.getConsumers();
         final String signature = hdr.getURIFrom().getValue();
         SubscriptionSource subSource = subs.get(signature);
 
@@ -313,24 +397,9 @@ public abstract class MALBrokerHandlerImpl extends MALClose implements MALBroker
         return subSource;
     }
 
-    private SubscriptionSource getSubscriptionSource(final BrokerKey key, final String consumerUri) {
-        return this.getConsumerSubscriptions(key).get(consumerUri);
-    }
-
-    private Map<StringPair, PublisherSource> getProviderSubscriptions(final BrokerKey key) {
-        Map<StringPair, PublisherSource> provider = providers.get(key);
-
-        if (provider == null) {
-            provider = new HashMap();
-            providers.put(key, provider);
-        }
-
-        return provider;
-    }
-
-    private PublisherSource getPublisherSource(final BrokerKey key,
+    private PublisherSource getPublisherSource(final BrokerState state,
             final MALMessageHeader hdr, final boolean create) {
-        final Map<StringPair, PublisherSource> subs = this.getProviderSubscriptions(key);
+        final Map<StringPair, PublisherSource> subs = state.getProviders();
         String providerKey = createProviderKey(hdr);
         String uriFrom = hdr.getURIFrom().getValue();
         StringPair pair = new StringPair(uriFrom, providerKey);
@@ -345,33 +414,37 @@ public abstract class MALBrokerHandlerImpl extends MALClose implements MALBroker
         return publisher;
     }
 
-    private void handleConsumerCommunicationError(final BrokerKey key, final String uriTo) {
-        final SubscriptionSource entry = getSubscriptionSource(key, uriTo);
+    void handleConsumerCommunicationError(final BrokerKey key, final String uriTo) {
+        final BrokerState state = this.lockState(key);
 
-        if (entry != null) {
-            entry.incrementCommsErrorCount();
+        try {
+            final SubscriptionSource entry = state.getConsumers().get(uriTo);
 
-            // Deregister the subscription if it is unreachable
-            if (entry.getCommsErrorCount() != 0) {
-                MALBrokerImpl.LOGGER.log(Level.WARNING,
-                        "Removing the Consumer Subscription: {0}", uriTo);
+            if (entry != null) {
+                entry.incrementCommsErrorCount();
+
+                // Deregister the subscription if it is unreachable
+                if (entry.getCommsErrorCount() != 0) {
+                    MALBrokerImpl.LOGGER.log(Level.WARNING,
+                            "Removing the Consumer Subscription: {0}", uriTo);
 
-                internalDeregisterSubscriptions(key, entry, null);
+                    internalDeregisterSubscriptions(state, entry, null);
+                }
             }
+        } finally {
+            unlockState(key, state);
         }
     }
 
-    private void internalDeregisterSubscriptions(final BrokerKey key,
+    private void internalDeregisterSubscriptions(final BrokerState state,
             final SubscriptionSource subSource, final IdentifierList subscriptionIds) {
         if (subSource != null) {
             subSource.removeSubscriptions(subscriptionIds);
-            if (!subSource.active()) {
-                Map<String, SubscriptionSource> subs = getConsumerSubscriptions(key);
-                subs.remove(subSource.getSignature());
+            state.getIndex().update(subSource);
 
-                if (subs.isEmpty()) {
-                    consumers.remove(key);
-                }
+            if (!subSource.active()) {
+                state.getConsumers().remove(subSource.getSignature());
+                dispatcher.release(subSource.getSignature());
             }
         }
     }
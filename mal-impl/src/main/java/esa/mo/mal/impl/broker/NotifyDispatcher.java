@@ -0,0 +1,611 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker;
+
+import esa.mo.mal.impl.pubsub.NotifyMessageBody;
+import esa.mo.mal.impl.pubsub.NotifyMessageHeader;
+import esa.mo.mal.support.EncodedPartCache;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.broker.MALBrokerBinding;
+import org.ccsds.moims.mo.mal.provider.MALInteraction;
+import org.ccsds.moims.mo.mal.structures.Subscription;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.ccsds.moims.mo.mal.transport.MALTransmitErrorException;
+
+/**
+ * Sends the NOTIFY messages of the broker asynchronously. Each consumer has
+ * its own bounded queue that is drained, in order, by a small pool of
+ * threads, so a slow consumer only delays its own NOTIFY messages.
+ *
+ * When the queue of a consumer is full the overflow policy is applied:
+ * DROP_OLDEST discards the oldest pending NOTIFY message, CONFLATE removes the
+ * pending updates that are superseded by the new ones (same key values) and
+ * DISCONNECT removes the consumer as if it was unreachable.
+ *
+ * The subscriptions listed in the PROP_CONFLATE_SUBSCRIPTIONS System property,
+ * or registered with the QOS_CONFLATE QoS property, are always conflated: a
+ * queued update replaces the pending updates of the same subscription with
+ * the same key values, whatever the queue depth.
+ */
+public class NotifyDispatcher {
+
+    // The property key to set the maximum number of pending NOTIFY messages per consumer
+    private final static String PROP_QUEUE_SIZE
+            = "org.ccsds.moims.mo.mal.broker.notify.queue.size";
+    // The property key to set the overflow policy
+    private final static String PROP_OVERFLOW_POLICY
+            = "org.ccsds.moims.mo.mal.broker.notify.overflow.policy";
+    // The property key to set the number of threads sending the NOTIFY messages
+    private final static String PROP_THREADS
+            = "org.ccsds.moims.mo.mal.broker.notify.threads";
+
+    /**
+     * The QoS property of the REGISTER interaction that selects the conflation
+     * of the subscription updates. When set to true only the newest pending
+     * update per key values is delivered to the subscription. The System
+     * property with the same key sets the default for all the subscriptions.
+     *
+     * The QoS properties of a message are not carried on the wire, so the
+     * opt-in only reaches the broker from consumers in the same JVM as the
+     * broker, or when set by the receiving transport. The subscriptions of
+     * remote consumers are selected with PROP_CONFLATE_SUBSCRIPTIONS.
+     */
+    public final static String QOS_CONFLATE
+            = "org.ccsds.moims.mo.mal.broker.notify.conflate";
+
+    /**
+     * The System property of the broker that lists the subscriptions whose
+     * updates are conflated, separated by commas. An entry is a subscription
+     * identifier, which matches the subscriptions with that identifier of all
+     * the consumers, or a consumer URI, which matches all the subscriptions of
+     * that consumer, or a consumer URI and a subscription identifier joined
+     * by a '#', which matches one subscription of one consumer.
+     */
+    public final static String PROP_CONFLATE_SUBSCRIPTIONS
+            = "org.ccsds.moims.mo.mal.broker.notify.conflate.subscriptions";
+
+    private final static int DEFAULT_QUEUE_SIZE = 1000;
+    // Maximum number of messages sent for a consumer before yielding the thread
+    private final static int MAX_BATCH = 64;
+
+    /**
+     * What to do when the queue of a consumer is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Discard the oldest pending NOTIFY message.
+         */
+        DROP_OLDEST,
+        /**
+         * Remove the pending updates superseded by the new NOTIFY message.
+         */
+        CONFLATE,
+        /**
+         * Remove all the subscriptions of the consumer.
+         */
+        DISCONNECT
+    }
+
+    private final MALBrokerHandlerImpl handler;
+    private final int queueSize;
+    private final OverflowPolicy policy;
+    private final boolean conflateByDefault;
+    private final Set<String> conflatedSubscriptions;
+    private final ExecutorService executor;
+    private final ConcurrentMap<String, ConsumerQueue> queues = new ConcurrentHashMap<>();
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong conflatedCount = new AtomicLong();
+    private final AtomicLong disconnectedCount = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param handler The broker handler to report unreachable consumers to.
+     * @param queueSize The maximum number of pending messages per consumer.
+     * @param policy The overflow policy.
+     * @param threads The number of sending threads.
+     */
+    public NotifyDispatcher(final MALBrokerHandlerImpl handler,
+            final int queueSize, final OverflowPolicy policy, final int threads) {
+        this(handler, queueSize, policy, threads, Collections.<String>emptySet());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param handler The broker handler to report unreachable consumers to.
+     * @param queueSize The maximum number of pending messages per consumer.
+     * @param policy The overflow policy.
+     * @param threads The number of sending threads.
+     * @param conflatedSubscriptions The subscriptions whose updates are
+     * conflated, with the entries of PROP_CONFLATE_SUBSCRIPTIONS.
+     */
+    public NotifyDispatcher(final MALBrokerHandlerImpl handler,
+            final int queueSize, final OverflowPolicy policy, final int threads,
+            final Set<String> conflatedSubscriptions) {
+        this.handler = handler;
+        this.queueSize = Math.max(1, queueSize);
+        this.policy = policy;
+        this.conflateByDefault = Boolean.getBoolean(QOS_CONFLATE);
+        this.conflatedSubscriptions = new HashSet<>(conflatedSubscriptions);
+
+        final AtomicInteger count = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "MAL_Broker_Notify_Thread_" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Creates a dispatcher configured with the System properties.
+     *
+     * @param handler The broker handler to report unreachable consumers to.
+     * @return The new dispatcher.
+     */
+    public static NotifyDispatcher create(final MALBrokerHandlerImpl handler) {
+        int size = DEFAULT_QUEUE_SIZE;
+        // Sending may block on a slow consumer, so more threads than cores
+        int threads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+        OverflowPolicy policy = OverflowPolicy.DROP_OLDEST;
+
+        try {
+            size = Integer.parseInt(System.getProperty(PROP_QUEUE_SIZE,
+                    String.valueOf(size)));
+            threads = Integer.parseInt(System.getProperty(PROP_THREADS,
+                    String.valueOf(threads)));
+        } catch (NumberFormatException ex) {
+            MALBrokerImpl.LOGGER.log(Level.SEVERE,
+                    "The properties " + PROP_QUEUE_SIZE + " and " + PROP_THREADS
+                    + " must be numbers. Using the default values.", ex);
+        }
+
+        try {
+            policy = OverflowPolicy.valueOf(System.getProperty(
+                    PROP_OVERFLOW_POLICY, policy.name()).trim().toUpperCase());
+        } catch (IllegalArgumentException ex) {
+            MALBrokerImpl.LOGGER.log(Level.SEVERE,
+                    "Unknown value for " + PROP_OVERFLOW_POLICY
+                    + ". Using DROP_OLDEST.", ex);
+        }
+
+        final Set<String> conflated = new HashSet<>();
+
+        for (String entry : System.getProperty(PROP_CONFLATE_SUBSCRIPTIONS, "").split(",")) {
+            if (!entry.trim().isEmpty()) {
+                conflated.add(entry.trim());
+            }
+        }
+
+        return new NotifyDispatcher(handler, size, policy, threads, conflated);
+    }
+
+    /**
+     * Returns true if the updates of the subscription of the supplied
+     * REGISTER interaction must be conflated. The subscriptions listed on the
+     * broker are conflated, the other ones if they requested it with the
+     * QOS_CONFLATE QoS property, or else by default if the System property
+     * with the same key is set.
+     *
+     * @param interaction The REGISTER interaction.
+     * @param subscription The registered subscription.
+     * @return True if the updates of the subscription must be conflated.
+     */
+    public boolean isConflationRequested(final MALInteraction interaction,
+            final Subscription subscription) {
+        if (isConflatedSubscription(interaction.getMessageHeader(), subscription)) {
+            return true;
+        }
+
+        final Object value = interaction.getQoSProperty(QOS_CONFLATE);
+
+        if (value == null) {
+            return conflateByDefault;
+        }
+
+        return (value instanceof Boolean) ? (Boolean) value
+                : Boolean.parseBoolean(value.toString().trim());
+    }
+
+    /**
+     * Returns true if the subscription is listed on the broker.
+     *
+     * @param hdr The header of the REGISTER message, can be null.
+     * @param subscription The registered subscription.
+     * @return True if an entry matches the consumer or the subscription.
+     */
+    private boolean isConflatedSubscription(final MALMessageHeader hdr,
+            final Subscription subscription) {
+        if (conflatedSubscriptions.isEmpty()) {
+            return false;
+        }
+
+        final String subId = ((null == subscription) || (null == subscription.getSubscriptionId()))
+                ? null : subscription.getSubscriptionId().getValue();
+        final String uri = ((null == hdr) || (null == hdr.getURIFrom()))
+                ? null : hdr.getURIFrom().getValue();
+
+        return ((null != subId) && conflatedSubscriptions.contains(subId))
+                || ((null != uri) && conflatedSubscriptions.contains(uri))
+                || ((null != subId) && (null != uri)
+                && conflatedSubscriptions.contains(uri + '#' + subId));
+    }
+
+    /**
+     * Queues a NOTIFY message for a consumer.
+     *
+     * @param key The broker key of the subscription.
+     * @param binding The binding used to send the message.
+     * @param details The message header details.
+     * @param body The message body.
+     */
+    public void enqueue(final BrokerKey key, final MALBrokerBinding binding,
+            final NotifyMessageHeader details, final NotifyMessageBody body) {
+        final String uriTo = details.uriTo.getValue();
+        final PendingNotify notify = new PendingNotify(key, binding, details, body);
+
+        // a queue removed in the meantime does not take new messages
+        while (true) {
+            ConsumerQueue queue = queues.get(uriTo);
+
+            if (queue == null) {
+                queue = new ConsumerQueue(uriTo);
+                ConsumerQueue previous = queues.putIfAbsent(uriTo, queue);
+
+                if (previous != null) {
+                    queue = previous;
+                }
+            }
+
+            if (queue.offer(notify)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Forgets the queue of a consumer that has no subscriptions left. Its
+     * pending NOTIFY messages, if any, are still sent and the queue is removed
+     * once they have been sent.
+     *
+     * @param uriTo The URI of the consumer.
+     */
+    public void release(final String uriTo) {
+        ConsumerQueue queue = queues.get(uriTo);
+
+        if (queue != null) {
+            queue.release();
+        }
+    }
+
+    /**
+     * Stops the sending threads. The pending NOTIFY messages are discarded.
+     */
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns the number of pending NOTIFY messages of a consumer.
+     *
+     * @param uriTo The URI of the consumer.
+     * @return The queue depth.
+     */
+    public int getQueueDepth(final String uriTo) {
+        ConsumerQueue queue = queues.get(uriTo);
+        return (queue == null) ? 0 : queue.depth();
+    }
+
+    /**
+     * Returns the number of pending NOTIFY messages of each consumer.
+     *
+     * @return The queue depths keyed on the consumer URI.
+     */
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new TreeMap<>();
+
+        for (ConsumerQueue queue : queues.values()) {
+            depths.put(queue.uriTo, queue.depth());
+        }
+
+        return depths;
+    }
+
+    /**
+     * Returns the number of NOTIFY messages handed to the bindings.
+     *
+     * @return The sent count.
+     */
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * Returns the number of NOTIFY messages discarded because a queue was
+     * full, or because its consumer was disconnected.
+     *
+     * @return The dropped count.
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Returns the number of updates removed because a newer update with the
+     * same key values was queued.
+     *
+     * @return The conflated count.
+     */
+    public long getConflatedCount() {
+        return conflatedCount.get();
+    }
+
+    /**
+     * Returns the number of consumers disconnected because their queue was
+     * full.
+     *
+     * @return The disconnected count.
+     */
+    public long getDisconnectedCount() {
+        return disconnectedCount.get();
+    }
+
+    private void send(final ConsumerQueue queue, final PendingNotify notify) {
+        final NotifyMessageHeader details = notify.details;
+        final NotifyMessageBody msgBody = notify.body;
+
+        Map qosProps = details.qosProps;
+
+        if (null != msgBody.getEncodedParts()) {
+            // the cache lives as long as the NOTIFY messages of the PUBLISH
+            qosProps = (null == qosProps) ? new HashMap() : new HashMap(qosProps);
+            qosProps.put(EncodedPartCache.QOS_PROPERTY, msgBody.getEncodedParts());
+        }
+
+        try {
+            notify.binding.sendNotify(msgBody.getArea(),
+                    msgBody.getService(),
+                    msgBody.getOperation(),
+                    msgBody.getVersion(),
+                    details.uriTo,
+                    details.transactionId,
+                    msgBody.getDomain(),
+                    msgBody.getNetworkZone(),
+                    details.sessionType,
+                    details.sessionName,
+                    details.qosLevel,
+                    qosProps,
+                    details.priority,
+                    msgBody.getSubscriptionId(),
+                    msgBody.getUpdateHeaderList(),
+                    msgBody.getUpdateList());
+            sentCount.incrementAndGet();
+        } catch (MALTransmitErrorException ex) {
+            MALBrokerImpl.LOGGER.log(Level.WARNING,
+                    "Unable to send NOTIFY message:\n{0}", msgBody.toString());
+            // The consumer is removed, its other messages would fail too
+            droppedCount.addAndGet(queue.clear());
+            handler.handleConsumerCommunicationError(notify.key, queue.uriTo);
+        } catch (MALInteractionException | MALException ex) {
+            MALBrokerImpl.LOGGER.log(Level.WARNING,
+                    "Unable to send NOTIFY message to: " + queue.uriTo, ex);
+        }
+    }
+
+    /**
+     * A NOTIFY message waiting to be sent.
+     */
+    private static final class PendingNotify {
+
+        private final BrokerKey key;
+        private final MALBrokerBinding binding;
+        private final NotifyMessageHeader details;
+        private NotifyMessageBody body;
+
+        private PendingNotify(BrokerKey key, MALBrokerBinding binding,
+                NotifyMessageHeader details, NotifyMessageBody body) {
+            this.key = key;
+            this.binding = binding;
+            this.details = details;
+            this.body = body;
+        }
+    }
+
+    /**
+     * The pending NOTIFY messages of a single consumer. At most one thread
+     * drains a queue at a time, which keeps the messages in order.
+     */
+    private final class ConsumerQueue implements Runnable {
+
+        private final String uriTo;
+        private final ArrayDeque<PendingNotify> pending = new ArrayDeque<>();
+        private boolean scheduled = false;
+        // the consumer has no subscriptions left
+        private boolean released = false;
+        // the queue is no longer in the map of queues
+        private boolean removed = false;
+
+        private ConsumerQueue(String uriTo) {
+            this.uriTo = uriTo;
+        }
+
+        private boolean offer(final PendingNotify notify) {
+            boolean disconnect = false;
+
+            synchronized (this) {
+                if (removed) {
+                    return false;
+                }
+
+                // the consumer has subscribed again
+                released = false;
+
+                if (notify.body.isConflating()) {
+                    conflate(notify.body);
+                }
+
+                if (pending.size() >= queueSize) {
+                    switch (policy) {
+                        case CONFLATE:
+                            if (!notify.body.isConflating()) {
+                                conflate(notify.body);
+                            }
+                            if (pending.size() >= queueSize) {
+                                pending.pollFirst();
+                                droppedCount.incrementAndGet();
+                            }
+                            break;
+                        case DISCONNECT:
+                            droppedCount.addAndGet(pending.size() + 1);
+                            pending.clear();
+                            disconnect = true;
+                            removed = true;
+                            break;
+                        default:
+                            pending.pollFirst();
+                            droppedCount.incrementAndGet();
+                            break;
+                    }
+                }
+
+                if (!disconnect) {
+                    pending.addLast(notify);
+
+                    if (!scheduled) {
+                        scheduled = schedule();
+                    }
+                }
+            }
+
+            if (disconnect) {
+                MALBrokerImpl.LOGGER.log(Level.WARNING,
+                        "The NOTIFY queue of the consumer is full: {0}", uriTo);
+                disconnectedCount.incrementAndGet();
+                queues.remove(uriTo, this);
+                handler.handleConsumerCommunicationError(notify.key, uriTo);
+            }
+
+            return true;
+        }
+
+        private synchronized void release() {
+            released = true;
+            removeIfReleased();
+        }
+
+        private void removeIfReleased() {
+            if (released && !removed && pending.isEmpty() && !scheduled) {
+                removed = true;
+                queues.remove(uriTo, this);
+            }
+        }
+
+        private void conflate(final NotifyMessageBody newer) {
+            Iterator<PendingNotify> it = pending.iterator();
+
+            while (it.hasNext()) {
+                PendingNotify older = it.next();
+                NotifyMessageBody remaining = older.body.conflate(newer);
+
+                if (remaining != older.body) {
+                    int before = older.body.getUpdateHeaderList().size();
+                    int after = (remaining == null) ? 0 : remaining.getUpdateHeaderList().size();
+                    conflatedCount.addAndGet(before - after);
+
+                    if (remaining == null) {
+                        it.remove();
+                    } else {
+                        older.body = remaining;
+                    }
+                }
+            }
+        }
+
+        private boolean schedule() {
+            try {
+                executor.execute(this);
+                return true;
+            } catch (RejectedExecutionException ex) {
+                // The dispatcher has been closed
+                droppedCount.addAndGet(pending.size());
+                pending.clear();
+                return false;
+            }
+        }
+
+        private synchronized int depth() {
+            return pending.size();
+        }
+
+        private synchronized int clear() {
+            int size = pending.size();
+            pending.clear();
+            return size;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < MAX_BATCH; i++) {
+                PendingNotify notify;
+
+                synchronized (this) {
+                    notify = pending.pollFirst();
+
+                    if (notify == null) {
+                        scheduled = false;
+                        removeIfReleased();
+                        return;
+                    }
+                }
+
+                send(this, notify);
+            }
+
+            // Give the other consumers a chance before sending more
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    scheduled = false;
+                    removeIfReleased();
+                } else {
+                    scheduled = schedule();
+                }
+            }
+        }
+    }
+}
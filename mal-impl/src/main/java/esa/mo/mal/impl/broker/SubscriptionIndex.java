@@ -0,0 +1,741 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker;
+
+import esa.mo.mal.impl.pubsub.NotifyMessageBody;
+import esa.mo.mal.impl.pubsub.NotifyMessageSet;
+import esa.mo.mal.impl.pubsub.SubscriptionConsumer;
+import esa.mo.mal.impl.pubsub.SubscriptionSource;
+import esa.mo.mal.impl.pubsub.Subscriptions;
+import esa.mo.mal.support.EncodedPartCache;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.helpertools.helpers.HelperAttributes;
+import org.ccsds.moims.mo.mal.structures.Attribute;
+import org.ccsds.moims.mo.mal.structures.AttributeList;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.NamedValue;
+import org.ccsds.moims.mo.mal.structures.SubscriptionFilter;
+import org.ccsds.moims.mo.mal.structures.SubscriptionFilterList;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.structures.Union;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.ccsds.moims.mo.mal.transport.MALPublishBody;
+
+/**
+ * Index of the consumer subscriptions of a single broker key. The
+ * subscriptions are bucketed on area/service/operation, then placed in a trie
+ * using the identifiers of their domain up to the first wildcard, and finally
+ * hashed on the values of their first key-value filter without wildcards. A
+ * PUBLISH therefore only checks the subscriptions that can possibly match it.
+ *
+ * The index only prunes the search, every candidate is still confirmed with
+ * the normal BrokerMatcher rules.
+ */
+public class SubscriptionIndex {
+
+    private final Map<OperationKey, OperationBucket> buckets = new HashMap<>();
+    private final Map<SubscriptionSource, List<Entry>> entries = new HashMap<>();
+
+    /**
+     * Returns true if the index holds no subscriptions.
+     *
+     * @return True if empty.
+     */
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Re-indexes all the subscriptions of a consumer. Must be called every
+     * time the subscriptions of the consumer are changed.
+     *
+     * @param source The consumer.
+     */
+    public void update(final SubscriptionSource source) {
+        remove(source);
+
+        if (!source.active()) {
+            return;
+        }
+
+        final List<Entry> sourceEntries = new ArrayList<>();
+
+        for (Subscriptions subs : source.getSubscriptions()) {
+            for (SubscriptionConsumer consumer : subs.getSubscriptions()) {
+                final Entry entry = new Entry(source, subs, consumer);
+                OperationBucket bucket = buckets.get(entry.operationKey);
+
+                if (bucket == null) {
+                    bucket = new OperationBucket(entry.operationKey);
+                    buckets.put(entry.operationKey, bucket);
+                }
+
+                bucket.add(entry);
+                sourceEntries.add(entry);
+            }
+        }
+
+        if (!sourceEntries.isEmpty()) {
+            entries.put(source, sourceEntries);
+        }
+    }
+
+    /**
+     * Removes all the subscriptions of a consumer from the index.
+     *
+     * @param source The consumer.
+     */
+    public void remove(final SubscriptionSource source) {
+        final List<Entry> sourceEntries = entries.remove(source);
+
+        if (sourceEntries != null) {
+            for (Entry entry : sourceEntries) {
+                final OperationBucket bucket = buckets.get(entry.operationKey);
+
+                if ((bucket != null) && bucket.remove(entry)) {
+                    buckets.remove(entry.operationKey);
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates the notify messages for a published set of updates. Returns
+     * one NotifyMessageSet for each consumer that has at least one matching
+     * subscription.
+     *
+     * @param srcHdr The PUBLISH message header.
+     * @param updateHeaderList The published update headers.
+     * @param publishBody The PUBLISH message body.
+     * @param keyNames The key names registered by the provider.
+     * @return The list of notify message sets, empty if nothing matched.
+     * @throws MALException if the key values size does not match the key
+     * names size.
+     */
+    public List<NotifyMessageSet> generateNotifyMessages(final MALMessageHeader srcHdr,
+            final UpdateHeaderList updateHeaderList, final MALPublishBody publishBody,
+            final IdentifierList keyNames) throws MALException {
+        final List<NotifyMessageSet> lst = new LinkedList<>();
+
+        if (entries.isEmpty()) {
+            return lst;
+        }
+
+        final IdentifierList srcDomain = srcHdr.getDomain();
+        final List<OperationBucket> matchedBuckets = findBuckets(srcHdr.getServiceArea(),
+                srcHdr.getService(), srcHdr.getOperation());
+        final Set<Entry> domainMatches = Collections.newSetFromMap(new IdentityHashMap<Entry, Boolean>());
+
+        for (OperationBucket bucket : matchedBuckets) {
+            bucket.collectDomainMatches(srcDomain, domainMatches);
+        }
+
+        final Map<Subscriptions, MatchedUpdates> matches = new IdentityHashMap<>();
+        final int keyCount = (keyNames == null) ? 0 : keyNames.size();
+
+        for (int i = 0; i < updateHeaderList.size(); i++) {
+            final AttributeList keyValues = updateHeaderList.get(i).getKeyValues();
+
+            if (keyValues.size() != keyCount) {
+                throw new MALException("The keyValues size don't match the providerNames "
+                        + "size: " + keyValues.size() + "!=" + keyCount
+                        + "\nkeyNames: " + keyNames
+                        + "\nkeyValues: " + keyValues.toString());
+            }
+
+            if (domainMatches.isEmpty()) {
+                continue;
+            }
+
+            // Prepare the Key-Value list only once for all the consumers
+            final List<NamedValue> providerKeyValues = new ArrayList<>(keyCount);
+
+            for (int j = 0; j < keyCount; j++) {
+                Attribute value = (Attribute) Attribute.javaType2Attribute(keyValues.get(j));
+                providerKeyValues.add(new NamedValue(keyNames.get(j), value));
+            }
+
+            for (OperationBucket bucket : matchedBuckets) {
+                for (Entry entry : bucket.candidates(providerKeyValues)) {
+                    if (domainMatches.contains(entry) && entry.consumer.matchesFilters(providerKeyValues)) {
+                        MatchedUpdates matched = matches.get(entry.subscriptions);
+
+                        if (matched == null) {
+                            matched = new MatchedUpdates(entry.source, updateHeaderList.size());
+                            matches.put(entry.subscriptions, matched);
+                        }
+
+                        matched.add(i);
+                    }
+                }
+            }
+        }
+
+        if (matches.isEmpty()) {
+            return lst;
+        }
+
+        final List[] updateLists = publishBody.getUpdateLists((List[]) null);
+        final Map<SubscriptionSource, List<NotifyMessageBody>> bodies = new LinkedHashMap<>();
+        // subscriptions that matched the same updates share the same update
+        // lists, so that the transport only has to encode them once
+        final Map<MatchedUpdates, NotifyMessageBody> shared = new HashMap<>();
+        final EncodedPartCache encodedParts = new EncodedPartCache();
+
+        for (Map.Entry<Subscriptions, MatchedUpdates> match : matches.entrySet()) {
+            final MatchedUpdates matched = match.getValue();
+            List<NotifyMessageBody> sourceBodies = bodies.get(matched.source);
+
+            if (sourceBodies == null) {
+                sourceBodies = new LinkedList<>();
+                bodies.put(matched.source, sourceBodies);
+            }
+
+            final NotifyMessageBody first = shared.get(matched);
+            final NotifyMessageBody body;
+
+            if (first == null) {
+                body = match.getKey().generateNotifyMessage(srcHdr,
+                        updateHeaderList, updateLists, matched.indexes, matched.count);
+                shared.put(matched, body);
+            } else {
+                body = match.getKey().generateNotifyMessage(srcHdr,
+                        first.getUpdateHeaderList(), first.getUpdateList());
+            }
+
+            body.setEncodedParts(encodedParts);
+            sourceBodies.add(body);
+        }
+
+        for (Map.Entry<SubscriptionSource, List<NotifyMessageBody>> entry : bodies.entrySet()) {
+            lst.add(new NotifyMessageSet(entry.getKey().getMsgHeaderDetails(), entry.getValue()));
+        }
+
+        return lst;
+    }
+
+    private List<OperationBucket> findBuckets(final UShort area,
+            final UShort service, final UShort operation) {
+        final List<OperationBucket> found = new ArrayList<>(1);
+        final int a = OperationKey.value(area);
+        final int s = OperationKey.value(service);
+        final int o = OperationKey.value(operation);
+
+        if ((a == 0) || (s == 0) || (o == 0)) {
+            // The provider is publishing with a wildcard, check every bucket
+            for (OperationBucket bucket : buckets.values()) {
+                if (BrokerMatcher.matchedSubkeyWithWildcard(bucket.key.area, area)
+                        && BrokerMatcher.matchedSubkeyWithWildcard(bucket.key.service, service)
+                        && BrokerMatcher.matchedSubkeyWithWildcard(bucket.key.operation, operation)) {
+                    found.add(bucket);
+                }
+            }
+
+            return found;
+        }
+
+        // Exact values plus the wildcard branches of the consumer side
+        for (int ia : new int[]{a, 0}) {
+            for (int is : new int[]{s, 0}) {
+                for (int io : new int[]{o, 0}) {
+                    OperationBucket bucket = buckets.get(new OperationKey(ia, is, io));
+
+                    if (bucket != null) {
+                        found.add(bucket);
+                    }
+                }
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Returns the key used in the filter value buckets for an attribute,
+     * following the equality rules of BrokerMatcher.matchKeyValues.
+     */
+    private static Object indexKey(final Attribute value) {
+        if (value == null) {
+            return null;
+        }
+
+        if (Attribute.isStringAttribute(value)) {
+            return HelperAttributes.attribute2string(value);
+        }
+
+        if (value instanceof Union) {
+            return HelperAttributes.attribute2JavaType(value);
+        }
+
+        return value;
+    }
+
+    /**
+     * Returns the filter values as index keys, or null if the filter cannot
+     * be hashed because one of its values is a wildcard or not a simple type.
+     */
+    private static List<Object> indexKeys(final SubscriptionFilter filter) {
+        if ((filter.getName() == null) || (filter.getValues() == null)
+                || filter.getValues().isEmpty()) {
+            return null;
+        }
+
+        final List<Object> keys = new ArrayList<>(filter.getValues().size());
+
+        for (Attribute value : filter.getValues().getAsAttributes()) {
+            if (value == null) {
+                return null;
+            }
+
+            if (Attribute.isStringAttribute(value)) {
+                String str = HelperAttributes.attribute2string(value);
+
+                if (BrokerMatcher.ALL_ID.equals(str)) {
+                    return null;
+                }
+
+                keys.add(str);
+            } else if (value instanceof Union) {
+                Union union = (Union) value;
+
+                if (union.isNull() || union.isZero()) {
+                    return null;
+                }
+
+                keys.add(HelperAttributes.attribute2JavaType(union));
+            } else {
+                return null;
+            }
+        }
+
+        return keys;
+    }
+
+    /**
+     * A single indexed subscription.
+     */
+    private static final class Entry {
+
+        private final SubscriptionSource source;
+        private final Subscriptions subscriptions;
+        private final SubscriptionConsumer consumer;
+        private final OperationKey operationKey;
+        private final String[] domainPrefix;
+        private final Identifier filterName;
+        private final List<Object> filterKeys;
+
+        private Entry(final SubscriptionSource source, final Subscriptions subscriptions,
+                final SubscriptionConsumer consumer) {
+            this.source = source;
+            this.subscriptions = subscriptions;
+            this.consumer = consumer;
+            this.operationKey = new OperationKey(OperationKey.value(consumer.getArea()),
+                    OperationKey.value(consumer.getService()),
+                    OperationKey.value(consumer.getOperation()));
+
+            // The literal identifiers before the first wildcard of the domain
+            final IdentifierList domain = consumer.getDomain();
+            String[] prefix = null;
+
+            if ((domain != null) && !domain.isEmpty()
+                    && !BrokerMatcher.ALL_ID.equals(domain.get(0).getValue())) {
+                int size = 0;
+
+                while ((size < domain.size())
+                        && !BrokerMatcher.ALL_ID.equals(domain.get(size).getValue())) {
+                    size++;
+                }
+
+                prefix = new String[size];
+
+                for (int i = 0; i < size; i++) {
+                    prefix[i] = domain.get(i).getValue();
+                }
+            }
+
+            this.domainPrefix = prefix;
+
+            // The first filter that can be hashed
+            final SubscriptionFilterList filters = consumer.getFilters();
+            Identifier name = null;
+            List<Object> keys = null;
+
+            if (filters != null) {
+                for (SubscriptionFilter filter : filters) {
+                    keys = indexKeys(filter);
+
+                    if (keys != null) {
+                        name = filter.getName();
+                        break;
+                    }
+                }
+            }
+
+            this.filterName = name;
+            this.filterKeys = keys;
+        }
+
+        private boolean matchesDomain(final IdentifierList srcDomain) {
+            final IdentifierList domain = consumer.getDomain();
+            // Don't check the domain if the subscription is done with a null on it
+            return (domain == null) || BrokerMatcher.domainMatchesWildcardDomain(domain, srcDomain);
+        }
+
+        @Override
+        public String toString() {
+            return source.getSignature() + ":" + subscriptions.getSubscriptionId() + ":" + consumer;
+        }
+    }
+
+    /**
+     * All the subscriptions sharing the same area/service/operation.
+     */
+    private static final class OperationBucket {
+
+        private final OperationKey key;
+        private final DomainNode domainRoot = new DomainNode();
+        private final Set<Entry> unanchoredDomains = new LinkedHashSet<>();
+        private final Map<Identifier, Map<Object, Set<Entry>>> filterValues = new HashMap<>();
+        private final Map<Identifier, Set<Entry>> filterNames = new HashMap<>();
+        private final Set<Entry> unhashedFilters = new LinkedHashSet<>();
+        private int size = 0;
+
+        private OperationBucket(final OperationKey key) {
+            this.key = key;
+        }
+
+        private void add(final Entry entry) {
+            size++;
+
+            if (entry.domainPrefix == null) {
+                unanchoredDomains.add(entry);
+            } else {
+                domainRoot.add(entry, 0);
+            }
+
+            if (entry.filterName == null) {
+                unhashedFilters.add(entry);
+                return;
+            }
+
+            Set<Entry> named = filterNames.get(entry.filterName);
+            Map<Object, Set<Entry>> values = filterValues.get(entry.filterName);
+
+            if (named == null) {
+                named = new LinkedHashSet<>();
+                values = new HashMap<>();
+                filterNames.put(entry.filterName, named);
+                filterValues.put(entry.filterName, values);
+            }
+
+            named.add(entry);
+
+            for (Object value : entry.filterKeys) {
+                Set<Entry> valueEntries = values.get(value);
+
+                if (valueEntries == null) {
+                    valueEntries = new LinkedHashSet<>();
+                    values.put(value, valueEntries);
+                }
+
+                valueEntries.add(entry);
+            }
+        }
+
+        /**
+         * Removes the entry and returns true if the bucket is now empty.
+         */
+        private boolean remove(final Entry entry) {
+            size--;
+
+            if (entry.domainPrefix == null) {
+                unanchoredDomains.remove(entry);
+            } else {
+                domainRoot.remove(entry, 0);
+            }
+
+            if (entry.filterName == null) {
+                unhashedFilters.remove(entry);
+            } else {
+                final Set<Entry> named = filterNames.get(entry.filterName);
+                final Map<Object, Set<Entry>> values = filterValues.get(entry.filterName);
+                named.remove(entry);
+
+                for (Object value : entry.filterKeys) {
+                    final Set<Entry> valueEntries = values.get(value);
+
+                    if ((valueEntries != null) && valueEntries.remove(entry) && valueEntries.isEmpty()) {
+                        values.remove(value);
+                    }
+                }
+
+                if (named.isEmpty()) {
+                    filterNames.remove(entry.filterName);
+                    filterValues.remove(entry.filterName);
+                }
+            }
+
+            return size == 0;
+        }
+
+        private void collectDomainMatches(final IdentifierList srcDomain, final Set<Entry> matches) {
+            for (Entry entry : unanchoredDomains) {
+                if (entry.matchesDomain(srcDomain)) {
+                    matches.add(entry);
+                }
+            }
+
+            if (srcDomain == null) {
+                return;
+            }
+
+            DomainNode node = domainRoot;
+
+            for (int i = 0; (node != null); i++) {
+                for (Entry entry : node.entries) {
+                    if (entry.matchesDomain(srcDomain)) {
+                        matches.add(entry);
+                    }
+                }
+
+                if ((i >= srcDomain.size()) || (node.children == null)) {
+                    break;
+                }
+
+                node = node.children.get(srcDomain.get(i).getValue());
+            }
+        }
+
+        /**
+         * Returns the entries that may match an update with the supplied key
+         * values. The returned entries might contain duplicates.
+         */
+        private Collection<Entry> candidates(final List<NamedValue> keyValues) {
+            if (filterNames.isEmpty()) {
+                return unhashedFilters;
+            }
+
+            final List<Entry> candidates = new ArrayList<>(unhashedFilters);
+
+            for (Map.Entry<Identifier, Map<Object, Set<Entry>>> filter : filterValues.entrySet()) {
+                final NamedValue keyValue = findKeyValue(keyValues, filter.getKey());
+
+                if ((keyValue == null) || ((keyValue.getValue() instanceof Union)
+                        && ((Union) keyValue.getValue()).isNull())) {
+                    // The filter has no effect or a null value matches everything
+                    candidates.addAll(filterNames.get(filter.getKey()));
+                } else {
+                    final Set<Entry> valueEntries = filter.getValue().get(indexKey(keyValue.getValue()));
+
+                    if (valueEntries != null) {
+                        candidates.addAll(valueEntries);
+                    }
+                }
+            }
+
+            return candidates;
+        }
+
+        private static NamedValue findKeyValue(final List<NamedValue> keyValues, final Identifier name) {
+            for (NamedValue keyValue : keyValues) {
+                if (name.equals(keyValue.getName())) {
+                    return keyValue;
+                }
+            }
+
+            return null;
+        }
+    }
+
+    /**
+     * A node of the domain trie. Holds the entries whose domain prefix ends on
+     * this node.
+     */
+    private static final class DomainNode {
+
+        private final Set<Entry> entries = new LinkedHashSet<>();
+        private Map<String, DomainNode> children = null;
+
+        private void add(final Entry entry, final int depth) {
+            if (depth == entry.domainPrefix.length) {
+                entries.add(entry);
+                return;
+            }
+
+            if (children == null) {
+                children = new HashMap<>();
+            }
+
+            DomainNode child = children.get(entry.domainPrefix[depth]);
+
+            if (child == null) {
+                child = new DomainNode();
+                children.put(entry.domainPrefix[depth], child);
+            }
+
+            child.add(entry, depth + 1);
+        }
+
+        /**
+         * Removes the entry and returns true if the node is now empty.
+         */
+        private boolean remove(final Entry entry, final int depth) {
+            if (depth == entry.domainPrefix.length) {
+                entries.remove(entry);
+            } else if (children != null) {
+                final DomainNode child = children.get(entry.domainPrefix[depth]);
+
+                if ((child != null) && child.remove(entry, depth + 1)) {
+                    children.remove(entry.domainPrefix[depth]);
+
+                    if (children.isEmpty()) {
+                        children = null;
+                    }
+                }
+            }
+
+            return entries.isEmpty() && (children == null);
+        }
+    }
+
+    /**
+     * The area, service and operation of a subscription. Zero is the wildcard
+     * value.
+     */
+    private static final class OperationKey {
+
+        private static final int HASH_MAGIC_NUMBER = 31;
+        private final UShort area;
+        private final UShort service;
+        private final UShort operation;
+        private final int a;
+        private final int s;
+        private final int o;
+
+        private OperationKey(final int a, final int s, final int o) {
+            this.a = a;
+            this.s = s;
+            this.o = o;
+            this.area = (a < 0) ? null : new UShort(a);
+            this.service = (s < 0) ? null : new UShort(s);
+            this.operation = (o < 0) ? null : new UShort(o);
+        }
+
+        private static int value(final UShort value) {
+            return (value == null) ? -1 : value.getValue();
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof OperationKey)) {
+                return false;
+            }
+
+            final OperationKey other = (OperationKey) obj;
+            return (a == other.a) && (s == other.s) && (o == other.o);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = HASH_MAGIC_NUMBER * hash + a;
+            hash = HASH_MAGIC_NUMBER * hash + s;
+            hash = HASH_MAGIC_NUMBER * hash + o;
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return a + ":" + s + ":" + o;
+        }
+    }
+
+    /**
+     * The indexes of the updates matched by one subscription.
+     */
+    private static final class MatchedUpdates {
+
+        private final SubscriptionSource source;
+        private final int[] indexes;
+        private int count = 0;
+
+        private MatchedUpdates(final SubscriptionSource source, final int maxSize) {
+            this.source = source;
+            this.indexes = new int[maxSize];
+        }
+
+        private void add(final int index) {
+            // Candidates can be reported more than once for the same update
+            if ((count == 0) || (indexes[count - 1] != index)) {
+                indexes[count++] = index;
+            }
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+
+            if (!(obj instanceof MatchedUpdates)) {
+                return false;
+            }
+
+            final MatchedUpdates other = (MatchedUpdates) obj;
+
+            if (count != other.count) {
+                return false;
+            }
+
+            for (int i = 0; i < count; i++) {
+                if (indexes[i] != other.indexes[i]) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = count;
+
+            for (int i = 0; i < count; i++) {
+                hash = 31 * hash + indexes[i];
+            }
+
+            return hash;
+        }
+    }
+}
@@ -43,5 +43,11 @@ public class PubSubInteractionImpl extends BaseInteractionImpl {
             final Address address,
             final MALMessage msg) throws MALInteractionException {
         super(sender, address, msg);
+
+        // the broker reads the subscription options, such as the NOTIFY
+        // conflation, from the QoS properties of the REGISTER message
+        if (msg.getQoSProperties() != null) {
+            getQoSProperties().putAll(msg.getQoSProperties());
+        }
     }
 }
@@ -20,11 +20,16 @@
  */
 package esa.mo.mal.impl.pubsub;
 
+import esa.mo.mal.support.EncodedPartCache;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 import org.ccsds.moims.mo.mal.structures.Identifier;
 import org.ccsds.moims.mo.mal.structures.IdentifierList;
 import org.ccsds.moims.mo.mal.structures.UOctet;
 import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
 import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
 import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
 
@@ -69,9 +74,24 @@ public class NotifyMessageBody {
      * PubSub updates.
      */
     private final java.util.List[] updateList;
+    /**
+     * True if the pending updates of the subscription are conflated.
+     */
+    private final boolean conflating;
+    /**
+     * The encoded parts shared with the other NOTIFY messages of the same
+     * PUBLISH, or null.
+     */
+    private EncodedPartCache encodedParts = null;
 
     public NotifyMessageBody(Identifier subscriptionId, UpdateHeaderList updateHeaderList,
             java.util.List[] notifyList, MALMessageHeader srcHdr) {
+        this(subscriptionId, updateHeaderList, notifyList, srcHdr, false);
+    }
+
+    public NotifyMessageBody(Identifier subscriptionId, UpdateHeaderList updateHeaderList,
+            java.util.List[] notifyList, MALMessageHeader srcHdr, boolean conflating) {
+        this.conflating = conflating;
         this.subscriptionId = subscriptionId;
         this.updateHeaderList = updateHeaderList;
         this.updateList = notifyList;
@@ -83,6 +103,97 @@ public class NotifyMessageBody {
         this.version = srcHdr.getAreaVersion();
     }
 
+    private NotifyMessageBody(NotifyMessageBody other,
+            UpdateHeaderList updateHeaderList, java.util.List[] notifyList) {
+        this.conflating = other.conflating;
+        this.subscriptionId = other.subscriptionId;
+        this.updateHeaderList = updateHeaderList;
+        this.updateList = notifyList;
+        this.domain = other.domain;
+        this.networkZone = other.networkZone;
+        this.area = other.area;
+        this.service = other.service;
+        this.operation = other.operation;
+        this.version = other.version;
+    }
+
+    /**
+     * Returns true if the supplied body is for the same subscription, domain
+     * and operation as this one, so that their updates can be conflated.
+     *
+     * @param other The other notify body.
+     * @return True if both bodies can be conflated.
+     */
+    public boolean isConflatableWith(NotifyMessageBody other) {
+        return Objects.equals(subscriptionId, other.subscriptionId)
+                && Objects.equals(domain, other.domain)
+                && Objects.equals(networkZone, other.networkZone)
+                && Objects.equals(area, other.area)
+                && Objects.equals(service, other.service)
+                && Objects.equals(operation, other.operation)
+                && Objects.equals(version, other.version);
+    }
+
+    /**
+     * Returns this body without the updates that are superseded by the newer
+     * body, that is, the updates with the same key values. This body is not
+     * modified, a new body is returned if any update is removed.
+     *
+     * @param newer The newer notify body.
+     * @return This body if nothing is superseded, the remaining updates in a
+     * new body, or null if all the updates are superseded.
+     */
+    public NotifyMessageBody conflate(NotifyMessageBody newer) {
+        if (!isConflatableWith(newer)) {
+            return this;
+        }
+
+        final Set<List<Object>> newerKeys = new HashSet<>();
+
+        for (UpdateHeader header : newer.updateHeaderList) {
+            newerKeys.add(header.getKeyValues());
+        }
+
+        int kept = 0;
+        final boolean[] keep = new boolean[updateHeaderList.size()];
+
+        for (int i = 0; i < keep.length; i++) {
+            keep[i] = !newerKeys.contains(updateHeaderList.get(i).getKeyValues());
+            kept += keep[i] ? 1 : 0;
+        }
+
+        if (kept == keep.length) {
+            return this;
+        }
+
+        if (kept == 0) {
+            return null;
+        }
+
+        final UpdateHeaderList headers = new UpdateHeaderList(kept);
+        final List[] lists = Subscriptions.createNotifyLists(updateList);
+
+        for (int i = 0; i < keep.length; i++) {
+            if (keep[i]) {
+                headers.add(updateHeaderList.get(i));
+            }
+        }
+
+        if (lists != null) {
+            for (int j = 0; j < lists.length; j++) {
+                if ((lists[j] != null) && (updateList[j] != null)) {
+                    for (int i = 0; i < keep.length; i++) {
+                        if (keep[i]) {
+                            lists[j].add(updateList[j].get(i));
+                        }
+                    }
+                }
+            }
+        }
+
+        return new NotifyMessageBody(this, headers, lists);
+    }
+
     @Override
     public String toString() {
         final StringBuilder buf = new StringBuilder();
@@ -131,4 +242,35 @@ public class NotifyMessageBody {
     public List[] getUpdateList() {
         return updateList;
     }
+
+    /**
+     * Returns the cache of the encoded parts shared with the other NOTIFY
+     * messages of the same PUBLISH. A conflated body has its own update lists
+     * and so no cache.
+     *
+     * @return The cache, or null.
+     */
+    public EncodedPartCache getEncodedParts() {
+        return encodedParts;
+    }
+
+    /**
+     * Sets the cache of the encoded parts shared with the other NOTIFY
+     * messages of the same PUBLISH.
+     *
+     * @param encodedParts The cache.
+     */
+    public void setEncodedParts(EncodedPartCache encodedParts) {
+        this.encodedParts = encodedParts;
+    }
+
+    /**
+     * Returns true if only the newest pending update per key values must be
+     * delivered for the subscription of this body.
+     *
+     * @return True if the updates of this body are conflated.
+     */
+    public boolean isConflating() {
+        return conflating;
+    }
 }
@@ -22,6 +22,7 @@ package esa.mo.mal.impl.pubsub;
 
 import esa.mo.mal.impl.broker.BrokerMatcher;
 import esa.mo.mal.impl.broker.MALBrokerImpl;
+import java.util.List;
 import java.util.logging.Level;
 import org.ccsds.moims.mo.mal.structures.Attribute;
 import org.ccsds.moims.mo.mal.structures.IdentifierList;
@@ -77,6 +78,51 @@ public final class SubscriptionConsumer {
         this(domain, hdr.getServiceArea(), hdr.getService(), hdr.getOperation(), filters);
     }
 
+    /**
+     * Returns the domain of the subscription.
+     *
+     * @return the domain.
+     */
+    public IdentifierList getDomain() {
+        return domain;
+    }
+
+    /**
+     * Returns the area of the subscription.
+     *
+     * @return the area.
+     */
+    public UShort getArea() {
+        return area;
+    }
+
+    /**
+     * Returns the service of the subscription.
+     *
+     * @return the service.
+     */
+    public UShort getService() {
+        return service;
+    }
+
+    /**
+     * Returns the operation of the subscription.
+     *
+     * @return the operation.
+     */
+    public UShort getOperation() {
+        return operation;
+    }
+
+    /**
+     * Returns the filters of the subscription.
+     *
+     * @return the filters.
+     */
+    public SubscriptionFilterList getFilters() {
+        return filters;
+    }
+
     @Override
     public int hashCode() {
         int hash = super.hashCode();
@@ -147,11 +193,23 @@ public final class SubscriptionConsumer {
             }
         }
 
+        return matchesFilters(updateMsg.getKeyValues());
+    }
+
+    /**
+     * Check if the provided list of key values matches the consumer
+     * subscription filters. The domain, area, service and operation are not
+     * checked by this method.
+     *
+     * @param keyValues list of key values provided by the provider
+     * @return true if they match otherwise false
+     */
+    public boolean matchesFilters(final List<NamedValue> keyValues) {
         if (filters == null || filters.isEmpty()) {
             return true; // No filters selected! All match!
         }
 
-        if (updateMsg.getKeyValues() == null || updateMsg.getKeyValues().isEmpty()) {
+        if (keyValues == null || keyValues.isEmpty()) {
             // The update message has no Subscription Key-values, so nothing to be checked
             return true;
         }
@@ -159,7 +217,7 @@ public final class SubscriptionConsumer {
         // Iterate over all filters. Filter out the updates that don't matter
         for (SubscriptionFilter filter : filters) {
             // Iterate over all provided key value pairs
-            for (NamedValue keyValue : updateMsg.getKeyValues()) {
+            for (NamedValue keyValue : keyValues) {
                 if (!filter.getName().equals(keyValue.getName())) {
                     continue; // This is not the key name that we want...
                 }
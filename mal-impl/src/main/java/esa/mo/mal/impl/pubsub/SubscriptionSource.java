@@ -22,6 +22,7 @@ package esa.mo.mal.impl.pubsub;
 
 import esa.mo.mal.impl.broker.MALBrokerImpl;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -103,7 +104,39 @@ public class SubscriptionSource {
         return signatureURI;
     }
 
+    /**
+     * Returns the header details used for the NOTIFY messages of this
+     * consumer.
+     *
+     * @return the notify message header details.
+     */
+    public NotifyMessageHeader getMsgHeaderDetails() {
+        return msgHeaderDetails;
+    }
+
+    /**
+     * Returns the subscriptions of this consumer.
+     *
+     * @return the subscriptions.
+     */
+    public Collection<Subscriptions> getSubscriptions() {
+        return subs.values();
+    }
+
     public void addSubscription(final MALMessageHeader srcHdr, final Subscription subscription) {
+        addSubscription(srcHdr, subscription, false);
+    }
+
+    /**
+     * Adds or replaces a subscription of this consumer.
+     *
+     * @param srcHdr The message header of the subscription message.
+     * @param subscription The subscription.
+     * @param conflating True if only the newest pending update per key values
+     * must be delivered to this subscription.
+     */
+    public void addSubscription(final MALMessageHeader srcHdr,
+            final Subscription subscription, final boolean conflating) {
         final String subId = subscription.getSubscriptionId().getValue();
         Subscriptions sub = subs.get(subId);
         if (sub == null) {
@@ -111,6 +144,7 @@ public class SubscriptionSource {
             subs.put(subId, sub);
         }
         sub.setIds(subscription.getDomain(), srcHdr, subscription.getFilters());
+        sub.setConflating(conflating);
         updateIds();
     }
 
@@ -45,11 +45,36 @@ public class Subscriptions {
 
     private final ArrayList<SubscriptionConsumer> subscriptions = new ArrayList<>();
     private final String subscriptionId;
+    private boolean conflating = false;
 
     public Subscriptions(final String subscriptionId) {
         this.subscriptionId = subscriptionId;
     }
 
+    public String getSubscriptionId() {
+        return subscriptionId;
+    }
+
+    /**
+     * Returns true if only the newest pending update per key values must be
+     * delivered to this subscription.
+     *
+     * @return True if the updates of this subscription are conflated.
+     */
+    public boolean isConflating() {
+        return conflating;
+    }
+
+    /**
+     * Sets if only the newest pending update per key values must be
+     * delivered to this subscription.
+     *
+     * @param conflating True to conflate the updates of this subscription.
+     */
+    public void setConflating(final boolean conflating) {
+        this.conflating = conflating;
+    }
+
     public final ArrayList<SubscriptionConsumer> getSubscriptions() {
         return subscriptions;
     }
@@ -92,28 +117,7 @@ public class Subscriptions {
         MALBrokerImpl.LOGGER.fine("Generating Notify Message...");
 
         final List[] updateLists = publishBody.getUpdateLists((List[]) null);
-        List[] notifyLists = null;
-
-        // have to check for the case where the pubsub message does not contain a body
-        if (updateLists != null) {
-            notifyLists = new List[updateLists.length];
-
-            for (int i = 0; i < notifyLists.length; i++) {
-                if (updateLists[i] != null) {
-                    if (updateLists[i] instanceof MALEncodedElementList) {
-                        MALEncodedElementList encodedElementList = (MALEncodedElementList) updateLists[i];
-                        notifyLists[i] = new MALEncodedElementList(
-                                encodedElementList.getShortForm(), encodedElementList.size());
-                    } else {
-                        notifyLists[i] = (List) ((Element) updateLists[i]).createElement();
-                    }
-                } else {
-                    // publishing an empty list
-                    notifyLists[i] = null;
-                }
-            }
-        }
-
+        final List[] notifyLists = createNotifyLists(updateLists);
         final UpdateHeaderList notifyHeaders = new UpdateHeaderList();
 
         for (int i = 0; i < updateHeaderList.size(); i++) {
@@ -154,10 +158,88 @@ public class Subscriptions {
 
         if (!notifyHeaders.isEmpty()) {
             return new NotifyMessageBody(new Identifier(subscriptionId),
-                    notifyHeaders, notifyLists, srcHdr);
+                    notifyHeaders, notifyLists, srcHdr, conflating);
 
         }
 
         return null;
     }
+
+    /**
+     * The generateNotifyMessage method returns a NotifyMessage object holding
+     * the updates at the supplied indexes. The matching of the updates has
+     * already been done by the caller.
+     *
+     * @param srcHdr The MAL message header.
+     * @param updateHeaderList The update header list.
+     * @param updateLists The update lists of the publish body.
+     * @param indexes The indexes of the matched updates, in ascending order.
+     * @param count The number of valid entries in the indexes array.
+     * @return The Notify message body.
+     */
+    public NotifyMessageBody generateNotifyMessage(final MALMessageHeader srcHdr,
+            final UpdateHeaderList updateHeaderList, final List[] updateLists,
+            final int[] indexes, final int count) {
+        final List[] notifyLists = createNotifyLists(updateLists);
+        final UpdateHeaderList notifyHeaders = new UpdateHeaderList(count);
+
+        for (int i = 0; i < count; i++) {
+            final int index = indexes[i];
+            notifyHeaders.add(updateHeaderList.get(index));
+
+            if (notifyLists != null) {
+                for (int j = 0; j < notifyLists.length; j++) {
+                    if ((notifyLists[j] != null) && (updateLists[j] != null)) {
+                        notifyLists[j].add(updateLists[j].get(index));
+                    }
+                }
+            }
+        }
+
+        return new NotifyMessageBody(new Identifier(subscriptionId),
+                notifyHeaders, notifyLists, srcHdr, conflating);
+    }
+
+    /**
+     * The generateNotifyMessage method returns a NotifyMessage object holding
+     * updates that have already been selected for another subscription. The
+     * update header list and the update lists are shared with the other notify
+     * message, neither is modified afterwards.
+     *
+     * @param srcHdr The MAL message header.
+     * @param notifyHeaders The selected update headers.
+     * @param notifyLists The selected update lists.
+     * @return The Notify message body.
+     */
+    public NotifyMessageBody generateNotifyMessage(final MALMessageHeader srcHdr,
+            final UpdateHeaderList notifyHeaders, final List[] notifyLists) {
+        return new NotifyMessageBody(new Identifier(subscriptionId),
+                notifyHeaders, notifyLists, srcHdr, conflating);
+    }
+
+    static List[] createNotifyLists(final List[] updateLists) {
+        // have to check for the case where the pubsub message does not contain a body
+        if (updateLists == null) {
+            return null;
+        }
+
+        final List[] notifyLists = new List[updateLists.length];
+
+        for (int i = 0; i < notifyLists.length; i++) {
+            if (updateLists[i] != null) {
+                if (updateLists[i] instanceof MALEncodedElementList) {
+                    MALEncodedElementList encodedElementList = (MALEncodedElementList) updateLists[i];
+                    notifyLists[i] = new MALEncodedElementList(
+                            encodedElementList.getShortForm(), encodedElementList.size());
+                } else {
+                    notifyLists[i] = (List) ((Element) updateLists[i]).createElement();
+                }
+            } else {
+                // publishing an empty list
+                notifyLists[i] = null;
+            }
+        }
+
+        return notifyLists;
+    }
 }
@@ -20,8 +20,10 @@
  */
 package esa.mo.mal.impl.state;
 
+import esa.mo.mal.impl.InteractionTimeout;
 import esa.mo.mal.impl.MALContextFactoryImpl;
 import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import org.ccsds.moims.mo.mal.MALInteractionException;
 import org.ccsds.moims.mo.mal.MALStandardError;
@@ -36,6 +38,8 @@ public abstract class BaseOperationHandler {
 
     protected final boolean isSynchronous;
     protected final OperationResponseHolder responseHolder;
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile InteractionTimeout.Timeout timeout = null;
 
     protected BaseOperationHandler(final boolean isSynchronous,
             final OperationResponseHolder responseHolder) {
@@ -51,6 +55,43 @@ public abstract class BaseOperationHandler {
 
     public abstract boolean finished();
 
+    /**
+     * Acquires the lock that serialises the stage transitions of the
+     * interaction. It is not a monitor so that a virtual thread blocked in a
+     * listener while holding it does not pin its carrier thread.
+     */
+    public void lock() {
+        lock.lock();
+    }
+
+    /**
+     * Releases the stage transition lock.
+     */
+    public void unlock() {
+        lock.unlock();
+    }
+
+    /**
+     * Sets the timeout of the interaction.
+     *
+     * @param timeout The timeout, may be null.
+     */
+    public void setTimeout(final InteractionTimeout.Timeout timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Cancels the timeout of the interaction, if any.
+     */
+    public void cancelTimeout() {
+        final InteractionTimeout.Timeout t = timeout;
+
+        if (null != t) {
+            t.cancel();
+            timeout = null;
+        }
+    }
+
     protected static void logUnexpectedTransitionError(final int interactionType, final int interactionStage) {
         MALContextFactoryImpl.LOGGER.log(Level.WARNING,
                 "Unexpected transition IP({0}) Stage({1})",
@@ -22,6 +22,7 @@ package esa.mo.mal.impl.state;
 
 import esa.mo.mal.impl.MALContextFactoryImpl;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.logging.Level;
 import org.ccsds.moims.mo.mal.MALException;
 import org.ccsds.moims.mo.mal.MALInteractionException;
@@ -35,13 +36,15 @@ import org.ccsds.moims.mo.mal.transport.MALNotifyBody;
 
 /**
  * This small class is used to hold the response to interactions for a consumer.
+ * The waiting thread parks on a latch rather than on a monitor, so that a
+ * virtual thread waiting for a response does not pin its carrier thread.
  */
 public class OperationResponseHolder {
 
-    private final BooleanHolder responseSignal = new BooleanHolder();
+    private final CountDownLatch responseSignal = new CountDownLatch(1);
     private final MALInteractionListener listener;
-    private boolean inError = false;
-    private MALMessage result = null;
+    private volatile boolean inError = false;
+    private volatile MALMessage result = null;
 
     public OperationResponseHolder(MALInteractionListener listener) {
         this.listener = listener;
@@ -56,27 +59,28 @@ public class OperationResponseHolder {
     }
 
     public void waitForResponseSignal() {
+        boolean interrupted = false;
+
         // wait for the response signal
-        synchronized (responseSignal) {
-            while (!responseSignal.getValue()) {
-                try {
-                    responseSignal.wait();
-                } catch (InterruptedException ex) {
-                    MALContextFactoryImpl.LOGGER.log(Level.WARNING,
-                            "Interrupted waiting for handler lock ", ex);
-                }
+        while (0 != responseSignal.getCount()) {
+            try {
+                responseSignal.await();
+            } catch (InterruptedException ex) {
+                MALContextFactoryImpl.LOGGER.log(Level.WARNING,
+                        "Interrupted waiting for handler lock ", ex);
+                interrupted = true;
             }
         }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     public void signalResponse(final boolean isError, final MALMessage msg) {
         this.inError = isError;
         this.result = msg;
-
-        synchronized (responseSignal) {
-            responseSignal.setValue();
-            responseSignal.notifyAll();
-        }
+        responseSignal.countDown();
     }
 
     public MALMessage getResult() throws MALInteractionException, MALException {
@@ -87,31 +91,6 @@ public class OperationResponseHolder {
         return result;
     }
 
-    /**
-     * Small class to hold a boolean value. Can be used for signalling purposes
-     * as can be synchronised on and have its value set.
-     */
-    private static final class BooleanHolder {
-
-        private boolean value = false;
-
-        /**
-         * Returns the current value.
-         *
-         * @return the current value.
-         */
-        public synchronized boolean getValue() {
-            return value;
-        }
-
-        /**
-         * Sets the held value to true.
-         */
-        public synchronized void setValue() {
-            value = true;
-        }
-    }
-
     /**
      * Wrapper class to allow an PubSub interaction to be processed by common
      * code.
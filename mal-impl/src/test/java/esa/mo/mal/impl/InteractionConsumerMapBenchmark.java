@@ -0,0 +1,160 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl;
+
+import esa.mo.mal.impl.broker.TestMessageHeader;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.MALRequestOperation;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.ccsds.moims.mo.mal.transport.MALMessageBody;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the throughput of the transaction handling of the consumer with
+ * hundreds of threads issuing synchronous REQUESTs at the same time, as they
+ * would through MALConsumerImpl. The responses are delivered by a small pool of
+ * threads standing for the transport dispatchers, so both sides of the
+ * InteractionConsumerMap are exercised.
+ *
+ * Run it with: mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=esa.mo.mal.impl.InteractionConsumerMapBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InteractionConsumerMapBenchmark {
+
+    private static final URI CONSUMER_URI = new URI("malc://consumer");
+    private static final URI PROVIDER_URI = new URI("malp://provider");
+
+    /**
+     * The consumer side shared by all the requesting threads.
+     */
+    @State(Scope.Benchmark)
+    public static class Consumer {
+
+        @Param({"4"})
+        private int dispatchers;
+
+        private InteractionConsumerMap icmap;
+        private ExecutorService transport;
+
+        @Setup
+        public void setUp() {
+            icmap = new InteractionConsumerMap();
+            transport = Executors.newFixedThreadPool(dispatchers);
+        }
+
+        @TearDown
+        public void tearDown() {
+            transport.shutdownNow();
+        }
+
+        void respond(final Long transId) {
+            final TestMessageHeader hdr = new TestMessageHeader(PROVIDER_URI, CONSUMER_URI,
+                    new IdentifierList(), 4, 2, 1);
+            hdr.setInteractionType(InteractionType.REQUEST);
+            hdr.setInteractionStage(MALRequestOperation.REQUEST_RESPONSE_STAGE);
+            hdr.setTransactionId(transId);
+            hdr.setIsErrorMessage(false);
+
+            try {
+                icmap.handleStage(new ResponseMessage(hdr));
+            } catch (MALInteractionException | MALException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(256)
+    public MALMessage synchronousRequest(Consumer consumer)
+            throws MALInteractionException, MALException {
+        final Long transId = consumer.icmap.createTransaction(
+                InteractionType._REQUEST_INDEX, true, null);
+        consumer.transport.execute(() -> consumer.respond(transId));
+        return consumer.icmap.waitForResponse(transId);
+    }
+
+    /**
+     * A response without body.
+     */
+    private static class ResponseMessage implements MALMessage {
+
+        private final MALMessageHeader header;
+
+        ResponseMessage(MALMessageHeader header) {
+            this.header = header;
+        }
+
+        @Override
+        public MALMessageHeader getHeader() {
+            return header;
+        }
+
+        @Override
+        public MALMessageBody getBody() {
+            return null;
+        }
+
+        @Override
+        public Map getQoSProperties() {
+            return null;
+        }
+
+        @Override
+        public void free() throws MALException {
+            // nothing to do
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(InteractionConsumerMapBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,147 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.ccsds.moims.mo.mal.MALHelper;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.MALInvokeOperation;
+import org.ccsds.moims.mo.mal.MALOperation;
+import org.ccsds.moims.mo.mal.MALProgressOperation;
+import org.ccsds.moims.mo.mal.MALRequestOperation;
+import org.ccsds.moims.mo.mal.MALSubmitOperation;
+import org.ccsds.moims.mo.mal.consumer.MALInteractionFuture;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the expiry and cancellation of the timeouts of the InteractionTimeout,
+ * and that an expired interaction completes its future exceptionally.
+ */
+public class InteractionTimeoutTest {
+
+    @Test
+    public void testTimeoutExpires() throws Exception {
+        final InteractionTimeout timeouts = new InteractionTimeout();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final long start = System.nanoTime();
+
+        assertNotNull(timeouts.schedule(50, latch::countDown));
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(0, timeouts.getPendingCount());
+    }
+
+    @Test
+    public void testCancelledTimeoutDoesNotExpire() throws Exception {
+        final InteractionTimeout timeouts = new InteractionTimeout();
+        final AtomicInteger fired = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        final InteractionTimeout.Timeout cancelled = timeouts.schedule(30, fired::incrementAndGet);
+        timeouts.schedule(60, latch::countDown);
+        assertEquals(2, timeouts.getPendingCount());
+
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+        assertEquals(1, timeouts.getPendingCount());
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(0, fired.get());
+    }
+
+    @Test
+    public void testTimeoutsExpireInOrder() throws Exception {
+        // spans the first two wheels so that the cascading is exercised
+        final long[] delays = {3000, 20, 2600, 700, 10, 1500};
+        final InteractionTimeout timeouts = new InteractionTimeout();
+        final CountDownLatch latch = new CountDownLatch(delays.length);
+        final AtomicInteger order = new AtomicInteger();
+        final int[] expiredAt = new int[delays.length];
+
+        for (int i = 0; i < delays.length; i++) {
+            final int index = i;
+            timeouts.schedule(delays[i], () -> {
+                expiredAt[index] = order.getAndIncrement();
+                latch.countDown();
+            });
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertArrayEquals(new int[]{5, 1, 4, 2, 0, 3}, expiredAt);
+    }
+
+    @Test
+    public void testDisabledTimeout() {
+        final InteractionTimeout timeouts = new InteractionTimeout();
+
+        assertNull(timeouts.schedule(0, () -> fail("Must not run")));
+        assertEquals(0, timeouts.getPendingCount());
+    }
+
+    @Test
+    public void testTimeoutFromQoS() {
+        final InteractionTimeout timeouts = new InteractionTimeout();
+        final Map qos = new HashMap();
+
+        qos.put("org.ccsds.moims.mo.mal.interaction.timeout", "250");
+        assertEquals(250, timeouts.getTimeout(qos, null));
+
+        qos.put("org.ccsds.moims.mo.mal.interaction.timeout", 500L);
+        assertEquals(500, timeouts.getTimeout(qos, null));
+    }
+
+    @Test
+    public void testTimeoutCompletesTheFutureExceptionally() throws Exception {
+        final Map qos = new HashMap();
+        qos.put("org.ccsds.moims.mo.mal.interaction.timeout", 50L);
+        final UShort one = new UShort(1);
+        final Identifier name = new Identifier("timedOut");
+        final MALOperation[] ops = {
+            new MALSubmitOperation(one, name, false, one, null),
+            new MALRequestOperation(one, name, false, one, null, null),
+            new MALInvokeOperation(one, name, false, one, null, null, null),
+            new MALProgressOperation(one, name, false, one, null, null, null, null)
+        };
+        final InteractionConsumerMap map = new InteractionConsumerMap();
+
+        for (MALOperation op : ops) {
+            final MALInteractionFuture future = new MALInteractionFuture();
+            map.createTransaction(op, false, qos, future);
+
+            try {
+                future.getFuture().get(5, TimeUnit.SECONDS);
+                fail("The " + op.getInteractionType() + " should have timed out");
+            } catch (ExecutionException ex) {
+                assertTrue(ex.getCause() instanceof MALInteractionException);
+                assertEquals(MALHelper.DELIVERY_TIMEDOUT_ERROR_NUMBER,
+                        ((MALInteractionException) ex.getCause()).getStandardError().getErrorNumber());
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the TransactionTable against a HashMap with a random sequence of
+ * operations.
+ */
+public class TransactionTableTest {
+
+    @Test
+    public void testMatchesHashMap() {
+        final Random random = new Random(42);
+        final TransactionTable<String> table = new TransactionTable<>();
+        final Map<Long, String> expected = new HashMap<>();
+        final List<Long> ids = new ArrayList<>();
+        long nextId = (System.currentTimeMillis() - 1283299200000L) << 24;
+
+        for (int i = 0; i < 200000; i++) {
+            final int op = random.nextInt(10);
+
+            if ((op < 5) || ids.isEmpty()) {
+                final long id = nextId++;
+                final String value = "T" + id;
+                assertNull(table.putIfAbsent(id, value));
+                expected.put(id, value);
+                ids.add(id);
+            } else {
+                final int index = random.nextInt(ids.size());
+                final long id = ids.get(index);
+
+                if (op < 8) {
+                    assertEquals(expected.remove(id), table.remove(id));
+                    ids.set(index, ids.get(ids.size() - 1));
+                    ids.remove(ids.size() - 1);
+                } else {
+                    assertEquals(expected.get(id), table.get(id));
+                    assertNull(table.get(id + 1000000000L));
+                }
+            }
+
+            assertEquals(expected.size(), table.size());
+        }
+
+        for (Map.Entry<Long, String> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), table.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testConditionalOperations() {
+        final TransactionTable<String> table = new TransactionTable<>();
+        final String value = "first";
+
+        assertNull(table.putIfAbsent(1L, value));
+        assertSame(value, table.putIfAbsent(1L, "second"));
+        assertFalse(table.remove(1L, "other"));
+        assertSame(value, table.get(1L));
+        assertTrue(table.remove(1L, value));
+        assertNull(table.get(1L));
+        assertEquals(0, table.size());
+    }
+}
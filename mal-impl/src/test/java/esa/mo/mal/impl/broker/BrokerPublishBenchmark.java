@@ -0,0 +1,216 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker;
+
+import esa.mo.mal.impl.pubsub.SubscriptionSource;
+import java.lang.reflect.Proxy;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.broker.MALBrokerBinding;
+import org.ccsds.moims.mo.mal.provider.MALInteraction;
+import org.ccsds.moims.mo.mal.structures.AttributeList;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.Subscription;
+import org.ccsds.moims.mo.mal.structures.SubscriptionFilter;
+import org.ccsds.moims.mo.mal.structures.SubscriptionFilterList;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UIntegerList;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.ccsds.moims.mo.mal.transport.MALPublishRegisterBody;
+import org.ccsds.moims.mo.mal.transport.MALRegisterBody;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the PUBLISH throughput of the broker handler with one and with
+ * several concurrent publishers. Each publisher thread registers its own
+ * provider on one of the broker keys, the NOTIFY messages are sent to a
+ * binding that only counts them.
+ *
+ * Run it with: mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=esa.mo.mal.impl.broker.BrokerPublishBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BrokerPublishBenchmark {
+
+    private static final int PARAMETERS = 500;
+
+    /**
+     * The broker shared by all the publisher threads.
+     */
+    @State(Scope.Benchmark)
+    public static class Broker {
+
+        @Param({"1", "8"})
+        private int brokerKeys;
+
+        @Param({"500"})
+        private int consumers;
+
+        private final AtomicInteger publisherCount = new AtomicInteger();
+        private final AtomicLong notifyCount = new AtomicLong();
+        private MALBrokerHandlerImpl handler;
+
+        @Setup
+        public void setUp() throws Exception {
+            final MALBrokerBinding binding = (MALBrokerBinding) Proxy.newProxyInstance(
+                    getClass().getClassLoader(), new Class[]{MALBrokerBinding.class},
+                    (proxy, method, args) -> {
+                        if (method.getName().equals("sendNotify")) {
+                            notifyCount.incrementAndGet();
+                        }
+                        return null;
+                    });
+
+            handler = new MALBrokerHandlerImpl(null) {
+                @Override
+                protected SubscriptionSource createEntry(MALMessageHeader hdr) {
+                    return new SubscriptionSource(hdr);
+                }
+
+                @Override
+                protected MALBrokerBinding getBroker(String uriTo) {
+                    return binding;
+                }
+            };
+
+            Random random = new Random(1);
+
+            for (int c = 0; c < consumers; c++) {
+                TestMessageHeader hdr = new TestMessageHeader(new URI("malc://consumer" + c),
+                        brokerUri(c % brokerKeys), domain("sc"), 4, 2, 1);
+
+                for (int s = 0; s < 3; s++) {
+                    AttributeList names = new AttributeList();
+                    names.add(new Identifier("P" + random.nextInt(PARAMETERS)));
+                    SubscriptionFilterList filters = new SubscriptionFilterList();
+                    filters.add(new SubscriptionFilter(new Identifier("name"), names));
+                    final Subscription subscription = new Subscription(
+                            new Identifier("sub" + s), domain("sc.*"), filters);
+
+                    handler.handleRegister(interaction(hdr), (MALRegisterBody) Proxy.newProxyInstance(
+                            getClass().getClassLoader(), new Class[]{MALRegisterBody.class},
+                            (proxy, method, args) -> subscription));
+                }
+            }
+        }
+    }
+
+    /**
+     * A single publisher, one for each benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Publisher {
+
+        private MALInteraction interaction;
+        private TestPublishBody body;
+
+        @Setup
+        public void setUp(Broker broker) throws Exception {
+            int id = broker.publisherCount.getAndIncrement();
+            TestMessageHeader hdr = new TestMessageHeader(new URI("malp://provider" + id),
+                    brokerUri(id % broker.brokerKeys), domain("sc.aocs"), 4, 2, 1);
+            interaction = interaction(hdr);
+
+            final IdentifierList keyNames = new IdentifierList();
+            keyNames.add(new Identifier("name"));
+            broker.handler.handlePublishRegister(interaction, (MALPublishRegisterBody) Proxy.newProxyInstance(
+                    getClass().getClassLoader(), new Class[]{MALPublishRegisterBody.class},
+                    (proxy, method, args) -> keyNames));
+
+            Random random = new Random(id);
+            UpdateHeaderList headers = new UpdateHeaderList();
+            UIntegerList values = new UIntegerList();
+
+            for (int i = 0; i < 50; i++) {
+                AttributeList keyValues = new AttributeList();
+                keyValues.add(new Identifier("P" + random.nextInt(PARAMETERS)));
+                headers.add(new UpdateHeader(new Identifier("provider"), null, keyValues));
+                values.add(new UInteger(i));
+            }
+
+            body = new TestPublishBody(headers, values);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void singlePublisher(Broker broker, Publisher publisher)
+            throws MALInteractionException, MALException {
+        broker.handler.handlePublish(publisher.interaction, publisher.body);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void concurrentPublishers(Broker broker, Publisher publisher)
+            throws MALInteractionException, MALException {
+        broker.handler.handlePublish(publisher.interaction, publisher.body);
+    }
+
+    private static URI brokerUri(int index) {
+        return new URI("malbroker://benchmark" + index);
+    }
+
+    private static MALInteraction interaction(final MALMessageHeader hdr) {
+        return (MALInteraction) Proxy.newProxyInstance(
+                BrokerPublishBenchmark.class.getClassLoader(), new Class[]{MALInteraction.class},
+                (proxy, method, args) -> method.getName().equals("getMessageHeader") ? hdr : null);
+    }
+
+    private static IdentifierList domain(String domain) {
+        IdentifierList list = new IdentifierList();
+        for (String part : domain.split("\\.")) {
+            list.add(new Identifier(part));
+        }
+        return list;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(BrokerPublishBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,239 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker;
+
+import esa.mo.mal.impl.pubsub.SubscriptionSource;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.broker.MALBrokerBinding;
+import org.ccsds.moims.mo.mal.provider.MALInteraction;
+import org.ccsds.moims.mo.mal.structures.AttributeList;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.Subscription;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UIntegerList;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.transport.MALDeregisterBody;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.ccsds.moims.mo.mal.transport.MALPublishRegisterBody;
+import org.ccsds.moims.mo.mal.transport.MALRegisterBody;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the broker handler drops the state of a broker key once its
+ * last provider and consumer are gone, also while other threads register on
+ * the same broker key.
+ */
+public class MALBrokerHandlerImplTest {
+
+    private static final URI BROKER_URI = new URI("malbroker://test");
+
+    private final AtomicInteger notifyCount = new AtomicInteger();
+    private MALBrokerHandlerImpl handler;
+
+    @Before
+    public void setUp() {
+        final MALBrokerBinding binding = (MALBrokerBinding) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class[]{MALBrokerBinding.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("sendNotify")) {
+                        notifyCount.incrementAndGet();
+                    }
+                    return null;
+                });
+
+        handler = new MALBrokerHandlerImpl(null) {
+            @Override
+            protected SubscriptionSource createEntry(MALMessageHeader hdr) {
+                return new SubscriptionSource(hdr);
+            }
+
+            @Override
+            protected MALBrokerBinding getBroker(String uriTo) {
+                return binding;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        handler.close();
+    }
+
+    @Test
+    public void testStateIsRemovedWithTheLastSource() throws Exception {
+        final MALInteraction consumer = interaction("malc://consumer");
+        final MALInteraction provider = interaction("malp://provider");
+
+        register(consumer, "sub");
+        publishRegister(provider);
+        assertEquals(1, handler.getBrokerKeyCount());
+
+        deregister(consumer, "sub");
+        assertEquals(1, handler.getBrokerKeyCount());
+        handler.handlePublishDeregister(provider);
+        assertEquals(0, handler.getBrokerKeyCount());
+
+        // looking up a provider or publishing does not bring the state back
+        assertNotNull(handler.getProviderQoSLevel(provider.getMessageHeader()));
+
+        try {
+            handler.handlePublish(provider, publishBody());
+            fail("The provider is no longer registered");
+        } catch (MALInteractionException ex) {
+            assertEquals(0, handler.getBrokerKeyCount());
+        }
+
+        // deregistering what is not there leaves no state either
+        deregister(consumer, "sub");
+        handler.handlePublishDeregister(provider);
+        assertEquals(0, handler.getBrokerKeyCount());
+    }
+
+    @Test
+    public void testRegisterAfterRemovalIsKept() throws Exception {
+        final MALInteraction consumer = interaction("malc://consumer");
+        final MALInteraction provider = interaction("malp://provider");
+
+        register(consumer, "sub");
+        deregister(consumer, "sub");
+        assertEquals(0, handler.getBrokerKeyCount());
+
+        register(consumer, "sub");
+        publishRegister(provider);
+        handler.handlePublish(provider, publishBody());
+        waitForNotify(1);
+        assertEquals(1, handler.getBrokerKeyCount());
+    }
+
+    @Test
+    public void testConcurrentRegistrationsAreNotLost() throws Exception {
+        final int threads = 4;
+        final int rounds = 2000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            final MALInteraction consumer = interaction("malc://consumer" + t);
+            final Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+
+                    for (int i = 0; i < rounds; i++) {
+                        register(consumer, "sub");
+                        deregister(consumer, "sub");
+                    }
+
+                    // the last registration must survive the removals of the others
+                    register(consumer, "sub");
+                } catch (Throwable ex) {
+                    failure.compareAndSet(null, ex);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+
+        start.countDown();
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertNull(failure.get());
+        assertEquals(1, handler.getBrokerKeyCount());
+
+        final MALInteraction provider = interaction("malp://provider");
+        publishRegister(provider);
+        handler.handlePublish(provider, publishBody());
+        waitForNotify(threads);
+    }
+
+    private void waitForNotify(final int count) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+
+        while ((notifyCount.get() < count) && (System.currentTimeMillis() < deadline)) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(count, notifyCount.get());
+    }
+
+    private void register(final MALInteraction interaction, final String subId) throws Exception {
+        final IdentifierList domain = new IdentifierList();
+        domain.add(new Identifier("*"));
+        final Subscription subscription = new Subscription(new Identifier(subId), domain, null);
+
+        handler.handleRegister(interaction, (MALRegisterBody) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class[]{MALRegisterBody.class},
+                (proxy, method, args) -> subscription));
+    }
+
+    private void deregister(final MALInteraction interaction, final String subId) throws Exception {
+        final IdentifierList subIds = new IdentifierList();
+        subIds.add(new Identifier(subId));
+
+        handler.handleDeregister(interaction, (MALDeregisterBody) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class[]{MALDeregisterBody.class},
+                (proxy, method, args) -> subIds));
+    }
+
+    private void publishRegister(final MALInteraction interaction) throws Exception {
+        final IdentifierList keyNames = new IdentifierList();
+        keyNames.add(new Identifier("name"));
+
+        handler.handlePublishRegister(interaction, (MALPublishRegisterBody) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class[]{MALPublishRegisterBody.class},
+                (proxy, method, args) -> keyNames));
+    }
+
+    private static TestPublishBody publishBody() {
+        final AttributeList keyValues = new AttributeList();
+        keyValues.add(new Identifier("P1"));
+        final UpdateHeaderList headers = new UpdateHeaderList();
+        headers.add(new UpdateHeader(new Identifier("provider"), null, keyValues));
+        final UIntegerList values = new UIntegerList();
+        values.add(new UInteger(1));
+        return new TestPublishBody(headers, values);
+    }
+
+    private static MALInteraction interaction(final String uri) {
+        final IdentifierList domain = new IdentifierList();
+        domain.add(new Identifier("sc"));
+        final MALMessageHeader hdr = new TestMessageHeader(new URI(uri), BROKER_URI, domain, 4, 2, 1);
+
+        return (MALInteraction) Proxy.newProxyInstance(
+                MALBrokerHandlerImplTest.class.getClassLoader(), new Class[]{MALInteraction.class},
+                (proxy, method, args) -> method.getName().equals("getMessageHeader") ? hdr : null);
+    }
+}
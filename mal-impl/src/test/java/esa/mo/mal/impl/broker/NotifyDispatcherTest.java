@@ -0,0 +1,386 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker;
+
+import esa.mo.mal.encoder.binary.base.BinaryTimeHandler;
+import esa.mo.mal.encoder.binary.fixed.FixedBinaryDecoder;
+import esa.mo.mal.encoder.binary.fixed.FixedBinaryEncoder;
+import esa.mo.mal.impl.pubsub.NotifyMessageBody;
+import esa.mo.mal.impl.pubsub.NotifyMessageHeader;
+import esa.mo.mal.impl.pubsub.SubscriptionSource;
+import esa.mo.mal.support.EncodedPartCache;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.ccsds.moims.mo.mal.broker.MALBrokerBinding;
+import org.ccsds.moims.mo.mal.provider.MALInteraction;
+import org.ccsds.moims.mo.mal.structures.AttributeList;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Element;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Subscription;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UIntegerList;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.transport.MALEncodedElement;
+import org.ccsds.moims.mo.mal.transport.MALEncodedElementList;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks the per consumer queues, the overflow policies and the conflating
+ * subscriptions of the NotifyDispatcher using a binding that blocks on the
+ * slow consumer.
+ */
+public class NotifyDispatcherTest {
+
+    private static final URI BROKER_URI = new URI("malbroker://test");
+    private static final URI SLOW = new URI("malc://slow");
+    private static final URI FAST = new URI("malc://fast");
+    private static final BrokerKey KEY = new BrokerKey(
+            new TestMessageHeader(SLOW, BROKER_URI, null, 2, 2, 1));
+
+    private final CountDownLatch slowEntered = new CountDownLatch(1);
+    private final CountDownLatch slowRelease = new CountDownLatch(1);
+    private final List<String> received = new CopyOnWriteArrayList<>();
+    private final List<Map> receivedQoS = new CopyOnWriteArrayList<>();
+    private NotifyDispatcher dispatcher;
+
+    private final MALBrokerBinding binding = (MALBrokerBinding) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class[]{MALBrokerBinding.class},
+            (proxy, method, args) -> {
+                if (method.getName().equals("sendNotify")) {
+                    URI uriTo = (URI) args[4];
+
+                    if (uriTo.equals(SLOW)) {
+                        slowEntered.countDown();
+                        slowRelease.await();
+                    }
+
+                    receivedQoS.add((null == args[11]) ? new HashMap() : (Map) args[11]);
+                    received.add(uriTo.getValue() + ":" + args[14]);
+                }
+                return null;
+            });
+
+    @After
+    public void tearDown() {
+        slowRelease.countDown();
+        if (dispatcher != null) {
+            dispatcher.close();
+        }
+    }
+
+    @Test
+    public void testSlowConsumerDoesNotDelayOthers() throws Exception {
+        dispatcher = new NotifyDispatcher(handler(), 10, NotifyDispatcher.OverflowPolicy.DROP_OLDEST, 2);
+        dispatcher.enqueue(KEY, binding, details(SLOW), body("P0"));
+        assertTrue(slowEntered.await(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 5; i++) {
+            dispatcher.enqueue(KEY, binding, details(FAST), body("P" + i));
+        }
+
+        waitFor(5);
+        assertEquals(5, dispatcher.getSentCount());
+        assertEquals(0, dispatcher.getQueueDepth(SLOW.getValue()));
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        dispatcher = new NotifyDispatcher(handler(), 3, NotifyDispatcher.OverflowPolicy.DROP_OLDEST, 1);
+        dispatcher.enqueue(KEY, binding, details(SLOW), body("P0"));
+        assertTrue(slowEntered.await(5, TimeUnit.SECONDS));
+
+        for (int i = 1; i <= 5; i++) {
+            dispatcher.enqueue(KEY, binding, details(SLOW), body("P" + i));
+        }
+
+        assertEquals(3, dispatcher.getQueueDepth(SLOW.getValue()));
+        assertEquals(2, dispatcher.getDroppedCount());
+
+        slowRelease.countDown();
+        waitFor(4);
+        assertTrue(received.get(0).contains("P0"));
+        assertTrue(received.get(1).contains("P3"));
+        assertTrue(received.get(3).contains("P5"));
+    }
+
+    @Test
+    public void testConflate() throws Exception {
+        dispatcher = new NotifyDispatcher(handler(), 2, NotifyDispatcher.OverflowPolicy.CONFLATE, 1);
+        dispatcher.enqueue(KEY, binding, details(SLOW), body("P0"));
+        assertTrue(slowEntered.await(5, TimeUnit.SECONDS));
+
+        dispatcher.enqueue(KEY, binding, details(SLOW), body("P1"));
+        dispatcher.enqueue(KEY, binding, details(SLOW), body("P2"));
+        dispatcher.enqueue(KEY, binding, details(SLOW), body("P1", "P3"));
+
+        assertEquals(0, dispatcher.getDroppedCount());
+        assertEquals(1, dispatcher.getConflatedCount());
+        assertEquals(2, dispatcher.getQueueDepth(SLOW.getValue()));
+
+        slowRelease.countDown();
+        waitFor(3);
+        assertTrue(received.get(1).contains("P2"));
+        assertTrue(received.get(2).contains("P1"));
+        assertTrue(received.get(2).contains("P3"));
+    }
+
+    @Test
+    public void testConflateKeepsOtherUpdates() {
+        NotifyMessageBody older = body("P1", "P2");
+        NotifyMessageBody remaining = older.conflate(body("P1"));
+
+        assertEquals(1, remaining.getUpdateHeaderList().size());
+        assertEquals(new Identifier("P2"), remaining.getUpdateHeaderList().get(0).getKeyValues().get(0));
+        assertEquals(new UInteger(1), remaining.getUpdateList()[0].get(0));
+        assertSame(older, older.conflate(body("P3")));
+        assertNull(older.conflate(body("P2", "P1")));
+    }
+
+    @Test
+    public void testConflatedBodyIsEncodable() throws Exception {
+        NotifyMessageBody remaining = body("P1", "P2", "P3").conflate(body("P2"));
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        FixedBinaryEncoder encoder = new FixedBinaryEncoder(baos, new BinaryTimeHandler(), false);
+        remaining.getUpdateHeaderList().encode(encoder);
+        ((Element) remaining.getUpdateList()[0]).encode(encoder);
+        encoder.close();
+
+        FixedBinaryDecoder decoder = new FixedBinaryDecoder(baos.toByteArray(),
+                new BinaryTimeHandler(), false);
+        UpdateHeaderList headers = (UpdateHeaderList) new UpdateHeaderList().decode(decoder);
+        UIntegerList values = (UIntegerList) new UIntegerList().decode(decoder);
+
+        assertEquals(2, headers.size());
+        assertEquals(new Identifier("P3"), headers.get(1).getKeyValues().get(0));
+        assertEquals(2, values.size());
+        assertEquals(new UInteger(0), values.get(0));
+        assertEquals(new UInteger(2), values.get(1));
+    }
+
+    @Test
+    public void testConflatedBodyKeepsEncodedLists() {
+        UpdateHeaderList headers = new UpdateHeaderList();
+        MALEncodedElementList encoded = new MALEncodedElementList(new UIntegerList().getShortForm(), 2);
+
+        for (String name : new String[]{"P1", "P2"}) {
+            AttributeList keyValues = new AttributeList();
+            keyValues.add(new Identifier(name));
+            headers.add(new UpdateHeader(new Identifier("provider"), null, keyValues));
+            encoded.add(new MALEncodedElement(new Blob(name.getBytes())));
+        }
+
+        NotifyMessageBody older = new NotifyMessageBody(new Identifier("sub"), headers,
+                new List[]{encoded},
+                new TestMessageHeader(new URI("malp://provider"), BROKER_URI, null, 2, 2, 1));
+        List list = older.conflate(body("P1")).getUpdateList()[0];
+
+        assertTrue(list instanceof MALEncodedElementList);
+        assertEquals(new UIntegerList().getShortForm(), ((MALEncodedElementList) list).getShortForm());
+        assertEquals(1, list.size());
+        assertSame(encoded.get(1), list.get(0));
+    }
+
+    @Test
+    public void testReleasedQueueIsRemovedOnceSent() throws Exception {
+        dispatcher = new NotifyDispatcher(handler(), 10, NotifyDispatcher.OverflowPolicy.DROP_OLDEST, 1);
+        dispatcher.enqueue(KEY, binding, details(SLOW), body("P0"));
+        assertTrue(slowEntered.await(5, TimeUnit.SECONDS));
+        dispatcher.enqueue(KEY, binding, details(SLOW), body("P1"));
+
+        dispatcher.release(SLOW.getValue());
+        assertTrue(dispatcher.getQueueDepths().containsKey(SLOW.getValue()));
+
+        slowRelease.countDown();
+        waitFor(2);
+        long end = System.currentTimeMillis() + 5000;
+
+        while (dispatcher.getQueueDepths().containsKey(SLOW.getValue())
+                && (System.currentTimeMillis() < end)) {
+            Thread.sleep(5);
+        }
+
+        assertFalse(dispatcher.getQueueDepths().containsKey(SLOW.getValue()));
+
+        // a new subscription of the consumer gets a new queue
+        dispatcher.enqueue(KEY, binding, details(SLOW), body("P2"));
+        waitFor(3);
+    }
+
+    @Test
+    public void testConflatingSubscription() throws Exception {
+        dispatcher = new NotifyDispatcher(handler(), 10, NotifyDispatcher.OverflowPolicy.DROP_OLDEST, 1);
+        dispatcher.enqueue(KEY, binding, details(SLOW), body(false, "P0"));
+        assertTrue(slowEntered.await(5, TimeUnit.SECONDS));
+
+        dispatcher.enqueue(KEY, binding, details(SLOW), body(true, "P1", "P2"));
+        dispatcher.enqueue(KEY, binding, details(SLOW), body(true, "P2"));
+        dispatcher.enqueue(KEY, binding, details(SLOW), body(true, "P1"));
+
+        assertEquals(2, dispatcher.getConflatedCount());
+        assertEquals(2, dispatcher.getQueueDepth(SLOW.getValue()));
+
+        slowRelease.countDown();
+        waitFor(3);
+        assertTrue(received.get(1).contains("P2"));
+        assertTrue(received.get(2).contains("P1"));
+    }
+
+    @Test
+    public void testConflationRequestedWithQoSProperty() {
+        dispatcher = new NotifyDispatcher(handler(), 10, NotifyDispatcher.OverflowPolicy.DROP_OLDEST, 1);
+        final Map<String, Object> qos = new HashMap<>();
+        MALInteraction interaction = (MALInteraction) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class[]{MALInteraction.class},
+                (proxy, method, args) -> method.getName().equals("getQoSProperty")
+                ? qos.get((String) args[0]) : null);
+
+        final Subscription subscription = new Subscription(new Identifier("sub"), null, null);
+
+        assertFalse(dispatcher.isConflationRequested(interaction, subscription));
+        qos.put(NotifyDispatcher.QOS_CONFLATE, Boolean.TRUE);
+        assertTrue(dispatcher.isConflationRequested(interaction, subscription));
+        qos.put(NotifyDispatcher.QOS_CONFLATE, "false");
+        assertFalse(dispatcher.isConflationRequested(interaction, subscription));
+    }
+
+    @Test
+    public void testConflationListedOnTheBroker() throws Exception {
+        final Set<String> listed = new HashSet<>(Arrays.asList(
+                "quick", "malc://all", "malc://one#slow"));
+        dispatcher = new NotifyDispatcher(handler(), 10,
+                NotifyDispatcher.OverflowPolicy.DROP_OLDEST, 1, listed);
+
+        // the options of a remote consumer only come with the message header
+        assertTrue(dispatcher.isConflationRequested(register("malc://any"), subscription("quick")));
+        assertTrue(dispatcher.isConflationRequested(register("malc://all"), subscription("slow")));
+        assertTrue(dispatcher.isConflationRequested(register("malc://one"), subscription("slow")));
+        assertFalse(dispatcher.isConflationRequested(register("malc://one"), subscription("other")));
+        assertFalse(dispatcher.isConflationRequested(register("malc://two"), subscription("slow")));
+    }
+
+    @Test
+    public void testEncodedPartsArePassedWithTheQoSProperties() throws Exception {
+        dispatcher = new NotifyDispatcher(handler(), 10, NotifyDispatcher.OverflowPolicy.DROP_OLDEST, 1);
+        final EncodedPartCache cache = new EncodedPartCache();
+        final NotifyMessageBody first = body("P1");
+        final NotifyMessageBody second = body("P1");
+        first.setEncodedParts(cache);
+        second.setEncodedParts(cache);
+
+        dispatcher.enqueue(KEY, binding, details(FAST), first);
+        dispatcher.enqueue(KEY, binding, details(FAST), second);
+        dispatcher.enqueue(KEY, binding, details(FAST), body("P2"));
+        waitFor(3);
+
+        assertSame(cache, EncodedPartCache.fromQoSProperties(receivedQoS.get(0)));
+        assertSame(cache, EncodedPartCache.fromQoSProperties(receivedQoS.get(1)));
+        assertNull(EncodedPartCache.fromQoSProperties(receivedQoS.get(2)));
+    }
+
+    @Test
+    public void testDisconnect() throws Exception {
+        dispatcher = new NotifyDispatcher(handler(), 2, NotifyDispatcher.OverflowPolicy.DISCONNECT, 1);
+        dispatcher.enqueue(KEY, binding, details(SLOW), body("P0"));
+        assertTrue(slowEntered.await(5, TimeUnit.SECONDS));
+
+        for (int i = 1; i <= 3; i++) {
+            dispatcher.enqueue(KEY, binding, details(SLOW), body("P" + i));
+        }
+
+        assertEquals(1, dispatcher.getDisconnectedCount());
+        assertEquals(3, dispatcher.getDroppedCount());
+        assertEquals(0, dispatcher.getQueueDepth(SLOW.getValue()));
+    }
+
+    private void waitFor(int count) throws InterruptedException {
+        long end = System.currentTimeMillis() + 5000;
+
+        while ((received.size() < count) && (System.currentTimeMillis() < end)) {
+            Thread.sleep(5);
+        }
+
+        assertEquals(count, received.size());
+    }
+
+    private static MALBrokerHandlerImpl handler() {
+        return new MALBrokerHandlerImpl(null) {
+            @Override
+            protected SubscriptionSource createEntry(MALMessageHeader hdr) {
+                return new SubscriptionSource(hdr);
+            }
+        };
+    }
+
+    private static NotifyMessageHeader details(URI uriTo) {
+        return new NotifyMessageHeader(uriTo, 1L, SessionType.LIVE,
+                new Identifier("LIVE"), QoSLevel.BESTEFFORT, null, new UInteger(1));
+    }
+
+    private static NotifyMessageBody body(String... names) {
+        return body(false, names);
+    }
+
+    private static NotifyMessageBody body(boolean conflating, String... names) {
+        UpdateHeaderList headers = new UpdateHeaderList();
+        UIntegerList values = new UIntegerList();
+
+        for (String name : names) {
+            AttributeList keyValues = new AttributeList();
+            keyValues.add(new Identifier(name));
+            headers.add(new UpdateHeader(new Identifier("provider"), null, keyValues));
+            values.add(new UInteger(values.size()));
+        }
+
+        return new NotifyMessageBody(new Identifier("sub"), headers, new List[]{values},
+                new TestMessageHeader(new URI("malp://provider"), BROKER_URI, null, 2, 2, 1),
+                conflating);
+    }
+
+    private static MALInteraction register(final String consumer) throws Exception {
+        final MALMessageHeader hdr = new TestMessageHeader(new URI(consumer),
+                BROKER_URI, null, 2, 2, 1);
+        return (MALInteraction) Proxy.newProxyInstance(
+                NotifyDispatcherTest.class.getClassLoader(), new Class[]{MALInteraction.class},
+                (proxy, method, args) -> method.getName().equals("getMessageHeader") ? hdr : null);
+    }
+
+    private static Subscription subscription(final String id) {
+        return new Subscription(new Identifier(id), null, null);
+    }
+}
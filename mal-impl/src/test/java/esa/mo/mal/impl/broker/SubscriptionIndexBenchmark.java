@@ -0,0 +1,164 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker;
+
+import esa.mo.mal.impl.pubsub.NotifyMessageSet;
+import esa.mo.mal.impl.pubsub.SubscriptionSource;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.structures.AttributeList;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.Subscription;
+import org.ccsds.moims.mo.mal.structures.SubscriptionFilter;
+import org.ccsds.moims.mo.mal.structures.SubscriptionFilterList;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UIntegerList;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the generation of the NOTIFY messages of a PUBLISH using the
+ * SubscriptionIndex against the linear walk over all the consumers done with
+ * the BrokerMatcher.
+ *
+ * Run it with: mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=esa.mo.mal.impl.broker.SubscriptionIndexBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubscriptionIndexBenchmark {
+
+    private static final URI BROKER_URI = new URI("malbroker://benchmark");
+    private static final int PARAMETERS = 1000;
+
+    @Param({"100", "1000", "5000"})
+    private int consumers;
+
+    @Param({"100"})
+    private int updates;
+
+    private final List<SubscriptionSource> sources = new ArrayList<>();
+    private final SubscriptionIndex index = new SubscriptionIndex();
+    private TestMessageHeader publishHeader;
+    private TestPublishBody publishBody;
+    private IdentifierList keyNames;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        keyNames = new IdentifierList();
+        keyNames.add(new Identifier("name"));
+        keyNames.add(new Identifier("id"));
+
+        // Each consumer monitors a few parameters of one of the spacecraft
+        for (int c = 0; c < consumers; c++) {
+            TestMessageHeader hdr = new TestMessageHeader(new URI("malc://consumer" + c),
+                    BROKER_URI, null, 4, 2, 1);
+            SubscriptionSource source = new SubscriptionSource(hdr);
+
+            for (int s = 0; s < 3; s++) {
+                AttributeList names = new AttributeList();
+                names.add(new Identifier("P" + random.nextInt(PARAMETERS)));
+                SubscriptionFilterList filters = new SubscriptionFilterList();
+                filters.add(new SubscriptionFilter(new Identifier("name"), names));
+                source.addSubscription(hdr, new Subscription(new Identifier("sub" + s),
+                        domain("sc" + random.nextInt(4) + ".*"), filters));
+            }
+
+            sources.add(source);
+            index.update(source);
+        }
+
+        publishHeader = new TestMessageHeader(new URI("malp://provider"), BROKER_URI,
+                domain("sc0.aocs"), 4, 2, 1);
+        UpdateHeaderList headers = new UpdateHeaderList();
+        UIntegerList values = new UIntegerList();
+
+        for (int i = 0; i < updates; i++) {
+            AttributeList keyValues = new AttributeList();
+            keyValues.add(new Identifier("P" + random.nextInt(PARAMETERS)));
+            keyValues.add((long) i);
+            headers.add(new UpdateHeader(new Identifier("provider"), null, keyValues));
+            values.add(new UInteger(i));
+        }
+
+        publishBody = new TestPublishBody(headers, values);
+    }
+
+    @Benchmark
+    public List<NotifyMessageSet> linearBrokerMatcher() throws MALException {
+        List<NotifyMessageSet> lst = new LinkedList<>();
+
+        for (SubscriptionSource source : sources) {
+            NotifyMessageSet set = source.generateNotifyList(publishHeader,
+                    publishBody.getUpdateHeaderList(), publishBody, keyNames);
+            if (set != null) {
+                lst.add(set);
+            }
+        }
+
+        return lst;
+    }
+
+    @Benchmark
+    public List<NotifyMessageSet> subscriptionIndex() throws MALException {
+        return index.generateNotifyMessages(publishHeader,
+                publishBody.getUpdateHeaderList(), publishBody, keyNames);
+    }
+
+    private static IdentifierList domain(String domain) {
+        IdentifierList list = new IdentifierList();
+        for (String part : domain.split("\\.")) {
+            list.add(new Identifier(part));
+        }
+        return list;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SubscriptionIndexBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
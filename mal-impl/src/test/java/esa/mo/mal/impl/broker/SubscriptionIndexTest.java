@@ -0,0 +1,256 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker;
+
+import esa.mo.mal.impl.pubsub.NotifyMessageBody;
+import esa.mo.mal.impl.pubsub.NotifyMessageSet;
+import esa.mo.mal.impl.pubsub.SubscriptionSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import org.ccsds.moims.mo.mal.structures.AttributeList;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.Subscription;
+import org.ccsds.moims.mo.mal.structures.SubscriptionFilter;
+import org.ccsds.moims.mo.mal.structures.SubscriptionFilterList;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UIntegerList;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the SubscriptionIndex generates exactly the same notify
+ * messages as the linear matching done by the SubscriptionSource.
+ */
+public class SubscriptionIndexTest {
+
+    private static final URI BROKER_URI = new URI("malbroker://test");
+    private static final String[] DOMAINS = {
+        "sc", "sc.aocs", "sc.aocs.gyro", "sc.payload", "sc.payload.cam",
+        "sc.*", "*.aocs", "*.payload.*", "sc.*.gyro", "*", "other"
+    };
+    private static final String[] NAMES = {"*", "P0", "P1", "P2", "P3"};
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void testRandomSubscriptionsMatchLinearBroker() throws Exception {
+        List<SubscriptionSource> sources = new ArrayList<>();
+        SubscriptionIndex index = new SubscriptionIndex();
+
+        for (int c = 0; c < 50; c++) {
+            SubscriptionSource source = registerRandomConsumer("malc://consumer" + c, index);
+            sources.add(source);
+        }
+
+        for (int p = 0; p < 200; p++) {
+            publishAndCompare(sources, index);
+        }
+    }
+
+    @Test
+    public void testDeregisterRemovesFromIndex() throws Exception {
+        List<SubscriptionSource> sources = new ArrayList<>();
+        SubscriptionIndex index = new SubscriptionIndex();
+
+        for (int c = 0; c < 20; c++) {
+            sources.add(registerRandomConsumer("malc://consumer" + c, index));
+        }
+
+        for (int c = 0; c < 20; c += 2) {
+            SubscriptionSource source = sources.get(c);
+            IdentifierList ids = new IdentifierList();
+            ids.add(new Identifier("sub0"));
+            source.removeSubscriptions(ids);
+            index.update(source);
+        }
+
+        for (int p = 0; p < 50; p++) {
+            publishAndCompare(sources, index);
+        }
+
+        for (SubscriptionSource source : sources) {
+            source.removeSubscriptions(null);
+            index.update(source);
+        }
+
+        assertTrue(index.isEmpty());
+    }
+
+    @Test
+    public void testWildcardSubscriptionMatchesEverything() throws Exception {
+        SubscriptionIndex index = new SubscriptionIndex();
+        TestMessageHeader hdr = new TestMessageHeader(new URI("malc://all"),
+                BROKER_URI, null, 2, 2, 1);
+        SubscriptionSource source = new SubscriptionSource(hdr);
+        IdentifierList domain = new IdentifierList();
+        domain.add(new Identifier("*"));
+        source.addSubscription(hdr, new Subscription(new Identifier("all"), domain, null));
+        index.update(source);
+
+        TestMessageHeader pubHdr = new TestMessageHeader(new URI("malp://provider"),
+                BROKER_URI, domain("sc.aocs.gyro"), 2, 2, 1);
+        TestPublishBody body = createPublishBody(10);
+        List<NotifyMessageSet> notify = index.generateNotifyMessages(pubHdr,
+                body.getUpdateHeaderList(), body, keyNames());
+
+        assertEquals(1, notify.size());
+        assertEquals(10, notify.get(0).getBodies().get(0).getUpdateHeaderList().size());
+        assertEquals(10, notify.get(0).getBodies().get(0).getUpdateList()[0].size());
+    }
+
+    @Test
+    public void testSameMatchesShareUpdateLists() throws Exception {
+        SubscriptionIndex index = new SubscriptionIndex();
+        IdentifierList domain = new IdentifierList();
+        domain.add(new Identifier("*"));
+
+        for (int c = 0; c < 2; c++) {
+            TestMessageHeader hdr = new TestMessageHeader(new URI("malc://all" + c),
+                    BROKER_URI, null, 2, 2, 1);
+            SubscriptionSource source = new SubscriptionSource(hdr);
+            source.addSubscription(hdr, new Subscription(new Identifier("all"), domain, null));
+            index.update(source);
+        }
+
+        TestMessageHeader pubHdr = new TestMessageHeader(new URI("malp://provider"),
+                BROKER_URI, domain("sc.aocs.gyro"), 2, 2, 1);
+        TestPublishBody body = createPublishBody(10);
+        List<NotifyMessageSet> notify = index.generateNotifyMessages(pubHdr,
+                body.getUpdateHeaderList(), body, keyNames());
+
+        assertEquals(2, notify.size());
+        NotifyMessageBody first = notify.get(0).getBodies().get(0);
+        NotifyMessageBody second = notify.get(1).getBodies().get(0);
+        assertSame(first.getUpdateHeaderList(), second.getUpdateHeaderList());
+        assertSame(first.getUpdateList()[0], second.getUpdateList()[0]);
+
+        // the encoded form of the shared lists is cached for this PUBLISH only
+        assertNotNull(first.getEncodedParts());
+        assertSame(first.getEncodedParts(), second.getEncodedParts());
+        assertNotSame(first.getEncodedParts(), index.generateNotifyMessages(pubHdr,
+                body.getUpdateHeaderList(), body, keyNames()).get(0).getBodies().get(0)
+                .getEncodedParts());
+    }
+
+    private SubscriptionSource registerRandomConsumer(String uri, SubscriptionIndex index) {
+        TestMessageHeader hdr = new TestMessageHeader(new URI(uri), BROKER_URI,
+                null, 2, 2, 1 + random.nextInt(2));
+        SubscriptionSource source = new SubscriptionSource(hdr);
+        int count = 1 + random.nextInt(3);
+
+        for (int s = 0; s < count; s++) {
+            IdentifierList domain = random.nextInt(10) == 0 ? null
+                    : domain(DOMAINS[random.nextInt(DOMAINS.length)]);
+            SubscriptionFilterList filters = new SubscriptionFilterList();
+
+            if (random.nextBoolean()) {
+                AttributeList values = new AttributeList();
+                values.add(new Identifier(NAMES[random.nextInt(NAMES.length)]));
+                if (random.nextBoolean()) {
+                    values.add(new Identifier(NAMES[random.nextInt(NAMES.length)]));
+                }
+                filters.add(new SubscriptionFilter(new Identifier("name"), values));
+            }
+
+            if (random.nextBoolean()) {
+                AttributeList values = new AttributeList();
+                values.add((long) random.nextInt(4));
+                filters.add(new SubscriptionFilter(new Identifier("id"), values));
+            }
+
+            source.addSubscription(hdr, new Subscription(new Identifier("sub" + s),
+                    domain, filters.isEmpty() && random.nextBoolean() ? null : filters));
+        }
+
+        index.update(source);
+        return source;
+    }
+
+    private void publishAndCompare(List<SubscriptionSource> sources,
+            SubscriptionIndex index) throws Exception {
+        TestMessageHeader hdr = new TestMessageHeader(new URI("malp://provider"), BROKER_URI,
+                domain(DOMAINS[random.nextInt(5)]), 2, 2, 1 + random.nextInt(2));
+        TestPublishBody body = createPublishBody(1 + random.nextInt(20));
+        IdentifierList keyNames = keyNames();
+
+        Map<String, String> expected = new TreeMap<>();
+        for (SubscriptionSource source : sources) {
+            NotifyMessageSet set = source.generateNotifyList(hdr,
+                    body.getUpdateHeaderList(), body, keyNames);
+            if (set != null) {
+                addResults(expected, set);
+            }
+        }
+
+        Map<String, String> actual = new TreeMap<>();
+        for (NotifyMessageSet set : index.generateNotifyMessages(hdr,
+                body.getUpdateHeaderList(), body, keyNames)) {
+            addResults(actual, set);
+        }
+
+        assertEquals(expected, actual);
+    }
+
+    private static void addResults(Map<String, String> results, NotifyMessageSet set) {
+        for (NotifyMessageBody msg : set.getBodies()) {
+            String key = set.getDetails().uriTo + "/" + msg.getSubscriptionId();
+            assertFalse("Duplicated notify for " + key, results.containsKey(key));
+            results.put(key, msg.getUpdateHeaderList().toString() + msg.getUpdateList()[0]);
+        }
+    }
+
+    private TestPublishBody createPublishBody(int size) {
+        UpdateHeaderList headers = new UpdateHeaderList();
+        UIntegerList values = new UIntegerList();
+
+        for (int i = 0; i < size; i++) {
+            AttributeList keyValues = new AttributeList();
+            keyValues.add(new Identifier(NAMES[1 + random.nextInt(NAMES.length - 1)]));
+            keyValues.add((long) random.nextInt(4));
+            headers.add(new UpdateHeader(new Identifier("provider"), null, keyValues));
+            values.add(new UInteger(i));
+        }
+
+        return new TestPublishBody(headers, values);
+    }
+
+    private static IdentifierList keyNames() {
+        IdentifierList keyNames = new IdentifierList();
+        keyNames.add(new Identifier("name"));
+        keyNames.add(new Identifier("id"));
+        return keyNames;
+    }
+
+    private static IdentifierList domain(String domain) {
+        IdentifierList list = new IdentifierList();
+        for (String part : domain.split("\\.")) {
+            list.add(new Identifier(part));
+        }
+        return list;
+    }
+}
@@ -0,0 +1,270 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker;
+
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.structures.UShort;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+
+/**
+ * Simple mutable message header used by the broker tests and benchmarks.
+ */
+public class TestMessageHeader implements MALMessageHeader {
+
+    private URI uRIFrom;
+    private Blob authenticationId;
+    private URI uRITo;
+    private Time timestamp;
+    private QoSLevel qoSlevel;
+    private UInteger priority;
+    private IdentifierList domain;
+    private Identifier networkZone;
+    private SessionType session;
+    private Identifier sessionName;
+    private InteractionType interactionType;
+    private UOctet interactionStage;
+    private Long transactionId;
+    private UShort serviceArea;
+    private UShort service;
+    private UShort operation;
+    private UOctet areaVersion;
+    private Boolean isErrorMessage;
+
+    /**
+     * Creates a PUBSUB header with the usual default values.
+     *
+     * @param uriFrom The source URI.
+     * @param uriTo The destination URI.
+     * @param domain The domain.
+     * @param area The area number.
+     * @param service The service number.
+     * @param operation The operation number.
+     */
+    public TestMessageHeader(URI uriFrom, URI uriTo, IdentifierList domain,
+            int area, int service, int operation) {
+        this.uRIFrom = uriFrom;
+        this.uRITo = uriTo;
+        this.timestamp = Time.now();
+        this.qoSlevel = QoSLevel.BESTEFFORT;
+        this.priority = new UInteger(0);
+        this.domain = domain;
+        this.networkZone = new Identifier("zone");
+        this.session = SessionType.LIVE;
+        this.sessionName = new Identifier("LIVE");
+        this.interactionType = InteractionType.PUBSUB;
+        this.interactionStage = new UOctet((short) 0);
+        this.transactionId = 1L;
+        this.serviceArea = new UShort(area);
+        this.service = new UShort(service);
+        this.operation = new UShort(operation);
+        this.areaVersion = new UOctet((short) 1);
+        this.isErrorMessage = Boolean.FALSE;
+    }
+
+    @Override
+    public URI getURIFrom() {
+        return uRIFrom;
+    }
+
+    @Override
+    public void setURIFrom(URI newValue) {
+        uRIFrom = newValue;
+    }
+
+    @Override
+    public Blob getAuthenticationId() {
+        return authenticationId;
+    }
+
+    @Override
+    public void setAuthenticationId(Blob newValue) {
+        authenticationId = newValue;
+    }
+
+    @Override
+    public URI getURITo() {
+        return uRITo;
+    }
+
+    @Override
+    public void setURITo(URI newValue) {
+        uRITo = newValue;
+    }
+
+    @Override
+    public Time getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public void setTimestamp(Time newValue) {
+        timestamp = newValue;
+    }
+
+    @Override
+    public QoSLevel getQoSlevel() {
+        return qoSlevel;
+    }
+
+    @Override
+    public void setQoSlevel(QoSLevel newValue) {
+        qoSlevel = newValue;
+    }
+
+    @Override
+    public UInteger getPriority() {
+        return priority;
+    }
+
+    @Override
+    public void setPriority(UInteger newValue) {
+        priority = newValue;
+    }
+
+    @Override
+    public IdentifierList getDomain() {
+        return domain;
+    }
+
+    @Override
+    public void setDomain(IdentifierList newValue) {
+        domain = newValue;
+    }
+
+    @Override
+    public Identifier getNetworkZone() {
+        return networkZone;
+    }
+
+    @Override
+    public void setNetworkZone(Identifier newValue) {
+        networkZone = newValue;
+    }
+
+    @Override
+    public SessionType getSession() {
+        return session;
+    }
+
+    @Override
+    public void setSession(SessionType newValue) {
+        session = newValue;
+    }
+
+    @Override
+    public Identifier getSessionName() {
+        return sessionName;
+    }
+
+    @Override
+    public void setSessionName(Identifier newValue) {
+        sessionName = newValue;
+    }
+
+    @Override
+    public InteractionType getInteractionType() {
+        return interactionType;
+    }
+
+    @Override
+    public void setInteractionType(InteractionType newValue) {
+        interactionType = newValue;
+    }
+
+    @Override
+    public UOctet getInteractionStage() {
+        return interactionStage;
+    }
+
+    @Override
+    public void setInteractionStage(UOctet newValue) {
+        interactionStage = newValue;
+    }
+
+    @Override
+    public Long getTransactionId() {
+        return transactionId;
+    }
+
+    @Override
+    public void setTransactionId(Long newValue) {
+        transactionId = newValue;
+    }
+
+    @Override
+    public UShort getServiceArea() {
+        return serviceArea;
+    }
+
+    @Override
+    public void setServiceArea(UShort newValue) {
+        serviceArea = newValue;
+    }
+
+    @Override
+    public UShort getService() {
+        return service;
+    }
+
+    @Override
+    public void setService(UShort newValue) {
+        service = newValue;
+    }
+
+    @Override
+    public UShort getOperation() {
+        return operation;
+    }
+
+    @Override
+    public void setOperation(UShort newValue) {
+        operation = newValue;
+    }
+
+    @Override
+    public UOctet getAreaVersion() {
+        return areaVersion;
+    }
+
+    @Override
+    public void setAreaVersion(UOctet newValue) {
+        areaVersion = newValue;
+    }
+
+    @Override
+    public Boolean getIsErrorMessage() {
+        return isErrorMessage;
+    }
+
+    @Override
+    public void setIsErrorMessage(Boolean newValue) {
+        isErrorMessage = newValue;
+    }
+}
@@ -0,0 +1,98 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.broker;
+
+import java.util.List;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.transport.MALEncodedBody;
+import org.ccsds.moims.mo.mal.transport.MALEncodedElement;
+import org.ccsds.moims.mo.mal.transport.MALPublishBody;
+
+/**
+ * Simple in-memory PUBLISH body used by the broker tests and benchmarks.
+ */
+public class TestPublishBody implements MALPublishBody {
+
+    private final UpdateHeaderList updateHeaders;
+    private final List[] updateLists;
+
+    /**
+     * Constructor.
+     *
+     * @param updateHeaders The update headers.
+     * @param updateLists The update lists.
+     */
+    public TestPublishBody(UpdateHeaderList updateHeaders, List... updateLists) {
+        this.updateHeaders = updateHeaders;
+        this.updateLists = updateLists;
+    }
+
+    @Override
+    public UpdateHeaderList getUpdateHeaderList() throws MALException {
+        return updateHeaders;
+    }
+
+    @Override
+    public List[] getUpdateLists(List... updateLists) throws MALException {
+        return this.updateLists;
+    }
+
+    @Override
+    public List getUpdateList(int listIndex, List updateList) throws MALException {
+        return updateLists[listIndex];
+    }
+
+    @Override
+    public int getUpdateCount() throws MALException {
+        return updateHeaders.size();
+    }
+
+    @Override
+    public Object getUpdate(int listIndex, int updateIndex) throws MALException {
+        return updateLists[listIndex].get(updateIndex);
+    }
+
+    @Override
+    public MALEncodedElement getEncodedUpdate(int listIndex, int updateIndex) throws MALException {
+        throw new MALException("Not encoded");
+    }
+
+    @Override
+    public int getElementCount() {
+        return updateLists.length + 1;
+    }
+
+    @Override
+    public Object getBodyElement(int index, Object element) throws MALException {
+        return (index == 0) ? updateHeaders : updateLists[index - 1];
+    }
+
+    @Override
+    public MALEncodedElement getEncodedBodyElement(int index) throws MALException {
+        throw new MALException("Not encoded");
+    }
+
+    @Override
+    public MALEncodedBody getEncodedBody() throws MALException {
+        throw new MALException("Not encoded");
+    }
+}
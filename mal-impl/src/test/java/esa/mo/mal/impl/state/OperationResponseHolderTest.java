@@ -0,0 +1,270 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.mal.impl.state;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.MALStandardError;
+import org.ccsds.moims.mo.mal.consumer.MALInteractionAdapter;
+import org.ccsds.moims.mo.mal.consumer.MALInteractionListener;
+import org.ccsds.moims.mo.mal.provider.MALPublishInteractionListener;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.transport.MALEncodedBody;
+import org.ccsds.moims.mo.mal.transport.MALEncodedElement;
+import org.ccsds.moims.mo.mal.transport.MALErrorBody;
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.ccsds.moims.mo.mal.transport.MALMessageBody;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the OperationResponseHolder releases the thread waiting for a
+ * response once the response or the error is signalled, whichever thread
+ * signals it and whether it is signalled before or after the wait, and that
+ * the publish listeners are adapted.
+ */
+public class OperationResponseHolderTest {
+
+    private static final long WAIT_MS = 5000;
+
+    @Test
+    public void testResponseSignalledBeforeTheWait() throws Exception {
+        final OperationResponseHolder holder = new OperationResponseHolder(new MALInteractionAdapter() {
+        });
+        final MALMessage msg = new TestMessage(null);
+
+        holder.signalResponse(false, msg);
+        holder.waitForResponseSignal();
+
+        assertSame(msg, holder.getResult());
+    }
+
+    @Test
+    public void testWaitingThreadIsReleasedBySignal() throws Exception {
+        final OperationResponseHolder holder = new OperationResponseHolder(new MALInteractionAdapter() {
+        });
+        final MALMessage msg = new TestMessage(null);
+        final AtomicReference<MALMessage> received = new AtomicReference<>();
+        final Thread waiter = new Thread(() -> {
+            holder.waitForResponseSignal();
+            try {
+                received.set(holder.getResult());
+            } catch (MALInteractionException | MALException ex) {
+                fail(ex.getMessage());
+            }
+        });
+
+        waiter.start();
+        awaitState(waiter, Thread.State.WAITING);
+        assertNull(received.get());
+
+        holder.signalResponse(false, msg);
+        waiter.join(WAIT_MS);
+
+        assertFalse(waiter.isAlive());
+        assertSame(msg, received.get());
+    }
+
+    @Test
+    public void testErrorIsThrownByGetResult() throws Exception {
+        final OperationResponseHolder holder = new OperationResponseHolder(new MALInteractionAdapter() {
+        });
+        final MALStandardError error = new MALStandardError(new UInteger(65536), null);
+
+        holder.signalResponse(true, new TestMessage(new TestErrorBody(error)));
+        holder.waitForResponseSignal();
+
+        try {
+            holder.getResult();
+            fail("The error should have been thrown");
+        } catch (MALInteractionException ex) {
+            assertSame(error, ex.getStandardError());
+        }
+    }
+
+    @Test
+    public void testInterruptDoesNotReleaseTheWait() throws Exception {
+        final OperationResponseHolder holder = new OperationResponseHolder(new MALInteractionAdapter() {
+        });
+        final MALMessage msg = new TestMessage(null);
+        final AtomicBoolean interruptedAfterWait = new AtomicBoolean();
+        final AtomicReference<MALMessage> received = new AtomicReference<>();
+        final Thread waiter = new Thread(() -> {
+            holder.waitForResponseSignal();
+            interruptedAfterWait.set(Thread.currentThread().isInterrupted());
+            try {
+                received.set(holder.getResult());
+            } catch (MALInteractionException | MALException ex) {
+                fail(ex.getMessage());
+            }
+        });
+
+        waiter.start();
+        awaitState(waiter, Thread.State.WAITING);
+        waiter.interrupt();
+
+        // the waiter goes back to waiting for the response
+        awaitState(waiter, Thread.State.WAITING);
+        assertTrue(waiter.isAlive());
+        assertNull(received.get());
+
+        holder.signalResponse(false, msg);
+        waiter.join(WAIT_MS);
+
+        assertFalse(waiter.isAlive());
+        assertSame(msg, received.get());
+        assertTrue(interruptedAfterWait.get());
+    }
+
+    @Test
+    public void testListenerIsKept() {
+        final MALInteractionListener listener = new MALInteractionAdapter() {
+        };
+
+        assertSame(listener, new OperationResponseHolder(listener).getListener());
+    }
+
+    @Test
+    public void testPublishListenerIsAdapted() throws Exception {
+        final List<String> calls = new ArrayList<>();
+        final OperationResponseHolder holder = new OperationResponseHolder(
+                new MALPublishInteractionListener() {
+            @Override
+            public void publishRegisterAckReceived(MALMessageHeader header, Map qosProperties) {
+                calls.add("registerAck");
+            }
+
+            @Override
+            public void publishRegisterErrorReceived(MALMessageHeader header,
+                    MALErrorBody body, Map qosProperties) {
+                calls.add("registerError");
+            }
+
+            @Override
+            public void publishErrorReceived(MALMessageHeader header,
+                    MALErrorBody body, Map qosProperties) {
+                calls.add("publishError");
+            }
+
+            @Override
+            public void publishDeregisterAckReceived(MALMessageHeader header, Map qosProperties) {
+                calls.add("deregisterAck");
+            }
+        });
+
+        final MALInteractionListener listener = holder.getListener();
+        listener.registerAckReceived(null, null);
+        listener.registerErrorReceived(null, null, null);
+        listener.deregisterAckReceived(null, null);
+        listener.submitAckReceived(null, null);
+        listener.requestResponseReceived(null, null, null);
+
+        assertEquals(3, calls.size());
+        assertEquals("registerAck", calls.get(0));
+        assertEquals("registerError", calls.get(1));
+        assertEquals("deregisterAck", calls.get(2));
+    }
+
+    private static void awaitState(final Thread thread, final Thread.State state)
+            throws InterruptedException {
+        final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(WAIT_MS);
+
+        while (thread.getState() != state) {
+            assertTrue("Thread did not reach " + state, System.nanoTime() < end);
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * A message that only has a body.
+     */
+    private static final class TestMessage implements MALMessage {
+
+        private final MALMessageBody body;
+
+        private TestMessage(final MALMessageBody body) {
+            this.body = body;
+        }
+
+        @Override
+        public MALMessageHeader getHeader() {
+            return null;
+        }
+
+        @Override
+        public MALMessageBody getBody() {
+            return body;
+        }
+
+        @Override
+        public Map getQoSProperties() {
+            return null;
+        }
+
+        @Override
+        public void free() {
+        }
+    }
+
+    /**
+     * An error body that only has the error.
+     */
+    private static final class TestErrorBody implements MALErrorBody {
+
+        private final MALStandardError error;
+
+        private TestErrorBody(final MALStandardError error) {
+            this.error = error;
+        }
+
+        @Override
+        public MALStandardError getError() {
+            return error;
+        }
+
+        @Override
+        public int getElementCount() {
+            return 0;
+        }
+
+        @Override
+        public Object getBodyElement(int index, Object element) {
+            return null;
+        }
+
+        @Override
+        public MALEncodedElement getEncodedBodyElement(int index) {
+            return null;
+        }
+
+        @Override
+        public MALEncodedBody getEncodedBody() {
+            return null;
+        }
+    }
+}
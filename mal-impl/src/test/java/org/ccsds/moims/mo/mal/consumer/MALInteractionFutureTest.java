@@ -0,0 +1,460 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Java Implementation
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package org.ccsds.moims.mo.mal.consumer;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.MALInvokeOperation;
+import org.ccsds.moims.mo.mal.MALProgressOperation;
+import org.ccsds.moims.mo.mal.MALPubSubOperation;
+import org.ccsds.moims.mo.mal.MALRequestOperation;
+import org.ccsds.moims.mo.mal.MALSendOperation;
+import org.ccsds.moims.mo.mal.MALStandardError;
+import org.ccsds.moims.mo.mal.MALSubmitOperation;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.Subscription;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.mal.transport.MALEncodedBody;
+import org.ccsds.moims.mo.mal.transport.MALEncodedElement;
+import org.ccsds.moims.mo.mal.transport.MALErrorBody;
+import org.ccsds.moims.mo.mal.transport.MALMessage;
+import org.ccsds.moims.mo.mal.transport.MALMessageBody;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.ccsds.moims.mo.mal.transport.MALTransmitErrorListener;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the futures of the MALConsumer complete with the last stage of
+ * their interaction, complete exceptionally on every error stage, and that
+ * the intermediate stages are passed to the delegate listener.
+ */
+public class MALInteractionFutureTest {
+
+    private static final MALStandardError ERROR = new MALStandardError(new UInteger(70000), "failed");
+
+    private final TestConsumer consumer = new TestConsumer();
+    private final MALMessageBody body = (MALMessageBody) Proxy.newProxyInstance(
+            MALMessageBody.class.getClassLoader(), new Class<?>[]{MALMessageBody.class},
+            (proxy, method, args) -> null);
+
+    @Test
+    public void testSubmitCompletesOnAck() throws Exception {
+        final CompletableFuture<Void> future = consumer.futureSubmit(null);
+        assertEquals(InteractionType.SUBMIT, consumer.interactionType);
+        assertFalse(future.isDone());
+
+        consumer.listener.submitAckReceived(null, null);
+        assertNull(future.get(0, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testRequestCompletesOnResponse() throws Exception {
+        final CompletableFuture<MALMessageBody> future = consumer.futureRequest(null);
+        assertEquals(InteractionType.REQUEST, consumer.interactionType);
+        assertFalse(future.isDone());
+
+        consumer.listener.requestResponseReceived(null, body, null);
+        assertSame(body, future.get(0, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testInvokeForwardsTheAck() throws Exception {
+        final RecordingListener delegate = new RecordingListener();
+        final CompletableFuture<MALMessageBody> future = consumer.futureInvoke(null, delegate);
+        assertEquals(InteractionType.INVOKE, consumer.interactionType);
+
+        consumer.listener.invokeAckReceived(null, body, null);
+        assertFalse(future.isDone());
+        assertEquals(1, delegate.calls.size());
+        assertEquals("invokeAck", delegate.calls.get(0));
+        assertSame(body, delegate.bodies.get(0));
+
+        consumer.listener.invokeResponseReceived(null, body, null);
+        assertSame(body, future.get(0, TimeUnit.SECONDS));
+        assertEquals(1, delegate.calls.size());
+    }
+
+    @Test
+    public void testProgressForwardsTheAckAndUpdates() throws Exception {
+        final RecordingListener delegate = new RecordingListener();
+        final CompletableFuture<MALMessageBody> future = consumer.futureProgress(null, delegate);
+        assertEquals(InteractionType.PROGRESS, consumer.interactionType);
+
+        consumer.listener.progressAckReceived(null, body, null);
+        consumer.listener.progressUpdateReceived(null, body, null);
+        consumer.listener.progressUpdateReceived(null, body, null);
+        assertFalse(future.isDone());
+        assertEquals(3, delegate.calls.size());
+        assertEquals("progressAck", delegate.calls.get(0));
+        assertEquals("progressUpdate", delegate.calls.get(1));
+        assertEquals("progressUpdate", delegate.calls.get(2));
+
+        final MALMessageBody response = (MALMessageBody) Proxy.newProxyInstance(
+                MALMessageBody.class.getClassLoader(), new Class<?>[]{MALMessageBody.class},
+                (proxy, method, args) -> null);
+        consumer.listener.progressResponseReceived(null, response, null);
+        assertSame(response, future.get(0, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testIntermediateStagesWithoutDelegate() throws Exception {
+        final CompletableFuture<MALMessageBody> future = consumer.futureProgress(null, null);
+
+        consumer.listener.progressAckReceived(null, body, null);
+        consumer.listener.progressUpdateReceived(null, body, null);
+        assertFalse(future.isDone());
+
+        consumer.listener.progressResponseReceived(null, body, null);
+        assertSame(body, future.get(0, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testSubmitError() throws Exception {
+        final CompletableFuture<Void> future = consumer.futureSubmit(null);
+        consumer.listener.submitErrorReceived(null, new TestErrorBody(ERROR), null);
+        assertFailed(future);
+    }
+
+    @Test
+    public void testRequestError() throws Exception {
+        final CompletableFuture<MALMessageBody> future = consumer.futureRequest(null);
+        consumer.listener.requestErrorReceived(null, new TestErrorBody(ERROR), null);
+        assertFailed(future);
+    }
+
+    @Test
+    public void testInvokeErrors() throws Exception {
+        CompletableFuture<MALMessageBody> future = consumer.futureInvoke(null, null);
+        consumer.listener.invokeAckErrorReceived(null, new TestErrorBody(ERROR), null);
+        assertFailed(future);
+
+        future = consumer.futureInvoke(null, null);
+        consumer.listener.invokeAckReceived(null, body, null);
+        consumer.listener.invokeResponseErrorReceived(null, new TestErrorBody(ERROR), null);
+        assertFailed(future);
+    }
+
+    @Test
+    public void testProgressErrors() throws Exception {
+        CompletableFuture<MALMessageBody> future = consumer.futureProgress(null, null);
+        consumer.listener.progressAckErrorReceived(null, new TestErrorBody(ERROR), null);
+        assertFailed(future);
+
+        future = consumer.futureProgress(null, null);
+        consumer.listener.progressAckReceived(null, body, null);
+        consumer.listener.progressUpdateErrorReceived(null, new TestErrorBody(ERROR), null);
+        assertFailed(future);
+
+        future = consumer.futureProgress(null, null);
+        consumer.listener.progressAckReceived(null, body, null);
+        consumer.listener.progressUpdateReceived(null, body, null);
+        consumer.listener.progressResponseErrorReceived(null, new TestErrorBody(ERROR), null);
+        assertFailed(future);
+    }
+
+    @Test
+    public void testUnreadableErrorBody() throws Exception {
+        final MALException unreadable = new MALException("unreadable");
+        final MALInteractionFuture future = new MALInteractionFuture();
+
+        future.requestErrorReceived(null, new TestErrorBody(ERROR) {
+            @Override
+            public MALStandardError getError() throws MALException {
+                throw unreadable;
+            }
+        }, null);
+
+        try {
+            future.getFuture().get(0, TimeUnit.SECONDS);
+            fail("The future should have completed exceptionally");
+        } catch (ExecutionException ex) {
+            assertSame(unreadable, ex.getCause());
+        }
+    }
+
+    @Test
+    public void testLaterStagesDoNotChangeTheResult() throws Exception {
+        final CompletableFuture<MALMessageBody> future = consumer.futureRequest(null);
+
+        consumer.listener.requestResponseReceived(null, body, null);
+        consumer.listener.requestErrorReceived(null, new TestErrorBody(ERROR), null);
+        assertSame(body, future.get(0, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Checks that a future has completed exceptionally with the error.
+     *
+     * @param future The future.
+     */
+    static void assertFailed(final CompletableFuture<?> future) throws Exception {
+        assertTrue(future.isCompletedExceptionally());
+
+        try {
+            future.get(0, TimeUnit.SECONDS);
+            fail("The future should have completed exceptionally");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof MALInteractionException);
+            assertEquals(ERROR.getErrorNumber(),
+                    ((MALInteractionException) ex.getCause()).getStandardError().getErrorNumber());
+        }
+    }
+
+    /**
+     * A listener recording the stages it receives.
+     */
+    private static final class RecordingListener extends MALInteractionAdapter {
+
+        private final List<String> calls = new ArrayList<>();
+        private final List<MALMessageBody> bodies = new ArrayList<>();
+
+        @Override
+        public void invokeAckReceived(MALMessageHeader header, MALMessageBody body, Map qosProperties) {
+            calls.add("invokeAck");
+            bodies.add(body);
+        }
+
+        @Override
+        public void progressAckReceived(MALMessageHeader header, MALMessageBody body, Map qosProperties) {
+            calls.add("progressAck");
+            bodies.add(body);
+        }
+
+        @Override
+        public void progressUpdateReceived(MALMessageHeader header, MALMessageBody body, Map qosProperties) {
+            calls.add("progressUpdate");
+            bodies.add(body);
+        }
+    }
+
+    /**
+     * An error body that only has the error.
+     */
+    private static class TestErrorBody implements MALErrorBody {
+
+        private final MALStandardError error;
+
+        private TestErrorBody(final MALStandardError error) {
+            this.error = error;
+        }
+
+        @Override
+        public MALStandardError getError() throws MALException {
+            return error;
+        }
+
+        @Override
+        public int getElementCount() {
+            return 0;
+        }
+
+        @Override
+        public Object getBodyElement(int index, Object element) {
+            return null;
+        }
+
+        @Override
+        public MALEncodedElement getEncodedBodyElement(int index) {
+            return null;
+        }
+
+        @Override
+        public MALEncodedBody getEncodedBody() {
+            return null;
+        }
+    }
+
+    /**
+     * A consumer that keeps the listener of the last asynchronous interaction
+     * it was asked to initiate, the other calls are not supported.
+     */
+    private static final class TestConsumer implements MALConsumer {
+
+        private InteractionType interactionType;
+        private MALInteractionListener listener;
+
+        private MALMessage initiate(final InteractionType type, final MALInteractionListener l) {
+            interactionType = type;
+            listener = l;
+            return null;
+        }
+
+        @Override
+        public MALMessage asyncSubmit(MALSubmitOperation op, MALInteractionListener l, Object... body) {
+            return initiate(InteractionType.SUBMIT, l);
+        }
+
+        @Override
+        public MALMessage asyncRequest(MALRequestOperation op, MALInteractionListener l, Object... body) {
+            return initiate(InteractionType.REQUEST, l);
+        }
+
+        @Override
+        public MALMessage asyncInvoke(MALInvokeOperation op, MALInteractionListener l, Object... body) {
+            return initiate(InteractionType.INVOKE, l);
+        }
+
+        @Override
+        public MALMessage asyncProgress(MALProgressOperation op, MALInteractionListener l, Object... body) {
+            return initiate(InteractionType.PROGRESS, l);
+        }
+
+        @Override
+        public URI getURI() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Blob getAuthenticationId() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Blob setAuthenticationId(Blob newAuthenticationId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MALMessage send(MALSendOperation op, Object... body) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MALMessage send(MALSendOperation op, MALEncodedBody body) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void submit(MALSubmitOperation op, Object... body) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void submit(MALSubmitOperation op, MALEncodedBody body) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MALMessageBody request(MALRequestOperation op, Object... body) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MALMessageBody request(MALRequestOperation op, MALEncodedBody body) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MALMessageBody invoke(MALInvokeOperation op, MALInteractionListener l, Object... body) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MALMessageBody invoke(MALInvokeOperation op, MALInteractionListener l, MALEncodedBody body) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MALMessageBody progress(MALProgressOperation op, MALInteractionListener l, Object... body) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MALMessageBody progress(MALProgressOperation op, MALInteractionListener l, MALEncodedBody body) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void register(MALPubSubOperation op, Subscription subscription, MALInteractionListener l) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void deregister(MALPubSubOperation op, IdentifierList subscriptionIdList) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MALMessage asyncSubmit(MALSubmitOperation op, MALInteractionListener l, MALEncodedBody body) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MALMessage asyncRequest(MALRequestOperation op, MALInteractionListener l, MALEncodedBody body) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MALMessage asyncInvoke(MALInvokeOperation op, MALInteractionListener l, MALEncodedBody body) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MALMessage asyncProgress(MALProgressOperation op, MALInteractionListener l, MALEncodedBody body) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MALMessage asyncRegister(MALPubSubOperation op, Subscription subscription,
+                MALInteractionListener l) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MALMessage asyncDeregister(MALPubSubOperation op, IdentifierList subscriptionIdList,
+                MALInteractionListener l) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void continueInteraction(
+                org.ccsds.moims.mo.mal.MALOperation op, UOctet lastInteractionStage,
+                org.ccsds.moims.mo.mal.structures.Time initiationTimestamp,
+                Long transactionId, MALInteractionListener l) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setTransmitErrorListener(MALTransmitErrorListener l) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MALTransmitErrorListener getTransmitErrorListener() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -1020,7 +1020,7 @@ public class ArchiveHandlerImpl extends ArchiveInheritanceSkeleton {
         ElementList element = MALObjectTypeRegistry.inst().lookupElementlist(objectType);
 
         try {
-            Long spf = element.getShortForm();
+            long spf = element.getShortForm();
             return (ElementList) registry.createElement(spf);
         } catch (Exception ex1) {
             Logger.getLogger(ArchiveHandlerImpl.class.getName()).log(Level.SEVERE,
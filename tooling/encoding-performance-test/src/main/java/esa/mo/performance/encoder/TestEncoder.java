@@ -22,7 +22,6 @@ package esa.mo.performance.encoder;
 
 import esa.mo.performance.util.TestStructureBuilder;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
 import java.util.Date;
 import java.util.LinkedList;
@@ -30,6 +29,7 @@ import java.util.List;
 import java.util.Map;
 import org.ccsds.moims.mo.mal.MALContextFactory;
 import org.ccsds.moims.mo.mal.MALOperation;
+import org.ccsds.moims.mo.mal.encoding.ByteArrayOutputBuffer;
 import org.ccsds.moims.mo.mal.encoding.MALElementInputStream;
 import org.ccsds.moims.mo.mal.encoding.MALElementOutputStream;
 import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
@@ -157,7 +157,7 @@ public class TestEncoder {
             Object blankComposite, MALEncodingContext ctx) throws Exception {
         System.out.println("Testing  : " + result.encoderName);
 
-        ByteArrayOutputStream baos = testEncoder(result, streamFactory, count, dumpBuf, testComposite, ctx);
+        ByteArrayOutputBuffer baos = testEncoder(result, streamFactory, count, dumpBuf, testComposite, ctx);
 
         if (result.dump) {
             java.io.File outputFile = new java.io.File(result.encoderName + ".txt");
@@ -179,15 +179,16 @@ public class TestEncoder {
         System.out.println("Finished : " + result.encoderName);
     }
 
-    protected static ByteArrayOutputStream testEncoder(Results result,
+    protected static ByteArrayOutputBuffer testEncoder(Results result,
             MALElementStreamFactory streamFactory, int count, boolean dumpBuf,
             Object testComposite, MALEncodingContext ctx) throws Exception {
-        ByteArrayOutputStream baos = null;
+        // the buffer is reused from one encoding to the next, as the transports do
+        ByteArrayOutputBuffer baos = new ByteArrayOutputBuffer();
 
         System.out.println("Starting encoding...");
         long startTime = System.nanoTime();
         for (int i = 0; i < count; i++) {
-            baos = new ByteArrayOutputStream();
+            baos.reset();
             MALElementOutputStream encoder = streamFactory.createOutputStream(baos);
 
             encoder.writeElement(testComposite, ctx);
@@ -199,21 +200,19 @@ public class TestEncoder {
         result.encodeTime = stopTime - startTime;
 
         System.out.println("Finished encoding");
-        if (null != baos) {
-            result.packetSize = baos.size();
+        result.packetSize = baos.size();
 
-            byte[] data = baos.toByteArray();
-            System.out.println("  DUMP : Size " + data.length);
-            if (dumpBuf) {
-                System.out.println("  DUMP : " + byteArrayToHexString(data));
-            }
+        byte[] data = baos.toByteArray();
+        System.out.println("  DUMP : Size " + data.length);
+        if (dumpBuf) {
+            System.out.println("  DUMP : " + byteArrayToHexString(data));
         }
 
         return baos;
     }
 
     protected static boolean testDecoder(Results result, MALElementStreamFactory streamFactory,
-            int count, ByteArrayOutputStream encodedValue, Object testComposite,
+            int count, ByteArrayOutputBuffer encodedValue, Object testComposite,
             Object blankComposite, MALEncodingContext ctx) throws Exception {
         Object rv = null;
 
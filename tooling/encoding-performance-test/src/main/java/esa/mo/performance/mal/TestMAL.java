@@ -37,12 +37,23 @@ import org.ccsds.moims.mo.perftest.perftest.consumer.PerfTestStub;
 import org.ccsds.moims.mo.perftest.perftest.provider.PerfTestInheritanceSkeleton;
 import org.ccsds.moims.mo.perftest.structures.Report;
 
+/**
+ * Measures the time of MAL interactions between a consumer and a provider in
+ * the same process. The first argument selects the protocol, rmi (default) or
+ * maltcp, the second argument the pattern, request (default) or send. The send
+ * pattern measures the throughput of a burst of SEND messages, which is where
+ * the batching of the outgoing messages of the transport applies. The third
+ * argument is the number of interactions and the fourth the number of
+ * parameters per packet.
+ */
 public class TestMAL {
 
     public static void main(String[] args) throws Exception {
-        int runCount = 100000;
+        int runCount = (args.length > 2) ? Integer.parseInt(args[2]) : 100000;
         int pktsPerReport = 1;
-        int paramsPerPkt = 1000;
+        int paramsPerPkt = (args.length > 3) ? Integer.parseInt(args[3]) : 1000;
+        String protocol = (args.length > 0) ? args[0] : "rmi";
+        boolean sendBurst = (args.length > 1) && "send".equals(args[1]);
 
 //    Handler fh = new ConsoleHandler();
 //    fh.setLevel (Level.WARNING);
@@ -59,7 +70,17 @@ public class TestMAL {
         System.setProperty("org.ccsds.moims.mo.mal.transport.gen.wrap", "false");
         System.setProperty("org.ccsds.moims.mo.mal.transport.gen.fastInProcessMessages", "true");
 
-        long result = runtest(runCount, pktsPerReport, paramsPerPkt);
+        if ("maltcp".equals(protocol)) {
+            System.setProperty("org.ccsds.moims.mo.mal.transport.default.protocol", "maltcp://");
+            System.setProperty("org.ccsds.moims.mo.mal.transport.protocol.maltcp", "esa.mo.mal.transport.tcpip.TCPIPTransportFactoryImpl");
+            System.setProperty("org.ccsds.moims.mo.mal.encoding.protocol.maltcp", "esa.mo.mal.encoder.binary.variable.VariableBinaryStreamFactory");
+            System.setProperty("org.ccsds.moims.mo.mal.transport.tcpip.host", "localhost");
+            System.setProperty("org.ccsds.moims.mo.mal.transport.tcpip.port", "61617");
+            // Go through the socket even if the provider is in the same process
+            System.setProperty("org.ccsds.moims.mo.mal.transport.gen.fastInProcessMessages", "false");
+        }
+
+        long result = runtest(runCount, pktsPerReport, paramsPerPkt, sendBurst);
 
         System.out.println("Times are in microseconds");
         System.out.println("               Call time(us)    Packets(PPS)");
@@ -70,6 +91,11 @@ public class TestMAL {
     }
 
     protected static long runtest(int count, int pktsPerReport, int paramsPerPkt) throws Exception {
+        return runtest(count, pktsPerReport, paramsPerPkt, false);
+    }
+
+    protected static long runtest(int count, int pktsPerReport, int paramsPerPkt,
+            boolean sendBurst) throws Exception {
         System.out.println("Creating objects");
         MALContextFactory malFactory = MALContextFactory.newFactory();
         MALContext mal = malFactory.createMALContext(System.getProperties());
@@ -119,8 +145,16 @@ public class TestMAL {
         System.out.println("Testing");
 
         long startTime = System.nanoTime();
-        for (int i = 0; i < count; i++) {
+        if (sendBurst) {
+            for (int i = 0; i < count; i++) {
+                testService.send((Report) testObject);
+            }
+            // The response is only received after all the sends
             testService.request((Report) testObject);
+        } else {
+            for (int i = 0; i < count; i++) {
+                testService.request((Report) testObject);
+            }
         }
         long stopTime = System.nanoTime();
 
@@ -1,10 +1,10 @@
 /* ----------------------------------------------------------------------------
- * Copyright (C) 2015      European Space Agency
+ * Copyright (C) 2024      European Space Agency
  *                         European Space Operations Centre
  *                         Darmstadt
  *                         Germany
  * ----------------------------------------------------------------------------
- * System                : CCSDS MO SPP Transport Framework
+ * System                : CCSDS MO MAL Encoder performance test
  * ----------------------------------------------------------------------------
  * Licensed under the European Space Agency Public License, Version 2.0
  * You may not use this file except in compliance with the License.
@@ -13,50 +13,30 @@
  * You on an "as is" basis and without warranties of any kind, including without
  * limitation merchantability, fitness for a particular purpose, absence of
  * defects or errors, accuracy or non-infringement of intellectual property rights.
- * 
+ *
  * See the License for the specific language governing permissions and
- * limitations under the License. 
+ * limitations under the License.
  * ----------------------------------------------------------------------------
  */
-package esa.mo.mal.transport.spp;
+package esa.mo.performance.jmh;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
 
 /**
- *
- * @author Cesar Coelho
+ * Runs the benchmarks with the JMH command line options, for example
+ * "EncodingBenchmark -p encoding=fixed" to run a subset. The GC profiler is
+ * always added so that the allocation rate (gc.alloc.rate.norm, bytes per
+ * operation) is reported next to the time of each benchmark.
  */
-public class SPPSegment {
-
-    private final long segmentIndex;
-    private final byte[] packet;
-    private final long ssc;
-    private final boolean isFirst;
-    private final boolean isLast;
-
-    SPPSegment(long segmentIndex, int segmentFlags, long ssc, byte[] packet) {
-        this.segmentIndex = segmentIndex;
-        this.ssc = ssc;
-        this.packet = packet;
-        this.isFirst = (1 == segmentFlags);
-        this.isLast = (2 == segmentFlags);
-    }
-
-    public boolean isFirst() {
-        return this.isFirst;
-    }
-
-    public boolean isLast() {
-        return this.isLast;
-    }
-
-    public byte[] getPacket() {
-        return packet;
-    }
-
-    public long getSegmentIndex() {
-        return segmentIndex;
-    }
+public class BenchmarkRunner {
 
-    public long getSSC() {
-        return ssc;
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
     }
 }
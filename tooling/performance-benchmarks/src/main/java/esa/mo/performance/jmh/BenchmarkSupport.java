@@ -0,0 +1,143 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Encoder performance test
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.performance.jmh;
+
+import esa.mo.performance.encoder.DUMMYMessageHeader;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.ccsds.moims.mo.mal.MALContextFactory;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALHelper;
+import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
+import org.ccsds.moims.mo.mal.encoding.MALEncodingContext;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.perftest.perftest.PerfTestHelper;
+
+/**
+ * Shared set up of the benchmarks.
+ */
+final class BenchmarkSupport {
+
+    private static final String PROTOCOL = "benchmark";
+
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Returns the class name of the stream factory of an encoding.
+     *
+     * @param encoding The short name of the encoding.
+     * @return The stream factory class name.
+     */
+    static String streamFactoryClass(String encoding) {
+        switch (encoding) {
+            case "fixed":
+                return "esa.mo.mal.encoder.binary.fixed.FixedBinaryStreamFactory";
+            case "variable":
+                return "esa.mo.mal.encoder.binary.variable.VariableBinaryStreamFactory";
+            case "split":
+                return "esa.mo.mal.encoder.binary.split.SplitBinaryStreamFactory";
+            case "string":
+                return "esa.mo.mal.encoder.string.StringStreamFactory";
+            case "line":
+                return "esa.mo.mal.encoder.line.LineStreamFactory";
+            case "spp-fixed":
+                return "esa.mo.mal.encoder.spp.SPPFixedBinaryStreamFactory";
+            case "spp-variable":
+                return "esa.mo.mal.encoder.spp.SPPVarBinaryStreamFactory";
+            default:
+                throw new IllegalArgumentException("Unknown encoding: " + encoding);
+        }
+    }
+
+    /**
+     * Creates the stream factory of an encoding.
+     *
+     * @param encoding The short name of the encoding.
+     * @return The stream factory.
+     * @throws MALException if the factory cannot be created.
+     */
+    static MALElementStreamFactory createStreamFactory(String encoding) throws MALException {
+        System.setProperty(MALElementStreamFactory.FACTORY_PROP_NAME_PREFIX + "." + PROTOCOL,
+                streamFactoryClass(encoding));
+        return MALElementStreamFactory.newFactory(PROTOCOL, new Properties());
+    }
+
+    /**
+     * Registers the elements of the MAL and of the PerfTest area.
+     *
+     * @throws MALException if the elements cannot be registered.
+     */
+    static void initElements() throws MALException {
+        MALHelper.init(MALContextFactory.getElementsRegistry());
+        org.ccsds.moims.mo.perftest.PerfTestHelper.deepInit(MALContextFactory.getElementsRegistry());
+    }
+
+    /**
+     * Creates the encoding context of a PerfTest SEND message, the one the
+     * bodies of the encoding benchmarks are encoded with.
+     *
+     * @return The encoding context.
+     */
+    static MALEncodingContext createSendContext() {
+        final IdentifierList domain = new IdentifierList();
+        domain.add(new Identifier("ccsds"));
+        domain.add(new Identifier("mission"));
+
+        return new MALEncodingContext(new DUMMYMessageHeader(
+                new URI("from"),
+                new Blob("".getBytes()),
+                new URI("to"),
+                new Time(12345678),
+                QoSLevel.ASSURED,
+                new UInteger(1),
+                domain,
+                new Identifier("network"),
+                SessionType.LIVE,
+                new Identifier("LIVE"),
+                InteractionType.SEND,
+                new UOctet((short) 0),
+                Long.MIN_VALUE,
+                PerfTestHelper.PERFTEST_SERVICE.getAreaNumber(),
+                PerfTestHelper.PERFTEST_SERVICE.getServiceNumber(),
+                PerfTestHelper.PERFTEST_SERVICE.SEND_OP_NUMBER,
+                PerfTestHelper.PERFTEST_SERVICE.getServiceVersion(),
+                Boolean.FALSE), PerfTestHelper.PERFTEST_SERVICE.SEND_OP, 0, null, null);
+    }
+
+    /**
+     * Raises the level of the root logger so that the transports do not log
+     * into the measurements.
+     */
+    static void quietLogging() {
+        Logger.getLogger("").setLevel(Level.WARNING);
+    }
+}
@@ -0,0 +1,105 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Encoder performance test
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.performance.jmh;
+
+import esa.mo.performance.util.TestStructureBuilder;
+import java.util.concurrent.TimeUnit;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.encoding.ByteArrayOutputBuffer;
+import org.ccsds.moims.mo.mal.encoding.MALElementInputStream;
+import org.ccsds.moims.mo.mal.encoding.MALElementOutputStream;
+import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
+import org.ccsds.moims.mo.mal.encoding.MALEncodingContext;
+import org.ccsds.moims.mo.mal.structures.Composite;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.perftest.structures.Report;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encodes and decodes a PerfTest Report, as built by the TestStructureBuilder,
+ * with each of the element stream factories of the bindings. The TCP/IP header
+ * encoding, which only encodes message headers, is covered by
+ * TCPIPHeaderBenchmark.
+ *
+ * The line encoding of the file transport is not in the default set as it does
+ * not decode the empty blobs of the Report, it can still be selected with
+ * "-p encoding=line".
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EncodingBenchmark {
+
+    @Param({"fixed", "variable", "split", "string", "spp-fixed", "spp-variable"})
+    public String encoding;
+
+    @Param({"10", "1000"})
+    public int paramsPerPkt;
+
+    private MALElementStreamFactory factory;
+    private MALEncodingContext ctx;
+    private Composite report;
+    private byte[] encoded;
+    private final ByteArrayOutputBuffer buffer = new ByteArrayOutputBuffer();
+
+    @Setup
+    public void setup() throws MALException {
+        BenchmarkSupport.initElements();
+        factory = BenchmarkSupport.createStreamFactory(encoding);
+        ctx = BenchmarkSupport.createSendContext();
+        report = TestStructureBuilder.createTestMALComposite(
+                new Time(System.currentTimeMillis()), 1, paramsPerPkt);
+
+        encode();
+        encoded = buffer.toByteArray();
+    }
+
+    @Benchmark
+    public int encode() throws MALException {
+        buffer.reset();
+        final MALElementOutputStream os = factory.createOutputStream(buffer);
+        os.writeElement(report, ctx);
+        os.flush();
+        os.close();
+        return buffer.size();
+    }
+
+    @Benchmark
+    public Object decode() throws MALException {
+        final MALElementInputStream is = factory.createInputStream(encoded, 0);
+        final Object rv = is.readElement(new Report(), ctx);
+        is.close();
+        return rv;
+    }
+}
@@ -0,0 +1,230 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Encoder performance test
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.performance.jmh;
+
+import esa.mo.mal.transport.gen.GENMessage;
+import esa.mo.mal.transport.gen.sending.GENMessageSender;
+import esa.mo.mal.transport.spp.SPPBaseTransport;
+import esa.mo.mal.transport.spp.SPPConfiguration;
+import esa.mo.mal.transport.spp.SPPMessage;
+import esa.mo.mal.transport.spp.SPPMessageHeader;
+import esa.mo.mal.transport.spp.SPPSegmentCounter;
+import esa.mo.mal.transport.spp.SPPSourceSequenceCounterSimple;
+import esa.mo.mal.transport.spp.SPPURIRepresentationSimple;
+import esa.mo.performance.util.TestStructureBuilder;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.encoding.MALElementStreamFactory;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.perftest.perftest.PerfTestHelper;
+import org.ccsds.moims.mo.perftest.structures.Report;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of the SPP transport for a PerfTest SEND message
+ * with the body encoded with the fixed or the variable binary encoding. The
+ * packets encoded by the transport are handed straight back to it as received
+ * packets, so that the encoding, the segmentation, the reassembly and the
+ * decoding of the messages are measured without a network in between. The
+ * larger Report does not fit in one packet and is segmented.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SPPLoopbackBenchmark {
+
+    private static final String PROTOCOL = "malspp";
+    private static final int SEGMENT_SIZE = 4096;
+
+    @Param({"fixed", "variable"})
+    public String body;
+
+    @Param({"10", "1000"})
+    public int paramsPerPkt;
+
+    private LoopbackTransport transport;
+    private SPPMessage message;
+    private List<byte[]> packets;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkSupport.quietLogging();
+        BenchmarkSupport.initElements();
+
+        System.setProperty(MALElementStreamFactory.FACTORY_PROP_NAME_PREFIX + "." + PROTOCOL,
+                "esa.mo.mal.encoder.spp.SPPVarBinaryStreamFactory");
+        System.setProperty(MALElementStreamFactory.FACTORY_PROP_NAME_PREFIX + "." + PROTOCOL
+                + "_header", "esa.mo.mal.encoder.spp.SPPFixedBinaryStreamFactory");
+
+        final Map<String, String> properties = new HashMap<String, String>();
+        properties.put("org.ccsds.moims.mo.mal.transport.gen.wrap", "false");
+        properties.put(SPPBaseTransport.APID_QUALIFIER_PROPERTY, "247");
+        final SPPConfiguration configuration = new SPPConfiguration("fixed".equals(body),
+                SEGMENT_SIZE, true, true, false, true, false, false, false, false);
+        transport = new LoopbackTransport(configuration, properties);
+
+        final IdentifierList domain = new IdentifierList();
+        domain.add(new Identifier("ccsds"));
+        domain.add(new Identifier("mission"));
+
+        final SPPMessageHeader header = new SPPMessageHeader(transport.getHeaderFactory(),
+                configuration, null, 247, transport.getURIRepresentation(),
+                new SPPSourceSequenceCounterSimple(),
+                new URI(PROTOCOL + ":247/1/1"),
+                new Blob("".getBytes()),
+                new URI(PROTOCOL + ":247/2/1"),
+                new Time(System.currentTimeMillis()),
+                QoSLevel.ASSURED,
+                new UInteger(1),
+                domain,
+                new Identifier("network"),
+                SessionType.LIVE,
+                new Identifier("LIVE"),
+                InteractionType.SEND,
+                new UOctet((short) 0),
+                1L,
+                PerfTestHelper.PERFTEST_SERVICE.getAreaNumber(),
+                PerfTestHelper.PERFTEST_SERVICE.getServiceNumber(),
+                PerfTestHelper.PERFTEST_SERVICE.SEND_OP_NUMBER,
+                PerfTestHelper.PERFTEST_SERVICE.getServiceVersion(),
+                Boolean.FALSE);
+
+        message = new SPPMessage(transport.getHeaderFactory(), configuration,
+                new SPPSegmentCounter(), false, header, properties,
+                PerfTestHelper.PERFTEST_SERVICE.SEND_OP, transport.getStreamFactory(),
+                TestStructureBuilder.createTestMALComposite(
+                        new Time(System.currentTimeMillis()), 1, paramsPerPkt));
+
+        packets = new ArrayList<byte[]>();
+        for (ByteBuffer packet : transport.encode(message)) {
+            packets.add(toArray(packet));
+        }
+
+        if (null == receive()) {
+            throw new IllegalStateException("The encoded message could not be decoded");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws MALException {
+        transport.close();
+    }
+
+    @Benchmark
+    public GENMessage receive() throws MALException {
+        GENMessage rv = null;
+
+        for (byte[] packet : packets) {
+            rv = transport.createMessage(packet);
+        }
+
+        return rv;
+    }
+
+    @Benchmark
+    public Object loopback() throws Exception {
+        GENMessage rv = null;
+
+        for (ByteBuffer packet : transport.encode(message)) {
+            rv = transport.createMessage(toArray(packet));
+        }
+
+        // decodes the body as a consumer of the message would
+        return rv.getBody().getBodyElement(0, new Report());
+    }
+
+    private static byte[] toArray(ByteBuffer packet) {
+        final byte[] rv = new byte[packet.remaining()];
+        packet.get(rv);
+        return rv;
+    }
+
+    /**
+     * SPP transport that does not send the packets it encodes, they are
+     * returned to the benchmark instead.
+     */
+    private static final class LoopbackTransport extends SPPBaseTransport<byte[]> {
+
+        private LoopbackTransport(SPPConfiguration configuration, Map properties)
+                throws MALException {
+            super(configuration, new SPPURIRepresentationSimple(),
+                    new SPPSourceSequenceCounterSimple(), PROTOCOL, ":", '/', '@',
+                    false, false, null, properties);
+        }
+
+        private List<ByteBuffer> encode(GENMessage msg) throws Exception {
+            return internalEncodeMessage(null, null, null, true, null, msg).getEncodedMessage();
+        }
+
+        private MALElementStreamFactory getHeaderFactory() {
+            return getHeaderStreamFactory();
+        }
+
+        private SPPURIRepresentationSimple getURIRepresentation() {
+            return (SPPURIRepresentationSimple) uriRep;
+        }
+
+        @Override
+        public GENMessage createMessage(byte[] packet) throws MALException {
+            return internalCreateMessage(defaultApidQualifier,
+                    ((packet[0] & 0x07) << 8) | (packet[1] & 0xFF),
+                    (packet[2] & 0xC0) >> 6, packet);
+        }
+
+        @Override
+        protected String createTransportAddress() throws MALException {
+            return "";
+        }
+
+        @Override
+        protected GENMessageSender createMessageSender(GENMessage msg, String remoteRootURI) {
+            throw new UnsupportedOperationException("The packets are not sent");
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Encoder performance test
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.performance.jmh;
+
+import esa.mo.mal.encoder.tcpip.TCPIPFixedBinaryStreamFactory;
+import esa.mo.mal.transport.tcpip.TCPIPMessageHeader;
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.encoding.ByteArrayOutputBuffer;
+import org.ccsds.moims.mo.mal.encoding.MALElementInputStream;
+import org.ccsds.moims.mo.mal.encoding.MALElementOutputStream;
+import org.ccsds.moims.mo.mal.encoding.MALEncodingContext;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.InteractionType;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UOctet;
+import org.ccsds.moims.mo.mal.structures.URI;
+import org.ccsds.moims.mo.perftest.perftest.PerfTestHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encodes and decodes the header of a TCP/IP message. The TCP/IP binding only
+ * uses its own element streams for the message header, the body is encoded
+ * with the fixed binary encoding which EncodingBenchmark covers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TCPIPHeaderBenchmark {
+
+    private final TCPIPFixedBinaryStreamFactory factory = new TCPIPFixedBinaryStreamFactory();
+    private final ByteArrayOutputBuffer buffer = new ByteArrayOutputBuffer();
+    private TCPIPMessageHeader header;
+    private MALEncodingContext ctx;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() throws MALException {
+        BenchmarkSupport.initElements();
+
+        final IdentifierList domain = new IdentifierList();
+        domain.add(new Identifier("ccsds"));
+        domain.add(new Identifier("mission"));
+
+        header = new TCPIPMessageHeader(
+                new URI("maltcp://127.0.0.1:61617"),
+                "Demo",
+                new Blob("".getBytes()),
+                new URI("maltcp://127.0.0.1:61618"),
+                "Demo",
+                new Time(System.currentTimeMillis()),
+                QoSLevel.ASSURED,
+                new UInteger(1),
+                domain,
+                new Identifier("network"),
+                SessionType.LIVE,
+                new Identifier("LIVE"),
+                InteractionType.SEND,
+                new UOctet((short) 0),
+                1234L,
+                PerfTestHelper.PERFTEST_SERVICE.getAreaNumber(),
+                PerfTestHelper.PERFTEST_SERVICE.getServiceNumber(),
+                PerfTestHelper.PERFTEST_SERVICE.SEND_OP_NUMBER,
+                PerfTestHelper.PERFTEST_SERVICE.getServiceVersion(),
+                Boolean.FALSE);
+        ctx = new MALEncodingContext(header, PerfTestHelper.PERFTEST_SERVICE.SEND_OP, 0, null, null);
+
+        encode();
+        encoded = buffer.toByteArray();
+    }
+
+    @Benchmark
+    public int encode() throws MALException {
+        buffer.reset();
+        final MALElementOutputStream os = factory.createOutputStream(buffer);
+        os.writeElement(header, ctx);
+        os.flush();
+        os.close();
+        return buffer.size();
+    }
+
+    @Benchmark
+    public Object decode() throws MALException {
+        final TCPIPMessageHeader blank = new TCPIPMessageHeader();
+        final MALElementInputStream is = factory.createInputStream(
+                new ByteArrayInputStream(encoded));
+        final Object rv = is.readElement(blank, new MALEncodingContext(blank,
+                PerfTestHelper.PERFTEST_SERVICE.SEND_OP, 0, null, null));
+        is.close();
+        return rv;
+    }
+}
@@ -0,0 +1,262 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Encoder performance test
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.performance.jmh;
+
+import esa.mo.performance.util.TestStructureBuilder;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.ccsds.moims.mo.mal.MALContext;
+import org.ccsds.moims.mo.mal.MALContextFactory;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.consumer.MALConsumer;
+import org.ccsds.moims.mo.mal.provider.MALInteraction;
+import org.ccsds.moims.mo.mal.provider.MALProvider;
+import org.ccsds.moims.mo.mal.provider.MALPublishInteractionListener;
+import org.ccsds.moims.mo.mal.structures.AttributeList;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Subscription;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.mal.structures.UpdateHeader;
+import org.ccsds.moims.mo.mal.structures.UpdateHeaderList;
+import org.ccsds.moims.mo.mal.transport.MALErrorBody;
+import org.ccsds.moims.mo.mal.transport.MALMessageHeader;
+import org.ccsds.moims.mo.perftest.perftest.PerfTestHelper;
+import org.ccsds.moims.mo.perftest.perftest.consumer.PerfTestAdapter;
+import org.ccsds.moims.mo.perftest.perftest.consumer.PerfTestStub;
+import org.ccsds.moims.mo.perftest.perftest.provider.MonitorPublisher;
+import org.ccsds.moims.mo.perftest.perftest.provider.PerfTestInheritanceSkeleton;
+import org.ccsds.moims.mo.perftest.structures.Report;
+import org.ccsds.moims.mo.perftest.structures.ReportList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the round trip of the SEND, REQUEST and PubSub interactions between
+ * a consumer and a provider of the PerfTest service in the same process. The
+ * inproc transport passes the messages between the endpoints without encoding
+ * them, rmi and maltcp go through the loopback interface. A SEND completes when
+ * the provider has received it and a PubSub when the consumer has received the
+ * notify of the update.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TransportBenchmark {
+
+    private static final String PROP_PREFIX = "org.ccsds.moims.mo.mal.";
+    private static final long TIMEOUT = 10;
+
+    @Param({"inproc", "rmi", "maltcp"})
+    public String transport;
+
+    @Param({"10", "1000"})
+    public int paramsPerPkt;
+
+    private final Semaphore sent = new Semaphore(0);
+    private final Semaphore notified = new Semaphore(0);
+    private MALContext mal;
+    private PerfTestStub stub;
+    private MonitorPublisher publisher;
+    private Report report;
+    private UpdateHeaderList updateHeaders;
+    private ReportList updates;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkSupport.quietLogging();
+
+        System.setProperty(PROP_PREFIX + "factory.class", "esa.mo.mal.impl.MALContextFactoryImpl");
+        System.setProperty(PROP_PREFIX + "transport.gen.wrap", "false");
+        System.setProperty(PROP_PREFIX + "transport.gen.fastInProcessMessages",
+                String.valueOf("inproc".equals(transport)));
+
+        if ("rmi".equals(transport)) {
+            System.setProperty(PROP_PREFIX + "transport.default.protocol", "rmi://");
+            System.setProperty(PROP_PREFIX + "transport.protocol.rmi",
+                    "esa.mo.mal.transport.rmi.RMITransportFactoryImpl");
+            System.setProperty(PROP_PREFIX + "encoding.protocol.rmi",
+                    BenchmarkSupport.streamFactoryClass("variable"));
+        } else {
+            System.setProperty(PROP_PREFIX + "transport.default.protocol", "maltcp://");
+            System.setProperty(PROP_PREFIX + "transport.protocol.maltcp",
+                    "esa.mo.mal.transport.tcpip.TCPIPTransportFactoryImpl");
+            System.setProperty(PROP_PREFIX + "encoding.protocol.maltcp",
+                    BenchmarkSupport.streamFactoryClass("variable"));
+            System.setProperty(PROP_PREFIX + "transport.tcpip.host", "localhost");
+            System.setProperty(PROP_PREFIX + "transport.tcpip.port", "61617");
+        }
+
+        mal = MALContextFactory.newFactory().createMALContext(System.getProperties());
+        BenchmarkSupport.initElements();
+
+        final IdentifierList domain = new IdentifierList();
+        domain.add(new Identifier("ccsds"));
+        domain.add(new Identifier("mission"));
+        final Identifier network = new Identifier("network");
+
+        final BenchmarkProvider handler = new BenchmarkProvider();
+        final MALProvider provider = mal.createProviderManager().createProvider("Demo",
+                null,
+                PerfTestHelper.PERFTEST_SERVICE,
+                new Blob("".getBytes()),
+                handler,
+                new QoSLevel[]{
+                    QoSLevel.ASSURED
+                },
+                new UInteger(1),
+                System.getProperties(),
+                true,
+                null);
+
+        final MALConsumer consumer = mal.createConsumerManager().createConsumer((String) null,
+                provider.getURI(),
+                provider.getBrokerURI(),
+                PerfTestHelper.PERFTEST_SERVICE,
+                new Blob("".getBytes()),
+                domain,
+                network,
+                SessionType.LIVE,
+                new Identifier("LIVE"),
+                QoSLevel.ASSURED,
+                System.getProperties(),
+                new UInteger(0));
+        stub = new PerfTestStub(consumer);
+
+        publisher = handler.createMonitorPublisher(domain, network, SessionType.LIVE,
+                new Identifier("LIVE"), QoSLevel.ASSURED, System.getProperties(), new UInteger(0));
+        publisher.register(new IdentifierList(), new PublishListener());
+        stub.monitorRegister(new Subscription(new Identifier("SUB"), domain, null),
+                new NotifyAdapter());
+
+        report = (Report) TestStructureBuilder.createTestMALComposite(
+                new Time(System.currentTimeMillis()), 1, paramsPerPkt);
+        updateHeaders = new UpdateHeaderList();
+        updateHeaders.add(new UpdateHeader(new Identifier("source"), null, new AttributeList()));
+        updates = new ReportList();
+        updates.add(report);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        final IdentifierList subscriptions = new IdentifierList();
+        subscriptions.add(new Identifier("SUB"));
+        stub.monitorDeregister(subscriptions);
+        publisher.deregister();
+        publisher.close();
+        mal.close();
+    }
+
+    @Benchmark
+    public void send() throws Exception {
+        stub.send(report);
+        await(sent);
+    }
+
+    @Benchmark
+    public Report request() throws Exception {
+        return stub.request(report);
+    }
+
+    @Benchmark
+    public void pubsub() throws Exception {
+        publisher.publish(updateHeaders, updates);
+        await(notified);
+    }
+
+    private static void await(Semaphore semaphore) throws InterruptedException {
+        if (!semaphore.tryAcquire(TIMEOUT, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("The message was not received within "
+                    + TIMEOUT + " seconds");
+        }
+    }
+
+    private final class BenchmarkProvider extends PerfTestInheritanceSkeleton {
+
+        @Override
+        public void send(Report body0, MALInteraction interaction)
+                throws MALInteractionException, MALException {
+            sent.release();
+        }
+
+        @Override
+        public void send2(org.ccsds.moims.mo.xml.test.Report body0,
+                MALInteraction interaction) throws MALInteractionException, MALException {
+        }
+
+        @Override
+        public Report request(Report body0, MALInteraction interaction)
+                throws MALInteractionException, MALException {
+            return body0;
+        }
+    }
+
+    private final class NotifyAdapter extends PerfTestAdapter {
+
+        @Override
+        public void monitorNotifyReceived(MALMessageHeader msgHeader, Identifier subscriptionId,
+                UpdateHeaderList updateHeaderList, ReportList reportList, Map qosProperties) {
+            notified.release();
+        }
+    }
+
+    private static final class PublishListener implements MALPublishInteractionListener {
+
+        @Override
+        public void publishRegisterAckReceived(MALMessageHeader header, Map qosProperties)
+                throws MALException {
+        }
+
+        @Override
+        public void publishRegisterErrorReceived(MALMessageHeader header, MALErrorBody body,
+                Map qosProperties) throws MALException {
+        }
+
+        @Override
+        public void publishErrorReceived(MALMessageHeader header, MALErrorBody body,
+                Map qosProperties) throws MALException {
+        }
+
+        @Override
+        public void publishDeregisterAckReceived(MALMessageHeader header, Map qosProperties)
+                throws MALException {
+        }
+    }
+}
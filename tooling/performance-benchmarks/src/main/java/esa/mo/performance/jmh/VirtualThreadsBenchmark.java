@@ -0,0 +1,237 @@
+/* ----------------------------------------------------------------------------
+ * Copyright (C) 2024      European Space Agency
+ *                         European Space Operations Centre
+ *                         Darmstadt
+ *                         Germany
+ * ----------------------------------------------------------------------------
+ * System                : CCSDS MO MAL Encoder performance test
+ * ----------------------------------------------------------------------------
+ * Licensed under the European Space Agency Public License, Version 2.0
+ * You may not use this file except in compliance with the License.
+ *
+ * Except as expressly set forth in this License, the Software is provided to
+ * You on an "as is" basis and without warranties of any kind, including without
+ * limitation merchantability, fitness for a particular purpose, absence of
+ * defects or errors, accuracy or non-infringement of intellectual property rights.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ----------------------------------------------------------------------------
+ */
+package esa.mo.performance.jmh;
+
+import esa.mo.mal.transport.gen.util.TransportThreadFactory;
+import esa.mo.performance.util.TestStructureBuilder;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.ccsds.moims.mo.mal.MALContext;
+import org.ccsds.moims.mo.mal.MALContextFactory;
+import org.ccsds.moims.mo.mal.MALException;
+import org.ccsds.moims.mo.mal.MALInteractionException;
+import org.ccsds.moims.mo.mal.consumer.MALConsumer;
+import org.ccsds.moims.mo.mal.provider.MALInteraction;
+import org.ccsds.moims.mo.mal.provider.MALProvider;
+import org.ccsds.moims.mo.mal.structures.Blob;
+import org.ccsds.moims.mo.mal.structures.Identifier;
+import org.ccsds.moims.mo.mal.structures.IdentifierList;
+import org.ccsds.moims.mo.mal.structures.QoSLevel;
+import org.ccsds.moims.mo.mal.structures.SessionType;
+import org.ccsds.moims.mo.mal.structures.Time;
+import org.ccsds.moims.mo.mal.structures.UInteger;
+import org.ccsds.moims.mo.perftest.perftest.PerfTestHelper;
+import org.ccsds.moims.mo.perftest.perftest.consumer.PerfTestStub;
+import org.ccsds.moims.mo.perftest.perftest.provider.PerfTestInheritanceSkeleton;
+import org.ccsds.moims.mo.perftest.structures.Report;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time taken by tens of thousands of concurrent synchronous
+ * REQUEST interactions of the PerfTest service over maltcp, with the transport
+ * and the consumers on platform or on virtual threads. The provider blocks for
+ * a while in each request, as a provider calling another system would.
+ *
+ * With platform threads the requests are issued by a fixed pool of consumer
+ * threads and handled by the fixed dispatcher pool of the transport. With
+ * virtual threads each request is issued from its own virtual thread and the
+ * transport dispatches each message on a new virtual thread, so the number of
+ * interactions in flight is not limited by the pools. The virtual mode needs a
+ * Java 21 runtime, the set up fails on the older ones rather than measuring
+ * platform threads under the virtual name.
+ *
+ * Run it with "VirtualThreadsBenchmark", one fork per mode.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VirtualThreadsBenchmark {
+
+    private static final String PROP_PREFIX = "org.ccsds.moims.mo.mal.";
+    private static final long TIMEOUT = 300;
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    @Param({"10000", "50000"})
+    public int interactions;
+
+    @Param({"10"})
+    public int providerDelayMs;
+
+    @Param({"200"})
+    public int platformConsumers;
+
+    private MALContext mal;
+    private PerfTestStub stub;
+    private Report report;
+    private ExecutorService consumers;
+    private boolean virtual;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkSupport.quietLogging();
+
+        virtual = "virtual".equals(threads);
+
+        if (virtual && (null == TransportThreadFactory.createVirtualThreadFactory("check"))) {
+            throw new IllegalStateException("The virtual mode needs a Java 21 runtime, running on "
+                    + System.getProperty("java.version"));
+        }
+
+        System.setProperty(PROP_PREFIX + "factory.class", "esa.mo.mal.impl.MALContextFactoryImpl");
+        System.setProperty(PROP_PREFIX + "transport.gen.wrap", "false");
+        System.setProperty(PROP_PREFIX + "transport.default.protocol", "maltcp://");
+        System.setProperty(PROP_PREFIX + "transport.protocol.maltcp",
+                "esa.mo.mal.transport.tcpip.TCPIPTransportFactoryImpl");
+        System.setProperty(PROP_PREFIX + "encoding.protocol.maltcp",
+                BenchmarkSupport.streamFactoryClass("variable"));
+        System.setProperty(PROP_PREFIX + "transport.tcpip.host", "localhost");
+        System.setProperty(PROP_PREFIX + "transport.tcpip.port", "61617");
+        System.setProperty(TransportThreadFactory.VIRTUAL_THREADS_PROPERTY, String.valueOf(virtual));
+
+        mal = MALContextFactory.newFactory().createMALContext(System.getProperties());
+        BenchmarkSupport.initElements();
+
+        final IdentifierList domain = new IdentifierList();
+        domain.add(new Identifier("ccsds"));
+        domain.add(new Identifier("mission"));
+
+        final MALProvider provider = mal.createProviderManager().createProvider("Demo",
+                null,
+                PerfTestHelper.PERFTEST_SERVICE,
+                new Blob("".getBytes()),
+                new BlockingProvider(),
+                new QoSLevel[]{
+                    QoSLevel.ASSURED
+                },
+                new UInteger(1),
+                System.getProperties(),
+                false,
+                null);
+
+        final MALConsumer consumer = mal.createConsumerManager().createConsumer((String) null,
+                provider.getURI(),
+                provider.getBrokerURI(),
+                PerfTestHelper.PERFTEST_SERVICE,
+                new Blob("".getBytes()),
+                domain,
+                new Identifier("network"),
+                SessionType.LIVE,
+                new Identifier("LIVE"),
+                QoSLevel.ASSURED,
+                System.getProperties(),
+                new UInteger(0));
+        stub = new PerfTestStub(consumer);
+
+        report = (Report) TestStructureBuilder.createTestMALComposite(
+                new Time(System.currentTimeMillis()), 1, 10);
+
+        if (!virtual) {
+            consumers = Executors.newFixedThreadPool(platformConsumers);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (null != consumers) {
+            consumers.shutdownNow();
+        }
+
+        mal.close();
+    }
+
+    @Benchmark
+    public int requests() throws Exception {
+        final CountDownLatch done = new CountDownLatch(interactions);
+        final AtomicInteger failed = new AtomicInteger();
+        final Runnable request = () -> {
+            try {
+                stub.request(report);
+            } catch (MALInteractionException | MALException ex) {
+                failed.incrementAndGet();
+            } finally {
+                done.countDown();
+            }
+        };
+
+        for (int i = 0; i < interactions; i++) {
+            if (virtual) {
+                TransportThreadFactory.newThread(request, "Consumer", true).start();
+            } else {
+                consumers.execute(request);
+            }
+        }
+
+        if (!done.await(TIMEOUT, TimeUnit.SECONDS)) {
+            throw new IllegalStateException(done.getCount()
+                    + " requests were not answered within " + TIMEOUT + " seconds");
+        }
+
+        if (0 != failed.get()) {
+            throw new IllegalStateException(failed.get() + " requests failed");
+        }
+
+        return interactions;
+    }
+
+    private final class BlockingProvider extends PerfTestInheritanceSkeleton {
+
+        @Override
+        public void send(Report body0, MALInteraction interaction)
+                throws MALInteractionException, MALException {
+        }
+
+        @Override
+        public void send2(org.ccsds.moims.mo.xml.test.Report body0,
+                MALInteraction interaction) throws MALInteractionException, MALException {
+        }
+
+        @Override
+        public Report request(Report body0, MALInteraction interaction)
+                throws MALInteractionException, MALException {
+            try {
+                Thread.sleep(providerDelayMs);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+
+            return body0;
+        }
+    }
+}